@@ -0,0 +1,40 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Entry point of the benchmarks jar. Runs JMH with the given arguments and, unless
+ * a result format or file is given, writes the results as JSON to
+ * jmh-result.json so they can be compared across builds.
+ **/
+public final class BenchmarkMain {
+    static final String DEFAULT_RESULT = "jmh-result.json";
+
+    private BenchmarkMain() {}
+
+    public static void main(String[] args) throws Exception {
+        List<String> jmhArgs = new ArrayList<String>(Arrays.asList(args));
+        if (!jmhArgs.contains("-rf") && !jmhArgs.contains("-rff")) {
+            jmhArgs.add(0, "-rf");
+            jmhArgs.add(1, "json");
+            jmhArgs.add(2, "-rff");
+            jmhArgs.add(3, DEFAULT_RESULT);
+        }
+        org.openjdk.jmh.Main.main(jmhArgs.toArray(new String[jmhArgs.size()]));
+    }
+}
@@ -0,0 +1,145 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian.benchmarks;
+
+import com.google.martian.Client;
+import com.google.martian.Modifier;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs full Client.configure and Client.checkVerifications round trips against
+ * a local com.sun.net.httpserver stand-in for Martian, and the configure calls
+ * that are skipped because the configuration is already applied. The stand-in drains
+ * configuration requests and answers verification requests with a fixed
+ * payload, so the measurements cover the client and the loopback transport.
+ **/
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ClientRoundTripBenchmark {
+    @Param({"1", "4"})
+    public int depth;
+
+    @Param({"0", "1000"})
+    public int failures;
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private Client client;
+    private Modifier tree;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        final byte[] verification = this.failures == 0
+                ? new byte[0]
+                : Payloads.verificationErrors(this.failures).getBytes(StandardCharsets.UTF_8);
+
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        this.server.createContext("/configure", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                drain(exchange.getRequestBody());
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+            }
+        });
+        this.server.createContext("/verify", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                drain(exchange.getRequestBody());
+                if (verification.length == 0) {
+                    exchange.sendResponseHeaders(200, -1);
+                } else {
+                    exchange.sendResponseHeaders(200, verification.length);
+                    OutputStream out = exchange.getResponseBody();
+                    out.write(verification);
+                    out.close();
+                }
+                exchange.close();
+            }
+        });
+        this.serverExecutor = Executors.newFixedThreadPool(4);
+        this.server.setExecutor(this.serverExecutor);
+        this.server.start();
+
+        this.client = new Client("localhost:" + this.server.getAddress().getPort());
+        this.client.setTimeout(10, TimeUnit.SECONDS);
+        this.tree = Trees.fifoGroupTree(this.depth, 4);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.server.stop(0);
+        this.serverExecutor.shutdownNow();
+    }
+
+    /**
+     * Sends the same tree every time, so the call is forced past the check that
+     * skips a configuration identical to the last one applied.
+     **/
+    @Benchmark
+    public void configure() throws IOException {
+        this.client.configure(this.tree, true);
+    }
+
+    /**
+     * Configures the tree last applied, which is hashed and then skipped
+     * without contacting the stand-in.
+     **/
+    @Benchmark
+    public void configureUnchanged() throws IOException {
+        this.client.configure(this.tree);
+    }
+
+    @Benchmark
+    public int checkVerifications() throws IOException {
+        return this.client.checkVerifications().size();
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[8192];
+        while (in.read(buffer) != -1) {
+            // Discard the request body.
+        }
+        in.close();
+    }
+}
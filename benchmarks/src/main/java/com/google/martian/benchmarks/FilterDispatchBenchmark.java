@@ -0,0 +1,72 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian.benchmarks;
+
+import com.google.martian.LocalEngine;
+import com.google.martian.LocalRequest;
+import com.google.martian.LocalResponse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a request and its response through a local engine holding a flat group
+ * of filters, with the filters either visible to the dispatch index or hidden
+ * from it so that every filter is evaluated.
+ **/
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FilterDispatchBenchmark {
+    @Param({"100", "10000"})
+    public int filters;
+
+    @Param({"true", "false"})
+    public boolean indexed;
+
+    private LocalEngine engine;
+    private String url;
+
+    @Setup
+    public void setup() {
+        this.engine = new LocalEngine(Trees.filterGroup(this.filters, this.indexed));
+        int target = this.filters / 2 + 1;
+        this.url = "http://host-" + target + ".example.com/path/" + target + "?q0=v";
+    }
+
+    @Benchmark
+    public int roundTrip() {
+        LocalRequest request = new LocalRequest("GET", this.url);
+        request.addHeader("X-Filter-10", "v");
+        this.engine.modifyRequest(request);
+
+        LocalResponse response = new LocalResponse(request, 200);
+        this.engine.modifyResponse(response);
+        return response.getHeaderNames().size();
+    }
+}
@@ -0,0 +1,94 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian.benchmarks;
+
+import com.google.gson.stream.JsonWriter;
+import com.google.martian.Modifier;
+import com.google.martian.Utf8JsonWriter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares serializing deep FifoGroup trees through Gson's JsonWriter over a
+ * UTF-8 Writer, as Client did originally, with Utf8JsonWriter. Both write to a
+ * byte sink that discards its input.
+ **/
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(org.openjdk.jmh.annotations.Scope.Benchmark)
+public class JsonWriterBenchmark {
+    @Param({"3", "6"})
+    public int depth;
+
+    @Param({"4"})
+    public int width;
+
+    private Modifier tree;
+    private CountingOutputStream out;
+
+    @Setup
+    public void setup() {
+        this.tree = Trees.fifoGroupTree(this.depth, this.width);
+        this.out = new CountingOutputStream();
+    }
+
+    @Benchmark
+    public long gsonJsonWriter() throws IOException {
+        JsonWriter writer =
+                new JsonWriter(new OutputStreamWriter(this.out, StandardCharsets.UTF_8));
+        this.tree.writeJson(writer);
+        writer.flush();
+        return this.out.count;
+    }
+
+    @Benchmark
+    public long utf8JsonWriter() throws IOException {
+        JsonWriter writer = new Utf8JsonWriter(this.out);
+        this.tree.writeJson(writer);
+        writer.close();
+        return this.out.count;
+    }
+
+    static final class CountingOutputStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            this.count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            this.count += len;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian.benchmarks;
+
+import com.google.martian.Client;
+import com.google.martian.LocalProxy;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the client end to end against a LocalProxy in the same JVM: a Client
+ * configures the proxy with a filter group and then checks verifications,
+ * while proxied GET requests travel through the proxy to a local upstream
+ * server. Run with -t to measure proxied traffic under concurrency. The
+ * upstream server runs with Nagle's algorithm disabled, otherwise its split
+ * header and body writes stall every request on a delayed acknowledgement.
+ **/
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dsun.net.httpserver.nodelay=true")
+@State(Scope.Benchmark)
+public class LocalProxyBenchmark {
+    @Param({"10", "1000"})
+    public int filters;
+
+    private HttpServer upstream;
+    private ExecutorService upstreamExecutor;
+    private LocalProxy proxy;
+    private Client client;
+    private OkHttpClient browser;
+    private String url;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        final byte[] body = "hello".getBytes(StandardCharsets.UTF_8);
+        this.upstream = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.upstream.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        this.upstreamExecutor = Executors.newFixedThreadPool(8);
+        this.upstream.setExecutor(this.upstreamExecutor);
+        this.upstream.start();
+
+        this.proxy = new LocalProxy();
+        this.proxy.start();
+
+        this.client = new Client(this.proxy.getAddress());
+        this.client.setTimeout(10, TimeUnit.SECONDS);
+        this.client.configure(Trees.filterGroup(this.filters, true));
+
+        this.browser = new OkHttpClient();
+        this.browser.setProxy(new Proxy(Proxy.Type.HTTP,
+                new InetSocketAddress("127.0.0.1", this.proxy.getPort())));
+        this.url = "http://127.0.0.1:" + this.upstream.getAddress().getPort() + "/path";
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        this.proxy.close();
+        this.upstream.stop(0);
+        this.upstreamExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    public int proxiedGet() throws IOException {
+        Response response = this.browser.newCall(new Request.Builder().url(this.url).build())
+                .execute();
+        response.body().close();
+        return response.code();
+    }
+
+    @Benchmark
+    public int checkVerifications() throws IOException {
+        return this.client.checkVerifications().size();
+    }
+}
@@ -0,0 +1,97 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian.benchmarks;
+
+import com.google.gson.stream.JsonWriter;
+import com.google.martian.ImmutableModifier;
+import com.google.martian.Modifier;
+import com.google.martian.Utf8JsonWriter;
+
+import okio.Buffer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializes FifoGroup trees of UrlFilters and HeaderFilters of varying depth and
+ * width, the way the configure request body does, from an ImmutableModifier
+ * holding the cached message, and the way the client did originally through a
+ * String.
+ **/
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ModifierSerializationBenchmark {
+    @Param({"1", "3", "5"})
+    public int depth;
+
+    @Param({"2", "8"})
+    public int width;
+
+    private Modifier tree;
+    private ImmutableModifier immutableTree;
+    private Buffer sink;
+
+    @Setup
+    public void setup() throws IOException {
+        this.tree = Trees.fifoGroupTree(this.depth, this.width);
+        this.immutableTree = ImmutableModifier.copyOf(this.tree);
+        this.sink = new Buffer();
+    }
+
+    @Benchmark
+    public long utf8ToSink() throws IOException {
+        JsonWriter writer = new Utf8JsonWriter(this.sink.outputStream());
+        this.tree.writeJson(writer);
+        writer.close();
+
+        long size = this.sink.size();
+        this.sink.clear();
+        return size;
+    }
+
+    @Benchmark
+    public long immutableToSink() throws IOException {
+        JsonWriter writer = new Utf8JsonWriter(this.sink.outputStream());
+        this.immutableTree.writeJson(writer);
+        writer.close();
+
+        long size = this.sink.size();
+        this.sink.clear();
+        return size;
+    }
+
+    @Benchmark
+    public int gsonToString() throws IOException {
+        StringWriter stringWriter = new StringWriter();
+        this.tree.writeJson(new JsonWriter(stringWriter));
+        return stringWriter.toString().length();
+    }
+}
@@ -0,0 +1,36 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian.benchmarks;
+
+/**
+ * Builds the Martian responses shared by the benchmarks.
+ **/
+final class Payloads {
+    private Payloads() {}
+
+    /**
+     * Returns a verification response holding count header verification failures.
+     **/
+    static String verificationErrors(int count) {
+        StringBuilder json = new StringBuilder("{\"errors\":[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"message\":\"request(http://www.example.com/").append(i)
+                    .append(") header verify failure: got no header, want Martian-Test header\"}");
+        }
+        return json.append("]}").toString();
+    }
+}
@@ -0,0 +1,121 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian.benchmarks;
+
+import com.google.martian.Client;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of loggers registered with one Client retrieving
+ * and resetting their logs in turn against a local com.sun.net.httpserver
+ * stand-in for Martian. Every logger sends its requests through the client's
+ * connection pool and dispatcher, so adding loggers should not cost new
+ * connections.
+ * <p/>
+ * The stand-in writes response headers and bodies separately, so it runs with
+ * TCP_NODELAY; otherwise every retrieval waits for the client's delayed
+ * acknowledgement and the suite measures little else.
+ **/
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dsun.net.httpserver.nodelay=true")
+@State(Scope.Benchmark)
+public class SharedTransportBenchmark {
+    @Param({"1", "24"})
+    public int loggers;
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private Client client;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        final byte[] logs = "{\"log\":{\"entries\":[]}}".getBytes(StandardCharsets.UTF_8);
+
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        this.server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                drain(exchange.getRequestBody());
+                exchange.sendResponseHeaders(200, logs.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(logs);
+                out.close();
+            }
+        });
+        this.serverExecutor = Executors.newFixedThreadPool(4);
+        this.server.setExecutor(this.serverExecutor);
+        this.server.start();
+
+        this.client = new Client("localhost:" + this.server.getAddress().getPort());
+        this.client.setTimeout(10, TimeUnit.SECONDS);
+        for (int i = 0; i < this.loggers; i++) {
+            this.client.registerLogger("logger" + i, "/logs/" + i + "/reset", "/logs/" + i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.server.stop(0);
+        this.serverExecutor.shutdownNow();
+    }
+
+    /**
+     * Retrieves and then resets the logs of the next logger in turn.
+     **/
+    @Benchmark
+    public String retrieveAndReset() throws IOException {
+        String name = "logger" + this.next;
+        this.next = (this.next + 1) % this.loggers;
+        String logs = this.client.retrieveLogs(name);
+        this.client.resetLogs(name);
+        return logs;
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[8192];
+        while (in.read(buffer) != -1) {
+            // Discard the request body.
+        }
+        in.close();
+    }
+}
@@ -0,0 +1,113 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian.benchmarks;
+
+import com.google.martian.FifoGroup;
+import com.google.martian.HeaderFilter;
+import com.google.martian.HeaderModifier;
+import com.google.martian.Modifier;
+import com.google.martian.QueryStringFilter;
+import com.google.martian.Scope;
+import com.google.martian.UrlFilter;
+
+/**
+ * Builds the modifier trees shared by the benchmarks.
+ **/
+final class Trees {
+    private Trees() {}
+
+    /**
+     * Returns a tree of nested FifoGroups of the given depth. Each group holds
+     * width children, alternating UrlFilters and HeaderFilters around the next
+     * level; the leaves are HeaderModifiers.
+     **/
+    static Modifier fifoGroupTree(int depth, int width) {
+        return fifoGroupTree(depth, width, "0");
+    }
+
+    private static Modifier fifoGroupTree(int depth, int width, String id) {
+        if (depth == 0) {
+            HeaderModifier leaf = new HeaderModifier();
+            leaf.setScope(Scope.REQUEST);
+            leaf.setName("X-Martian-" + id);
+            leaf.setValue("value-" + id);
+            return leaf;
+        }
+
+        FifoGroup group = new FifoGroup();
+        for (int i = 0; i < width; i++) {
+            String childId = id + "." + i;
+            Modifier child = fifoGroupTree(depth - 1, width, childId);
+            if (i % 2 == 0) {
+                UrlFilter filter = new UrlFilter();
+                filter.setHost("host-" + childId + ".example.com");
+                filter.setPath("/path/" + i);
+                filter.setModifier(child);
+                group.addModifier(filter);
+            } else {
+                HeaderFilter filter = new HeaderFilter();
+                filter.setName("X-Filter");
+                filter.setValue(childId);
+                filter.setModifier(child);
+                group.addModifier(filter);
+            }
+        }
+        return group;
+    }
+
+    /**
+     * Returns a FifoGroup of count filters: mostly UrlFilters on distinct
+     * hosts and paths, with every tenth a HeaderFilter and every twentieth a
+     * QueryStringFilter. When indexable is false every filter is wrapped in a
+     * scoped FifoGroup, which hides it from the dispatch index of the local
+     * engine and forces a linear scan.
+     **/
+    static Modifier filterGroup(int count, boolean indexable) {
+        FifoGroup group = new FifoGroup();
+        for (int i = 0; i < count; i++) {
+            HeaderModifier leaf = new HeaderModifier();
+            leaf.setName("X-Martian-" + i);
+            leaf.setValue("value-" + i);
+
+            Modifier filter;
+            if (i % 20 == 0) {
+                QueryStringFilter query = new QueryStringFilter();
+                query.setName("q" + i);
+                query.setModifier(leaf);
+                filter = query;
+            } else if (i % 10 == 0) {
+                HeaderFilter header = new HeaderFilter();
+                header.setName("X-Filter-" + i);
+                header.setModifier(leaf);
+                filter = header;
+            } else {
+                UrlFilter url = new UrlFilter();
+                url.setHost("host-" + i + ".example.com");
+                url.setPath("/path/" + i);
+                url.setModifier(leaf);
+                filter = url;
+            }
+
+            if (indexable) {
+                group.addModifier(filter);
+            } else {
+                FifoGroup wrapper = new FifoGroup();
+                wrapper.setScope(Scope.REQUEST_AND_RESPONSE);
+                wrapper.addModifier(filter);
+                group.addModifier(wrapper);
+            }
+        }
+        return group;
+    }
+}
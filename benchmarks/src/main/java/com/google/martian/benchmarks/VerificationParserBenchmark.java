@@ -0,0 +1,79 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian.benchmarks;
+
+import com.google.martian.VerificationListener;
+import com.google.martian.VerificationParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses verification payloads of increasing size, retaining every failure,
+ * retaining only the first hundred and streaming them to a listener.
+ **/
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class VerificationParserBenchmark {
+    @Param({"100", "10000", "100000"})
+    public int failures;
+
+    private String json;
+    private VerificationParser parser;
+
+    @Setup
+    public void setup() {
+        this.json = Payloads.verificationErrors(this.failures);
+        this.parser = new VerificationParser();
+    }
+
+    @Benchmark
+    public int fromString() throws IOException {
+        return this.parser.fromJson(this.json).size();
+    }
+
+    @Benchmark
+    public int fromReaderRetainingHundred() throws IOException {
+        return this.parser.fromJson(new StringReader(this.json), 100).size();
+    }
+
+    @Benchmark
+    public long toListener() throws IOException {
+        final long[] length = new long[1];
+        this.parser.parse(new StringReader(this.json), new VerificationListener() {
+            @Override
+            public void onFailure(String message) {
+                length[0] += message.length();
+            }
+        });
+        return length[0];
+    }
+}
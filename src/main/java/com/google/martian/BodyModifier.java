@@ -69,4 +69,16 @@ public class BodyModifier implements Modifier {
     public void setScope(Scope scope) {
         this.scope = scope;
     }
+
+    public Scope getScope() {
+        return this.scope;
+    }
+
+    public String getBody() {
+        return this.body;
+    }
+
+    public String getContentType() {
+        return this.contentType;
+    }
 }
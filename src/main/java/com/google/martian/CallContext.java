@@ -0,0 +1,118 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import com.squareup.okhttp.Call;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deadline and cancellation signal shared by the Martian system requests of
+ * one scenario. Calls made with a context fail once its deadline has passed
+ * and are aborted, releasing their connections, when it is cancelled. A
+ * context may be used by any number of calls, concurrently and in sequence.
+ **/
+public final class CallContext {
+  private final long deadlineNanos;
+  private final boolean hasDeadline;
+  private final Set<Call> calls;
+  private volatile boolean cancelled;
+
+  /**
+   * Class constructor. The context has no deadline and only ends when it is
+   * cancelled.
+   **/
+  public CallContext() {
+    this(0, false);
+  }
+
+  private CallContext(long deadlineNanos, boolean hasDeadline) {
+    this.deadlineNanos = deadlineNanos;
+    this.hasDeadline = hasDeadline;
+    this.calls = Collections.newSetFromMap(new ConcurrentHashMap<Call, Boolean>());
+  }
+
+  /**
+   * Returns a context whose deadline is timeout from now.
+   *
+   * @param timeout time the calls of the context may take in total
+   * @param units   units of time measurement
+   * @return context with a deadline
+   **/
+  public static CallContext withTimeout(long timeout, TimeUnit units) {
+    return new CallContext(System.nanoTime() + units.toNanos(timeout), true);
+  }
+
+  /**
+   * Aborts every call in flight with this context and fails calls made with it
+   * from now on.
+   **/
+  public void cancel() {
+    this.cancelled = true;
+    for (Call call : this.calls) {
+      call.cancel();
+    }
+  }
+
+  /**
+   * @return whether the context has been cancelled
+   **/
+  public boolean isCancelled() {
+    return this.cancelled;
+  }
+
+  /**
+   * @return whether the context has a deadline
+   **/
+  public boolean hasDeadline() {
+    return this.hasDeadline;
+  }
+
+  /**
+   * @return whether the deadline of the context has passed
+   **/
+  public boolean isExpired() {
+    return this.hasDeadline && this.deadlineNanos - System.nanoTime() <= 0;
+  }
+
+  /**
+   * Returns the time left until the deadline, or Long.MAX_VALUE if the context
+   * has no deadline.
+   *
+   * @param units units of time measurement
+   * @return time left, never negative
+   **/
+  public long getRemaining(TimeUnit units) {
+    if (!this.hasDeadline) {
+      return Long.MAX_VALUE;
+    }
+    return units.convert(Math.max(0, this.deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+  }
+
+  void attach(Call call) {
+    this.calls.add(call);
+    // cancel() sets the flag before it walks the set, so a call attached
+    // concurrently is either seen by cancel() or sees the flag here.
+    if (this.cancelled) {
+      call.cancel();
+    }
+  }
+
+  void detach(Call call) {
+    this.calls.remove(call);
+  }
+}
@@ -0,0 +1,48 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event of a request sent to the Martian Proxy API, from the start of the
+ * call until its response has been handled.
+ **/
+@Name("com.google.martian.Call")
+@Label("Martian Call")
+@Category({"Martian"})
+@Description("Request sent to the Martian Proxy API")
+final class CallEvent extends Event {
+  @Label("Endpoint")
+  String endpoint;
+
+  @Label("Path")
+  String path;
+
+  @Label("Request Bytes")
+  @DataAmount
+  long requestBytes;
+
+  @Label("Response Bytes")
+  @DataAmount
+  long responseBytes;
+
+  @Label("Outcome")
+  String outcome;
+}
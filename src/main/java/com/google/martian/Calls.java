@@ -0,0 +1,362 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import com.squareup.okhttp.Call;
+import com.squareup.okhttp.Callback;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+
+/**
+ * Runs Martian system requests either blocking or asynchronously, sharing the
+ * response handling between both.
+ **/
+final class Calls {
+  private Calls() {}
+
+  /**
+   * Executes request on the calling thread and returns the handled response.
+   * With a context, the call, including reading the response, is bounded by
+   * its deadline and aborted when it is cancelled. With a probe, the call is
+   * reported to its metrics listener once the response has been handled.
+   *
+   * @param context deadline and cancellation signal of the call, or null
+   * @param probe   probe to report the call to, or null
+   **/
+  static <T> T execute(
+      OkHttpClient client,
+      Request request,
+      final ResponseHandler<T> handler,
+      CallContext context,
+      Probe probe)
+      throws IOException {
+    return open(client, request, new StreamHandler<T>() {
+      @Override
+      public T handle(Response response, OpenCall call) throws IOException {
+        T result = handler.handle(response);
+        call.end(null);
+        return result;
+      }
+    }, context, probe);
+  }
+
+  /**
+   * Executes request on the calling thread for a result that keeps reading
+   * the response body after it is returned, such as a HarEntryIterator. The
+   * call stays open, bounded by the deadline of context and measured by probe,
+   * until the result ends it; if the handler throws, it is ended right away.
+   *
+   * @param context deadline and cancellation signal of the call, or null
+   * @param probe   probe to report the call to, or null
+   **/
+  static <T> T open(
+      OkHttpClient client,
+      Request request,
+      StreamHandler<T> handler,
+      CallContext context,
+      Probe probe)
+      throws IOException {
+    Probe.Measurement measurement = probe == null ? null : probe.start(request);
+    OpenCall call = null;
+    try {
+      if (context != null) {
+        checkActive(context);
+      }
+      call = new OpenCall(
+          newCall(client, measurement == null ? request : measurement.getRequest(), context),
+          context,
+          measurement);
+      Response response = call.call.execute();
+      return handler.handle(measurement == null ? response : measurement.wrap(response), call);
+    } catch (IOException e) {
+      IOException translated = translate(e, context);
+      end(call, measurement, translated);
+      throw translated;
+    } catch (RuntimeException | Error e) {
+      end(call, measurement, e);
+      throw e;
+    }
+  }
+
+  private static void end(OpenCall call, Probe.Measurement measurement, Throwable error) {
+    if (call != null) {
+      call.end(error);
+    } else if (measurement != null) {
+      measurement.finish(error);
+    }
+  }
+
+  /**
+   * Enqueues request on the dispatcher of client and returns a future for the
+   * handled response. The response is read on the dispatcher thread; the future is
+   * completed on executor, or on the dispatcher thread if executor is null.
+   * Cancelling the future cancels the underlying call. Context and probe apply
+   * as for execute.
+   *
+   * @param context deadline and cancellation signal of the call, or null
+   * @param probe   probe to report the call to, or null
+   **/
+  static <T> CompletableFuture<T> enqueue(
+      OkHttpClient client,
+      Request request,
+      final ResponseHandler<T> handler,
+      final Executor executor,
+      final CallContext context,
+      Probe probe) {
+    final CompletableFuture<T> future = new CompletableFuture<T>();
+    final Probe.Measurement measurement = probe == null ? null : probe.start(request);
+    if (context != null) {
+      try {
+        checkActive(context);
+      } catch (IOException e) {
+        if (measurement != null) {
+          measurement.finish(e);
+        }
+        future.completeExceptionally(e);
+        return future;
+      }
+    }
+
+    final OpenCall call = new OpenCall(
+        newCall(client, measurement == null ? request : measurement.getRequest(), context),
+        context,
+        measurement);
+
+    future.whenComplete(new BiConsumer<T, Throwable>() {
+      @Override
+      public void accept(T result, Throwable error) {
+        if (future.isCancelled()) {
+          call.call.cancel();
+        }
+        call.end(error);
+      }
+    });
+
+    call.call.enqueue(new Callback() {
+      @Override
+      public void onFailure(Request request, IOException e) {
+        complete(future, null, translate(e, context), executor);
+      }
+
+      @Override
+      public void onResponse(Response response) {
+        T result;
+        try {
+          result = handler.handle(measurement == null ? response : measurement.wrap(response));
+        } catch (IOException e) {
+          complete(future, null, translate(e, context), executor);
+          return;
+        } catch (Throwable t) {
+          complete(future, null, t, executor);
+          return;
+        }
+        complete(future, result, null, executor);
+      }
+    });
+
+    return future;
+  }
+
+  private static void checkActive(CallContext context) throws IOException {
+    if (context.isCancelled()) {
+      throw new IOException("Canceled");
+    }
+    if (context.isExpired()) {
+      throw new InterruptedIOException("Deadline exceeded");
+    }
+  }
+
+  /**
+   * Creates the call for request. With a deadline, the call runs on a copy of
+   * client whose connect, read and write timeouts do not exceed the time left;
+   * the copy shares the connection pool and dispatcher of client.
+   **/
+  private static Call newCall(OkHttpClient client, Request request, CallContext context) {
+    if (context == null || !context.hasDeadline()) {
+      return client.newCall(request);
+    }
+    long remaining = Math.max(1, context.getRemaining(TimeUnit.MILLISECONDS));
+    OkHttpClient bounded = client.clone();
+    bounded.setConnectTimeout(bound(client.getConnectTimeout(), remaining), TimeUnit.MILLISECONDS);
+    bounded.setReadTimeout(bound(client.getReadTimeout(), remaining), TimeUnit.MILLISECONDS);
+    bounded.setWriteTimeout(bound(client.getWriteTimeout(), remaining), TimeUnit.MILLISECONDS);
+    return bounded.newCall(request);
+  }
+
+  private static long bound(int timeout, long remaining) {
+    // A timeout of 0 means none.
+    return timeout == 0 ? remaining : Math.min(timeout, remaining);
+  }
+
+  private static ScheduledFuture<?> scheduleDeadline(final Call call, CallContext context) {
+    if (!context.hasDeadline()) {
+      return null;
+    }
+    return Deadlines.TIMER.schedule(new Runnable() {
+      @Override
+      public void run() {
+        call.cancel();
+      }
+    }, context.getRemaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Runs task on the timer thread after delay. The task must not block.
+   **/
+  static ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit units) {
+    return Deadlines.TIMER.schedule(task, delay, units);
+  }
+
+  private static IOException translate(IOException e, CallContext context) {
+    if (context != null && context.isExpired() && !context.isCancelled()) {
+      InterruptedIOException timeout = new InterruptedIOException("Deadline exceeded");
+      timeout.initCause(e);
+      return timeout;
+    }
+    return e;
+  }
+
+  private static <T> void complete(
+      final CompletableFuture<T> future,
+      final T result,
+      final Throwable error,
+      Executor executor) {
+    Runnable completion = new Runnable() {
+      @Override
+      public void run() {
+        if (error != null) {
+          future.completeExceptionally(error);
+        } else {
+          future.complete(result);
+        }
+      }
+    };
+
+    if (executor == null) {
+      completion.run();
+      return;
+    }
+    try {
+      executor.execute(completion);
+    } catch (RejectedExecutionException e) {
+      // E.g. the executor has been shut down; the future must still complete.
+      completion.run();
+    }
+  }
+
+  /**
+   * Converts the response of a call into a result that may keep reading the
+   * response body, and so end the call, after it is returned.
+   **/
+  interface StreamHandler<T> {
+    /**
+     * @param call the call, which the result must end once it is done with
+     *             the response body, unless this method throws
+     **/
+    T handle(Response response, OpenCall call) throws IOException;
+  }
+
+  /**
+   * A call from the moment it is made until its response has been read. While
+   * open, the call is attached to its context and cancelled at its deadline;
+   * ending it stops the deadline timer, detaches it and reports it to its
+   * probe. Only the first end counts.
+   **/
+  static final class OpenCall {
+    private final Call call;
+    private final CallContext context;
+    private final Probe.Measurement measurement;
+    private final ScheduledFuture<?> timer;
+    private final AtomicBoolean ended;
+
+    private OpenCall(Call call, CallContext context, Probe.Measurement measurement) {
+      this.call = call;
+      this.context = context;
+      this.measurement = measurement;
+      this.ended = new AtomicBoolean();
+      if (context != null) {
+        context.attach(call);
+        this.timer = scheduleDeadline(call, context);
+      } else {
+        this.timer = null;
+      }
+    }
+
+    /**
+     * Ends the call.
+     *
+     * @param error what the call failed with, or null if it succeeded
+     **/
+    void end(Throwable error) {
+      if (!this.ended.compareAndSet(false, true)) {
+        return;
+      }
+      if (this.timer != null) {
+        this.timer.cancel(false);
+      }
+      if (this.context != null) {
+        this.context.detach(this.call);
+      }
+      if (this.measurement != null) {
+        this.measurement.finish(error);
+      }
+    }
+
+    /**
+     * Ends the call with an error met while reading the response body.
+     *
+     * @return e, or an InterruptedIOException if the deadline of the call
+     *         passed, to be thrown by the caller
+     **/
+    IOException fail(IOException e) {
+      IOException translated = translate(e, this.context);
+      end(translated);
+      return translated;
+    }
+  }
+
+  /**
+   * Holds the timer that cancels calls at their deadline and starts delayed
+   * calls; it is only started when it is first needed.
+   **/
+  private static final class Deadlines {
+    static final ScheduledThreadPoolExecutor TIMER = newTimer();
+
+    private static ScheduledThreadPoolExecutor newTimer() {
+      ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "Martian-deadlines");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+      timer.setRemoveOnCancelPolicy(true);
+      return timer;
+    }
+  }
+}
@@ -14,8 +14,7 @@
 
 package com.google.martian;
 
-import com.google.gson.stream.JsonWriter;
-
+import com.squareup.okhttp.ConnectionPool;
 import com.squareup.okhttp.HttpUrl;
 import com.squareup.okhttp.MediaType;
 import com.squareup.okhttp.OkHttpClient;
@@ -24,15 +23,29 @@ import com.squareup.okhttp.RequestBody;
 import com.squareup.okhttp.Response;
 
 import java.io.IOException;
-import java.io.StringWriter;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
 import java.net.Proxy;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.util.Hashtable;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import javax.net.SocketFactory;
 
 /**
  * Client acts against a known, running instance of a Martian Proxy
@@ -43,34 +56,86 @@ import java.util.concurrent.TimeUnit;
  */
 public class Client {
   public static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+  private static final int DEFAULT_MAX_IDLE_CONNECTIONS = 5;
+  private static final long DEFAULT_KEEP_ALIVE_MINUTES = 5;
+  // Sink of the configuration messages that are only hashed.
+  private static final OutputStream DISCARD = new OutputStream() {
+    @Override
+    public void write(int b) {}
+
+    @Override
+    public void write(byte[] bytes, int offset, int count) {}
+  };
   private OkHttpClient client;
   private String resetVerificationsPath;
   private String checkVerificationsPath;
   private String configurePath;
   private String proxyHost;
-  private Hashtable<String, Logger> loggers;
+  private final Map<String, Logger> loggers;
+  private Executor callbackExecutor;
+  private final AtomicReference<AppliedConfiguration> appliedConfiguration =
+      new AtomicReference<AppliedConfiguration>();
+  private final ClientMetrics metrics = new ClientMetrics();
+  private volatile MetricsListener metricsListener;
+  private final MetricsListener events = new MetricsListener() {
+    @Override
+    public void onCallStarted(Endpoint endpoint) {
+      metrics.onCallStarted(endpoint);
+      MetricsListener listener = metricsListener;
+      if (listener != null) {
+        listener.onCallStarted(endpoint);
+      }
+    }
+
+    @Override
+    public void onCallFinished(Endpoint endpoint, long latencyNanos, long requestBytes,
+        long responseBytes, Throwable error) {
+      metrics.onCallFinished(endpoint, latencyNanos, requestBytes, responseBytes, error);
+      MetricsListener listener = metricsListener;
+      if (listener != null) {
+        listener.onCallFinished(endpoint, latencyNanos, requestBytes, responseBytes, error);
+      }
+    }
+  };
+  private final Probe configureProbe = new Probe(this.events, Endpoint.CONFIGURE);
+  private final Probe checkVerificationsProbe =
+      new Probe(this.events, Endpoint.CHECK_VERIFICATIONS);
+  private final Probe resetVerificationsProbe =
+      new Probe(this.events, Endpoint.RESET_VERIFICATIONS);
+  private volatile boolean coalescing;
+  private volatile long coalescingWindowNanos;
+  private final SingleFlight<List<String>> verificationReads = new SingleFlight<List<String>>();
+  private final Map<String, SingleFlight<String>> logReads =
+      new ConcurrentHashMap<String, SingleFlight<String>>();
+  private final ConfigureBatcher batcher = new ConfigureBatcher(this);
 
   /**
    * Class constructor.
    *
-   * @param uri host:port of running instance of Maritan Proxy to act upon
+   * @param uri host:port of running instance of Maritan Proxy to act upon, optionally
+   *            prefixed with http://
    * @throws URISyntaxException    if uri does not parse successfully
    * @throws MalformedURLException if uri is malformed and cannot be parsed
    **/
   public Client(String uri) throws URISyntaxException, MalformedURLException {
-    URI proxy = URI.create("http://" + uri);
+    URI proxy = URI.create(uri.contains("://") ? uri : "http://" + uri);
     InetSocketAddress addr = InetSocketAddress.createUnresolved(proxy.getHost(), proxy.getPort());
     this.client = new OkHttpClient();
     this.client.setProxy(new Proxy(Proxy.Type.HTTP, addr));
+    this.client.setSocketFactory(new NoDelaySocketFactory(SocketFactory.getDefault()));
+    this.client.setConnectionPool(new ConnectionPool(
+        DEFAULT_MAX_IDLE_CONNECTIONS, TimeUnit.MINUTES.toMillis(DEFAULT_KEEP_ALIVE_MINUTES)));
     this.proxyHost = "martian.proxy";
     this.resetVerificationsPath = "/verify/reset";
     this.checkVerificationsPath = "/verify";
     this.configurePath = "/configure";
-    this.loggers = new Hashtable<String, Logger>();
+    this.loggers = new ConcurrentHashMap<String, Logger>();
   }
 
   /**
-   * Sets the timeout for sending configuration messages to Martian.
+   * Sets the timeout for sending configuration messages to Martian. The timeout
+   * also applies to every logger registered with the client. Calls made with a
+   * CallContext are additionally bounded by its deadline.
    *
    * @param timeout number of time units to wait before timing out
    * @param units   units of time measurement
@@ -81,20 +146,154 @@ public class Client {
     this.client.setWriteTimeout(timeout, units);
   }
 
+  /**
+   * Sets the pool of keep-alive connections to Martian. The pool is shared by
+   * the client and every logger registered with it.
+   *
+   * @param maxIdleConnections maximum number of idle connections kept open
+   * @param keepAlive          time an idle connection is kept open before it is evicted
+   * @param units              units of time measurement
+   **/
+  public void setConnectionPool(int maxIdleConnections, long keepAlive, TimeUnit units) {
+    ConnectionPool pool = new ConnectionPool(maxIdleConnections, units.toMillis(keepAlive));
+    this.client.setConnectionPool(pool);
+  }
+
+  /**
+   * Sets the limits on concurrently executing asynchronous requests. The limits
+   * are shared by the client and every logger registered with it.
+   *
+   * @param maxRequests        maximum number of requests executing at once
+   * @param maxRequestsPerHost maximum number of requests executing at once per host
+   **/
+  public void setMaxRequests(int maxRequests, int maxRequestsPerHost) {
+    this.client.getDispatcher().setMaxRequests(maxRequests);
+    this.client.getDispatcher().setMaxRequestsPerHost(maxRequestsPerHost);
+  }
+
+  /**
+   * Sets the executor that completes the futures returned by the asynchronous
+   * methods of the client. By default futures are completed on the HTTP
+   * dispatcher thread that finished the call, so dependent stages should not
+   * block; set an executor to move them off the dispatcher. Futures whose
+   * completion the executor rejects, e.g. once it has been shut down, are
+   * completed on the dispatcher thread instead.
+   *
+   * @param executor executor to complete futures on, or null for the dispatcher thread
+   **/
+  public void setCallbackExecutor(Executor executor) {
+    this.callbackExecutor = executor;
+  }
+
+  /**
+   * Sets whether concurrent calls to checkVerifications() and
+   * retrieveLogs(name), and their asynchronous variants, share one request to
+   * Martian. While a read is in flight, identical reads wait for it and
+   * receive its result instead of sending their own; the result is shared and
+   * cannot be modified. Reads made with a CallContext or into a stream are
+   * never shared. Off by default.
+   *
+   * @param coalescing whether to share concurrent identical reads
+   **/
+  public void setCoalescing(boolean coalescing) {
+    this.coalescing = coalescing;
+  }
+
+  /**
+   * Sets how long the result of a shared read is reused after it completed,
+   * when coalescing is on. Resetting the verifications or logs discards the
+   * results read before. By default results are only shared while in flight.
+   *
+   * @param freshness time a result is reused for, or 0 to only share reads in flight
+   * @param units     units of time measurement
+   **/
+  public void setCoalescingWindow(long freshness, TimeUnit units) {
+    this.coalescingWindowNanos = units.toNanos(freshness);
+    this.verificationReads.setFreshness(freshness, units);
+    for (SingleFlight<String> reads : this.logReads.values()) {
+      reads.setFreshness(freshness, units);
+    }
+  }
+
+  /**
+   * Returns the built-in metrics of the requests sent to Martian by the client
+   * and its registered loggers.
+   *
+   * @return metrics of the client
+   **/
+  public ClientMetrics getMetrics() {
+    return this.metrics;
+  }
+
+  /**
+   * Sets a listener that is told about every request sent to Martian by the
+   * client and its registered loggers, in addition to the built-in metrics.
+   *
+   * @param listener listener to report requests to, or null for none
+   **/
+  public void setMetricsListener(MetricsListener listener) {
+    this.metricsListener = listener;
+  }
+
   /**
    * Clears any in-memory traffic verification logs.
    *
    * @throws IOException if an error occurs during input or output
    **/
   public void resetVerifications() throws IOException {
-    Request request =
-        new Request.Builder()
-            .url(getMartianUrl(this.resetVerificationsPath))
-            .post(RequestBody.create(JSON, ""))
-            .build();
+    this.verificationReads.invalidate();
+    try {
+      Calls.execute(
+          this.client,
+          newResetVerificationsRequest(),
+          new ResetVerificationsHandler(),
+          null,
+          this.resetVerificationsProbe);
+    } finally {
+      // Reads started while the reset was in flight may predate it.
+      this.verificationReads.invalidate();
+    }
+  }
+
+  /**
+   * Clears any in-memory traffic verification logs within the deadline of
+   * context. The call is aborted if context is cancelled.
+   *
+   * @param context deadline and cancellation signal of the call
+   * @throws InterruptedIOException if the deadline of context passes
+   * @throws IOException if an error occurs during input or output, or context is cancelled
+   **/
+  public void resetVerifications(CallContext context) throws IOException {
+    this.verificationReads.invalidate();
+    try {
+      Calls.execute(
+          this.client,
+          newResetVerificationsRequest(),
+          new ResetVerificationsHandler(),
+          context,
+          this.resetVerificationsProbe);
+    } finally {
+      this.verificationReads.invalidate();
+    }
+  }
 
-    Response response = this.client.newCall(request).execute();
-    response.body().close();
+  /**
+   * Clears any in-memory traffic verification logs without blocking the calling
+   * thread.
+   *
+   * @return future that completes once the verification logs have been cleared
+   **/
+  public CompletableFuture<Void> resetVerificationsAsync() {
+    this.verificationReads.invalidate();
+    CompletableFuture<Void> future = Calls.enqueue(
+        this.client,
+        newResetVerificationsRequest(),
+        new ResetVerificationsHandler(),
+        this.callbackExecutor,
+        null,
+        this.resetVerificationsProbe);
+    future.whenComplete(invalidateOnCompletion(this.verificationReads));
+    return future;
   }
 
   /**
@@ -105,41 +304,349 @@ public class Client {
    * @throws IOException if an error occurs during input or output
    **/
   public List<String> checkVerifications() throws IOException {
-    Request request = new Request.Builder().url(getMartianUrl(this.checkVerificationsPath)).build();
+    if (!this.coalescing) {
+      return checkVerifications(Integer.MAX_VALUE);
+    }
+    return this.verificationReads.get(new SingleFlight.Read<List<String>>() {
+      @Override
+      public List<String> read() throws IOException {
+        return Collections.unmodifiableList(checkVerifications(Integer.MAX_VALUE));
+      }
+    });
+  }
+
+  /**
+   * Returns at most maxFailures of the in-memory traffic verification messages.
+   * Messages beyond the limit are read from Martian and discarded.
+   *
+   * @param maxFailures maximum number of verification messages to return
+   * @return the first maxFailures in-memory traffic verification messages
+   * @throws IOException if an error occurs during input or output
+   **/
+  public List<String> checkVerifications(int maxFailures) throws IOException {
+    return Calls.execute(
+        this.client,
+        newCheckVerificationsRequest(),
+        new CheckVerificationsHandler(maxFailures),
+        null,
+        this.checkVerificationsProbe);
+  }
 
-    Response response = this.client.newCall(request).execute();
-    if (!response.isSuccessful()) {
-      throw new IOException("Error on GET " + this.checkVerificationsPath + ": " + response);
+  /**
+   * Streams the in-memory traffic verification messages to listener as they
+   * are read from Martian, without retaining them.
+   *
+   * @param listener receiver of the verification messages
+   * @return number of verification messages read
+   * @throws IOException if an error occurs during input or output
+   **/
+  public long checkVerifications(VerificationListener listener) throws IOException {
+    return Calls.execute(
+        this.client,
+        newCheckVerificationsRequest(),
+        new StreamVerificationsHandler(listener),
+        null,
+        this.checkVerificationsProbe);
+  }
+
+  /**
+   * Returns the in-memory list of traffic verification messages, retrieved
+   * within the deadline of context. The call is aborted if context is
+   * cancelled.
+   *
+   * @param context deadline and cancellation signal of the call
+   * @return all in-memory traffic verification messages
+   * @throws InterruptedIOException if the deadline of context passes
+   * @throws IOException if an error occurs during input or output, or context is cancelled
+   **/
+  public List<String> checkVerifications(CallContext context) throws IOException {
+    return Calls.execute(
+        this.client,
+        newCheckVerificationsRequest(),
+        new CheckVerificationsHandler(Integer.MAX_VALUE),
+        context,
+        this.checkVerificationsProbe);
+  }
+
+  /**
+   * Retrieves the in-memory list of traffic verification messages without
+   * blocking the calling thread.
+   *
+   * @return future of all in-memory traffic verification messages
+   **/
+  public CompletableFuture<List<String>> checkVerificationsAsync() {
+    if (!this.coalescing) {
+      return startCheckVerifications();
     }
+    return this.verificationReads.getAsync(new SingleFlight.AsyncRead<List<String>>() {
+      @Override
+      public CompletableFuture<List<String>> start() {
+        return startCheckVerifications().thenApply(
+            new Function<List<String>, List<String>>() {
+              @Override
+              public List<String> apply(List<String> failures) {
+                return Collections.unmodifiableList(failures);
+              }
+            });
+      }
+    });
+  }
 
-    String json = response.body().string();
-    response.body().close();
+  private CompletableFuture<List<String>> startCheckVerifications() {
+    return Calls.enqueue(
+        this.client,
+        newCheckVerificationsRequest(),
+        new CheckVerificationsHandler(Integer.MAX_VALUE),
+        this.callbackExecutor,
+        null,
+        this.checkVerificationsProbe);
+  }
 
-    VerificationParser parser = new VerificationParser();
-    return parser.fromJson(json);
+  /**
+   * Retrieves the in-memory list of traffic verification messages without
+   * blocking the calling thread. The future fails with an
+   * InterruptedIOException once the deadline of context passes.
+   *
+   * @param context deadline and cancellation signal of the call
+   * @return future of all in-memory traffic verification messages
+   **/
+  public CompletableFuture<List<String>> checkVerificationsAsync(CallContext context) {
+    return Calls.enqueue(
+        this.client,
+        newCheckVerificationsRequest(),
+        new CheckVerificationsHandler(Integer.MAX_VALUE),
+        this.callbackExecutor,
+        context,
+        this.checkVerificationsProbe);
   }
 
   /**
    * Configures a running instance of Martian with a modifier. Subsequent
-   * calls wil overwrite any previous configurations.
+   * calls wil overwrite any previous configurations. The call is skipped if the
+   * serialized modifier is identical to the configuration last applied by this
+   * client.
    *
    * @param  modifier    Martian request or response modifier
    * @throws IOException if an error occurs during input or output
    **/
   public void configure(Modifier modifier) throws IOException {
-    StringWriter stringWriter = new StringWriter();
-    JsonWriter writer = new JsonWriter(stringWriter);
-    modifier.writeJson(writer);
+    configure(modifier, false);
+  }
+
+  /**
+   * Configures a running instance of Martian with a modifier. Subsequent
+   * calls wil overwrite any previous configurations.
+   *
+   * @param  modifier    Martian request or response modifier
+   * @param  force       whether to send the configuration even if it is identical
+   *                     to the configuration last applied by this client
+   * @throws IOException if an error occurs during input or output
+   **/
+  public void configure(Modifier modifier, boolean force) throws IOException {
+    byte[] digest = digest(modifier);
+    if (!force && isApplied(digest)) {
+      return;
+    }
+
+    AppliedConfiguration pending = new AppliedConfiguration(null);
+    this.appliedConfiguration.set(pending);
+    Calls.execute(
+        this.client,
+        newConfigureRequest(modifier),
+        new ConfigureHandler(pending, digest),
+        null,
+        this.configureProbe);
+  }
+
+  /**
+   * Configures a running instance of Martian with a modifier within the
+   * deadline of context. The call is aborted if context is cancelled, and is
+   * skipped if the serialized modifier is identical to the configuration last
+   * applied by this client.
+   *
+   * @param  modifier Martian request or response modifier
+   * @param  context  deadline and cancellation signal of the call
+   * @throws InterruptedIOException if the deadline of context passes
+   * @throws IOException if an error occurs during input or output, or context is cancelled
+   **/
+  public void configure(Modifier modifier, CallContext context) throws IOException {
+    configure(modifier, false, context);
+  }
+
+  /**
+   * Configures a running instance of Martian with a modifier within the
+   * deadline of context. The call is aborted if context is cancelled.
+   *
+   * @param  modifier Martian request or response modifier
+   * @param  force    whether to send the configuration even if it is identical
+   *                  to the configuration last applied by this client
+   * @param  context  deadline and cancellation signal of the call
+   * @throws InterruptedIOException if the deadline of context passes
+   * @throws IOException if an error occurs during input or output, or context is cancelled
+   **/
+  public void configure(Modifier modifier, boolean force, CallContext context)
+      throws IOException {
+    byte[] digest = digest(modifier);
+    if (!force && isApplied(digest)) {
+      return;
+    }
+
+    AppliedConfiguration pending = new AppliedConfiguration(null);
+    this.appliedConfiguration.set(pending);
+    Calls.execute(
+        this.client,
+        newConfigureRequest(modifier),
+        new ConfigureHandler(pending, digest),
+        context,
+        this.configureProbe);
+  }
+
+  /**
+   * Configures a running instance of Martian with a modifier without blocking
+   * the calling thread. Subsequent calls wil overwrite any previous
+   * configurations. The call is skipped if the serialized modifier is identical
+   * to the configuration last applied by this client.
+   * <p/>
+   * The modifier is streamed into the request when it is sent, so it must not
+   * be changed until the returned future completes. Pass an ImmutableModifier,
+   * or use configureBatched, to hand over a snapshot instead.
+   *
+   * @param  modifier Martian request or response modifier
+   * @return future that completes once Martian has accepted the configuration
+   **/
+  public CompletableFuture<Void> configureAsync(Modifier modifier) {
+    return configureAsync(modifier, false);
+  }
+
+  /**
+   * Configures a running instance of Martian with a modifier without blocking
+   * the calling thread. Subsequent calls wil overwrite any previous
+   * configurations.
+   *
+   * @param  modifier Martian request or response modifier
+   * @param  force    whether to send the configuration even if it is identical
+   *                  to the configuration last applied by this client
+   * @return future that completes once Martian has accepted the configuration
+   **/
+  public CompletableFuture<Void> configureAsync(Modifier modifier, boolean force) {
+    byte[] digest;
+    try {
+      digest = digest(modifier);
+    } catch (IOException e) {
+      CompletableFuture<Void> future = new CompletableFuture<Void>();
+      future.completeExceptionally(e);
+      return future;
+    }
+    if (!force && isApplied(digest)) {
+      return CompletableFuture.completedFuture(null);
+    }
+
+    AppliedConfiguration pending = new AppliedConfiguration(null);
+    this.appliedConfiguration.set(pending);
+    return Calls.enqueue(
+        this.client,
+        newConfigureRequest(modifier),
+        new ConfigureHandler(pending, digest),
+        this.callbackExecutor,
+        null,
+        this.configureProbe);
+  }
+
+  /**
+   * Configures a running instance of Martian with a modifier without blocking
+   * the calling thread. The future fails with an InterruptedIOException once
+   * the deadline of context passes. The call is skipped if the serialized
+   * modifier is identical to the configuration last applied by this client.
+   *
+   * @param  modifier Martian request or response modifier
+   * @param  context  deadline and cancellation signal of the call
+   * @return future that completes once Martian has accepted the configuration
+   **/
+  public CompletableFuture<Void> configureAsync(Modifier modifier, CallContext context) {
+    return configureAsync(modifier, false, context);
+  }
+
+  /**
+   * Configures a running instance of Martian with a modifier without blocking
+   * the calling thread. The future fails with an InterruptedIOException once
+   * the deadline of context passes.
+   *
+   * @param  modifier Martian request or response modifier
+   * @param  force    whether to send the configuration even if it is identical
+   *                  to the configuration last applied by this client
+   * @param  context  deadline and cancellation signal of the call
+   * @return future that completes once Martian has accepted the configuration
+   **/
+  public CompletableFuture<Void> configureAsync(
+      Modifier modifier, boolean force, CallContext context) {
+    byte[] digest;
+    try {
+      digest = digest(modifier);
+    } catch (IOException e) {
+      CompletableFuture<Void> future = new CompletableFuture<Void>();
+      future.completeExceptionally(e);
+      return future;
+    }
+    if (!force && isApplied(digest)) {
+      return CompletableFuture.completedFuture(null);
+    }
 
-    RequestBody body = RequestBody.create(JSON, stringWriter.toString());
-    Request request =
-        new Request.Builder().url(getMartianUrl(this.configurePath)).post(body).build();
+    AppliedConfiguration pending = new AppliedConfiguration(null);
+    this.appliedConfiguration.set(pending);
+    return Calls.enqueue(
+        this.client,
+        newConfigureRequest(modifier),
+        new ConfigureHandler(pending, digest),
+        this.callbackExecutor,
+        context,
+        this.configureProbe);
+  }
 
-    Response response = this.client.newCall(request).execute();
-    response.body().close();
-    if (!response.isSuccessful()) {
-      throw new IOException("Error on POST " + this.configurePath + ": " + response);
+  /**
+   * Queues a configuration of the running instance of Martian for a batched
+   * push and returns without blocking. The modifier is copied, so it may be
+   * changed right after this call. Updates queued while a push is in flight
+   * or within the minimum push interval are merged: only the latest one is
+   * sent, and at most one push is in flight at a time. Configurations sent
+   * with configure while batched updates are pending may be overwritten by
+   * them.
+   *
+   * @param  modifier Martian request or response modifier
+   * @return future that completes once Martian has accepted this configuration
+   *         or a newer one queued after it, or fails if that push fails
+   **/
+  public CompletableFuture<Void> configureBatched(Modifier modifier) {
+    ImmutableModifier copy;
+    try {
+      copy = ImmutableModifier.copyOf(modifier);
+    } catch (IOException e) {
+      CompletableFuture<Void> future = new CompletableFuture<Void>();
+      future.completeExceptionally(e);
+      return future;
     }
+    return this.batcher.submit(copy);
+  }
+
+  /**
+   * Sets the minimum time between the starts of two batched configuration
+   * pushes, which bounds the rate at which configureBatched contacts Martian.
+   * Defaults to 0, so the next push starts as soon as the previous one
+   * completes.
+   *
+   * @param interval minimum number of time units between pushes
+   * @param units    units of time measurement
+   **/
+  public void setConfigureInterval(long interval, TimeUnit units) {
+    this.batcher.setMinInterval(interval, units);
+  }
+
+  /**
+   * Forgets the configuration last applied by this client, so that the next
+   * call to configure is sent even if it is identical. Call this when Martian
+   * has been restarted or configured by other means.
+   **/
+  public void invalidateConfiguration() {
+    this.appliedConfiguration.set(null);
   }
 
   /**
@@ -150,8 +657,118 @@ public class Client {
    * @return traffic logs in HAR format
    * @throws IOException if an error occurs during input or output
    **/
-  public String retrieveLogs(String name) throws IOException {
-    return this.loggers.get(name).retrieveLogs();
+  public String retrieveLogs(final String name) throws IOException {
+    if (!this.coalescing) {
+      return this.loggers.get(name).retrieveLogs();
+    }
+    return logReads(name).get(new SingleFlight.Read<String>() {
+      @Override
+      public String read() throws IOException {
+        return loggers.get(name).retrieveLogs();
+      }
+    });
+  }
+
+  /**
+   * Streams the in-memory traffic logs in HAR format to out without holding
+   * them in memory. out is flushed but not closed.
+   *
+   * @param name unique name of log
+   * @param out  stream to copy the logs to
+   * @return number of bytes copied
+   * @throws IOException if an error occurs during input or output
+   **/
+  public long retrieveLogs(String name, OutputStream out) throws IOException {
+    return this.loggers.get(name).retrieveLogs(out);
+  }
+
+  /**
+   * Streams the in-memory traffic logs in HAR format to the file at path,
+   * replacing any existing content.
+   *
+   * @param name unique name of log
+   * @param path file to write the logs to
+   * @return number of bytes written
+   * @throws IOException if an error occurs during input or output
+   **/
+  public long retrieveLogs(String name, Path path) throws IOException {
+    return this.loggers.get(name).retrieveLogs(path);
+  }
+
+  /**
+   * Streams the in-memory traffic logs in HAR format to reader as they are
+   * received.
+   *
+   * @param name   unique name of log
+   * @param reader consumer of the logs
+   * @return result of reader
+   * @throws IOException if an error occurs during input or output
+   **/
+  public <T> T retrieveLogs(String name, LogReader<T> reader) throws IOException {
+    return this.loggers.get(name).retrieveLogs(reader);
+  }
+
+  /**
+   * Returns an iterator that pulls the entries of the in-memory traffic logs
+   * one at a time as they are read. The iterator must be closed.
+   *
+   * @param name      unique name of log
+   * @param predicate entries to return, or null to return every entry
+   * @return iterator over the accepted log entries
+   * @throws IOException if an error occurs during input or output
+   **/
+  public HarEntryIterator retrieveEntries(String name, HarEntryPredicate predicate)
+      throws IOException {
+    return this.loggers.get(name).retrieveEntries(predicate);
+  }
+
+  /**
+   * Returns an iterator that pulls the entries of the in-memory traffic logs
+   * one at a time as they are read. Reading the entries is bounded by the
+   * deadline of context and aborted if it is cancelled, until the iterator has
+   * read the last entry or is closed. The iterator must be closed.
+   *
+   * @param name      unique name of log
+   * @param predicate entries to return, or null to return every entry
+   * @param context   deadline and cancellation signal of the call
+   * @return iterator over the accepted log entries
+   * @throws InterruptedIOException if the deadline of context passes
+   * @throws IOException if an error occurs during input or output, or context is cancelled
+   **/
+  public HarEntryIterator retrieveEntries(
+      String name, HarEntryPredicate predicate, CallContext context) throws IOException {
+    return this.loggers.get(name).retrieveEntries(predicate, context);
+  }
+
+  /**
+   * Returns a tail that follows the in-memory traffic logs, emitting only the
+   * entries captured since its previous poll.
+   *
+   * @param name      unique name of log
+   * @param predicate entries to emit, or null to emit every new entry
+   * @return tail of the log
+   **/
+  public HarTail tailLogs(String name, HarEntryPredicate predicate) {
+    return new HarTail(this.loggers.get(name), predicate);
+  }
+
+  /**
+   * Retrieves the in-memory traffic logs in HAR format without blocking the
+   * calling thread.
+   *
+   * @param name unique name of log
+   * @return future of the traffic logs in HAR format
+   **/
+  public CompletableFuture<String> retrieveLogsAsync(final String name) {
+    if (!this.coalescing) {
+      return this.loggers.get(name).retrieveLogsAsync(this.callbackExecutor);
+    }
+    return logReads(name).getAsync(new SingleFlight.AsyncRead<String>() {
+      @Override
+      public CompletableFuture<String> start() {
+        return loggers.get(name).retrieveLogsAsync(callbackExecutor);
+      }
+    });
   }
 
   /**
@@ -161,12 +778,34 @@ public class Client {
    * @throws IOException if an error occurs during input or output
    **/
   public void resetLogs(String name) throws IOException {
-    this.loggers.get(name).resetLogs();
+    SingleFlight<String> reads = logReads(name);
+    reads.invalidate();
+    try {
+      this.loggers.get(name).resetLogs();
+    } finally {
+      reads.invalidate();
+    }
+  }
+
+  /**
+   * Clears in-memory traffic logs based on name without blocking the calling
+   * thread.
+   *
+   * @param name unique name of log.
+   * @return future that completes once the logs have been cleared
+   **/
+  public CompletableFuture<Void> resetLogsAsync(String name) {
+    SingleFlight<String> reads = logReads(name);
+    reads.invalidate();
+    CompletableFuture<Void> future = this.loggers.get(name).resetLogsAsync(this.callbackExecutor);
+    future.whenComplete(invalidateOnCompletion(reads));
+    return future;
   }
 
 
   /**
    * Registers a logger with the client with the paths for retrieval and clearing the logs.
+   * The logger sends its requests through the client's connection pool and dispatcher.
    *
    * @param name name of the logger which is unique to the client
    * @param resetPath path to send a POST request to that clears in-memory logs
@@ -174,7 +813,8 @@ public class Client {
    **/
   public void registerLogger(String name, String resetPath, String retrievePath)
       throws MalformedURLException {
-    Logger logger = new Logger(getMartianUrl(resetPath), getMartianUrl(retrievePath));
+    Logger logger =
+        new Logger(getMartianUrl(resetPath), getMartianUrl(retrievePath), this.client, this.events);
     this.loggers.put(name, logger);
   }
 
@@ -185,6 +825,7 @@ public class Client {
    **/
   public void deregisterLogger(String name) {
     this.loggers.remove(name);
+    this.logReads.remove(name);
     }
 
   /**
@@ -236,4 +877,161 @@ public class Client {
 
     return urlBuilder.build().toString();
   }
+
+  private Request newResetVerificationsRequest() {
+    return new Request.Builder()
+        .url(getMartianUrl(this.resetVerificationsPath))
+        .post(RequestBody.create(JSON, ""))
+        .build();
+  }
+
+  private Request newCheckVerificationsRequest() {
+    return new Request.Builder().url(getMartianUrl(this.checkVerificationsPath)).build();
+  }
+
+  private Request newConfigureRequest(Modifier modifier) {
+    RequestBody body = new ModifierRequestBody(modifier);
+    return new Request.Builder().url(getMartianUrl(this.configurePath)).post(body).build();
+  }
+
+  private static class ResetVerificationsHandler implements ResponseHandler<Void> {
+    @Override
+    public Void handle(Response response) throws IOException {
+      response.body().close();
+      return null;
+    }
+  }
+
+  private class CheckVerificationsHandler implements ResponseHandler<List<String>> {
+    private final int maxFailures;
+
+    CheckVerificationsHandler(int maxFailures) {
+      this.maxFailures = maxFailures;
+    }
+
+    @Override
+    public List<String> handle(Response response) throws IOException {
+      try {
+        if (!response.isSuccessful()) {
+          throw new IOException("Error on GET " + checkVerificationsPath + ": " + response);
+        }
+
+        VerificationParser parser = new VerificationParser();
+        return parser.fromJson(response.body().charStream(), this.maxFailures);
+      } finally {
+        response.body().close();
+      }
+    }
+  }
+
+  private class StreamVerificationsHandler implements ResponseHandler<Long> {
+    private final VerificationListener listener;
+
+    StreamVerificationsHandler(VerificationListener listener) {
+      this.listener = listener;
+    }
+
+    @Override
+    public Long handle(Response response) throws IOException {
+      try {
+        if (!response.isSuccessful()) {
+          throw new IOException("Error on GET " + checkVerificationsPath + ": " + response);
+        }
+
+        VerificationParser parser = new VerificationParser();
+        return parser.parse(response.body().charStream(), this.listener);
+      } finally {
+        response.body().close();
+      }
+    }
+  }
+
+  private SingleFlight<String> logReads(String name) {
+    SingleFlight<String> reads = this.logReads.get(name);
+    if (reads == null) {
+      SingleFlight<String> created = new SingleFlight<String>();
+      created.setFreshness(this.coalescingWindowNanos, TimeUnit.NANOSECONDS);
+      reads = this.logReads.putIfAbsent(name, created);
+      if (reads == null) {
+        reads = created;
+      }
+    }
+    return reads;
+  }
+
+  private static <T> BiConsumer<T, Throwable> invalidateOnCompletion(
+      final SingleFlight<?> reads) {
+    return new BiConsumer<T, Throwable>() {
+      @Override
+      public void accept(T result, Throwable error) {
+        reads.invalidate();
+      }
+    };
+  }
+
+  private boolean isApplied(byte[] digest) {
+    AppliedConfiguration applied = this.appliedConfiguration.get();
+    return applied != null
+        && applied.digest != null
+        && MessageDigest.isEqual(applied.digest, digest);
+  }
+
+  /**
+   * Returns the SHA-256 digest of the JSON configuration message of modifier.
+   * The message is streamed into the digest rather than buffered, so hashing
+   * a large tree takes no more memory than sending it; the cached message of
+   * an ImmutableModifier is hashed as is.
+   **/
+  private static byte[] digest(Modifier modifier) throws IOException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new AssertionError(e);
+    }
+    if (modifier instanceof ImmutableModifier) {
+      return digest.digest(((ImmutableModifier) modifier).getBytes());
+    }
+
+    Utf8JsonWriter writer = new Utf8JsonWriter(new DigestOutputStream(DISCARD, digest));
+    try {
+      ControlPlaneEvents.writeJson(modifier, writer, "digest");
+    } catch (RuntimeException e) {
+      throw new IOException("Error serializing modifier: " + e.getMessage(), e);
+    }
+    return digest.digest();
+  }
+
+  /**
+   * Digest of the configuration last applied by the client. A digest of null
+   * marks a configuration whose outcome is not known yet.
+   **/
+  private static final class AppliedConfiguration {
+    final byte[] digest;
+
+    AppliedConfiguration(byte[] digest) {
+      this.digest = digest;
+    }
+  }
+
+  private class ConfigureHandler implements ResponseHandler<Void> {
+    private final AppliedConfiguration pending;
+    private final byte[] digest;
+
+    ConfigureHandler(AppliedConfiguration pending, byte[] digest) {
+      this.pending = pending;
+      this.digest = digest;
+    }
+
+    @Override
+    public Void handle(Response response) throws IOException {
+      response.body().close();
+      if (!response.isSuccessful()) {
+        throw new IOException("Error on POST " + configurePath + ": " + response);
+      }
+      // Only record the digest if no other configuration was sent in the meantime.
+      appliedConfiguration.compareAndSet(this.pending, new AppliedConfiguration(this.digest));
+      return null;
+    }
+  }
 }
@@ -0,0 +1,92 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Built-in metrics of the requests a client and its loggers send to Martian:
+ * per endpoint latency histograms, call, error and byte counts and the number
+ * of calls in flight, plus a histogram of the size of the configuration
+ * messages sent. Recording is lock-free; snapshot is cheap enough to poll
+ * every second under load.
+ **/
+public final class ClientMetrics implements MetricsListener {
+  private final Map<Endpoint, Recorder> recorders;
+  private final Histogram configurationSize;
+
+  /**
+   * Class constructor.
+   **/
+  public ClientMetrics() {
+    this.recorders = new EnumMap<Endpoint, Recorder>(Endpoint.class);
+    for (Endpoint endpoint : Endpoint.values()) {
+      this.recorders.put(endpoint, new Recorder());
+    }
+    this.configurationSize = new Histogram();
+  }
+
+  @Override
+  public void onCallStarted(Endpoint endpoint) {
+    this.recorders.get(endpoint).inFlight.incrementAndGet();
+  }
+
+  @Override
+  public void onCallFinished(Endpoint endpoint, long latencyNanos, long requestBytes,
+      long responseBytes, Throwable error) {
+    Recorder recorder = this.recorders.get(endpoint);
+    recorder.inFlight.decrementAndGet();
+    recorder.calls.increment();
+    if (error != null) {
+      recorder.errors.increment();
+    }
+    recorder.requestBytes.add(requestBytes);
+    recorder.responseBytes.add(responseBytes);
+    recorder.latency.record(latencyNanos);
+    if (endpoint == Endpoint.CONFIGURE && requestBytes > 0) {
+      this.configurationSize.record(requestBytes);
+    }
+  }
+
+  /**
+   * @return copy of the metrics recorded so far
+   **/
+  public MetricsSnapshot snapshot() {
+    Map<Endpoint, EndpointSnapshot> endpoints =
+        new EnumMap<Endpoint, EndpointSnapshot>(Endpoint.class);
+    for (Map.Entry<Endpoint, Recorder> entry : this.recorders.entrySet()) {
+      Recorder recorder = entry.getValue();
+      endpoints.put(entry.getKey(), new EndpointSnapshot(
+          recorder.calls.sum(),
+          recorder.errors.sum(),
+          recorder.inFlight.get(),
+          recorder.requestBytes.sum(),
+          recorder.responseBytes.sum(),
+          recorder.latency.snapshot()));
+    }
+    return new MetricsSnapshot(endpoints, this.configurationSize.snapshot());
+  }
+
+  private static final class Recorder {
+    final LongAdder calls = new LongAdder();
+    final LongAdder errors = new LongAdder();
+    final AtomicLong inFlight = new AtomicLong();
+    final LongAdder requestBytes = new LongAdder();
+    final LongAdder responseBytes = new LongAdder();
+    final Histogram latency = new Histogram();
+  }
+}
@@ -0,0 +1,138 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Debounces configuration updates for Client.configureBatched. Updates are
+ * queued as snapshots; an update that is superseded before it is sent is
+ * dropped, at most one push is in flight, and consecutive pushes start at
+ * least the minimum interval apart. The future of every update is completed
+ * by the push that sends it or a newer update.
+ **/
+final class ConfigureBatcher {
+  private final Client client;
+  private long minIntervalNanos;
+
+  // Guarded by this.
+  private ImmutableModifier pending;
+  private List<CompletableFuture<Void>> waiting = new ArrayList<CompletableFuture<Void>>();
+  private boolean scheduled;
+  private boolean inFlight;
+  private long lastPushNanos;
+  private boolean pushed;
+
+  ConfigureBatcher(Client client) {
+    this.client = client;
+  }
+
+  synchronized void setMinInterval(long interval, TimeUnit units) {
+    this.minIntervalNanos = units.toNanos(interval);
+  }
+
+  /**
+   * Queues modifier in place of any update not yet sent.
+   *
+   * @return future that completes once modifier or a newer update is live
+   **/
+  CompletableFuture<Void> submit(ImmutableModifier modifier) {
+    CompletableFuture<Void> future = new CompletableFuture<Void>();
+    boolean now;
+    synchronized (this) {
+      this.pending = modifier;
+      this.waiting.add(future);
+      now = schedule();
+    }
+    if (now) {
+      push();
+    }
+    return future;
+  }
+
+  /**
+   * Schedules the next push unless one is in flight or already scheduled; the
+   * completion of the push in flight schedules the next one. Must be called
+   * holding the lock.
+   *
+   * @return whether the caller must push right away, after releasing the lock
+   **/
+  private boolean schedule() {
+    if (this.inFlight || this.scheduled || this.pending == null) {
+      return false;
+    }
+    this.scheduled = true;
+    long delay = this.pushed
+        ? this.lastPushNanos + this.minIntervalNanos - System.nanoTime()
+        : 0;
+    if (delay <= 0) {
+      // Pushing only starts an asynchronous call, so it can run on the caller's thread.
+      return true;
+    }
+    Calls.schedule(new Runnable() {
+      @Override
+      public void run() {
+        push();
+      }
+    }, delay, TimeUnit.NANOSECONDS);
+    return false;
+  }
+
+  private void push() {
+    ImmutableModifier modifier;
+    final List<CompletableFuture<Void>> batch;
+    synchronized (this) {
+      this.scheduled = false;
+      modifier = this.pending;
+      batch = this.waiting;
+      this.pending = null;
+      this.waiting = new ArrayList<CompletableFuture<Void>>();
+      this.inFlight = true;
+      this.pushed = true;
+      this.lastPushNanos = System.nanoTime();
+    }
+
+    CompletableFuture<Void> call;
+    try {
+      call = this.client.configureAsync(modifier);
+    } catch (RuntimeException e) {
+      call = new CompletableFuture<Void>();
+      call.completeExceptionally(e);
+    }
+    call.whenComplete(new BiConsumer<Void, Throwable>() {
+      @Override
+      public void accept(Void result, Throwable error) {
+        boolean now;
+        synchronized (ConfigureBatcher.this) {
+          inFlight = false;
+          now = schedule();
+        }
+        for (CompletableFuture<Void> future : batch) {
+          if (error != null) {
+            future.completeExceptionally(error);
+          } else {
+            future.complete(null);
+          }
+        }
+        if (now) {
+          push();
+        }
+      }
+    });
+  }
+}
@@ -0,0 +1,134 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import java.io.IOException;
+
+/**
+ * Emits Java Flight Recorder events for Martian system requests and for the
+ * serialization of modifier trees. On runtimes without jdk.jfr, and while no
+ * recording has the events enabled, every method is a cheap no-op.
+ *
+ * The JFR implementation lives in JfrEvents and is only loaded reflectively
+ * once jdk.jfr is known to be present, so that no class of this library links
+ * against jdk.jfr otherwise.
+ **/
+class ControlPlaneEvents {
+  private static final ControlPlaneEvents INSTANCE = load();
+
+  ControlPlaneEvents() {}
+
+  static ControlPlaneEvents get() {
+    return INSTANCE;
+  }
+
+  /**
+   * Begins the event of a call, returning the handle to end it with, or null
+   * if the event is not recorded.
+   **/
+  Object beginCall() {
+    return null;
+  }
+
+  void endCall(Object handle, Endpoint endpoint, String path, long requestBytes,
+      long responseBytes, Throwable error) {}
+
+  /**
+   * Begins the event of a serialization, returning the handle to end it with,
+   * or null if the event is not recorded.
+   **/
+  Object beginSerialization() {
+    return null;
+  }
+
+  void endSerialization(Object handle, String purpose, int modifiers, long bytes,
+      Throwable error) {}
+
+  /**
+   * Writes the configuration message of modifier to writer and closes it,
+   * recording the serialization as an event. The writer is released even if
+   * writing fails.
+   *
+   * @param purpose what the message is serialized for
+   **/
+  static void writeJson(Modifier modifier, Utf8JsonWriter writer, String purpose)
+      throws IOException {
+    ControlPlaneEvents events = INSTANCE;
+    Object handle = events.beginSerialization();
+    Throwable error = null;
+    try {
+      modifier.writeJson(writer);
+      writer.close();
+    } catch (IOException | RuntimeException | Error e) {
+      error = e;
+      throw e;
+    } finally {
+      if (handle != null) {
+        events.endSerialization(
+            handle, purpose, countModifiers(modifier), writer.getBytesWritten(), error);
+      }
+      writer.release();
+    }
+  }
+
+  /**
+   * Counts the modifiers of the tree rooted at modifier, including groups and
+   * filters. Modifiers of unknown types count as one, whatever they wrap.
+   **/
+  static int countModifiers(Modifier modifier) {
+    if (modifier == null) {
+      return 0;
+    }
+    if (modifier instanceof ImmutableModifier) {
+      return ((ImmutableModifier) modifier).getModifierCount();
+    }
+    if (modifier instanceof FifoGroup) {
+      int count = 1;
+      for (Modifier child : ((FifoGroup) modifier).getModifiers()) {
+        count += countModifiers(child);
+      }
+      return count;
+    }
+    if (modifier instanceof UrlFilter) {
+      return 1 + countModifiers(((UrlFilter) modifier).getModifier());
+    }
+    if (modifier instanceof HeaderFilter) {
+      return 1 + countModifiers(((HeaderFilter) modifier).getModifier());
+    }
+    if (modifier instanceof QueryStringFilter) {
+      return 1 + countModifiers(((QueryStringFilter) modifier).getModifier());
+    }
+    return 1;
+  }
+
+  static String outcome(Throwable error) {
+    if (error == null) {
+      return "success";
+    }
+    return error.getMessage() == null
+        ? error.getClass().getName()
+        : error.getClass().getName() + ": " + error.getMessage();
+  }
+
+  private static ControlPlaneEvents load() {
+    try {
+      Class.forName("jdk.jfr.Event", false, ControlPlaneEvents.class.getClassLoader());
+      return (ControlPlaneEvents) Class.forName("com.google.martian.JfrEvents")
+          .getDeclaredConstructor()
+          .newInstance();
+    } catch (ReflectiveOperationException | LinkageError | SecurityException e) {
+      return new ControlPlaneEvents();
+    }
+  }
+}
@@ -119,4 +119,40 @@ public class CookieModifier implements Modifier {
     public void setMaxAge(Integer maxAge) {
         this.maxAge = maxAge;
     }
+
+    public Scope getScope() {
+        return this.scope;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public String getValue() {
+        return this.value;
+    }
+
+    public String getPath() {
+        return this.path;
+    }
+
+    public String getDomain() {
+        return this.domain;
+    }
+
+    public DateTime getExpires() {
+        return this.expires;
+    }
+
+    public Boolean getSecure() {
+        return this.secure;
+    }
+
+    public Boolean getHttpOnly() {
+        return this.httpOnly;
+    }
+
+    public Integer getMaxAge() {
+        return this.maxAge;
+    }
 }
@@ -0,0 +1,31 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+/**
+ * Martian Proxy API endpoints that the client and its loggers send requests
+ * to, used to attribute metrics.
+ **/
+public enum Endpoint {
+  // POST of a configuration message
+  CONFIGURE,
+  // GET of the verification failures
+  CHECK_VERIFICATIONS,
+  // POST clearing the verification failures
+  RESET_VERIFICATIONS,
+  // GET of the logs of a logger
+  RETRIEVE_LOGS,
+  // POST clearing the logs of a logger
+  RESET_LOGS
+}
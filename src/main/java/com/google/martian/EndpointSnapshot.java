@@ -0,0 +1,79 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+/**
+ * Metrics of the requests sent to one Martian Proxy API endpoint, copied at
+ * one point in time.
+ **/
+public final class EndpointSnapshot {
+  private final long calls;
+  private final long errors;
+  private final long inFlight;
+  private final long requestBytes;
+  private final long responseBytes;
+  private final HistogramSnapshot latency;
+
+  EndpointSnapshot(long calls, long errors, long inFlight, long requestBytes,
+      long responseBytes, HistogramSnapshot latency) {
+    this.calls = calls;
+    this.errors = errors;
+    this.inFlight = inFlight;
+    this.requestBytes = requestBytes;
+    this.responseBytes = responseBytes;
+    this.latency = latency;
+  }
+
+  /**
+   * @return number of calls finished, successfully or not
+   **/
+  public long getCalls() {
+    return this.calls;
+  }
+
+  /**
+   * @return number of calls that failed
+   **/
+  public long getErrors() {
+    return this.errors;
+  }
+
+  /**
+   * @return number of calls started but not finished
+   **/
+  public long getInFlight() {
+    return this.inFlight;
+  }
+
+  /**
+   * @return bytes of request bodies sent by finished calls
+   **/
+  public long getRequestBytes() {
+    return this.requestBytes;
+  }
+
+  /**
+   * @return bytes of response bodies read by finished calls
+   **/
+  public long getResponseBytes() {
+    return this.responseBytes;
+  }
+
+  /**
+   * @return latency of finished calls, in nanoseconds
+   **/
+  public HistogramSnapshot getLatency() {
+    return this.latency;
+  }
+}
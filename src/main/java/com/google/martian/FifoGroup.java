@@ -17,6 +17,7 @@ import com.google.gson.stream.JsonWriter;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -73,4 +74,17 @@ public class FifoGroup implements Modifier {
     public void addModifier(Modifier modifier) {
         this.modifiers.add(modifier);
     }
+
+    public Scope getScope() {
+        return this.scope;
+    }
+
+    /**
+     * returns the contained modifiers in execution order
+     *
+     * @return unmodifiable view of the contained modifiers
+     **/
+    public List<Modifier> getModifiers() {
+        return Collections.unmodifiableList(this.modifiers);
+    }
 }
@@ -0,0 +1,186 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import com.squareup.okhttp.HttpUrl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Dispatch index over the children of a compiled FifoGroup. Filters are
+ * indexed by the part of the request they match exactly: url filters by host,
+ * or by path if they have no host; header and query string filters by
+ * lowercase name. Every other child is a candidate for every message.
+ *
+ * <p>Children still run in FIFO order. After each child the index is queried
+ * again with the current message for the first candidate past that child, so
+ * a modifier that changes the message is seen by the filters that follow it.
+ * Candidates are only a superset of the matching filters; each candidate
+ * still evaluates its full predicate.
+ **/
+final class FilterIndex {
+    private static final int[] NONE = new int[0];
+
+    private final LocalEngine.Node[] children;
+    private final int[] unindexed;
+    private final Map<String, int[]> hosts;
+    private final Map<String, int[]> paths;
+    private final Map<String, int[]> headers;
+    private final Map<String, int[]> queries;
+
+    FilterIndex(List<LocalEngine.Node> children) {
+        this.children = children.toArray(new LocalEngine.Node[children.size()]);
+
+        List<Integer> unindexed = new ArrayList<Integer>();
+        Map<String, List<Integer>> hosts = new HashMap<String, List<Integer>>();
+        Map<String, List<Integer>> paths = new HashMap<String, List<Integer>>();
+        Map<String, List<Integer>> headers = new HashMap<String, List<Integer>>();
+        Map<String, List<Integer>> queries = new HashMap<String, List<Integer>>();
+        for (int i = 0; i < this.children.length; i++) {
+            LocalEngine.Node child = this.children[i];
+            if (child instanceof LocalEngine.UrlFilterNode) {
+                LocalEngine.UrlFilterNode filter = (LocalEngine.UrlFilterNode) child;
+                if (filter.host != null) {
+                    add(hosts, normalize(filter.host), i);
+                } else if (filter.path != null) {
+                    add(paths, filter.path, i);
+                } else {
+                    unindexed.add(i);
+                }
+            } else if (child instanceof LocalEngine.HeaderFilterNode
+                    && ((LocalEngine.HeaderFilterNode) child).name != null) {
+                add(headers, normalize(((LocalEngine.HeaderFilterNode) child).name), i);
+            } else if (child instanceof LocalEngine.QueryStringFilterNode
+                    && ((LocalEngine.QueryStringFilterNode) child).name != null) {
+                add(queries, ((LocalEngine.QueryStringFilterNode) child).name, i);
+            } else {
+                unindexed.add(i);
+            }
+        }
+
+        this.unindexed = toArray(unindexed);
+        this.hosts = freeze(hosts);
+        this.paths = freeze(paths);
+        this.headers = freeze(headers);
+        this.queries = freeze(queries);
+    }
+
+    /**
+     * Returns whether indexing children pays off, i.e. whether enough of them
+     * are filters the index can key.
+     **/
+    static boolean worthwhile(List<LocalEngine.Node> children, int threshold) {
+        int filters = 0;
+        for (LocalEngine.Node child : children) {
+            if (child instanceof LocalEngine.FilterNode) {
+                filters++;
+            }
+        }
+        return filters >= threshold;
+    }
+
+    void applyRequest(LocalRequest request, VerificationSink sink) {
+        int position = next(request, request.getUrl(), 0);
+        while (position != -1) {
+            this.children[position].applyRequest(request, sink);
+            position = next(request, request.getUrl(), position + 1);
+        }
+    }
+
+    void applyResponse(LocalResponse response, VerificationSink sink) {
+        int position = next(response, response.getRequest().getUrl(), 0);
+        while (position != -1) {
+            this.children[position].applyResponse(response, sink);
+            position = next(response, response.getRequest().getUrl(), position + 1);
+        }
+    }
+
+    /**
+     * Returns the position of the first candidate at or after from for a
+     * message with the given headers and url, or -1 if there is none.
+     **/
+    private int next(LocalMessage message, HttpUrl url, int from) {
+        int next = first(this.unindexed, from, Integer.MAX_VALUE);
+        if (!this.hosts.isEmpty()) {
+            next = first(this.hosts.get(url.host()), from, next);
+            next = first(this.hosts.get(url.host() + ":" + url.port()), from, next);
+        }
+        if (!this.paths.isEmpty()) {
+            next = first(this.paths.get(url.encodedPath()), from, next);
+        }
+        if (!this.headers.isEmpty()) {
+            for (String name : message.getHeaderNames()) {
+                next = first(this.headers.get(normalize(name)), from, next);
+            }
+        }
+        if (!this.queries.isEmpty()) {
+            for (String name : url.queryParameterNames()) {
+                next = first(this.queries.get(name), from, next);
+            }
+        }
+        return next == Integer.MAX_VALUE ? -1 : next;
+    }
+
+    /**
+     * Returns the smaller of best and the first position in the sorted
+     * positions that is at least from.
+     **/
+    private static int first(int[] positions, int from, int best) {
+        if (positions == null || positions.length == 0 || positions[0] >= best) {
+            return best;
+        }
+        int index = Arrays.binarySearch(positions, from);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return index < positions.length ? Math.min(positions[index], best) : best;
+    }
+
+    private static void add(Map<String, List<Integer>> index, String key, int position) {
+        List<Integer> positions = index.get(key);
+        if (positions == null) {
+            positions = new ArrayList<Integer>();
+            index.put(key, positions);
+        }
+        positions.add(position);
+    }
+
+    private static Map<String, int[]> freeze(Map<String, List<Integer>> index) {
+        Map<String, int[]> frozen = new HashMap<String, int[]>();
+        for (Map.Entry<String, List<Integer>> entry : index.entrySet()) {
+            frozen.put(entry.getKey(), toArray(entry.getValue()));
+        }
+        return frozen;
+    }
+
+    private static int[] toArray(List<Integer> positions) {
+        if (positions.isEmpty()) {
+            return NONE;
+        }
+        int[] array = new int[positions.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = positions.get(i);
+        }
+        return array;
+    }
+
+    private static String normalize(String name) {
+        return name.toLowerCase(Locale.US);
+    }
+}
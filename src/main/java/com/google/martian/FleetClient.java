@@ -0,0 +1,280 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Acts upon a fleet of running Martian proxies at once. Every operation is
+ * sent to all proxies concurrently through the asynchronous API of their
+ * clients and waits at most for the fleet deadline, so a fleet-wide call takes
+ * about one round trip to the slowest proxy rather than one per proxy.
+ **/
+public class FleetClient {
+  private final Map<String, Client> clients;
+  private long deadlineNanos;
+
+  /**
+   * Class constructor.
+   *
+   * @param uris host:port of each running instance of Martian Proxy to act upon,
+   *             optionally prefixed with http://
+   * @throws URISyntaxException    if a uri does not parse successfully
+   * @throws MalformedURLException if a uri is malformed and cannot be parsed
+   **/
+  public FleetClient(Collection<String> uris) throws URISyntaxException, MalformedURLException {
+    this.clients = new LinkedHashMap<String, Client>();
+    for (String uri : uris) {
+      this.clients.put(uri, new Client(uri));
+    }
+    this.deadlineNanos = TimeUnit.SECONDS.toNanos(10);
+  }
+
+  /**
+   * Sets how long a fleet-wide operation waits for all proxies. Proxies that
+   * have not answered by then are cancelled and reported as failed.
+   *
+   * @param timeout number of time units to wait for the fleet
+   * @param units   units of time measurement
+   **/
+  public void setDeadline(long timeout, TimeUnit units) {
+    this.deadlineNanos = units.toNanos(timeout);
+  }
+
+  /**
+   * Returns the client of a single proxy, e.g. to tune its timeouts or
+   * connection pool.
+   *
+   * @param uri uri of the proxy as passed to the constructor
+   * @return client of the proxy, or null if the proxy is not part of the fleet
+   **/
+  public Client getClient(String uri) {
+    return this.clients.get(uri);
+  }
+
+  /**
+   * Returns the uris of the proxies in the fleet.
+   *
+   * @return uris in the order passed to the constructor
+   **/
+  public Collection<String> getProxies() {
+    return Collections.unmodifiableCollection(this.clients.keySet());
+  }
+
+  /**
+   * Configures every proxy of the fleet with a modifier.
+   *
+   * @param  modifier    Martian request or response modifier
+   * @return per-proxy outcome of the configuration
+   * @throws IOException if the calling thread is interrupted while waiting
+   **/
+  public FleetResult<Void> configure(final Modifier modifier) throws IOException {
+    return fanOut(new Operation<Void>() {
+      @Override
+      public CompletableFuture<Void> start(String uri, Client client) {
+        return client.configureAsync(modifier);
+      }
+    });
+  }
+
+  /**
+   * Configures each proxy of the fleet with its own modifier. Proxies without
+   * a modifier are left untouched.
+   *
+   * @param  modifiers   Martian request or response modifier keyed by proxy uri
+   * @return per-proxy outcome of the configuration
+   * @throws IOException if the calling thread is interrupted while waiting
+   **/
+  public FleetResult<Void> configure(final Map<String, ? extends Modifier> modifiers)
+      throws IOException {
+    return fanOut(modifiers.keySet(), new Operation<Void>() {
+      @Override
+      public CompletableFuture<Void> start(String uri, Client client) {
+        return client.configureAsync(modifiers.get(uri));
+      }
+    });
+  }
+
+  /**
+   * Clears the in-memory traffic verification logs of every proxy of the fleet.
+   *
+   * @return per-proxy outcome of the reset
+   * @throws IOException if the calling thread is interrupted while waiting
+   **/
+  public FleetResult<Void> resetVerifications() throws IOException {
+    return fanOut(new Operation<Void>() {
+      @Override
+      public CompletableFuture<Void> start(String uri, Client client) {
+        return client.resetVerificationsAsync();
+      }
+    });
+  }
+
+  /**
+   * Returns the in-memory traffic verification messages of every proxy of
+   * the fleet.
+   *
+   * @return per-proxy verification messages
+   * @throws IOException if the calling thread is interrupted while waiting
+   **/
+  public FleetResult<List<String>> checkVerifications() throws IOException {
+    return fanOut(new Operation<List<String>>() {
+      @Override
+      public CompletableFuture<List<String>> start(String uri, Client client) {
+        return client.checkVerificationsAsync();
+      }
+    });
+  }
+
+  /**
+   * Registers a logger with every client of the fleet.
+   *
+   * @param name name of the logger which is unique to the fleet
+   * @param resetPath path to send a POST request to that clears in-memory logs
+   * @param retrievePath path to send a GET request to that retrieves HAR logs
+   **/
+  public void registerLogger(String name, String resetPath, String retrievePath)
+      throws MalformedURLException {
+    for (Client client : this.clients.values()) {
+      client.registerLogger(name, resetPath, retrievePath);
+    }
+  }
+
+  /**
+   * Returns the in-memory traffic logs of every proxy of the fleet in HAR
+   * format.
+   *
+   * @param name unique name of log
+   * @return per-proxy traffic logs in HAR format
+   * @throws IOException if the calling thread is interrupted while waiting
+   **/
+  public FleetResult<String> retrieveLogs(final String name) throws IOException {
+    return fanOut(new Operation<String>() {
+      @Override
+      public CompletableFuture<String> start(String uri, Client client) {
+        return client.retrieveLogsAsync(name);
+      }
+    });
+  }
+
+  /**
+   * Clears the in-memory traffic logs of every proxy of the fleet based on name.
+   *
+   * @param name unique name of log
+   * @return per-proxy outcome of the reset
+   * @throws IOException if the calling thread is interrupted while waiting
+   **/
+  public FleetResult<Void> resetLogs(final String name) throws IOException {
+    return fanOut(new Operation<Void>() {
+      @Override
+      public CompletableFuture<Void> start(String uri, Client client) {
+        return client.resetLogsAsync(name);
+      }
+    });
+  }
+
+  private <T> FleetResult<T> fanOut(Operation<T> operation) throws IOException {
+    return fanOut(this.clients.keySet(), operation);
+  }
+
+  /**
+   * Starts operation on the clients of uris, then collects the outcomes against a
+   * single deadline. Calls still pending at the deadline are cancelled.
+   **/
+  private <T> FleetResult<T> fanOut(Collection<String> uris, Operation<T> operation)
+      throws IOException {
+    long deadline = System.nanoTime() + this.deadlineNanos;
+
+    Map<String, CompletableFuture<T>> pending = new LinkedHashMap<String, CompletableFuture<T>>();
+    for (String uri : uris) {
+      CompletableFuture<T> future;
+      try {
+        Client client = this.clients.get(uri);
+        if (client == null) {
+          throw new IllegalArgumentException("Proxy is not part of the fleet: " + uri);
+        }
+        future = operation.start(uri, client);
+      } catch (RuntimeException e) {
+        future = new CompletableFuture<T>();
+        future.completeExceptionally(e);
+      }
+      pending.put(uri, future);
+    }
+    return collect(pending, deadline);
+  }
+
+  /**
+   * Waits until deadline for the outcome of each proxy. Proxies that fail,
+   * have their future cancelled or do not answer in time are reported as
+   * failed; those still pending at the deadline are cancelled.
+   *
+   * @param pending  future of each proxy keyed by uri
+   * @param deadline System.nanoTime() by which the fleet must have answered
+   * @throws InterruptedIOException if the calling thread is interrupted while
+   *                                waiting
+   **/
+  static <T> FleetResult<T> collect(Map<String, CompletableFuture<T>> pending, long deadline)
+      throws InterruptedIOException {
+    Map<String, T> results = new LinkedHashMap<String, T>();
+    Map<String, Throwable> failures = new LinkedHashMap<String, Throwable>();
+    List<CompletableFuture<T>> unfinished = new ArrayList<CompletableFuture<T>>(pending.values());
+    try {
+      for (Map.Entry<String, CompletableFuture<T>> entry : pending.entrySet()) {
+        CompletableFuture<T> future = entry.getValue();
+        try {
+          long remaining = Math.max(0, deadline - System.nanoTime());
+          results.put(entry.getKey(), future.get(remaining, TimeUnit.NANOSECONDS));
+        } catch (ExecutionException e) {
+          failures.put(entry.getKey(), e.getCause());
+        } catch (CancellationException e) {
+          failures.put(entry.getKey(), e);
+        } catch (TimeoutException e) {
+          future.cancel(true);
+          failures.put(
+              entry.getKey(),
+              new TimeoutException("No response from " + entry.getKey() + " within deadline"));
+        }
+        unfinished.remove(future);
+      }
+    } catch (InterruptedException e) {
+      for (CompletableFuture<T> future : unfinished) {
+        future.cancel(true);
+      }
+      Thread.currentThread().interrupt();
+      InterruptedIOException interrupted = new InterruptedIOException("Interrupted waiting for fleet");
+      interrupted.initCause(e);
+      throw interrupted;
+    }
+
+    return new FleetResult<T>(results, failures);
+  }
+
+  private interface Operation<T> {
+    CompletableFuture<T> start(String uri, Client client);
+  }
+}
@@ -0,0 +1,66 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Outcome of an operation fanned out to every proxy of a {@link FleetClient}.
+ * Each proxy is accounted for exactly once, either with a result or with the
+ * failure that prevented it. Proxies that did not answer before the deadline
+ * fail with a {@link java.util.concurrent.TimeoutException}.
+ **/
+public final class FleetResult<T> {
+  private final Map<String, T> results;
+  private final Map<String, Throwable> failures;
+
+  FleetResult(Map<String, T> results, Map<String, Throwable> failures) {
+    this.results = Collections.unmodifiableMap(new LinkedHashMap<String, T>(results));
+    this.failures = Collections.unmodifiableMap(new LinkedHashMap<String, Throwable>(failures));
+  }
+
+  /**
+   * Returns the results of the proxies that succeeded, keyed by proxy.
+   *
+   * @return results in the order the proxies were added to the fleet
+   **/
+  public Map<String, T> getResults() {
+    return this.results;
+  }
+
+  /**
+   * Returns the failures of the proxies that did not succeed, keyed by proxy.
+   *
+   * @return failures in the order the proxies were added to the fleet
+   **/
+  public Map<String, Throwable> getFailures() {
+    return this.failures;
+  }
+
+  /**
+   * Returns whether every proxy of the fleet succeeded.
+   *
+   * @return true if there are no failures
+   **/
+  public boolean isSuccessful() {
+    return this.failures.isEmpty();
+  }
+
+  @Override
+  public String toString() {
+    return "FleetResult{results=" + this.results.keySet() + ", failures=" + this.failures + "}";
+  }
+}
@@ -0,0 +1,145 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.squareup.okhttp.HttpUrl;
+
+/**
+ * A single entry of the log.entries array of a HAR log, as returned by a
+ * HarEntryIterator. The full entry is available as JSON through getJson; the
+ * remaining getters are shortcuts for the fields most often inspected.
+ **/
+public class HarEntry {
+    private final JsonObject json;
+
+    public HarEntry(JsonObject json) {
+        this.json = json;
+    }
+
+    /**
+     * @return the entry as parsed from the HAR log
+     **/
+    public JsonObject getJson() {
+        return this.json;
+    }
+
+    /**
+     * @return the request of the entry, or null if it has none
+     **/
+    public JsonObject getRequest() {
+        return getObject(this.json, "request");
+    }
+
+    /**
+     * @return the response of the entry, or null if it has none
+     **/
+    public JsonObject getResponse() {
+        return getObject(this.json, "response");
+    }
+
+    public String getStartedDateTime() {
+        return getString(this.json, "startedDateTime");
+    }
+
+    public String getMethod() {
+        return getString(getRequest(), "method");
+    }
+
+    public String getUrl() {
+        return getString(getRequest(), "url");
+    }
+
+    /**
+     * @return the response status code, or 0 if the entry has no response
+     **/
+    public int getStatus() {
+        JsonObject response = getResponse();
+        if (response == null || !response.has("status")) {
+            return 0;
+        }
+        return response.get("status").getAsInt();
+    }
+
+    /**
+     * Converts the request of the entry for evaluation by a LocalEngine.
+     *
+     * @return the request with its method, url and headers, or null if the
+     *         entry has no request or its url is not an http or https url
+     **/
+    LocalRequest toLocalRequest() {
+        String url = getUrl();
+        if (url == null || HttpUrl.parse(url) == null) {
+            return null;
+        }
+        LocalRequest request = new LocalRequest(getMethod(), url);
+        addHeaders(request, getRequest());
+        return request;
+    }
+
+    /**
+     * Converts the response of the entry for evaluation by a LocalEngine.
+     *
+     * @param request the converted request of the entry
+     * @return the response with its status and headers, or null if the entry
+     *         has no response
+     **/
+    LocalResponse toLocalResponse(LocalRequest request) {
+        JsonObject response = getResponse();
+        if (response == null) {
+            return null;
+        }
+        LocalResponse local = new LocalResponse(request, getStatus());
+        addHeaders(local, response);
+        return local;
+    }
+
+    private static void addHeaders(LocalMessage message, JsonObject object) {
+        JsonElement headers = object.get("headers");
+        if (headers == null || !headers.isJsonArray()) {
+            return;
+        }
+        for (JsonElement header : headers.getAsJsonArray()) {
+            if (header.isJsonObject()) {
+                String name = getString(header.getAsJsonObject(), "name");
+                String value = getString(header.getAsJsonObject(), "value");
+                if (name != null && value != null) {
+                    message.addHeader(name, value);
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return this.json.toString();
+    }
+
+    private static JsonObject getObject(JsonObject object, String name) {
+        if (object == null) {
+            return null;
+        }
+        JsonElement element = object.get(name);
+        return element != null && element.isJsonObject() ? element.getAsJsonObject() : null;
+    }
+
+    private static String getString(JsonObject object, String name) {
+        if (object == null) {
+            return null;
+        }
+        JsonElement element = object.get(name);
+        return element != null && element.isJsonPrimitive() ? element.getAsString() : null;
+    }
+}
@@ -0,0 +1,76 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import com.squareup.okhttp.HttpUrl;
+
+/**
+ * HarEntryPredicate that accepts HAR entries by exact matching of the request
+ * method, the parts of the request URL and the response status. Only the parts
+ * that are set are matched; a filter with nothing set accepts every entry.
+ **/
+public class HarEntryFilter implements HarEntryPredicate {
+    private String method;
+    private String scheme;
+    private String host;
+    private String path;
+    private int status;
+
+    @Override
+    public boolean acceptRequest(String method, String url) {
+        if (this.method != null && !this.method.equalsIgnoreCase(method)) {
+            return false;
+        }
+        if (this.scheme == null && this.host == null && this.path == null) {
+            return true;
+        }
+
+        HttpUrl parsed = url == null ? null : HttpUrl.parse(url);
+        if (parsed == null) {
+            return false;
+        }
+        if (this.scheme != null && !this.scheme.equalsIgnoreCase(parsed.scheme())) {
+            return false;
+        }
+        if (this.host != null && !this.host.equalsIgnoreCase(parsed.host())) {
+            return false;
+        }
+        return this.path == null || this.path.equals(parsed.encodedPath());
+    }
+
+    @Override
+    public boolean acceptResponse(int status) {
+        return this.status == 0 || this.status == status;
+    }
+
+    public void setMethod(String method) {
+        this.method = method;
+    }
+
+    public void setScheme(String scheme) {
+        this.scheme = scheme;
+    }
+
+    public void setHost(String host) {
+        this.host = host;
+    }
+
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    public void setStatus(int status) {
+        this.status = status;
+    }
+}
@@ -0,0 +1,395 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.NoSuchElementException;
+
+/**
+ * Pulls the entries of a HAR log one at a time from a stream, without reading
+ * the whole log into memory. Only log.entries is read; the rest of the log is
+ * skipped. Entries rejected by the predicate are skipped as soon as the
+ * rejecting field has been read, so their remaining headers and bodies are
+ * never materialized. Martian writes the request method and URL and the
+ * response status ahead of the headers, which lets most rejected entries be
+ * skipped almost entirely.
+ * <p/>
+ * The iterator owns the underlying reader and must be closed.
+ **/
+public class HarEntryIterator implements Closeable {
+    private final Reader source;
+    private final JsonReader reader;
+    private final HarEntryPredicate predicate;
+    private final JsonParser parser;
+    private final Calls.OpenCall call;
+    private boolean started;
+    private boolean finished;
+    private HarEntry next;
+    private long position;
+    private String firstId;
+    private String firstStartedDateTime;
+
+    // Decisions of the predicate on the entry being read; null while undecided.
+    private Boolean requestAccepted;
+    private Boolean responseAccepted;
+
+    /**
+     * Class constructor for an iterator over every entry of the log.
+     *
+     * @param reader HAR log to read
+     **/
+    public HarEntryIterator(Reader reader) {
+        this(reader, null);
+    }
+
+    /**
+     * Class constructor.
+     *
+     * @param reader    HAR log to read
+     * @param predicate entries to return, or null to return every entry
+     **/
+    public HarEntryIterator(Reader reader, HarEntryPredicate predicate) {
+        this(reader, predicate, null);
+    }
+
+    /**
+     * Class constructor for an iterator over the response body of a call,
+     * which it ends once it has read the last entry, fails or is closed.
+     *
+     * @param reader    HAR log to read
+     * @param predicate entries to return, or null to return every entry
+     * @param call      call the log is read from, or null
+     **/
+    HarEntryIterator(Reader reader, HarEntryPredicate predicate, Calls.OpenCall call) {
+        this.source = reader;
+        this.reader = new JsonReader(reader);
+        this.predicate = predicate;
+        this.parser = new JsonParser();
+        this.call = call;
+    }
+
+    /**
+     * @return whether another accepted entry remains in the log
+     * @throws IOException if an error occurs reading the log
+     **/
+    public boolean hasNext() throws IOException {
+        try {
+            while (this.next == null && advance()) {
+                this.next = readEntry();
+                this.position++;
+            }
+        } catch (IOException e) {
+            throw fail(e);
+        } catch (RuntimeException e) {
+            throw fail(e);
+        }
+        return this.next != null;
+    }
+
+    /**
+     * @return the next accepted entry of the log
+     * @throws IOException            if an error occurs reading the log
+     * @throws NoSuchElementException if no accepted entries remain
+     **/
+    public HarEntry next() throws IOException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        HarEntry entry = this.next;
+        this.next = null;
+        return entry;
+    }
+
+    /**
+     * Skips up to count entries without materializing them, regardless of the
+     * predicate.
+     *
+     * @param count number of entries to skip
+     * @return number of entries skipped, which is less than count if the log
+     *         ended first
+     * @throws IOException if an error occurs reading the log
+     **/
+    public long skip(long count) throws IOException {
+        long skipped = 0;
+        if (this.next != null && count > 0) {
+            this.next = null;
+            skipped++;
+        }
+        try {
+            while (skipped < count && advance()) {
+                if (this.position == 0) {
+                    skipFirstEntry();
+                } else {
+                    this.reader.skipValue();
+                }
+                this.position++;
+                skipped++;
+            }
+        } catch (IOException e) {
+            throw fail(e);
+        } catch (RuntimeException e) {
+            throw fail(e);
+        }
+        return skipped;
+    }
+
+    /**
+     * @return number of entries of the log read or skipped so far, whether or
+     *         not the predicate accepted them
+     **/
+    public long getPosition() {
+        return this.position;
+    }
+
+    /**
+     * Identifies the first entry of the log once it has been read or skipped,
+     * so that a reader can tell whether the log has been reset and refilled
+     * since it last read it.
+     *
+     * @return the _id Martian gives the first entry, or its startedDateTime if
+     *         it has no id, or null if it has neither or has not been reached
+     **/
+    String getFirstEntryId() {
+        return this.firstId != null ? this.firstId : this.firstStartedDateTime;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.finished = true;
+        try {
+            this.reader.close();
+        } finally {
+            end(null);
+        }
+    }
+
+    private void end(Throwable error) {
+        if (this.call != null) {
+            this.call.end(error);
+        }
+    }
+
+    private IOException fail(IOException e) {
+        return this.call == null ? e : this.call.fail(e);
+    }
+
+    private RuntimeException fail(RuntimeException e) {
+        end(e);
+        return e;
+    }
+
+    /**
+     * Positions the reader at the next entry of log.entries, returning false
+     * once the array has been exhausted.
+     **/
+    private boolean advance() throws IOException {
+        if (!this.started) {
+            this.started = true;
+            if (!seekEntries()) {
+                finish();
+            }
+        }
+        if (this.finished) {
+            return false;
+        }
+        if (!this.reader.hasNext()) {
+            this.reader.endArray();
+            finish();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Marks the log as exhausted. The call the log is read from is ended once
+     * the rest of the response body has been read, so that it is measured in
+     * full and its connection can be reused.
+     **/
+    private void finish() throws IOException {
+        this.finished = true;
+        if (this.call != null) {
+            char[] buffer = new char[512];
+            while (this.source.read(buffer) != -1) {}
+            end(null);
+        }
+    }
+
+    private boolean seekEntries() throws IOException {
+        this.reader.beginObject();
+        while (this.reader.hasNext()) {
+            if (!"log".equals(this.reader.nextName())) {
+                this.reader.skipValue();
+                continue;
+            }
+
+            this.reader.beginObject();
+            while (this.reader.hasNext()) {
+                if ("entries".equals(this.reader.nextName())) {
+                    this.reader.beginArray();
+                    return true;
+                }
+                this.reader.skipValue();
+            }
+            return false;
+        }
+        return false;
+    }
+
+    /**
+     * Reads the entry the reader is positioned at, returning null if the
+     * predicate rejected it.
+     **/
+    private HarEntry readEntry() throws IOException {
+        this.requestAccepted = this.predicate == null ? Boolean.TRUE : null;
+        this.responseAccepted = this.predicate == null ? Boolean.TRUE : null;
+
+        JsonObject entry = new JsonObject();
+        this.reader.beginObject();
+        while (this.reader.hasNext()) {
+            String name = this.reader.nextName();
+            if (this.position == 0 && isIdentifying(name)) {
+                String value = this.reader.nextString();
+                recordFirst(name, value);
+                entry.addProperty(name, value);
+            } else if (isRejected()) {
+                this.reader.skipValue();
+            } else if ("request".equals(name) && this.reader.peek() == JsonToken.BEGIN_OBJECT) {
+                entry.add(name, readRequest());
+            } else if ("response".equals(name) && this.reader.peek() == JsonToken.BEGIN_OBJECT) {
+                entry.add(name, readResponse());
+            } else {
+                entry.add(name, this.parser.parse(this.reader));
+            }
+        }
+        this.reader.endObject();
+
+        if (isRejected()) {
+            return null;
+        }
+        if (this.requestAccepted == null && !this.predicate.acceptRequest(null, null)) {
+            return null;
+        }
+        if (this.responseAccepted == null && !this.predicate.acceptResponse(0)) {
+            return null;
+        }
+        return new HarEntry(entry);
+    }
+
+    /**
+     * Skips the first entry of the log, keeping only the fields that identify it.
+     **/
+    private void skipFirstEntry() throws IOException {
+        this.reader.beginObject();
+        while (this.reader.hasNext()) {
+            String name = this.reader.nextName();
+            if (isIdentifying(name)) {
+                recordFirst(name, this.reader.nextString());
+            } else {
+                this.reader.skipValue();
+            }
+        }
+        this.reader.endObject();
+    }
+
+    private boolean isIdentifying(String name) throws IOException {
+        return ("_id".equals(name) || "startedDateTime".equals(name))
+                && this.reader.peek() == JsonToken.STRING;
+    }
+
+    private void recordFirst(String name, String value) {
+        if ("_id".equals(name)) {
+            this.firstId = value;
+        } else {
+            this.firstStartedDateTime = value;
+        }
+    }
+
+    private JsonObject readRequest() throws IOException {
+        JsonObject request = new JsonObject();
+        String method = null;
+        String url = null;
+
+        this.reader.beginObject();
+        while (this.reader.hasNext()) {
+            String name = this.reader.nextName();
+            if (isRejected()) {
+                this.reader.skipValue();
+                continue;
+            }
+
+            if ("method".equals(name) && this.reader.peek() == JsonToken.STRING) {
+                method = this.reader.nextString();
+                request.addProperty(name, method);
+            } else if ("url".equals(name) && this.reader.peek() == JsonToken.STRING) {
+                url = this.reader.nextString();
+                request.addProperty(name, url);
+            } else {
+                request.add(name, this.parser.parse(this.reader));
+            }
+
+            if (this.requestAccepted == null && method != null && url != null) {
+                this.requestAccepted = this.predicate.acceptRequest(method, url);
+            }
+        }
+        this.reader.endObject();
+
+        if (this.requestAccepted == null) {
+            this.requestAccepted = this.predicate.acceptRequest(method, url);
+        }
+        return request;
+    }
+
+    private JsonObject readResponse() throws IOException {
+        JsonObject response = new JsonObject();
+        boolean hasStatus = false;
+
+        this.reader.beginObject();
+        while (this.reader.hasNext()) {
+            String name = this.reader.nextName();
+            if (isRejected()) {
+                this.reader.skipValue();
+                continue;
+            }
+
+            if ("status".equals(name) && this.reader.peek() == JsonToken.NUMBER) {
+                int status = this.reader.nextInt();
+                response.addProperty(name, status);
+                hasStatus = true;
+                if (this.responseAccepted == null) {
+                    this.responseAccepted = this.predicate.acceptResponse(status);
+                }
+            } else {
+                response.add(name, this.parser.parse(this.reader));
+            }
+        }
+        this.reader.endObject();
+
+        if (this.responseAccepted == null && !hasStatus) {
+            this.responseAccepted = this.predicate.acceptResponse(0);
+        }
+        return response;
+    }
+
+    private boolean isRejected() {
+        return Boolean.FALSE.equals(this.requestAccepted)
+                || Boolean.FALSE.equals(this.responseAccepted);
+    }
+}
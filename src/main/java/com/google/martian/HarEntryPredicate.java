@@ -0,0 +1,37 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+/**
+ * Decides which HAR entries a HarEntryIterator returns. The predicate is
+ * consulted while an entry is being parsed: acceptRequest as soon as the method
+ * and URL of the request have been read, and acceptResponse as soon as the
+ * response status has been read. Rejected entries are skipped without
+ * materializing their remaining headers and bodies.
+ **/
+public interface HarEntryPredicate {
+  /**
+   * @param method HTTP method of the request, or null if the entry has none
+   * @param url    URL of the request, or null if the entry has none
+   * @return whether the entry may be returned
+   **/
+  boolean acceptRequest(String method, String url);
+
+  /**
+   * @param status HTTP status code of the response, or 0 if the entry has no
+   *               response
+   * @return whether the entry may be returned
+   **/
+  boolean acceptResponse(int status);
+}
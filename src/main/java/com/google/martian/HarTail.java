@@ -0,0 +1,109 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import java.io.IOException;
+
+/**
+ * Follows a Martian log, emitting only the entries that have been captured
+ * since the previous poll. HarTail keeps a cursor of how many entries of the
+ * log it has already seen; on each poll the entries before the cursor are
+ * skipped in the stream without being materialized, so the cost of a poll is
+ * dominated by the new entries rather than by the size of the log.
+ * <p/>
+ * Martian has no way to return only part of a log, so the entries before the
+ * cursor are still transferred. If the log is found to be shorter than the
+ * cursor, or to start with a different entry than when it was last polled, it
+ * has been reset elsewhere, and the poll starts over from its first entry.
+ * <p/>
+ * Each entry is emitted once: the cursor moves past an entry as soon as the
+ * listener has accepted it. If the listener throws, the poll stops and the
+ * failing entry and those after it are emitted again by the next poll.
+ * HarTail is not safe for use by multiple threads.
+ **/
+public class HarTail {
+  private final Logger logger;
+  private final HarEntryPredicate predicate;
+  private final LogCursor cursor = new LogCursor();
+  private long emitting = -1;
+
+  /**
+   * Class constructor.
+   *
+   * @param logger    logger to follow
+   * @param predicate entries to emit, or null to emit every new entry
+   **/
+  public HarTail(Logger logger, HarEntryPredicate predicate) {
+    this.logger = logger;
+    this.predicate = predicate;
+  }
+
+  /**
+   * Retrieves the log and emits the entries captured since the previous poll
+   * to listener.
+   *
+   * @param listener receiver of the new entries
+   * @return number of entries emitted
+   * @throws IOException if an error occurs during input or output, or in listener
+   **/
+  public int poll(HarEntryListener listener) throws IOException {
+    HarEntryIterator entries = this.cursor.resume(new LogCursor.Log() {
+      @Override
+      public HarEntryIterator open() throws IOException {
+        return HarTail.this.logger.retrieveEntries(HarTail.this.predicate);
+      }
+    });
+    try {
+      int count = 0;
+      while (entries.hasNext()) {
+        HarEntry entry = entries.next();
+        long position = entries.getPosition();
+        this.emitting = position - 1;
+        listener.onEntry(entry);
+        this.cursor.advance(entries, position);
+        count++;
+      }
+      this.cursor.advance(entries, entries.getPosition());
+      return count;
+    } finally {
+      entries.close();
+    }
+  }
+
+  /**
+   * Clears the in-memory logs and moves the cursor back to the start.
+   *
+   * @throws IOException if an error occurs during input or output
+   **/
+  public void resetLogs() throws IOException {
+    this.logger.resetLogs();
+    this.cursor.rewind();
+  }
+
+  /**
+   * Returns the position in log.entries of the entry being emitted, for use
+   * by a listener while it handles the entry. Positions start over at 0 when
+   * the log is found to have been reset.
+   **/
+  long getEmittingPosition() {
+    return this.emitting;
+  }
+
+  /**
+   * @return number of entries of the log seen so far
+   **/
+  public long getCursor() {
+    return this.cursor.getPosition();
+  }
+}
@@ -0,0 +1,262 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Evaluates the verifiers of a modifier tree against captured HAR entries
+ * instead of live traffic. Filters in the tree select the entries each
+ * verifier applies to, exactly as in Martian; modifiers are ignored, since
+ * captured traffic has already been modified.
+ *
+ * <p>Entries are verified in parallel on a fork/join pool. Entries read from
+ * a stream are verified in chunks while the next chunk is read, so a log of
+ * any size is verified with bounded memory.
+ *
+ * <p>Failures are returned in entry order, followed by a failure for every
+ * pingback verifier whose request was not seen in any entry. Each failure
+ * carries the position of its entry in log.entries, counting the entries a
+ * stream skipped or its predicate rejected.
+ **/
+public class HarVerifier {
+    // Entries a single fork/join task verifies without splitting further.
+    private static final int TASK_ENTRIES = 256;
+    // Entries read ahead from a stream while the previous chunk is verified.
+    private static final int CHUNK_ENTRIES = 16384;
+
+    private final LocalEngine engine;
+    private final ForkJoinPool pool;
+
+    /**
+     * Class constructor using the common fork/join pool.
+     *
+     * @param verifiers modifier tree containing the verifiers to evaluate
+     * @throws IllegalArgumentException if the tree contains a modifier that
+     *                                  cannot be evaluated locally
+     **/
+    public HarVerifier(Modifier verifiers) {
+        this(verifiers, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Class constructor.
+     *
+     * @param verifiers modifier tree containing the verifiers to evaluate
+     * @param pool      pool the entries are verified on
+     * @throws IllegalArgumentException if the tree contains a modifier that
+     *                                  cannot be evaluated locally
+     **/
+    public HarVerifier(Modifier verifiers, ForkJoinPool pool) {
+        this.engine = new LocalEngine(verifiers, true);
+        this.pool = pool;
+    }
+
+    /**
+     * Verifies entries held in memory.
+     *
+     * @param entries HAR entries in log order, starting at the first entry of
+     *                the log
+     * @return failures in entry order
+     **/
+    public List<VerificationFailure> verify(List<HarEntry> entries) {
+        return verify(entries, null);
+    }
+
+    /**
+     * Verifies entries held in memory that are a selection of the log.
+     *
+     * @param entries   HAR entries in log order
+     * @param positions position of each entry in log.entries, or null if
+     *                  entries starts at the first entry of the log and has no
+     *                  gaps
+     * @return failures in entry order
+     **/
+    List<VerificationFailure> verify(List<HarEntry> entries, long[] positions) {
+        HarEntry[] array = entries.toArray(new HarEntry[entries.size()]);
+        return finish(this.pool.invoke(
+                new VerifyTask(this.engine, array, positions, 0, array.length)));
+    }
+
+    /**
+     * Verifies the entries of a stream, e.g. as returned by
+     * Client.retrieveEntries. The iterator is read to the end but not closed.
+     * Failures are numbered by HarEntryIterator.getPosition, so they carry the
+     * position of the entry in the log even if the iterator skipped entries
+     * or its predicate rejected some.
+     *
+     * @param entries HAR entries in log order
+     * @return failures in entry order
+     * @throws IOException if an error occurs reading the entries
+     **/
+    public List<VerificationFailure> verify(HarEntryIterator entries) throws IOException {
+        Result total = new Result();
+        ForkJoinTask<Result> pending = null;
+
+        HarEntry[] chunk = new HarEntry[CHUNK_ENTRIES];
+        long[] positions = new long[CHUNK_ENTRIES];
+        int count = read(entries, chunk, positions);
+        while (count > 0) {
+            ForkJoinTask<Result> task =
+                    this.pool.submit(new VerifyTask(this.engine, chunk, positions, 0, count));
+            if (pending != null) {
+                total.add(pending.join());
+            }
+            pending = task;
+            // The task submitted keeps the arrays, so the next chunk gets new ones.
+            chunk = new HarEntry[CHUNK_ENTRIES];
+            positions = new long[CHUNK_ENTRIES];
+            count = read(entries, chunk, positions);
+        }
+        if (pending != null) {
+            total.add(pending.join());
+        }
+        return finish(total);
+    }
+
+    /**
+     * Verifies the entries of a HAR file.
+     *
+     * @param har path of a HAR file encoded as UTF-8
+     * @return failures in entry order
+     * @throws IOException if an error occurs reading the file
+     **/
+    public List<VerificationFailure> verify(Path har) throws IOException {
+        Reader reader = Files.newBufferedReader(har, StandardCharsets.UTF_8);
+        HarEntryIterator entries = new HarEntryIterator(reader);
+        try {
+            return verify(entries);
+        } finally {
+            entries.close();
+        }
+    }
+
+    /**
+     * Reads the next chunk of entries and their positions in the log.
+     *
+     * @return number of entries read, 0 at the end of the log
+     **/
+    private static int read(HarEntryIterator entries, HarEntry[] chunk, long[] positions)
+            throws IOException {
+        int count = 0;
+        while (count < chunk.length && entries.hasNext()) {
+            chunk[count] = entries.next();
+            // The iterator has moved past the entry it returned.
+            positions[count] = entries.getPosition() - 1;
+            count++;
+        }
+        return count;
+    }
+
+    private List<VerificationFailure> finish(Result result) {
+        List<VerificationFailure> failures = result.failures;
+        for (PingbackVerifier pingback : this.engine.getPingbacks()) {
+            if (!result.pingbacks.contains(pingback)) {
+                failures.add(new VerificationFailure(
+                        -1, null, pingback, LocalEngine.pingbackFailure(pingback)));
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * Verifies a single entry, reporting its failures and pingbacks to sink.
+     **/
+    static void verify(LocalEngine engine, HarEntry entry, VerificationSink sink) {
+        LocalRequest request = entry.toLocalRequest();
+        if (request == null) {
+            return;
+        }
+        engine.modifyRequest(request, sink);
+        LocalResponse response = entry.toLocalResponse(request);
+        if (response != null) {
+            engine.modifyResponse(response, sink);
+        }
+    }
+
+    /**
+     * Failures in entry order and pingback verifiers seen by a range of entries.
+     **/
+    private static final class Result {
+        final List<VerificationFailure> failures = new ArrayList<VerificationFailure>();
+        final Set<PingbackVerifier> pingbacks = new HashSet<PingbackVerifier>();
+
+        void add(Result other) {
+            this.failures.addAll(other.failures);
+            this.pingbacks.addAll(other.pingbacks);
+        }
+    }
+
+    private static final class VerifyTask extends RecursiveTask<Result> {
+        private static final long serialVersionUID = 1L;
+
+        private final LocalEngine engine;
+        private final HarEntry[] entries;
+        // Positions of the entries in the log, or null if they are their indexes.
+        private final long[] positions;
+        private final int from;
+        private final int to;
+
+        VerifyTask(LocalEngine engine, HarEntry[] entries, long[] positions, int from, int to) {
+            this.engine = engine;
+            this.entries = entries;
+            this.positions = positions;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Result compute() {
+            if (this.to - this.from > TASK_ENTRIES) {
+                int middle = (this.from + this.to) >>> 1;
+                VerifyTask right = new VerifyTask(
+                        this.engine, this.entries, this.positions, middle, this.to);
+                right.fork();
+                Result result = new VerifyTask(
+                        this.engine, this.entries, this.positions, this.from, middle).compute();
+                result.add(right.join());
+                return result;
+            }
+
+            final Result result = new Result();
+            for (int i = this.from; i < this.to; i++) {
+                final HarEntry entry = this.entries[i];
+                final long index = this.positions != null ? this.positions[i] : i;
+                verify(this.engine, entry, new VerificationSink() {
+                    @Override
+                    public void failure(Modifier verifier, String message) {
+                        result.failures.add(new VerificationFailure(index, entry, verifier, message));
+                    }
+
+                    @Override
+                    public void pingback(PingbackVerifier verifier) {
+                        result.pingbacks.add(verifier);
+                    }
+                });
+            }
+            return result;
+        }
+    }
+}
@@ -17,6 +17,7 @@ import com.google.gson.stream.JsonWriter;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -73,4 +74,17 @@ public class HeaderBlacklist implements Modifier {
     public void addName(String name) {
         this.names.add(name);
     }
+
+    public Scope getScope() {
+        return this.scope;
+    }
+
+    /**
+     * returns the names of the headers to be removed
+     *
+     * @return unmodifiable view of the header names
+     **/
+    public List<String> getNames() {
+        return Collections.unmodifiableList(this.names);
+    }
 }
@@ -65,4 +65,16 @@ public class HeaderVerifier implements Modifier {
     public void setValue(String value) {
         this.value = value;
     }
+
+    public Scope getScope() {
+        return this.scope;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public String getValue() {
+        return this.value;
+    }
 }
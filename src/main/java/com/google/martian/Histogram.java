@@ -0,0 +1,101 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of non-negative long values with log-linear buckets in the style
+ * of HdrHistogram: values are recorded with a relative error below 1/32
+ * (about 3%) up to 2^40, and larger values are clamped. Recording is lock-free
+ * and allocation-free; snapshots copy the buckets and may be taken while
+ * values are recorded.
+ **/
+public final class Histogram {
+  // Values below SUB_BUCKETS are recorded exactly; above, each power of two is
+  // split into SUB_BUCKETS linear buckets.
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int MAX_EXPONENT = 40;
+  static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+  static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts;
+  private final LongAdder sum;
+  private final AtomicLong max;
+
+  /**
+   * Class constructor.
+   **/
+  public Histogram() {
+    this.counts = new AtomicLongArray(BUCKETS);
+    this.sum = new LongAdder();
+    this.max = new AtomicLong();
+  }
+
+  /**
+   * Records value. Negative values are recorded as 0.
+   *
+   * @param value value to record
+   **/
+  public void record(long value) {
+    long clamped = Math.min(Math.max(value, 0), MAX_VALUE);
+    // The maximum is raised first, so a snapshot never counts a value above it.
+    long current;
+    while (clamped > (current = this.max.get())) {
+      if (this.max.compareAndSet(current, clamped)) {
+        break;
+      }
+    }
+    this.sum.add(clamped);
+    this.counts.incrementAndGet(bucket(clamped));
+  }
+
+  /**
+   * @return copy of the values recorded so far
+   **/
+  public HistogramSnapshot snapshot() {
+    long[] copy = new long[BUCKETS];
+    long count = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      copy[i] = this.counts.get(i);
+      count += copy[i];
+    }
+    return new HistogramSnapshot(copy, count, this.sum.sum(), this.max.get());
+  }
+
+  static int bucket(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) - SUB_BUCKETS;
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+  }
+
+  /**
+   * Returns the largest value recorded in bucket.
+   **/
+  static long highestValue(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    int shift = exponent - SUB_BUCKET_BITS;
+    long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+}
@@ -0,0 +1,85 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+/**
+ * Immutable copy of the values recorded by a Histogram at one point in time.
+ **/
+public final class HistogramSnapshot {
+  private final long[] counts;
+  private final long count;
+  private final long sum;
+  private final long max;
+
+  HistogramSnapshot(long[] counts, long count, long sum, long max) {
+    this.counts = counts;
+    this.count = count;
+    this.sum = sum;
+    this.max = max;
+  }
+
+  /**
+   * @return number of values recorded
+   **/
+  public long getCount() {
+    return this.count;
+  }
+
+  /**
+   * @return sum of the values recorded
+   **/
+  public long getSum() {
+    return this.sum;
+  }
+
+  /**
+   * @return largest value recorded, or 0 if none was
+   **/
+  public long getMax() {
+    return this.max;
+  }
+
+  /**
+   * @return mean of the values recorded, or 0 if none was
+   **/
+  public double getMean() {
+    return this.count == 0 ? 0 : (double) this.sum / this.count;
+  }
+
+  /**
+   * Returns the value below or at which percentile percent of the recorded
+   * values fall, accurate to the resolution of the histogram and never above
+   * the largest value recorded.
+   *
+   * @param percentile percentile between 0 and 100
+   * @return value at percentile, or 0 if no value was recorded
+   **/
+  public long getValueAtPercentile(double percentile) {
+    if (percentile < 0 || percentile > 100) {
+      throw new IllegalArgumentException("percentile out of range: " + percentile);
+    }
+    if (this.count == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * this.count));
+    long seen = 0;
+    for (int i = 0; i < this.counts.length; i++) {
+      seen += this.counts[i];
+      if (seen >= rank) {
+        return Math.min(Histogram.highestValue(i), this.max);
+      }
+    }
+    return this.max;
+  }
+}
@@ -0,0 +1,246 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Immutable modifier holding the serialized Martian Proxy JSON configuration
+ * message of another modifier. The message is computed once, when the modifier
+ * is built, and every subsequent writeJson splices the cached bytes into the
+ * output; with a Utf8JsonWriter, such as the one Client uses, that is a single
+ * array copy. Immutable modifiers are safe to share between threads.
+ * <p/>
+ * The mutable modifier classes act as builders: configure them and freeze the
+ * result with copyOf. Immutable modifiers may be added to mutable groups and
+ * filters, whose own copyOf then splices the cached bytes of those children
+ * instead of serializing them again.
+ * <p/>
+ * Code that needs to look inside a modifier tree, such as LocalEngine and
+ * ShardedClient, decodes immutable modifiers with toModifier.
+ **/
+public final class ImmutableModifier implements Modifier {
+    private final byte[] json;
+    private final int hashCode;
+    private final int modifierCount;
+
+    private ImmutableModifier(byte[] json, int modifierCount) {
+        this.json = json;
+        this.hashCode = Arrays.hashCode(json);
+        this.modifierCount = modifierCount;
+    }
+
+    /**
+     * Returns an immutable modifier with the current configuration of modifier.
+     * Later changes to modifier are not reflected in the result.
+     *
+     * @param modifier modifier to freeze
+     * @return immutable copy of modifier
+     * @throws IOException if modifier cannot be serialized
+     **/
+    public static ImmutableModifier copyOf(Modifier modifier) throws IOException {
+        return copyOf(modifier, "copy");
+    }
+
+    /**
+     * Returns an immutable copy of modifier, recording the serialization with
+     * purpose.
+     **/
+    static ImmutableModifier copyOf(Modifier modifier, String purpose) throws IOException {
+        if (modifier instanceof ImmutableModifier) {
+            return (ImmutableModifier) modifier;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Utf8JsonWriter writer = new Utf8JsonWriter(out);
+        ControlPlaneEvents.writeJson(modifier, writer, purpose);
+        return new ImmutableModifier(
+                out.toByteArray(), ControlPlaneEvents.countModifiers(modifier));
+    }
+
+    /**
+     * Writes the cached JSON configuration message to writer.
+     *
+     * @param writer GSON JsonWriter that JSON configurations are written to
+     * @throws IOException if an error occurs during input or output
+     **/
+    @Override
+    public void writeJson(JsonWriter writer) throws IOException {
+        if (writer instanceof Utf8JsonWriter) {
+            ((Utf8JsonWriter) writer).rawValue(this.json);
+            return;
+        }
+
+        // Other writers cannot take raw JSON, so replay the message token by token.
+        JsonReader reader = new JsonReader(new InputStreamReader(
+                new ByteArrayInputStream(this.json), StandardCharsets.UTF_8));
+        copy(reader, writer);
+        reader.close();
+    }
+
+    /**
+     * Decodes the cached message into a new tree of mutable modifiers, e.g. to
+     * evaluate it with a LocalEngine or inspect its filters. Each call returns
+     * a new tree.
+     *
+     * @return modifier tree described by the message
+     * @throws IOException if the message describes a modifier that
+     *                     ModifierParser does not know, e.g. a custom one
+     **/
+    public Modifier toModifier() throws IOException {
+        return new ModifierParser().fromJson(new InputStreamReader(
+                new ByteArrayInputStream(this.json), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return number of modifiers in the tree the message was copied from
+     **/
+    int getModifierCount() {
+        return this.modifierCount;
+    }
+
+    /**
+     * @return the length of the UTF-8 encoded JSON configuration message
+     **/
+    public int size() {
+        return this.json.length;
+    }
+
+    /**
+     * Returns the cached message itself, which callers must not modify.
+     **/
+    byte[] getBytes() {
+        return this.json;
+    }
+
+    /**
+     * @return a copy of the UTF-8 encoded JSON configuration message
+     **/
+    public byte[] toByteArray() {
+        return this.json.clone();
+    }
+
+    /**
+     * Immutable modifiers are equal if their JSON configuration messages are
+     * byte for byte equal.
+     **/
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof ImmutableModifier
+                && this.hashCode == ((ImmutableModifier) other).hashCode
+                && Arrays.equals(this.json, ((ImmutableModifier) other).json);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return new String(this.json, StandardCharsets.UTF_8);
+    }
+
+    private static void copy(JsonReader reader, JsonWriter writer) throws IOException {
+        int depth = 0;
+        do {
+            switch (reader.peek()) {
+                case BEGIN_OBJECT:
+                    reader.beginObject();
+                    writer.beginObject();
+                    depth++;
+                    break;
+                case END_OBJECT:
+                    reader.endObject();
+                    writer.endObject();
+                    depth--;
+                    break;
+                case BEGIN_ARRAY:
+                    reader.beginArray();
+                    writer.beginArray();
+                    depth++;
+                    break;
+                case END_ARRAY:
+                    reader.endArray();
+                    writer.endArray();
+                    depth--;
+                    break;
+                case NAME:
+                    writer.name(reader.nextName());
+                    break;
+                case STRING:
+                    writer.value(reader.nextString());
+                    break;
+                case NUMBER:
+                    writer.value(new RawNumber(reader.nextString()));
+                    break;
+                case BOOLEAN:
+                    writer.value(reader.nextBoolean());
+                    break;
+                case NULL:
+                    reader.nextNull();
+                    writer.nullValue();
+                    break;
+                default:
+                    throw new IllegalStateException("unexpected token: " + reader.peek());
+            }
+        } while (depth > 0);
+    }
+
+    /**
+     * Number that JsonWriter writes exactly as it was read.
+     **/
+    private static final class RawNumber extends Number {
+        private static final long serialVersionUID = 1L;
+
+        private final String value;
+
+        RawNumber(String value) {
+            this.value = value;
+        }
+
+        @Override
+        public int intValue() {
+            return (int) doubleValue();
+        }
+
+        @Override
+        public long longValue() {
+            return (long) doubleValue();
+        }
+
+        @Override
+        public float floatValue() {
+            return (float) doubleValue();
+        }
+
+        @Override
+        public double doubleValue() {
+            return Double.parseDouble(this.value);
+        }
+
+        @Override
+        public String toString() {
+            return this.value;
+        }
+    }
+}
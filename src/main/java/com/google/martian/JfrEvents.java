@@ -0,0 +1,71 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+/**
+ * ControlPlaneEvents backed by Java Flight Recorder. Only loaded by
+ * ControlPlaneEvents once jdk.jfr is known to be present.
+ **/
+final class JfrEvents extends ControlPlaneEvents {
+  JfrEvents() {}
+
+  @Override
+  Object beginCall() {
+    CallEvent event = new CallEvent();
+    if (!event.isEnabled()) {
+      return null;
+    }
+    event.begin();
+    return event;
+  }
+
+  @Override
+  void endCall(Object handle, Endpoint endpoint, String path, long requestBytes,
+      long responseBytes, Throwable error) {
+    CallEvent event = (CallEvent) handle;
+    event.end();
+    if (event.shouldCommit()) {
+      event.endpoint = endpoint.name();
+      event.path = path;
+      event.requestBytes = requestBytes;
+      event.responseBytes = responseBytes;
+      event.outcome = outcome(error);
+      event.commit();
+    }
+  }
+
+  @Override
+  Object beginSerialization() {
+    SerializationEvent event = new SerializationEvent();
+    if (!event.isEnabled()) {
+      return null;
+    }
+    event.begin();
+    return event;
+  }
+
+  @Override
+  void endSerialization(Object handle, String purpose, int modifiers, long bytes,
+      Throwable error) {
+    SerializationEvent event = (SerializationEvent) handle;
+    event.end();
+    if (event.shouldCommit()) {
+      event.purpose = purpose;
+      event.modifiers = modifiers;
+      event.bytes = bytes;
+      event.outcome = outcome(error);
+      event.commit();
+    }
+  }
+}
@@ -0,0 +1,820 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import com.squareup.okhttp.HttpUrl;
+
+import okio.ByteString;
+
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Applies a modifier tree to requests and responses in-process, the way
+ * Martian Proxy would apply it to proxied traffic. This removes the proxy
+ * from tests that only need the effect of the modifiers.
+ *
+ * <p>Every modifier applies to the phases of its Martian counterpart unless
+ * its scope restricts it to the request or the response phase. Url and query
+ * string filters match the request of a response in the response phase.
+ * Verifiers record their failures in the engine, where they are read with
+ * checkVerifications and cleared with resetVerifications.
+ *
+ * <p>Groups holding many filters are compiled into a dispatch index keyed by
+ * host, path, header name and query parameter name, so a request is only
+ * matched against the filters that can apply to it.
+ *
+ * <p>The tree is compiled once when the engine is created; later changes to
+ * the modifiers are not seen. Immutable modifiers are decoded first, so
+ * failures and pingbacks of their verifiers refer to the decoded copies. An
+ * engine may be shared across threads, while a single request or response
+ * must not be.
+ **/
+public final class LocalEngine {
+    private static final DateTimeFormatter COOKIE_EXPIRES =
+            DateTimeFormat.forPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'")
+                    .withZoneUTC()
+                    .withLocale(Locale.US);
+
+    // Groups with fewer filters than this are evaluated linearly.
+    static final int INDEX_THRESHOLD = 8;
+
+    private final boolean verifyOnly;
+    private final List<PingbackVerifier> pingbacks;
+    private final Node root;
+
+    private final Queue<String> failures;
+    private final Set<Modifier> seenPingbacks;
+    private final VerificationSink verifications;
+
+    /**
+     * Class constructor.
+     *
+     * @param modifier Martian request or response modifier
+     * @throws IllegalArgumentException if the tree contains a modifier the
+     *                                  engine cannot interpret
+     **/
+    public LocalEngine(Modifier modifier) {
+        this(modifier, false);
+    }
+
+    /**
+     * Class constructor. An engine that only verifies leaves requests and
+     * responses unchanged and only evaluates the filters and verifiers of the
+     * tree, e.g. to verify traffic that has already been modified.
+     **/
+    LocalEngine(Modifier modifier, boolean verifyOnly) {
+        this.verifyOnly = verifyOnly;
+        this.pingbacks = new ArrayList<PingbackVerifier>();
+        this.root = compile(modifier);
+
+        this.failures = new ConcurrentLinkedQueue<String>();
+        this.seenPingbacks = Collections.newSetFromMap(new ConcurrentHashMap<Modifier, Boolean>());
+        this.verifications = new VerificationSink() {
+            @Override
+            public void failure(Modifier verifier, String message) {
+                failures.add(message);
+            }
+
+            @Override
+            public void pingback(PingbackVerifier verifier) {
+                seenPingbacks.add(verifier);
+            }
+        };
+    }
+
+    /**
+     * Applies the request phase of the modifier tree to request.
+     *
+     * @param request request to modify in place
+     **/
+    public void modifyRequest(LocalRequest request) {
+        this.root.applyRequest(request, this.verifications);
+    }
+
+    /**
+     * Applies the response phase of the modifier tree to response.
+     *
+     * @param response response to modify in place
+     **/
+    public void modifyResponse(LocalResponse response) {
+        this.root.applyResponse(response, this.verifications);
+    }
+
+    /**
+     * Returns the failures recorded by the verifiers of the tree since the
+     * engine was created or last reset, followed by a failure for every
+     * pingback verifier that has not seen its request.
+     *
+     * @return verification failure messages
+     **/
+    public List<String> checkVerifications() {
+        List<String> messages = new ArrayList<String>(this.failures);
+        for (PingbackVerifier pingback : this.pingbacks) {
+            if (!this.seenPingbacks.contains(pingback)) {
+                messages.add(pingbackFailure(pingback));
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Clears the recorded verification failures and seen pingbacks.
+     **/
+    public void resetVerifications() {
+        this.failures.clear();
+        this.seenPingbacks.clear();
+    }
+
+    void modifyRequest(LocalRequest request, VerificationSink sink) {
+        this.root.applyRequest(request, sink);
+    }
+
+    void modifyResponse(LocalResponse response, VerificationSink sink) {
+        this.root.applyResponse(response, sink);
+    }
+
+    /**
+     * Returns the pingback verifiers of the tree, which fail unless a matching
+     * request is seen.
+     **/
+    List<PingbackVerifier> getPingbacks() {
+        return this.pingbacks;
+    }
+
+    static String pingbackFailure(PingbackVerifier pingback) {
+        return "pingback verify failure: no request for"
+                + describe("scheme", pingback.getScheme())
+                + describe("host", pingback.getHost())
+                + describe("path", pingback.getPath())
+                + describe("query", pingback.getQuery());
+    }
+
+    private static String describe(String part, String value) {
+        return value == null ? "" : " " + part + " " + value;
+    }
+
+    private Node compile(Modifier modifier) {
+        if (modifier instanceof ImmutableModifier) {
+            return compile(decode((ImmutableModifier) modifier));
+        }
+        if (modifier instanceof FifoGroup) {
+            FifoGroup group = (FifoGroup) modifier;
+            List<Node> children = new ArrayList<Node>();
+            for (Modifier child : group.getModifiers()) {
+                children.add(compile(child));
+            }
+            return new GroupNode(group.getScope(), children);
+        }
+        if (modifier instanceof UrlFilter) {
+            UrlFilter filter = (UrlFilter) modifier;
+            return new UrlFilterNode(filter, compile(filter.getModifier()));
+        }
+        if (modifier instanceof HeaderFilter) {
+            HeaderFilter filter = (HeaderFilter) modifier;
+            return new HeaderFilterNode(filter, compile(filter.getModifier()));
+        }
+        if (modifier instanceof QueryStringFilter) {
+            QueryStringFilter filter = (QueryStringFilter) modifier;
+            return new QueryStringFilterNode(filter, compile(filter.getModifier()));
+        }
+
+        if (modifier instanceof HeaderVerifier) {
+            return new HeaderVerifierNode((HeaderVerifier) modifier);
+        }
+        if (modifier instanceof MethodVerifier) {
+            return new MethodVerifierNode((MethodVerifier) modifier);
+        }
+        if (modifier instanceof StatusVerifier) {
+            return new StatusVerifierNode((StatusVerifier) modifier);
+        }
+        if (modifier instanceof UrlVerifier) {
+            return new UrlVerifierNode((UrlVerifier) modifier);
+        }
+        if (modifier instanceof QueryStringVerifier) {
+            return new QueryStringVerifierNode((QueryStringVerifier) modifier);
+        }
+        if (modifier instanceof PingbackVerifier) {
+            PingbackVerifier pingback = (PingbackVerifier) modifier;
+            this.pingbacks.add(pingback);
+            return new PingbackVerifierNode(pingback);
+        }
+
+        Node node = compileModifier(modifier);
+        return this.verifyOnly ? new Node(Scope.DEFAULT, false, false) : node;
+    }
+
+    private static Node compileModifier(Modifier modifier) {
+        if (modifier instanceof HeaderModifier) {
+            return new HeaderNode((HeaderModifier) modifier);
+        }
+        if (modifier instanceof HeaderBlacklist) {
+            return new BlacklistNode((HeaderBlacklist) modifier);
+        }
+        if (modifier instanceof UrlModifier) {
+            return new UrlNode((UrlModifier) modifier);
+        }
+        if (modifier instanceof QueryStringModifier) {
+            return new QueryStringNode((QueryStringModifier) modifier);
+        }
+        if (modifier instanceof StatusModifier) {
+            return new StatusNode((StatusModifier) modifier);
+        }
+        if (modifier instanceof BodyModifier) {
+            return new BodyNode((BodyModifier) modifier);
+        }
+        if (modifier instanceof CookieModifier) {
+            return new CookieNode((CookieModifier) modifier);
+        }
+        if (modifier instanceof SkipRoundTripModifier) {
+            return new SkipRoundTripNode((SkipRoundTripModifier) modifier);
+        }
+        throw new IllegalArgumentException("Unsupported modifier: "
+                + (modifier == null ? null : modifier.getClass().getName()));
+    }
+
+    private static Modifier decode(ImmutableModifier modifier) {
+        try {
+            return modifier.toModifier();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Unsupported modifier: " + e.getMessage(), e);
+        }
+    }
+
+    static boolean hostMatches(String host, HttpUrl url) {
+        if (host.equalsIgnoreCase(url.host())) {
+            return true;
+        }
+        return host.equalsIgnoreCase(url.host() + ":" + url.port());
+    }
+
+    /**
+     * Compiled modifier. The phases a node applies to are resolved from its
+     * scope and the phases its Martian counterpart supports.
+     **/
+    static class Node {
+        final boolean request;
+        final boolean response;
+
+        Node(Scope scope, boolean supportsRequest, boolean supportsResponse) {
+            this.request = supportsRequest
+                    && (scope == Scope.DEFAULT
+                        || scope == Scope.REQUEST
+                        || scope == Scope.REQUEST_AND_RESPONSE);
+            this.response = supportsResponse
+                    && (scope == Scope.DEFAULT
+                        || scope == Scope.RESPONSE
+                        || scope == Scope.REQUEST_AND_RESPONSE);
+        }
+
+        final void applyRequest(LocalRequest request, VerificationSink sink) {
+            if (this.request) {
+                modifyRequest(request, sink);
+            }
+        }
+
+        final void applyResponse(LocalResponse response, VerificationSink sink) {
+            if (this.response) {
+                modifyResponse(response, sink);
+            }
+        }
+
+        void modifyRequest(LocalRequest request, VerificationSink sink) {}
+
+        void modifyResponse(LocalResponse response, VerificationSink sink) {}
+    }
+
+    static class GroupNode extends Node {
+        final List<Node> children;
+        private final FilterIndex index;
+
+        GroupNode(Scope scope, List<Node> children) {
+            super(scope, true, true);
+            this.children = children;
+            this.index = FilterIndex.worthwhile(children, INDEX_THRESHOLD)
+                    ? new FilterIndex(children)
+                    : null;
+        }
+
+        @Override
+        void modifyRequest(LocalRequest request, VerificationSink sink) {
+            if (this.index != null) {
+                this.index.applyRequest(request, sink);
+                return;
+            }
+            for (Node child : this.children) {
+                child.applyRequest(request, sink);
+            }
+        }
+
+        @Override
+        void modifyResponse(LocalResponse response, VerificationSink sink) {
+            if (this.index != null) {
+                this.index.applyResponse(response, sink);
+                return;
+            }
+            for (Node child : this.children) {
+                child.applyResponse(response, sink);
+            }
+        }
+    }
+
+    abstract static class FilterNode extends Node {
+        final Node modifier;
+
+        FilterNode(Scope scope, Node modifier) {
+            super(scope, true, true);
+            this.modifier = modifier;
+        }
+
+        abstract boolean matches(LocalRequest request);
+
+        abstract boolean matches(LocalResponse response);
+
+        @Override
+        void modifyRequest(LocalRequest request, VerificationSink sink) {
+            if (matches(request)) {
+                this.modifier.applyRequest(request, sink);
+            }
+        }
+
+        @Override
+        void modifyResponse(LocalResponse response, VerificationSink sink) {
+            if (matches(response)) {
+                this.modifier.applyResponse(response, sink);
+            }
+        }
+    }
+
+    static class UrlFilterNode extends FilterNode {
+        final String scheme;
+        final String host;
+        final String path;
+        final String query;
+
+        UrlFilterNode(UrlFilter filter, Node modifier) {
+            super(filter.getScope(), modifier);
+            this.scheme = filter.getScheme();
+            this.host = filter.getHost();
+            this.path = filter.getPath();
+            this.query = filter.getQuery();
+        }
+
+        @Override
+        boolean matches(LocalRequest request) {
+            HttpUrl url = request.getUrl();
+            if (this.scheme != null && !this.scheme.equalsIgnoreCase(url.scheme())) {
+                return false;
+            }
+            if (this.host != null && !hostMatches(this.host, url)) {
+                return false;
+            }
+            if (this.path != null && !this.path.equals(url.encodedPath())) {
+                return false;
+            }
+            return this.query == null || this.query.equals(url.encodedQuery());
+        }
+
+        @Override
+        boolean matches(LocalResponse response) {
+            return matches(response.getRequest());
+        }
+    }
+
+    static class HeaderFilterNode extends FilterNode {
+        final String name;
+        final String value;
+
+        HeaderFilterNode(HeaderFilter filter, Node modifier) {
+            super(filter.getScope(), modifier);
+            this.name = filter.getName();
+            this.value = filter.getValue();
+        }
+
+        boolean matches(LocalMessage message) {
+            List<String> values = message.getHeaders(this.name);
+            return this.value == null ? !values.isEmpty() : values.contains(this.value);
+        }
+
+        @Override
+        boolean matches(LocalRequest request) {
+            return matches((LocalMessage) request);
+        }
+
+        @Override
+        boolean matches(LocalResponse response) {
+            return matches((LocalMessage) response);
+        }
+    }
+
+    static class QueryStringFilterNode extends FilterNode {
+        final String name;
+        final String value;
+
+        QueryStringFilterNode(QueryStringFilter filter, Node modifier) {
+            super(filter.getScope(), modifier);
+            this.name = filter.getName();
+            this.value = filter.getValue();
+        }
+
+        @Override
+        boolean matches(LocalRequest request) {
+            if (this.name == null) {
+                return true;
+            }
+            List<String> values = request.getUrl().queryParameterValues(this.name);
+            return this.value == null ? !values.isEmpty() : values.contains(this.value);
+        }
+
+        @Override
+        boolean matches(LocalResponse response) {
+            return matches(response.getRequest());
+        }
+    }
+
+    private static class HeaderNode extends Node {
+        private final String name;
+        private final String value;
+
+        HeaderNode(HeaderModifier modifier) {
+            super(modifier.getScope(), true, true);
+            this.name = modifier.getName();
+            this.value = modifier.getValue();
+        }
+
+        @Override
+        void modifyRequest(LocalRequest request, VerificationSink sink) {
+            request.setHeader(this.name, this.value);
+        }
+
+        @Override
+        void modifyResponse(LocalResponse response, VerificationSink sink) {
+            response.setHeader(this.name, this.value);
+        }
+    }
+
+    private static class BlacklistNode extends Node {
+        private final List<String> names;
+
+        BlacklistNode(HeaderBlacklist blacklist) {
+            super(blacklist.getScope(), true, true);
+            this.names = new ArrayList<String>(blacklist.getNames());
+        }
+
+        @Override
+        void modifyRequest(LocalRequest request, VerificationSink sink) {
+            for (String name : this.names) {
+                request.removeHeader(name);
+            }
+        }
+
+        @Override
+        void modifyResponse(LocalResponse response, VerificationSink sink) {
+            for (String name : this.names) {
+                response.removeHeader(name);
+            }
+        }
+    }
+
+    private static class UrlNode extends Node {
+        private final String scheme;
+        private final String host;
+        private final int port;
+        private final String path;
+        private final String query;
+
+        UrlNode(UrlModifier modifier) {
+            super(modifier.getScope(), true, false);
+            this.scheme = modifier.getScheme();
+            this.path = modifier.getPath();
+            this.query = modifier.getQuery();
+
+            String host = modifier.getHost();
+            int colon = host == null ? -1 : host.lastIndexOf(':');
+            if (colon != -1 && host.indexOf(']') < colon) {
+                this.host = host.substring(0, colon);
+                this.port = Integer.parseInt(host.substring(colon + 1));
+            } else {
+                this.host = host;
+                this.port = -1;
+            }
+        }
+
+        @Override
+        void modifyRequest(LocalRequest request, VerificationSink sink) {
+            HttpUrl.Builder url = request.getUrl().newBuilder();
+            if (this.scheme != null) {
+                url.scheme(this.scheme);
+            }
+            if (this.host != null) {
+                url.host(this.host);
+                if (this.port != -1) {
+                    url.port(this.port);
+                }
+            }
+            if (this.path != null) {
+                url.encodedPath(this.path);
+            }
+            if (this.query != null) {
+                url.encodedQuery(this.query);
+            }
+            request.setUrl(url.build());
+        }
+    }
+
+    private static class QueryStringNode extends Node {
+        private final String name;
+        private final String value;
+
+        QueryStringNode(QueryStringModifier modifier) {
+            super(modifier.getScope(), true, false);
+            this.name = modifier.getName();
+            this.value = modifier.getValue();
+        }
+
+        @Override
+        void modifyRequest(LocalRequest request, VerificationSink sink) {
+            request.setUrl(request.getUrl()
+                    .newBuilder()
+                    .setQueryParameter(this.name, this.value)
+                    .build());
+        }
+    }
+
+    private static class StatusNode extends Node {
+        private final int status;
+
+        StatusNode(StatusModifier modifier) {
+            super(modifier.getScope(), false, true);
+            if (modifier.getHttpStatusCode() == null) {
+                throw new IllegalArgumentException("Status modifier without status code");
+            }
+            this.status = modifier.getHttpStatusCode();
+        }
+
+        @Override
+        void modifyResponse(LocalResponse response, VerificationSink sink) {
+            response.setStatus(this.status);
+        }
+    }
+
+    private static class BodyNode extends Node {
+        private final ByteString body;
+        private final String contentType;
+
+        BodyNode(BodyModifier modifier) {
+            super(modifier.getScope(), true, true);
+            // Martian decodes the body of the configuration message as base64.
+            if (modifier.getBody() == null) {
+                this.body = ByteString.EMPTY;
+            } else {
+                this.body = ByteString.decodeBase64(modifier.getBody());
+                if (this.body == null) {
+                    throw new IllegalArgumentException(
+                            "Body is not base64 encoded: " + modifier.getBody());
+                }
+            }
+            this.contentType = modifier.getContentType();
+        }
+
+        private void modify(LocalMessage message) {
+            message.setBody(this.body.toByteArray());
+            message.setHeader("Content-Length", Integer.toString(this.body.size()));
+            message.removeHeader("Content-Encoding");
+            if (this.contentType != null) {
+                message.setHeader("Content-Type", this.contentType);
+            }
+        }
+
+        @Override
+        void modifyRequest(LocalRequest request, VerificationSink sink) {
+            modify(request);
+        }
+
+        @Override
+        void modifyResponse(LocalResponse response, VerificationSink sink) {
+            modify(response);
+        }
+    }
+
+    private static class CookieNode extends Node {
+        private final String cookie;
+        private final String setCookie;
+
+        CookieNode(CookieModifier modifier) {
+            super(modifier.getScope(), true, true);
+            this.cookie = modifier.getName() + "=" + modifier.getValue();
+
+            StringBuilder setCookie = new StringBuilder(this.cookie);
+            if (modifier.getPath() != null) {
+                setCookie.append("; Path=").append(modifier.getPath());
+            }
+            if (modifier.getDomain() != null) {
+                setCookie.append("; Domain=").append(modifier.getDomain());
+            }
+            if (modifier.getExpires() != null) {
+                setCookie.append("; Expires=").append(COOKIE_EXPIRES.print(modifier.getExpires()));
+            }
+            if (modifier.getMaxAge() != null) {
+                setCookie.append("; Max-Age=").append(modifier.getMaxAge());
+            }
+            if (Boolean.TRUE.equals(modifier.getHttpOnly())) {
+                setCookie.append("; HttpOnly");
+            }
+            if (Boolean.TRUE.equals(modifier.getSecure())) {
+                setCookie.append("; Secure");
+            }
+            this.setCookie = setCookie.toString();
+        }
+
+        @Override
+        void modifyRequest(LocalRequest request, VerificationSink sink) {
+            String existing = request.getHeader("Cookie");
+            request.setHeader("Cookie", existing == null ? this.cookie : existing + "; " + this.cookie);
+        }
+
+        @Override
+        void modifyResponse(LocalResponse response, VerificationSink sink) {
+            response.addHeader("Set-Cookie", this.setCookie);
+        }
+    }
+
+    private static class SkipRoundTripNode extends Node {
+        SkipRoundTripNode(SkipRoundTripModifier modifier) {
+            super(modifier.getScope(), true, false);
+        }
+
+        @Override
+        void modifyRequest(LocalRequest request, VerificationSink sink) {
+            request.setRoundTripSkipped(true);
+        }
+    }
+
+    private static class HeaderVerifierNode extends Node {
+        private final HeaderVerifier verifier;
+        private final String name;
+        private final String value;
+
+        HeaderVerifierNode(HeaderVerifier verifier) {
+            super(verifier.getScope(), true, true);
+            this.verifier = verifier;
+            this.name = verifier.getName();
+            this.value = verifier.getValue();
+        }
+
+        private void verify(LocalMessage message, String phase, HttpUrl url, VerificationSink sink) {
+            List<String> values = message.getHeaders(this.name);
+            if (this.value == null ? values.isEmpty() : !values.contains(this.value)) {
+                sink.failure(this.verifier, phase + "(" + url + ") header verify failure: got "
+                        + this.name + " " + values + ", want " + this.name + " "
+                        + (this.value == null ? "present" : this.value));
+            }
+        }
+
+        @Override
+        void modifyRequest(LocalRequest request, VerificationSink sink) {
+            verify(request, "request", request.getUrl(), sink);
+        }
+
+        @Override
+        void modifyResponse(LocalResponse response, VerificationSink sink) {
+            verify(response, "response", response.getRequest().getUrl(), sink);
+        }
+    }
+
+    private static class MethodVerifierNode extends Node {
+        private final MethodVerifier verifier;
+
+        MethodVerifierNode(MethodVerifier verifier) {
+            super(verifier.getScope(), true, false);
+            this.verifier = verifier;
+        }
+
+        @Override
+        void modifyRequest(LocalRequest request, VerificationSink sink) {
+            String want = this.verifier.getMethod();
+            if (want != null && !want.equalsIgnoreCase(request.getMethod())) {
+                sink.failure(this.verifier, "request(" + request.getUrl()
+                        + ") method verify failure: got " + request.getMethod() + ", want " + want);
+            }
+        }
+    }
+
+    private static class StatusVerifierNode extends Node {
+        private final StatusVerifier verifier;
+
+        StatusVerifierNode(StatusVerifier verifier) {
+            super(verifier.getScope(), false, true);
+            this.verifier = verifier;
+        }
+
+        @Override
+        void modifyResponse(LocalResponse response, VerificationSink sink) {
+            int want = this.verifier.getHttpStatusCode();
+            if (response.getStatus() != want) {
+                sink.failure(this.verifier, "response(" + response.getRequest().getUrl()
+                        + ") status code verify failure: got " + response.getStatus()
+                        + ", want " + want);
+            }
+        }
+    }
+
+    private static class UrlVerifierNode extends Node {
+        private final UrlVerifier verifier;
+
+        UrlVerifierNode(UrlVerifier verifier) {
+            super(verifier.getScope(), true, false);
+            this.verifier = verifier;
+        }
+
+        @Override
+        void modifyRequest(LocalRequest request, VerificationSink sink) {
+            HttpUrl url = request.getUrl();
+            verify(url, "scheme", this.verifier.getScheme(), url.scheme(), sink);
+            if (this.verifier.getHost() != null && !hostMatches(this.verifier.getHost(), url)) {
+                fail(url, "host", this.verifier.getHost(), url.host(), sink);
+            }
+            verify(url, "path", this.verifier.getPath(), url.encodedPath(), sink);
+            verify(url, "query", this.verifier.getQuery(), url.encodedQuery(), sink);
+        }
+
+        private void verify(HttpUrl url, String part, String want, String got,
+                VerificationSink sink) {
+            if (want != null && !want.equals(got)) {
+                fail(url, part, want, got, sink);
+            }
+        }
+
+        private void fail(HttpUrl url, String part, String want, String got,
+                VerificationSink sink) {
+            sink.failure(this.verifier, "request(" + url + ") url verify failure: got "
+                    + part + " " + got + ", want " + part + " " + want);
+        }
+    }
+
+    private static class QueryStringVerifierNode extends Node {
+        private final QueryStringVerifier verifier;
+
+        QueryStringVerifierNode(QueryStringVerifier verifier) {
+            super(verifier.getScope(), true, false);
+            this.verifier = verifier;
+        }
+
+        @Override
+        void modifyRequest(LocalRequest request, VerificationSink sink) {
+            String name = this.verifier.getName();
+            String value = this.verifier.getValue();
+            List<String> values = request.getUrl().queryParameterValues(name);
+            if (value == null ? values.isEmpty() : !values.contains(value)) {
+                sink.failure(this.verifier, "request(" + request.getUrl()
+                        + ") query string verify failure: got " + name + " " + values
+                        + ", want " + name + " " + (value == null ? "present" : value));
+            }
+        }
+    }
+
+    private static class PingbackVerifierNode extends Node {
+        private final PingbackVerifier verifier;
+
+        PingbackVerifierNode(PingbackVerifier verifier) {
+            super(verifier.getScope(), true, false);
+            this.verifier = verifier;
+        }
+
+        @Override
+        void modifyRequest(LocalRequest request, VerificationSink sink) {
+            HttpUrl url = request.getUrl();
+            String scheme = this.verifier.getScheme();
+            String host = this.verifier.getHost();
+            String path = this.verifier.getPath();
+            String query = this.verifier.getQuery();
+            if ((scheme == null || scheme.equalsIgnoreCase(url.scheme()))
+                    && (host == null || hostMatches(host, url))
+                    && (path == null || path.equals(url.encodedPath()))
+                    && (query == null || query.equals(url.encodedQuery()))) {
+                sink.pingback(this.verifier);
+            }
+        }
+    }
+}
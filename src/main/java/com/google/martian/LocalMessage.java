@@ -0,0 +1,107 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Headers and body of an HTTP message processed by a {@link LocalEngine}.
+ * Header names are matched case-insensitively and keep the order in which
+ * they were added.
+ **/
+public abstract class LocalMessage {
+    private final List<String> namesAndValues;
+    private byte[] body;
+
+    LocalMessage() {
+        this.namesAndValues = new ArrayList<String>();
+        this.body = new byte[0];
+    }
+
+    /**
+     * Returns the first value of the header name, or null if it is absent.
+     *
+     * @param name header name
+     * @return first header value or null
+     **/
+    public String getHeader(String name) {
+        for (int i = 0; i < this.namesAndValues.size(); i += 2) {
+            if (this.namesAndValues.get(i).equalsIgnoreCase(name)) {
+                return this.namesAndValues.get(i + 1);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns all values of the header name in order.
+     *
+     * @param name header name
+     * @return header values, empty if the header is absent
+     **/
+    public List<String> getHeaders(String name) {
+        List<String> values = new ArrayList<String>();
+        for (int i = 0; i < this.namesAndValues.size(); i += 2) {
+            if (this.namesAndValues.get(i).equalsIgnoreCase(name)) {
+                values.add(this.namesAndValues.get(i + 1));
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Returns the names of the headers present, in the spelling they were first
+     * added with.
+     *
+     * @return header names in order
+     **/
+    public Set<String> getHeaderNames() {
+        Set<String> names = new LinkedHashSet<String>();
+        for (int i = 0; i < this.namesAndValues.size(); i += 2) {
+            names.add(this.namesAndValues.get(i));
+        }
+        return Collections.unmodifiableSet(names);
+    }
+
+    public void addHeader(String name, String value) {
+        this.namesAndValues.add(name);
+        this.namesAndValues.add(value);
+    }
+
+    public void setHeader(String name, String value) {
+        removeHeader(name);
+        addHeader(name, value);
+    }
+
+    public void removeHeader(String name) {
+        for (int i = this.namesAndValues.size() - 2; i >= 0; i -= 2) {
+            if (this.namesAndValues.get(i).equalsIgnoreCase(name)) {
+                this.namesAndValues.remove(i + 1);
+                this.namesAndValues.remove(i);
+            }
+        }
+    }
+
+    public byte[] getBody() {
+        return this.body;
+    }
+
+    public void setBody(byte[] body) {
+        this.body = body == null ? new byte[0] : body;
+    }
+}
@@ -0,0 +1,793 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import com.google.gson.stream.JsonWriter;
+import com.squareup.okhttp.Headers;
+import com.squareup.okhttp.HttpUrl;
+import com.squareup.okhttp.MediaType;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.RequestBody;
+import com.squareup.okhttp.Response;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.net.SocketFactory;
+
+/**
+ * LocalProxy is an embeddable HTTP forward proxy that speaks the Martian
+ * Proxy API, so that a Client can be pointed at it in place of a Martian
+ * binary. Configuration messages posted to /configure are parsed with
+ * ModifierParser and applied to proxied traffic with a LocalEngine; /verify
+ * and /verify/reset report and clear the failures of its verifiers.
+ *
+ * Every connection is served by a blocking task on the executor of the proxy,
+ * by default an unbounded pool of daemon threads. CONNECT requests are
+ * tunnelled without modification.
+ **/
+public class LocalProxy implements Closeable {
+  private static final Set<String> HOP_BY_HOP = headerNames(
+      "Connection", "Keep-Alive", "Proxy-Authenticate", "Proxy-Authorization",
+      "Proxy-Connection", "TE", "Trailer", "Transfer-Encoding", "Upgrade", "Content-Length");
+  private static final Set<String> BODY_REQUIRED = new TreeSet<String>(
+      Arrays.asList("POST", "PUT", "PATCH", "PROPPATCH", "REPORT"));
+  private static final int MAX_LINE = 64 * 1024;
+  private static final int MAX_BODY = 64 * 1024 * 1024;
+
+  private final InetSocketAddress address;
+  private final AtomicReference<LocalEngine> engine;
+  private final Set<Socket> connections;
+  private final OkHttpClient upstream;
+
+  private String proxyHost;
+  private String configurePath;
+  private String checkVerificationsPath;
+  private String resetVerificationsPath;
+
+  private ExecutorService executor;
+  private boolean ownsExecutor;
+  private ServerSocket serverSocket;
+  private Thread acceptor;
+
+  /**
+   * Class constructor. The proxy listens on an ephemeral port of the loopback
+   * address once started.
+   **/
+  public LocalProxy() {
+    this(0);
+  }
+
+  /**
+   * Class constructor.
+   *
+   * @param port port of the loopback address to listen on, or 0 for an
+   *     ephemeral port
+   **/
+  public LocalProxy(int port) {
+    this(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+  }
+
+  /**
+   * Class constructor.
+   *
+   * @param address address to listen on
+   **/
+  public LocalProxy(InetSocketAddress address) {
+    this.address = address;
+    this.engine = new AtomicReference<LocalEngine>(new LocalEngine(new FifoGroup()));
+    this.connections = Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+
+    this.upstream = new OkHttpClient();
+    this.upstream.setFollowRedirects(false);
+    this.upstream.setFollowSslRedirects(false);
+    this.upstream.setRetryOnConnectionFailure(false);
+    this.upstream.setSocketFactory(new NoDelaySocketFactory(SocketFactory.getDefault()));
+
+    this.proxyHost = "martian.proxy";
+    this.configurePath = "/configure";
+    this.checkVerificationsPath = "/verify";
+    this.resetVerificationsPath = "/verify/reset";
+  }
+
+  /**
+   * Sets the executor that serves connections. The executor is not shut down
+   * when the proxy is closed. Must be called before start.
+   *
+   * @param executor executor to run one blocking task per connection on
+   **/
+  public void setExecutor(ExecutorService executor) {
+    checkNotStarted();
+    this.executor = executor;
+    this.ownsExecutor = false;
+  }
+
+  /**
+   * Sets the host name that requests to the Martian Proxy API are addressed
+   * to. Requests in origin form are always treated as API requests.
+   *
+   * @param host API host name, "martian.proxy" by default
+   **/
+  public void setProxyHost(String host) {
+    checkNotStarted();
+    this.proxyHost = host;
+  }
+
+  /**
+   * Sets the path that configuration messages are posted to.
+   *
+   * @param path path to accept configuration messages on
+   **/
+  public void setConfigurePath(String path) {
+    checkNotStarted();
+    this.configurePath = path;
+  }
+
+  /**
+   * Sets the path that verification failures are retrieved from.
+   *
+   * @param path path to serve verification failures on
+   **/
+  public void setCheckVerificationsPath(String path) {
+    checkNotStarted();
+    this.checkVerificationsPath = path;
+  }
+
+  /**
+   * Sets the path that verification failures are cleared on.
+   *
+   * @param path path to clear verification failures on
+   **/
+  public void setResetVerificationsPath(String path) {
+    checkNotStarted();
+    this.resetVerificationsPath = path;
+  }
+
+  /**
+   * Binds the listening socket and starts accepting connections.
+   *
+   * @throws IOException if the socket cannot be bound
+   **/
+  public synchronized void start() throws IOException {
+    checkNotStarted();
+    if (this.executor == null) {
+      this.executor = Executors.newCachedThreadPool(new DaemonThreadFactory());
+      this.ownsExecutor = true;
+    }
+
+    this.serverSocket = new ServerSocket();
+    this.serverSocket.setReuseAddress(true);
+    this.serverSocket.bind(this.address, 128);
+
+    this.acceptor = new DaemonThreadFactory().newThread(new Runnable() {
+      @Override
+      public void run() {
+        accept();
+      }
+    });
+    this.acceptor.setName("LocalProxy-acceptor-" + getPort());
+    this.acceptor.start();
+  }
+
+  /**
+   * @return port the proxy listens on
+   * @throws IllegalStateException if the proxy has not been started
+   **/
+  public int getPort() {
+    if (this.serverSocket == null) {
+      throw new IllegalStateException("LocalProxy has not been started");
+    }
+    return this.serverSocket.getLocalPort();
+  }
+
+  /**
+   * @return host:port of the proxy, suitable for the Client constructor
+   **/
+  public String getAddress() {
+    return this.serverSocket.getInetAddress().getHostAddress() + ":" + getPort();
+  }
+
+  /**
+   * Replaces the modifier applied to proxied traffic, as a POST to the
+   * configure path would. Verification failures recorded so far are dropped.
+   *
+   * @param modifier Martian request or response modifier
+   **/
+  public void configure(Modifier modifier) {
+    this.engine.set(new LocalEngine(modifier));
+  }
+
+  /**
+   * @return failures recorded by the verifiers of the current configuration
+   **/
+  public List<String> checkVerifications() {
+    return this.engine.get().checkVerifications();
+  }
+
+  /**
+   * Clears the failures recorded by the verifiers of the current configuration.
+   **/
+  public void resetVerifications() {
+    this.engine.get().resetVerifications();
+  }
+
+  /**
+   * Stops accepting connections and closes the open ones. The executor is shut
+   * down if the proxy created it.
+   *
+   * @throws IOException if the listening socket cannot be closed
+   **/
+  @Override
+  public synchronized void close() throws IOException {
+    if (this.serverSocket == null) {
+      return;
+    }
+    this.serverSocket.close();
+    for (Socket socket : this.connections) {
+      closeQuietly(socket);
+    }
+    if (this.ownsExecutor) {
+      this.executor.shutdownNow();
+    }
+  }
+
+  private void checkNotStarted() {
+    if (this.serverSocket != null) {
+      throw new IllegalStateException("LocalProxy has already been started");
+    }
+  }
+
+  private void accept() {
+    while (!this.serverSocket.isClosed()) {
+      final Socket socket;
+      try {
+        socket = this.serverSocket.accept();
+      } catch (IOException e) {
+        // The server socket was closed.
+        return;
+      }
+
+      this.connections.add(socket);
+      try {
+        this.executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              serve(socket);
+            } finally {
+              connections.remove(socket);
+              closeQuietly(socket);
+            }
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        this.connections.remove(socket);
+        closeQuietly(socket);
+      }
+    }
+  }
+
+  private void serve(Socket socket) {
+    try {
+      socket.setTcpNoDelay(true);
+      InputStream in = new BufferedInputStream(socket.getInputStream());
+      OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+
+      while (true) {
+        String requestLine = readLine(in);
+        if (requestLine == null) {
+          return;
+        }
+        if (requestLine.isEmpty()) {
+          // Tolerate a stray CRLF between requests.
+          continue;
+        }
+
+        String[] parts = requestLine.split(" ");
+        if (parts.length != 3 || !parts[2].startsWith("HTTP/1.")) {
+          writeError(out, 400, "Bad Request", "malformed request line");
+          return;
+        }
+        String method = parts[0];
+        String target = parts[1];
+        String version = parts[2];
+        List<String> headers = readHeaders(in);
+
+        if ("CONNECT".equals(method)) {
+          tunnel(socket, in, out, target);
+          return;
+        }
+
+        if ("100-continue".equalsIgnoreCase(header(headers, "Expect"))) {
+          out.write(bytes("HTTP/1.1 100 Continue\r\n\r\n"));
+          out.flush();
+        }
+        byte[] body;
+        try {
+          body = readBody(in, headers);
+        } catch (MalformedBodyException e) {
+          writeError(out, 400, "Bad Request", e.getMessage());
+          out.flush();
+          return;
+        }
+
+        if (isApiRequest(target)) {
+          serveApi(out, method, target, body);
+        } else {
+          proxy(out, method, target, headers, body);
+        }
+        out.flush();
+
+        if (!isKeepAlive(version, headers)) {
+          return;
+        }
+      }
+    } catch (IOException e) {
+      // The connection was closed or is unusable; drop it.
+    } catch (RuntimeException e) {
+      // A bug in the proxy; report it rather than resetting the connection,
+      // which is then closed since its state is unknown.
+      try {
+        OutputStream out = socket.getOutputStream();
+        writeError(out, 500, "Internal Server Error", String.valueOf(e));
+        out.flush();
+      } catch (IOException ignored) {
+        // The connection is closed regardless.
+      }
+    }
+  }
+
+  private boolean isApiRequest(String target) {
+    if (target.startsWith("/")) {
+      return true;
+    }
+    HttpUrl url = HttpUrl.parse(target);
+    return url != null && url.host().equalsIgnoreCase(this.proxyHost);
+  }
+
+  private void serveApi(OutputStream out, String method, String target, byte[] body)
+      throws IOException {
+    String path = target.startsWith("/")
+        ? HttpUrl.parse("http://" + this.proxyHost + target).encodedPath()
+        : HttpUrl.parse(target).encodedPath();
+
+    if (path.equals(this.configurePath) && "POST".equals(method)) {
+      Modifier modifier;
+      try {
+        modifier = new ModifierParser().fromJson(
+            new InputStreamReader(new ByteArrayInputStream(body), StandardCharsets.UTF_8));
+        configure(modifier);
+      } catch (IOException | IllegalArgumentException e) {
+        writeError(out, 400, "Bad Request", e.getMessage());
+        return;
+      }
+      writeResponse(out, 200, "OK", null, new byte[0]);
+    } else if (path.equals(this.resetVerificationsPath) && "POST".equals(method)) {
+      resetVerifications();
+      writeResponse(out, 200, "OK", null, new byte[0]);
+    } else if (path.equals(this.checkVerificationsPath) && "GET".equals(method)) {
+      List<String> failures = checkVerifications();
+      if (failures.isEmpty()) {
+        writeResponse(out, 204, "No Content", null, null);
+      } else {
+        writeResponse(out, 200, "OK", "application/json; charset=utf-8", verifications(failures));
+      }
+    } else {
+      writeError(out, 404, "Not Found", "no handler for " + method + " " + path);
+    }
+  }
+
+  private static byte[] verifications(List<String> failures) throws IOException {
+    StringWriter buffer = new StringWriter();
+    JsonWriter writer = new JsonWriter(buffer);
+    writer.beginObject();
+    writer.name("errors");
+    writer.beginArray();
+    for (String failure : failures) {
+      writer.beginObject();
+      writer.name("message").value(failure);
+      writer.endObject();
+    }
+    writer.endArray();
+    writer.endObject();
+    writer.close();
+    return buffer.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  private void proxy(OutputStream out, String method, String target, List<String> headers,
+      byte[] body) throws IOException {
+    LocalRequest request;
+    try {
+      request = new LocalRequest(method, target);
+    } catch (IllegalArgumentException e) {
+      writeError(out, 400, "Bad Request", "malformed URL: " + target);
+      return;
+    }
+    for (int i = 0; i < headers.size(); i += 2) {
+      request.addHeader(headers.get(i), headers.get(i + 1));
+    }
+    request.setBody(body);
+
+    LocalEngine engine = this.engine.get();
+    engine.modifyRequest(request);
+
+    LocalResponse response;
+    String reason;
+    if (request.isRoundTripSkipped()) {
+      response = new LocalResponse(request, 200);
+      reason = "OK";
+    } else {
+      Response upstreamResponse;
+      try {
+        upstreamResponse = this.upstream.newCall(toUpstream(request)).execute();
+      } catch (IOException | IllegalArgumentException e) {
+        writeError(out, 502, "Bad Gateway", e.getMessage());
+        return;
+      }
+      try {
+        response = new LocalResponse(request, upstreamResponse.code());
+        Headers upstreamHeaders = upstreamResponse.headers();
+        for (int i = 0; i < upstreamHeaders.size(); i++) {
+          if (!isHopByHop(upstreamHeaders.name(i), upstreamHeaders)) {
+            response.addHeader(upstreamHeaders.name(i), upstreamHeaders.value(i));
+          }
+        }
+        response.setBody(upstreamResponse.body().bytes());
+        reason = upstreamResponse.message();
+      } finally {
+        upstreamResponse.body().close();
+      }
+    }
+
+    int original = response.getStatus();
+    engine.modifyResponse(response);
+    int status = response.getStatus();
+    if (status != original) {
+      reason = "";
+    }
+
+    boolean hasBody = !"HEAD".equals(method) && status >= 200 && status != 204 && status != 304;
+    StringBuilder head = new StringBuilder();
+    head.append("HTTP/1.1 ").append(status).append(' ').append(reason).append("\r\n");
+    for (String name : response.getHeaderNames()) {
+      if (hasBody && name.equalsIgnoreCase("Content-Length")) {
+        continue;
+      }
+      for (String value : response.getHeaders(name)) {
+        head.append(name).append(": ").append(value).append("\r\n");
+      }
+    }
+    if (hasBody) {
+      head.append("Content-Length: ").append(response.getBody().length).append("\r\n");
+    }
+    head.append("\r\n");
+    out.write(bytes(head.toString()));
+    if (hasBody) {
+      out.write(response.getBody());
+    }
+  }
+
+  private static Request toUpstream(LocalRequest request) {
+    Request.Builder builder = new Request.Builder().url(request.getUrl());
+    Headers.Builder headers = new Headers.Builder();
+    for (String name : request.getHeaderNames()) {
+      for (String value : request.getHeaders(name)) {
+        headers.add(name, value);
+      }
+    }
+    Headers original = headers.build();
+    Headers.Builder forwarded = new Headers.Builder();
+    for (int i = 0; i < original.size(); i++) {
+      String name = original.name(i);
+      if (!isHopByHop(name, original) && !name.equalsIgnoreCase("Host")) {
+        forwarded.add(name, original.value(i));
+      }
+    }
+    builder.headers(forwarded.build());
+
+    byte[] body = request.getBody();
+    String method = request.getMethod();
+    RequestBody requestBody = null;
+    if (body.length > 0 || BODY_REQUIRED.contains(method)) {
+      String contentType = request.getHeader("Content-Type");
+      requestBody = RequestBody.create(
+          contentType == null ? null : MediaType.parse(contentType), body);
+    }
+    return builder.method(method, requestBody).build();
+  }
+
+  private void tunnel(Socket client, InputStream in, OutputStream out, String target)
+      throws IOException {
+    int colon = target.lastIndexOf(':');
+    final Socket server = new Socket();
+    try {
+      String host = colon < 0 ? target : target.substring(0, colon);
+      int port = colon < 0 ? 443 : Integer.parseInt(target.substring(colon + 1));
+      server.connect(new InetSocketAddress(host, port));
+    } catch (IOException | IllegalArgumentException e) {
+      closeQuietly(server);
+      writeError(out, 502, "Bad Gateway", e.getMessage());
+      out.flush();
+      return;
+    }
+
+    this.connections.add(server);
+    try {
+      out.write(bytes("HTTP/1.1 200 Connection Established\r\n\r\n"));
+      out.flush();
+
+      final InputStream fromServer = server.getInputStream();
+      final OutputStream toClient = client.getOutputStream();
+      this.executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          pump(fromServer, toClient);
+        }
+      });
+      pump(in, server.getOutputStream());
+    } finally {
+      this.connections.remove(server);
+      closeQuietly(server);
+    }
+  }
+
+  private static void pump(InputStream in, OutputStream out) {
+    byte[] buffer = new byte[16 * 1024];
+    try {
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        out.write(buffer, 0, read);
+        out.flush();
+      }
+    } catch (IOException e) {
+      // Either side closed the tunnel.
+    }
+  }
+
+  private static void writeResponse(OutputStream out, int status, String reason,
+      String contentType, byte[] body) throws IOException {
+    StringBuilder head = new StringBuilder();
+    head.append("HTTP/1.1 ").append(status).append(' ').append(reason).append("\r\n");
+    if (contentType != null) {
+      head.append("Content-Type: ").append(contentType).append("\r\n");
+    }
+    if (body != null) {
+      head.append("Content-Length: ").append(body.length).append("\r\n");
+    }
+    head.append("\r\n");
+    out.write(bytes(head.toString()));
+    if (body != null) {
+      out.write(body);
+    }
+  }
+
+  private static void writeError(OutputStream out, int status, String reason, String message)
+      throws IOException {
+    writeResponse(out, status, reason, "text/plain; charset=utf-8",
+        String.valueOf(message).getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static List<String> readHeaders(InputStream in) throws IOException {
+    List<String> headers = new ArrayList<String>();
+    String line;
+    while ((line = readLine(in)) != null && !line.isEmpty()) {
+      int colon = line.indexOf(':');
+      if (colon <= 0) {
+        throw new IOException("malformed header: " + line);
+      }
+      headers.add(line.substring(0, colon).trim());
+      headers.add(line.substring(colon + 1).trim());
+    }
+    if (line == null) {
+      throw new EOFException("connection closed in headers");
+    }
+    return headers;
+  }
+
+  private static byte[] readBody(InputStream in, List<String> headers) throws IOException {
+    String transferEncoding = header(headers, "Transfer-Encoding");
+    if (transferEncoding != null && transferEncoding.toLowerCase(Locale.US).contains("chunked")) {
+      ByteArrayOutputStream body = new ByteArrayOutputStream();
+      while (true) {
+        String line = readLine(in);
+        if (line == null) {
+          throw new EOFException("connection closed in chunked body");
+        }
+        int extension = line.indexOf(';');
+        int size;
+        try {
+          size = Integer.parseInt((extension < 0 ? line : line.substring(0, extension)).trim(), 16);
+        } catch (NumberFormatException e) {
+          throw new MalformedBodyException("malformed chunk size: " + line);
+        }
+        if (size < 0 || size > MAX_BODY - body.size()) {
+          throw new MalformedBodyException("chunk size out of range: " + line);
+        }
+        if (size == 0) {
+          // Discard trailers.
+          readHeaders(in);
+          return body.toByteArray();
+        }
+        copy(in, body, size);
+        readLine(in);
+      }
+    }
+
+    String contentLength = header(headers, "Content-Length");
+    if (contentLength == null) {
+      return new byte[0];
+    }
+    int length;
+    try {
+      length = Integer.parseInt(contentLength.trim());
+    } catch (NumberFormatException e) {
+      throw new MalformedBodyException("malformed Content-Length: " + contentLength);
+    }
+    if (length < 0 || length > MAX_BODY) {
+      throw new MalformedBodyException("Content-Length out of range: " + contentLength);
+    }
+    ByteArrayOutputStream body = new ByteArrayOutputStream(length);
+    copy(in, body, length);
+    return body.toByteArray();
+  }
+
+  private static void copy(InputStream in, ByteArrayOutputStream out, int length)
+      throws IOException {
+    byte[] buffer = new byte[Math.min(length, 16 * 1024)];
+    while (length > 0) {
+      int read = in.read(buffer, 0, Math.min(length, buffer.length));
+      if (read == -1) {
+        throw new EOFException("connection closed in body");
+      }
+      out.write(buffer, 0, read);
+      length -= read;
+    }
+  }
+
+  /**
+   * Reads a CRLF or LF terminated line, or returns null at the end of the
+   * stream.
+   **/
+  private static String readLine(InputStream in) throws IOException {
+    StringBuilder line = new StringBuilder();
+    int c;
+    while ((c = in.read()) != -1) {
+      if (c == '\n') {
+        int length = line.length();
+        if (length > 0 && line.charAt(length - 1) == '\r') {
+          line.setLength(length - 1);
+        }
+        return line.toString();
+      }
+      if (line.length() >= MAX_LINE) {
+        throw new IOException("line too long");
+      }
+      line.append((char) c);
+    }
+    if (line.length() > 0) {
+      throw new EOFException("connection closed in line");
+    }
+    return null;
+  }
+
+  private static String header(List<String> headers, String name) {
+    for (int i = 0; i < headers.size(); i += 2) {
+      if (headers.get(i).equalsIgnoreCase(name)) {
+        return headers.get(i + 1);
+      }
+    }
+    return null;
+  }
+
+  private static boolean isKeepAlive(String version, List<String> headers) {
+    String connection = header(headers, "Connection");
+    if (connection == null) {
+      connection = header(headers, "Proxy-Connection");
+    }
+    if (connection != null) {
+      String value = connection.toLowerCase(Locale.US);
+      if (value.contains("close")) {
+        return false;
+      }
+      if (value.contains("keep-alive")) {
+        return true;
+      }
+    }
+    return "HTTP/1.1".equals(version);
+  }
+
+  private static boolean isHopByHop(String name, Headers headers) {
+    if (HOP_BY_HOP.contains(name)) {
+      return true;
+    }
+    for (String connection : headers.values("Connection")) {
+      for (String token : connection.split(",")) {
+        if (token.trim().equalsIgnoreCase(name)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private static Set<String> headerNames(String... names) {
+    Set<String> set = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+    set.addAll(Arrays.asList(names));
+    return Collections.unmodifiableSet(set);
+  }
+
+  private static byte[] bytes(String s) {
+    return s.getBytes(StandardCharsets.ISO_8859_1);
+  }
+
+  private static void closeQuietly(Socket socket) {
+    try {
+      socket.close();
+    } catch (IOException e) {
+      // Nothing left to do with a socket that will not close.
+    }
+  }
+
+  private static class DaemonThreadFactory implements ThreadFactory {
+    private static final AtomicInteger COUNT = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "LocalProxy-" + COUNT.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+
+  /**
+   * Thrown when the framing of a request body cannot be honoured; the request
+   * is answered with a 400 and the connection is closed.
+   **/
+  private static final class MalformedBodyException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    MalformedBodyException(String message) {
+      super(message);
+    }
+  }
+}
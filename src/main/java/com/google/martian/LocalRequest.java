@@ -0,0 +1,70 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import com.squareup.okhttp.HttpUrl;
+
+/**
+ * HTTP request processed by a {@link LocalEngine} in place of Martian Proxy.
+ **/
+public class LocalRequest extends LocalMessage {
+    private String method;
+    private HttpUrl url;
+    private boolean roundTripSkipped;
+
+    /**
+     * Class constructor.
+     *
+     * @param method HTTP method of the request
+     * @param url    absolute http or https URL of the request
+     * @throws IllegalArgumentException if url cannot be parsed
+     **/
+    public LocalRequest(String method, String url) {
+        this.method = method;
+        this.url = HttpUrl.parse(url);
+        if (this.url == null) {
+            throw new IllegalArgumentException("Unexpected url: " + url);
+        }
+    }
+
+    public String getMethod() {
+        return this.method;
+    }
+
+    public void setMethod(String method) {
+        this.method = method;
+    }
+
+    public HttpUrl getUrl() {
+        return this.url;
+    }
+
+    public void setUrl(HttpUrl url) {
+        this.url = url;
+    }
+
+    /**
+     * Returns whether a SkipRoundTripModifier asked for the request not to be
+     * sent upstream.
+     *
+     * @return true if the round trip should be skipped
+     **/
+    public boolean isRoundTripSkipped() {
+        return this.roundTripSkipped;
+    }
+
+    public void setRoundTripSkipped(boolean roundTripSkipped) {
+        this.roundTripSkipped = roundTripSkipped;
+    }
+}
@@ -0,0 +1,46 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+/**
+ * HTTP response processed by a {@link LocalEngine} in place of Martian Proxy.
+ **/
+public class LocalResponse extends LocalMessage {
+    private final LocalRequest request;
+    private int status;
+
+    /**
+     * Class constructor.
+     *
+     * @param request request the response answers, matched by url and query
+     *                string filters in the response phase
+     * @param status  HTTP status code of the response
+     **/
+    public LocalResponse(LocalRequest request, int status) {
+        this.request = request;
+        this.status = status;
+    }
+
+    public LocalRequest getRequest() {
+        return this.request;
+    }
+
+    public int getStatus() {
+        return this.status;
+    }
+
+    public void setStatus(int status) {
+        this.status = status;
+    }
+}
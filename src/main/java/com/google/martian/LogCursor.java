@@ -0,0 +1,106 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import java.io.IOException;
+
+/**
+ * Remembers how far a reader has got in a Martian log that keeps growing, so
+ * that the next read can skip the entries it has already seen. Martian cannot
+ * return part of a log, so the log is read from the start and the seen entries
+ * are skipped without being materialized.
+ * <p/>
+ * Besides the number of entries seen, the cursor keeps the id of the first
+ * entry of the log. The log is taken to have been reset elsewhere, and is read
+ * from its first entry again, if it is now shorter than the cursor or starts
+ * with a different entry. Logs whose entries carry neither an _id nor a
+ * startedDateTime can only be detected to be reset by their length.
+ * <p/>
+ * The cursor is safe for use by multiple threads, but concurrent readers
+ * advancing the same cursor may see entries twice.
+ **/
+final class LogCursor {
+  /**
+   * Opens the log, reading it from the start.
+   **/
+  interface Log {
+    HarEntryIterator open() throws IOException;
+  }
+
+  private long position;
+  private String firstId;
+
+  /**
+   * Opens log and skips the entries seen so far, or returns it at its first
+   * entry if it has been reset since, in which case the cursor moves back to
+   * the start.
+   *
+   * @return the log, positioned at the first entry not seen yet
+   **/
+  HarEntryIterator resume(Log log) throws IOException {
+    long position;
+    String firstId;
+    synchronized (this) {
+      position = this.position;
+      firstId = this.firstId;
+    }
+
+    HarEntryIterator entries = log.open();
+    boolean reset;
+    try {
+      reset = entries.skip(position) < position
+          || (position > 0 && !equal(firstId, entries.getFirstEntryId()));
+    } catch (IOException | RuntimeException e) {
+      entries.close();
+      throw e;
+    }
+    if (!reset) {
+      return entries;
+    }
+
+    entries.close();
+    synchronized (this) {
+      this.position = 0;
+      this.firstId = null;
+    }
+    return log.open();
+  }
+
+  /**
+   * Marks the entries of the log before position as seen.
+   *
+   * @param entries the log as returned by resume
+   * @param position number of entries of the log seen, as counted by entries
+   **/
+  synchronized void advance(HarEntryIterator entries, long position) {
+    this.position = position;
+    this.firstId = position > 0 ? entries.getFirstEntryId() : null;
+  }
+
+  /**
+   * Moves the cursor back to the start of the log.
+   **/
+  synchronized void rewind() {
+    this.position = 0;
+    this.firstId = null;
+  }
+
+  synchronized long getPosition() {
+    return this.position;
+  }
+
+  private static boolean equal(String a, String b) {
+    return a == null ? b == null : a.equals(b);
+  }
+}
@@ -19,8 +19,20 @@ import com.squareup.okhttp.Request;
 import com.squareup.okhttp.RequestBody;
 import com.squareup.okhttp.Response;
 
+import okio.BufferedSource;
+import okio.Okio;
+import okio.Sink;
+
 import java.io.IOException;
-import java.net.URL;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
  * Logger represents a single logging point within a running Martian Proxy. A
@@ -32,11 +44,36 @@ public class Logger {
   private String resetLogsUrl;
   private String retrieveLogsUrl;
   private OkHttpClient httpClient;
+  private final Probe resetLogsProbe;
+  private final Probe retrieveLogsProbe;
 
   public Logger(String resetLogsUrl, String retrieveLogsUrl) {
+    this(resetLogsUrl, retrieveLogsUrl, new OkHttpClient());
+  }
+
+  /**
+   * Class constructor for a logger that sends its requests through httpClient,
+   * sharing its proxy settings, timeouts, connection pool and dispatcher.
+   *
+   * @param resetLogsUrl    URL to send a POST request to that clears in-memory logs
+   * @param retrieveLogsUrl URL to send a GET request to that retrieves HAR logs
+   * @param httpClient      HTTP client to send requests with
+   **/
+  public Logger(String resetLogsUrl, String retrieveLogsUrl, OkHttpClient httpClient) {
+    this(resetLogsUrl, retrieveLogsUrl, httpClient, null);
+  }
+
+  /**
+   * Class constructor for a logger of a client that reports its requests to
+   * the metrics listener of the client.
+   **/
+  Logger(String resetLogsUrl, String retrieveLogsUrl, OkHttpClient httpClient,
+      MetricsListener listener) {
     this.resetLogsUrl = resetLogsUrl;
     this.retrieveLogsUrl = retrieveLogsUrl;
-    this.httpClient = new OkHttpClient();
+    this.httpClient = httpClient;
+    this.resetLogsProbe = new Probe(listener, Endpoint.RESET_LOGS);
+    this.retrieveLogsProbe = new Probe(listener, Endpoint.RETRIEVE_LOGS);
   }
 
   /**
@@ -45,13 +82,25 @@ public class Logger {
    * @throws IOException if an error occurs during HTTP POST to clear logs.
    **/
   public void resetLogs() throws IOException {
-    Request request =
-        new Request.Builder()
-            .url(this.resetLogsUrl)
-            .post(RequestBody.create(null, new byte[0]))
-            .build();
+    Calls.execute(
+        this.httpClient, newResetLogsRequest(), new ResetLogsHandler(), null, this.resetLogsProbe);
+  }
 
-    this.httpClient.newCall(request).execute();
+  /**
+   * Clears in-memory logs without blocking the calling thread.
+   *
+   * @param executor executor that completes the returned future, or null to
+   *                 complete it on the HTTP dispatcher thread
+   * @return future that completes once the logs have been cleared
+   **/
+  public CompletableFuture<Void> resetLogsAsync(Executor executor) {
+    return Calls.enqueue(
+        this.httpClient,
+        newResetLogsRequest(),
+        new ResetLogsHandler(),
+        executor,
+        null,
+        this.resetLogsProbe);
   }
 
   /**
@@ -60,16 +109,222 @@ public class Logger {
    * @throws IOException if an error occurs during HTTP GET to retrieve logs.
    **/
   public String retrieveLogs() throws IOException {
-    Request request = new Request.Builder().url(this.retrieveLogsUrl).build();
+    return retrieveLogs(new StringLogReader());
+  }
+
+  /**
+   * Streams in-memory logs to out without holding them in memory. out is
+   * flushed but not closed.
+   *
+   * @param out stream to copy the logs to
+   * @return number of bytes copied
+   * @throws IOException if an error occurs during HTTP GET to retrieve logs.
+   **/
+  public long retrieveLogs(OutputStream out) throws IOException {
+    return retrieveLogs(new SinkLogReader(Okio.sink(out), false));
+  }
+
+  /**
+   * Streams in-memory logs to the file at path, replacing any existing content.
+   * The logs are written to a temporary file in the same directory, which is
+   * atomically moved over path once they have been received in full, so path
+   * is left untouched if the logs cannot be retrieved.
+   *
+   * @param path file to write the logs to
+   * @return number of bytes written
+   * @throws IOException if an error occurs during HTTP GET to retrieve logs or
+   *                     writing the file.
+   **/
+  public long retrieveLogs(Path path) throws IOException {
+    return retrieveLogs(new PathLogReader(path));
+  }
+
+  /**
+   * Streams in-memory logs to reader as they are received.
+   *
+   * @param reader consumer of the logs
+   * @return result of reader
+   * @throws IOException if an error occurs during HTTP GET to retrieve logs or
+   *                     in reader.
+   **/
+  public <T> T retrieveLogs(LogReader<T> reader) throws IOException {
+    return Calls.execute(
+        this.httpClient,
+        newRetrieveLogsRequest(),
+        new RetrieveLogsHandler<T>(reader),
+        null,
+        this.retrieveLogsProbe);
+  }
+
+  /**
+   * Returns an iterator that pulls the entries of the in-memory logs from
+   * Martian one at a time as they are read. The iterator holds the HTTP
+   * response open and must be closed. The call is measured until the
+   * iterator has read the last entry or is closed.
+   *
+   * @param predicate entries to return, or null to return every entry
+   * @return iterator over the accepted log entries
+   * @throws IOException if an error occurs during HTTP GET to retrieve logs.
+   **/
+  public HarEntryIterator retrieveEntries(HarEntryPredicate predicate) throws IOException {
+    return retrieveEntries(predicate, null);
+  }
+
+  /**
+   * Returns an iterator that pulls the entries of the in-memory logs from
+   * Martian one at a time as they are read, within the deadline of context.
+   * Reading the entries is bounded by the deadline and aborted if context is
+   * cancelled, until the iterator has read the last entry or is closed.
+   *
+   * @param predicate entries to return, or null to return every entry
+   * @param context   deadline and cancellation signal of the call, or null
+   * @return iterator over the accepted log entries
+   * @throws InterruptedIOException if the deadline of context passes
+   * @throws IOException if an error occurs during HTTP GET to retrieve logs,
+   *                     or context is cancelled
+   **/
+  public HarEntryIterator retrieveEntries(HarEntryPredicate predicate, CallContext context)
+      throws IOException {
+    return Calls.open(
+        this.httpClient,
+        newRetrieveLogsRequest(),
+        new RetrieveEntriesHandler(predicate),
+        context,
+        this.retrieveLogsProbe);
+  }
+
+  /**
+   * Retrieves in-memory logs without blocking the calling thread.
+   *
+   * @param executor executor that completes the returned future, or null to
+   *                 complete it on the HTTP dispatcher thread
+   * @return future of the in-memory logs as String
+   **/
+  public CompletableFuture<String> retrieveLogsAsync(Executor executor) {
+    return Calls.enqueue(
+        this.httpClient,
+        newRetrieveLogsRequest(),
+        new RetrieveLogsHandler<String>(new StringLogReader()),
+        executor,
+        null,
+        this.retrieveLogsProbe);
+  }
+
+  private Request newResetLogsRequest() {
+    return new Request.Builder()
+        .url(this.resetLogsUrl)
+        .post(RequestBody.create(null, new byte[0]))
+        .build();
+  }
+
+  private Request newRetrieveLogsRequest() {
+    return new Request.Builder().url(this.retrieveLogsUrl).build();
+  }
+
+  private static class ResetLogsHandler implements ResponseHandler<Void> {
+    @Override
+    public Void handle(Response response) throws IOException {
+      response.body().close();
+      return null;
+    }
+  }
+
+  private class RetrieveLogsHandler<T> implements ResponseHandler<T> {
+    private final LogReader<T> reader;
+
+    RetrieveLogsHandler(LogReader<T> reader) {
+      this.reader = reader;
+    }
 
-    Response response = this.httpClient.newCall(request).execute();
-    if (!response.isSuccessful()) {
-      throw new IOException("Error on GET " + this.retrieveLogsUrl + ": " + response);
+    @Override
+    public T handle(Response response) throws IOException {
+      try {
+        if (!response.isSuccessful()) {
+          throw new IOException("Error on GET " + retrieveLogsUrl + ": " + response);
+        }
+        return this.reader.read(response.body().source());
+      } finally {
+        response.body().close();
+      }
     }
+  }
+
+  private class RetrieveEntriesHandler implements Calls.StreamHandler<HarEntryIterator> {
+    private final HarEntryPredicate predicate;
+
+    RetrieveEntriesHandler(HarEntryPredicate predicate) {
+      this.predicate = predicate;
+    }
+
+    @Override
+    public HarEntryIterator handle(Response response, Calls.OpenCall call) throws IOException {
+      if (!response.isSuccessful()) {
+        response.body().close();
+        throw new IOException("Error on GET " + retrieveLogsUrl + ": " + response);
+      }
+      return new HarEntryIterator(response.body().charStream(), this.predicate, call);
+    }
+  }
+
+  private static class StringLogReader implements LogReader<String> {
+    @Override
+    public String read(BufferedSource logs) throws IOException {
+      return logs.readUtf8();
+    }
+  }
 
-    String logs = response.body().string();
-    response.body().close();
+  private static class PathLogReader implements LogReader<Long> {
+    private final Path path;
 
-    return logs;
+    PathLogReader(Path path) {
+      this.path = path;
+    }
+
+    /**
+     * Writes the logs to a file next to path and moves it over path once they
+     * have been read in full, so that path is never left holding part of them.
+     **/
+    @Override
+    public Long read(BufferedSource logs) throws IOException {
+      Path target = this.path.toAbsolutePath();
+      Path temp = target.resolveSibling(
+          "." + target.getFileName() + "." + UUID.randomUUID() + ".tmp");
+      boolean moved = false;
+      try {
+        long count = new SinkLogReader(Okio.sink(Files.newOutputStream(
+            temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)), true).read(logs);
+        Files.move(temp, target,
+            StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        moved = true;
+        return count;
+      } finally {
+        if (!moved) {
+          Files.deleteIfExists(temp);
+        }
+      }
+    }
+  }
+
+  private static class SinkLogReader implements LogReader<Long> {
+    private final Sink sink;
+    private final boolean close;
+
+    SinkLogReader(Sink sink, boolean close) {
+      this.sink = sink;
+      this.close = close;
+    }
+
+    @Override
+    public Long read(BufferedSource logs) throws IOException {
+      try {
+        long count = logs.readAll(this.sink);
+        this.sink.flush();
+        return count;
+      } finally {
+        if (this.close) {
+          this.sink.close();
+        }
+      }
+    }
   }
 }
@@ -59,4 +59,12 @@ public class MethodVerifier implements Modifier {
     public void setMethod(String method) {
         this.method = method;
     }
+
+    public Scope getScope() {
+        return this.scope;
+    }
+
+    public String getMethod() {
+        return this.method;
+    }
 }
@@ -0,0 +1,41 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+/**
+ * Receives the outcome of every request the client and its loggers send to
+ * Martian. Callbacks run on the thread that made or completed the call and
+ * must not block.
+ **/
+public interface MetricsListener {
+  /**
+   * Called before a request is sent.
+   *
+   * @param endpoint endpoint the request is sent to
+   **/
+  void onCallStarted(Endpoint endpoint);
+
+  /**
+   * Called once a call has finished, after its response has been handled.
+   *
+   * @param endpoint      endpoint the request was sent to
+   * @param latencyNanos  time from the start of the call until its response was
+   *                      handled, in nanoseconds
+   * @param requestBytes  bytes of request body sent
+   * @param responseBytes bytes of response body read
+   * @param error         error the call failed with, or null if it succeeded
+   **/
+  void onCallFinished(Endpoint endpoint, long latencyNanos, long requestBytes,
+      long responseBytes, Throwable error);
+}
@@ -0,0 +1,44 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import java.util.Map;
+
+/**
+ * Metrics of a client and its loggers, copied at one point in time.
+ **/
+public final class MetricsSnapshot {
+  private final Map<Endpoint, EndpointSnapshot> endpoints;
+  private final HistogramSnapshot configurationSize;
+
+  MetricsSnapshot(Map<Endpoint, EndpointSnapshot> endpoints, HistogramSnapshot configurationSize) {
+    this.endpoints = endpoints;
+    this.configurationSize = configurationSize;
+  }
+
+  /**
+   * @param endpoint Martian Proxy API endpoint
+   * @return metrics of the requests sent to endpoint
+   **/
+  public EndpointSnapshot getEndpoint(Endpoint endpoint) {
+    return this.endpoints.get(endpoint);
+  }
+
+  /**
+   * @return size of the configuration messages sent, in bytes
+   **/
+  public HistogramSnapshot getConfigurationSize() {
+    return this.configurationSize;
+  }
+}
@@ -0,0 +1,320 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Rewrites a modifier tree into a smaller tree with the same behaviour in
+ * Martian Proxy. The input tree is never changed; filters and leaf modifiers
+ * that need no rewriting are shared with the result.
+ *
+ * <p>The following rewrites are applied bottom up:
+ * <ul>
+ *   <li>FifoGroups with default scope nested in a FifoGroup are replaced by
+ *       their modifiers, and a FifoGroup with default scope and a single
+ *       modifier at the root or in a filter is replaced by that modifier.
+ *   <li>Adjacent HeaderBlacklists with the same scope are merged into one.
+ *   <li>Adjacent identical modifiers of a type whose effect is idempotent are
+ *       reduced to one. Verifiers and cookie modifiers are never removed.
+ *   <li>Adjacent filters with the same type, scope and predicate are merged
+ *       into one filter over a FifoGroup of their modifiers, provided that no
+ *       modifier but the last can change what the predicate matches.
+ * </ul>
+ *
+ * <p>Immutable modifiers are left as they are, since rewriting them would
+ * discard their cached message; optimize the tree before freezing it.
+ **/
+public final class ModifierOptimizer {
+    private ModifierOptimizer() {}
+
+    /**
+     * Returns an optimized modifier equivalent to modifier.
+     *
+     * @param modifier Martian request or response modifier
+     * @return optimized modifier, or modifier itself if nothing could be rewritten
+     * @throws IOException if a modifier cannot be serialized for comparison
+     **/
+    public static Modifier optimize(Modifier modifier) throws IOException {
+        return unwrap(rewrite(modifier));
+    }
+
+    private static Modifier rewrite(Modifier modifier) throws IOException {
+        if (modifier instanceof FifoGroup) {
+            FifoGroup group = (FifoGroup) modifier;
+            List<Modifier> children = new ArrayList<Modifier>();
+            for (Modifier child : group.getModifiers()) {
+                children.add(rewrite(child));
+            }
+            return compose(group.getScope(), children);
+        }
+        if (modifier instanceof UrlFilter) {
+            UrlFilter filter = (UrlFilter) modifier;
+            return withModifier(filter, unwrap(rewrite(filter.getModifier())));
+        }
+        if (modifier instanceof HeaderFilter) {
+            HeaderFilter filter = (HeaderFilter) modifier;
+            return withModifier(filter, unwrap(rewrite(filter.getModifier())));
+        }
+        if (modifier instanceof QueryStringFilter) {
+            QueryStringFilter filter = (QueryStringFilter) modifier;
+            return withModifier(filter, unwrap(rewrite(filter.getModifier())));
+        }
+        return modifier;
+    }
+
+    /**
+     * Builds a FifoGroup over already rewritten children, splicing in nested
+     * groups with default scope and merging adjacent children.
+     **/
+    private static FifoGroup compose(Scope scope, List<Modifier> children) throws IOException {
+        List<Modifier> flat = new ArrayList<Modifier>();
+        for (Modifier child : children) {
+            if (child instanceof FifoGroup && ((FifoGroup) child).getScope() == Scope.DEFAULT) {
+                flat.addAll(((FifoGroup) child).getModifiers());
+            } else {
+                flat.add(child);
+            }
+        }
+
+        List<Modifier> merged = new ArrayList<Modifier>();
+        int i = 0;
+        while (i < flat.size()) {
+            Modifier current = flat.get(i);
+            int end = i + 1;
+            while (end < flat.size()
+                    && samePredicate(current, flat.get(end))
+                    && !mayAffect(current, filteredModifier(flat.get(end - 1)))) {
+                end++;
+            }
+            if (end > i + 1) {
+                List<Modifier> hoisted = new ArrayList<Modifier>();
+                for (Modifier filter : flat.subList(i, end)) {
+                    hoisted.add(filteredModifier(filter));
+                }
+                current = withModifier(current, unwrap(compose(Scope.DEFAULT, hoisted)));
+            }
+            i = end;
+
+            if (!merged.isEmpty()) {
+                Modifier combined = merge(merged.get(merged.size() - 1), current);
+                if (combined != null) {
+                    merged.set(merged.size() - 1, combined);
+                    continue;
+                }
+            }
+            merged.add(current);
+        }
+
+        FifoGroup group = new FifoGroup();
+        group.setScope(scope);
+        for (Modifier modifier : merged) {
+            group.addModifier(modifier);
+        }
+        return group;
+    }
+
+    /**
+     * Returns a single modifier equivalent to previous followed by next, or null
+     * if they cannot be combined.
+     **/
+    private static Modifier merge(Modifier previous, Modifier next) throws IOException {
+        if (previous instanceof HeaderBlacklist && next instanceof HeaderBlacklist) {
+            HeaderBlacklist first = (HeaderBlacklist) previous;
+            HeaderBlacklist second = (HeaderBlacklist) next;
+            if (first.getScope() != second.getScope()) {
+                return null;
+            }
+            Map<String, String> names = new LinkedHashMap<String, String>();
+            for (String name : first.getNames()) {
+                addName(names, name);
+            }
+            for (String name : second.getNames()) {
+                addName(names, name);
+            }
+            HeaderBlacklist blacklist = new HeaderBlacklist();
+            blacklist.setScope(first.getScope());
+            for (String name : names.values()) {
+                blacklist.addName(name);
+            }
+            return blacklist;
+        }
+
+        if (isIdempotent(previous)
+                && previous.getClass() == next.getClass()
+                && ImmutableModifier.copyOf(previous).equals(ImmutableModifier.copyOf(next))) {
+            return previous;
+        }
+        return null;
+    }
+
+    private static void addName(Map<String, String> names, String name) {
+        // Header names are case-insensitive; keep the first spelling.
+        String key = name.toLowerCase(Locale.US);
+        if (!names.containsKey(key)) {
+            names.put(key, name);
+        }
+    }
+
+    /**
+     * Returns whether applying a modifier twice in a row has the same effect as
+     * applying it once.
+     **/
+    private static boolean isIdempotent(Modifier modifier) {
+        return modifier instanceof HeaderModifier
+                || modifier instanceof HeaderBlacklist
+                || modifier instanceof QueryStringModifier
+                || modifier instanceof UrlModifier
+                || modifier instanceof StatusModifier
+                || modifier instanceof BodyModifier
+                || modifier instanceof SkipRoundTripModifier;
+    }
+
+    private static boolean samePredicate(Modifier first, Modifier second) {
+        if (first instanceof UrlFilter && second instanceof UrlFilter) {
+            UrlFilter a = (UrlFilter) first;
+            UrlFilter b = (UrlFilter) second;
+            return a.getScope() == b.getScope()
+                    && equal(a.getScheme(), b.getScheme())
+                    && equal(a.getHost(), b.getHost())
+                    && equal(a.getPath(), b.getPath())
+                    && equal(a.getQuery(), b.getQuery());
+        }
+        if (first instanceof HeaderFilter && second instanceof HeaderFilter) {
+            HeaderFilter a = (HeaderFilter) first;
+            HeaderFilter b = (HeaderFilter) second;
+            return a.getScope() == b.getScope()
+                    && equal(a.getName(), b.getName())
+                    && equal(a.getValue(), b.getValue());
+        }
+        if (first instanceof QueryStringFilter && second instanceof QueryStringFilter) {
+            QueryStringFilter a = (QueryStringFilter) first;
+            QueryStringFilter b = (QueryStringFilter) second;
+            return a.getScope() == b.getScope()
+                    && equal(a.getName(), b.getName())
+                    && equal(a.getValue(), b.getValue());
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether modifier may change the part of a request or response
+     * that filter matches on. Unknown modifier types are assumed to.
+     **/
+    private static boolean mayAffect(Modifier filter, Modifier modifier) {
+        if (modifier instanceof FifoGroup) {
+            for (Modifier child : ((FifoGroup) modifier).getModifiers()) {
+                if (mayAffect(filter, child)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (modifier instanceof UrlFilter
+                || modifier instanceof HeaderFilter
+                || modifier instanceof QueryStringFilter) {
+            return mayAffect(filter, filteredModifier(modifier));
+        }
+        if (modifier instanceof UrlModifier || modifier instanceof QueryStringModifier) {
+            return !(filter instanceof HeaderFilter);
+        }
+        if (modifier instanceof HeaderModifier
+                || modifier instanceof HeaderBlacklist
+                || modifier instanceof CookieModifier
+                || modifier instanceof BodyModifier) {
+            return filter instanceof HeaderFilter;
+        }
+        return !(modifier instanceof StatusModifier
+                || modifier instanceof SkipRoundTripModifier
+                || modifier instanceof HeaderVerifier
+                || modifier instanceof MethodVerifier
+                || modifier instanceof PingbackVerifier
+                || modifier instanceof QueryStringVerifier
+                || modifier instanceof StatusVerifier
+                || modifier instanceof UrlVerifier);
+    }
+
+    private static Modifier filteredModifier(Modifier filter) {
+        if (filter instanceof UrlFilter) {
+            return ((UrlFilter) filter).getModifier();
+        }
+        if (filter instanceof HeaderFilter) {
+            return ((HeaderFilter) filter).getModifier();
+        }
+        return ((QueryStringFilter) filter).getModifier();
+    }
+
+    private static Modifier withModifier(Modifier filter, Modifier modifier) {
+        if (filter instanceof UrlFilter) {
+            UrlFilter original = (UrlFilter) filter;
+            if (original.getModifier() == modifier) {
+                return original;
+            }
+            UrlFilter copy = new UrlFilter();
+            copy.setScope(original.getScope());
+            copy.setScheme(original.getScheme());
+            copy.setHost(original.getHost());
+            copy.setPath(original.getPath());
+            copy.setQuery(original.getQuery());
+            copy.setModifier(modifier);
+            return copy;
+        }
+        if (filter instanceof HeaderFilter) {
+            HeaderFilter original = (HeaderFilter) filter;
+            if (original.getModifier() == modifier) {
+                return original;
+            }
+            HeaderFilter copy = new HeaderFilter();
+            copy.setScope(original.getScope());
+            copy.setName(original.getName());
+            copy.setValue(original.getValue());
+            copy.setModifier(modifier);
+            return copy;
+        }
+        QueryStringFilter original = (QueryStringFilter) filter;
+        if (original.getModifier() == modifier) {
+            return original;
+        }
+        QueryStringFilter copy = new QueryStringFilter();
+        copy.setScope(original.getScope());
+        copy.setName(original.getName());
+        copy.setValue(original.getValue());
+        copy.setModifier(modifier);
+        return copy;
+    }
+
+    /**
+     * Replaces a FifoGroup with default scope and a single modifier by that
+     * modifier.
+     **/
+    private static Modifier unwrap(Modifier modifier) {
+        while (modifier instanceof FifoGroup) {
+            FifoGroup group = (FifoGroup) modifier;
+            if (group.getScope() != Scope.DEFAULT || group.getModifiers().size() != 1) {
+                break;
+            }
+            modifier = group.getModifiers().get(0);
+        }
+        return modifier;
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
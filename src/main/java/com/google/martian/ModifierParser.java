@@ -0,0 +1,315 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import org.joda.time.DateTime;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Map;
+
+/**
+ * Parses Martian Proxy JSON configuration messages, as written by the
+ * modifiers of this library, back into modifiers. This is the inverse of
+ * Modifier.writeJson for every modifier, filter and verifier type of the
+ * library.
+ **/
+public class ModifierParser {
+    private final JsonParser parser;
+
+    /**
+     * Class constructor.
+     **/
+    public ModifierParser() {
+        this.parser = new JsonParser();
+    }
+
+    /**
+     * Parses a configuration message.
+     *
+     * @param json JSON configuration message
+     * @return modifier described by json
+     * @throws IOException if json is malformed or describes an unknown modifier
+     **/
+    public Modifier fromJson(String json) throws IOException {
+        return fromJson(new StringReader(json));
+    }
+
+    /**
+     * Parses a configuration message read from reader.
+     *
+     * @param reader reader of a JSON configuration message
+     * @return modifier described by the message
+     * @throws IOException if the message cannot be read, is malformed or
+     *                     describes an unknown modifier
+     **/
+    public Modifier fromJson(Reader reader) throws IOException {
+        JsonElement json;
+        try {
+            json = this.parser.parse(reader);
+        } catch (JsonParseException e) {
+            throw new IOException("Malformed modifier: " + e.getMessage(), e);
+        }
+        return parse(json);
+    }
+
+    private Modifier parse(JsonElement json) throws IOException {
+        if (json == null || !json.isJsonObject() || json.getAsJsonObject().entrySet().size() != 1) {
+            throw new IOException("Expected an object with a single modifier: " + json);
+        }
+        Map.Entry<String, JsonElement> entry = json.getAsJsonObject().entrySet().iterator().next();
+        String type = entry.getKey();
+        if (!entry.getValue().isJsonObject()) {
+            throw new IOException("Expected an object for " + type + ": " + entry.getValue());
+        }
+        JsonObject config = entry.getValue().getAsJsonObject();
+        Scope scope = scope(config);
+
+        if ("fifo.Group".equals(type)) {
+            FifoGroup group = new FifoGroup();
+            group.setScope(scope);
+            JsonArray modifiers = array(config, "modifiers");
+            if (modifiers != null) {
+                for (JsonElement modifier : modifiers) {
+                    group.addModifier(parse(modifier));
+                }
+            }
+            return group;
+        }
+        if ("url.Filter".equals(type)) {
+            UrlFilter filter = new UrlFilter();
+            filter.setScope(scope);
+            filter.setScheme(string(config, "scheme"));
+            filter.setHost(string(config, "host"));
+            filter.setPath(string(config, "path"));
+            filter.setQuery(string(config, "query"));
+            filter.setModifier(parse(config.get("modifier")));
+            return filter;
+        }
+        if ("header.Filter".equals(type)) {
+            HeaderFilter filter = new HeaderFilter();
+            filter.setScope(scope);
+            filter.setName(string(config, "name"));
+            filter.setValue(string(config, "value"));
+            filter.setModifier(parse(config.get("modifier")));
+            return filter;
+        }
+        if ("querystring.Filter".equals(type)) {
+            QueryStringFilter filter = new QueryStringFilter();
+            filter.setScope(scope);
+            filter.setName(string(config, "name"));
+            filter.setValue(string(config, "value"));
+            filter.setModifier(parse(config.get("modifier")));
+            return filter;
+        }
+        if (HeaderModifier.NAME.equals(type)) {
+            HeaderModifier modifier = new HeaderModifier();
+            modifier.setScope(scope);
+            modifier.setName(string(config, "name"));
+            modifier.setValue(string(config, "value"));
+            return modifier;
+        }
+        if (HeaderBlacklist.NAME.equals(type)) {
+            HeaderBlacklist blacklist = new HeaderBlacklist();
+            blacklist.setScope(scope);
+            JsonArray names = array(config, "names");
+            if (names != null) {
+                for (JsonElement name : names) {
+                    blacklist.addName(asString(name, "names"));
+                }
+            }
+            return blacklist;
+        }
+        if (UrlModifier.NAME.equals(type)) {
+            UrlModifier modifier = new UrlModifier();
+            modifier.setScope(scope);
+            modifier.setScheme(string(config, "scheme"));
+            modifier.setHost(string(config, "host"));
+            modifier.setPath(string(config, "path"));
+            modifier.setQuery(string(config, "query"));
+            return modifier;
+        }
+        if (QueryStringModifier.NAME.equals(type)) {
+            QueryStringModifier modifier = new QueryStringModifier();
+            modifier.setScope(scope);
+            modifier.setName(string(config, "name"));
+            modifier.setValue(string(config, "value"));
+            return modifier;
+        }
+        if (StatusModifier.NAME.equals(type)) {
+            StatusModifier modifier = new StatusModifier();
+            modifier.setScope(scope);
+            modifier.setHttpStatusCode(integer(config, "statusCode"));
+            return modifier;
+        }
+        if (BodyModifier.NAME.equals(type)) {
+            BodyModifier modifier = new BodyModifier();
+            modifier.setScope(scope);
+            modifier.setBody(string(config, "body"));
+            modifier.setContentType(string(config, "contentType"));
+            return modifier;
+        }
+        if (CookieModifier.NAME.equals(type)) {
+            CookieModifier modifier = new CookieModifier();
+            modifier.setScope(scope);
+            modifier.setName(string(config, "name"));
+            modifier.setValue(string(config, "value"));
+            modifier.setPath(string(config, "path"));
+            modifier.setDomain(string(config, "domain"));
+            String expires = string(config, "expires");
+            if (expires != null) {
+                try {
+                    modifier.setExpires(DateTime.parse(expires));
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Malformed cookie expiry: " + expires, e);
+                }
+            }
+            modifier.setSecure(bool(config, "secure"));
+            modifier.setHttpOnly(bool(config, "httpOnly"));
+            modifier.setMaxAge(integer(config, "maxAge"));
+            return modifier;
+        }
+        if (SkipRoundTripModifier.NAME.equals(type)) {
+            return new SkipRoundTripModifier();
+        }
+        if (HeaderVerifier.NAME.equals(type)) {
+            HeaderVerifier verifier = new HeaderVerifier();
+            verifier.setScope(scope);
+            verifier.setName(string(config, "name"));
+            verifier.setValue(string(config, "value"));
+            return verifier;
+        }
+        if (MethodVerifier.NAME.equals(type)) {
+            MethodVerifier verifier = new MethodVerifier();
+            verifier.setScope(scope);
+            verifier.setMethod(string(config, "method"));
+            return verifier;
+        }
+        if (StatusVerifier.NAME.equals(type)) {
+            StatusVerifier verifier = new StatusVerifier();
+            verifier.setScope(scope);
+            Integer status = integer(config, "statusCode");
+            if (status == null) {
+                throw new IOException("Missing statusCode for " + type);
+            }
+            verifier.setHttpStatusCode(status);
+            return verifier;
+        }
+        if (UrlVerifier.NAME.equals(type)) {
+            UrlVerifier verifier = new UrlVerifier();
+            verifier.setScope(scope);
+            verifier.setScheme(string(config, "scheme"));
+            verifier.setHost(string(config, "host"));
+            verifier.setPath(string(config, "path"));
+            verifier.setQuery(string(config, "query"));
+            return verifier;
+        }
+        if (QueryStringVerifier.NAME.equals(type)) {
+            QueryStringVerifier verifier = new QueryStringVerifier();
+            verifier.setScope(scope);
+            verifier.setName(string(config, "name"));
+            verifier.setValue(string(config, "value"));
+            return verifier;
+        }
+        if (PingbackVerifier.NAME.equals(type)) {
+            PingbackVerifier verifier = new PingbackVerifier();
+            verifier.setScope(scope);
+            verifier.setScheme(string(config, "scheme"));
+            verifier.setHost(string(config, "host"));
+            verifier.setPath(string(config, "path"));
+            verifier.setQuery(string(config, "query"));
+            return verifier;
+        }
+        throw new IOException("Unknown modifier: " + type);
+    }
+
+    private static Scope scope(JsonObject config) throws IOException {
+        JsonArray scope = array(config, "scope");
+        if (scope == null) {
+            return Scope.DEFAULT;
+        }
+        boolean request = false;
+        boolean response = false;
+        for (JsonElement element : scope) {
+            String value = asString(element, "scope");
+            if ("request".equals(value)) {
+                request = true;
+            } else if ("response".equals(value)) {
+                response = true;
+            } else {
+                throw new IOException("Unknown scope: " + value);
+            }
+        }
+        if (request && response) {
+            return Scope.REQUEST_AND_RESPONSE;
+        }
+        if (request) {
+            return Scope.REQUEST;
+        }
+        return response ? Scope.RESPONSE : Scope.DEFAULT;
+    }
+
+    private static JsonArray array(JsonObject config, String name) throws IOException {
+        JsonElement element = config.get(name);
+        if (element == null || element.isJsonNull()) {
+            return null;
+        }
+        if (!element.isJsonArray()) {
+            throw new IOException("Expected an array for " + name + ": " + element);
+        }
+        return element.getAsJsonArray();
+    }
+
+    private static String string(JsonObject config, String name) throws IOException {
+        JsonElement element = config.get(name);
+        return element == null || element.isJsonNull() ? null : asString(element, name);
+    }
+
+    private static String asString(JsonElement element, String name) throws IOException {
+        if (!element.isJsonPrimitive()) {
+            throw new IOException("Expected a string for " + name + ": " + element);
+        }
+        return element.getAsString();
+    }
+
+    private static Integer integer(JsonObject config, String name) throws IOException {
+        JsonElement element = config.get(name);
+        if (element == null || element.isJsonNull()) {
+            return null;
+        }
+        try {
+            return element.getAsInt();
+        } catch (RuntimeException e) {
+            throw new IOException("Expected a number for " + name + ": " + element, e);
+        }
+    }
+
+    private static Boolean bool(JsonObject config, String name) throws IOException {
+        JsonElement element = config.get(name);
+        if (element == null || element.isJsonNull()) {
+            return null;
+        }
+        if (!element.isJsonPrimitive() || !element.getAsJsonPrimitive().isBoolean()) {
+            throw new IOException("Expected a boolean for " + name + ": " + element);
+        }
+        return element.getAsBoolean();
+    }
+}
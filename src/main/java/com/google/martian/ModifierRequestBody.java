@@ -0,0 +1,101 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import com.squareup.okhttp.MediaType;
+import com.squareup.okhttp.RequestBody;
+
+import okio.BufferedSink;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Request body that serializes a modifier straight into the HTTP request as it
+ * is written, without first building the configuration message in memory. The
+ * length of the message is not known up front, so it is sent chunked, unless
+ * the modifier is an ImmutableModifier, whose cached message is sent as is
+ * with its length.
+ **/
+final class ModifierRequestBody extends RequestBody {
+  private final Modifier modifier;
+
+  ModifierRequestBody(Modifier modifier) {
+    this.modifier = modifier;
+  }
+
+  @Override
+  public MediaType contentType() {
+    return Client.JSON;
+  }
+
+  /**
+   * Returns the length of the message of an ImmutableModifier, which is known
+   * ahead of time, or -1 to send the message chunked.
+   **/
+  @Override
+  public long contentLength() {
+    if (this.modifier instanceof ImmutableModifier) {
+      return ((ImmutableModifier) this.modifier).size();
+    }
+    return -1;
+  }
+
+  @Override
+  public void writeTo(BufferedSink sink) throws IOException {
+    if (this.modifier instanceof ImmutableModifier) {
+      // Already serialized; send the cached message as is.
+      sink.write(((ImmutableModifier) this.modifier).getBytes());
+      return;
+    }
+    Utf8JsonWriter writer = new Utf8JsonWriter(new SinkOutputStream(sink));
+    try {
+      ControlPlaneEvents.writeJson(this.modifier, writer, "configure");
+    } catch (RuntimeException e) {
+      // A malformed modifier tree must fail the call rather than the thread writing it.
+      throw new IOException("Error serializing modifier: " + e.getMessage(), e);
+    } finally {
+      writer.release();
+    }
+  }
+
+  /**
+   * Writes to sink without flushing it, leaving it to OkHttp to flush the body
+   * together with the final chunk. Flushing mid-body splits the end of the
+   * request into a separate small packet that can be held back by Nagle's
+   * algorithm until the peer's delayed acknowledgement.
+   **/
+  private static final class SinkOutputStream extends OutputStream {
+    private final BufferedSink sink;
+
+    SinkOutputStream(BufferedSink sink) {
+      this.sink = sink;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      this.sink.writeByte(b);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int count) throws IOException {
+      this.sink.write(bytes, offset, count);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      this.sink.emitCompleteSegments();
+    }
+  }
+}
@@ -88,4 +88,24 @@ public class PingbackVerifier implements Modifier {
     public void setQuery(String query) {
         this.query = query;
     }
+
+    public Scope getScope() {
+        return this.scope;
+    }
+
+    public String getScheme() {
+        return this.scheme;
+    }
+
+    public String getHost() {
+        return this.host;
+    }
+
+    public String getPath() {
+        return this.path;
+    }
+
+    public String getQuery() {
+        return this.query;
+    }
 }
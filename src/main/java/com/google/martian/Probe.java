@@ -0,0 +1,189 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import com.squareup.okhttp.MediaType;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.RequestBody;
+import com.squareup.okhttp.Response;
+import com.squareup.okhttp.ResponseBody;
+
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.ForwardingSink;
+import okio.ForwardingSource;
+import okio.Okio;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reports the Martian system requests sent to one endpoint to a metrics
+ * listener and as flight recorder events.
+ **/
+final class Probe {
+  private final MetricsListener listener;
+  private final Endpoint endpoint;
+
+  /**
+   * @param listener listener to report calls to, or null to only record them
+   *                 as flight recorder events
+   **/
+  Probe(MetricsListener listener, Endpoint endpoint) {
+    this.listener = listener;
+    this.endpoint = endpoint;
+  }
+
+  /**
+   * Reports the start of a call and returns the measurement that counts the
+   * bytes of its request and response bodies.
+   **/
+  Measurement start(Request request) {
+    if (this.listener != null) {
+      this.listener.onCallStarted(this.endpoint);
+    }
+    return new Measurement(request);
+  }
+
+  final class Measurement {
+    private final long startNanos;
+    private final Request request;
+    private final AtomicLong requestBytes;
+    private final AtomicLong responseBytes;
+    private final AtomicBoolean finished;
+    private final Object event;
+
+    private Measurement(Request request) {
+      this.event = ControlPlaneEvents.get().beginCall();
+      this.startNanos = System.nanoTime();
+      this.requestBytes = new AtomicLong();
+      this.responseBytes = new AtomicLong();
+      this.finished = new AtomicBoolean();
+      this.request = request.body() == null
+          ? request
+          : request.newBuilder()
+              .method(request.method(), new CountingRequestBody(request.body(), this.requestBytes))
+              .build();
+    }
+
+    /**
+     * @return request to send in place of the measured request
+     **/
+    Request getRequest() {
+      return this.request;
+    }
+
+    /**
+     * @return response to handle in place of response
+     **/
+    Response wrap(Response response) {
+      return response.newBuilder()
+          .body(new CountingResponseBody(response.body(), this.responseBytes))
+          .build();
+    }
+
+    /**
+     * Reports the end of the call; only the first report counts.
+     **/
+    void finish(Throwable error) {
+      if (this.finished.compareAndSet(false, true)) {
+        long latencyNanos = System.nanoTime() - this.startNanos;
+        if (this.event != null) {
+          ControlPlaneEvents.get().endCall(this.event, endpoint,
+              this.request.httpUrl().encodedPath(), this.requestBytes.get(),
+              this.responseBytes.get(), error);
+        }
+        if (listener != null) {
+          listener.onCallFinished(endpoint, latencyNanos, this.requestBytes.get(),
+              this.responseBytes.get(), error);
+        }
+      }
+    }
+  }
+
+  private static final class CountingRequestBody extends RequestBody {
+    private final RequestBody delegate;
+    private final AtomicLong count;
+
+    CountingRequestBody(RequestBody delegate, AtomicLong count) {
+      this.delegate = delegate;
+      this.count = count;
+    }
+
+    @Override
+    public MediaType contentType() {
+      return this.delegate.contentType();
+    }
+
+    @Override
+    public long contentLength() throws IOException {
+      return this.delegate.contentLength();
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+      BufferedSink counting = Okio.buffer(new ForwardingSink(sink) {
+        @Override
+        public void write(Buffer source, long byteCount) throws IOException {
+          super.write(source, byteCount);
+          count.addAndGet(byteCount);
+        }
+      });
+      this.delegate.writeTo(counting);
+      counting.emit();
+    }
+  }
+
+  private static final class CountingResponseBody extends ResponseBody {
+    private final ResponseBody delegate;
+    private final BufferedSource source;
+
+    CountingResponseBody(ResponseBody delegate, final AtomicLong count) {
+      this.delegate = delegate;
+      BufferedSource original;
+      try {
+        original = delegate.source();
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+      this.source = Okio.buffer(new ForwardingSource(original) {
+        @Override
+        public long read(Buffer sink, long byteCount) throws IOException {
+          long read = super.read(sink, byteCount);
+          if (read > 0) {
+            count.addAndGet(read);
+          }
+          return read;
+        }
+      });
+    }
+
+    @Override
+    public MediaType contentType() {
+      return this.delegate.contentType();
+    }
+
+    @Override
+    public long contentLength() throws IOException {
+      return this.delegate.contentLength();
+    }
+
+    @Override
+    public BufferedSource source() {
+      return this.source;
+    }
+  }
+}
@@ -77,4 +77,20 @@ public class QueryStringFilter implements Modifier {
     public void setModifier(Modifier modifier) {
         this.modifier = modifier;
     }
+
+    public Scope getScope() {
+        return this.scope;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public String getValue() {
+        return this.value;
+    }
+
+    public Modifier getModifier() {
+        return this.modifier;
+    }
 }
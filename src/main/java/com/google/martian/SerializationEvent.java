@@ -0,0 +1,44 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event of the serialization of a modifier tree into a configuration
+ * message.
+ **/
+@Name("com.google.martian.Serialization")
+@Label("Martian Serialization")
+@Category({"Martian"})
+@Description("Modifier tree written as a Martian configuration message")
+final class SerializationEvent extends Event {
+  @Label("Purpose")
+  String purpose;
+
+  @Label("Modifiers")
+  int modifiers;
+
+  @Label("Bytes")
+  @DataAmount
+  long bytes;
+
+  @Label("Outcome")
+  String outcome;
+}
@@ -0,0 +1,179 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A test's share of a Martian instance used through Sessions. The test sends
+ * its traffic with the header getHeaderName() set to getTag(); the modifiers
+ * configured for the session only apply to requests carrying that header, and
+ * to responses carrying it. Since Martian matches header filters on responses
+ * against the response headers, response modifiers of a session only apply if
+ * the tag is echoed in the response.
+ * <p/>
+ * Verification is evaluated locally against the captured HAR log as by
+ * HarVerifier, on the entries whose request carries the tag, so both request
+ * and response verifiers of a session see exactly its traffic. A Session is
+ * safe for use by multiple threads.
+ **/
+public final class Session implements Closeable {
+  private final Sessions sessions;
+  private final String tag;
+  private volatile Modifier modifier;
+  private volatile boolean closed;
+  // Entries of the log captured before the last reset of the verifications.
+  private final LogCursor cursor = new LogCursor();
+  private final LogCursor.Log log = new LogCursor.Log() {
+    @Override
+    public HarEntryIterator open() throws IOException {
+      return Session.this.sessions.retrieveEntries();
+    }
+  };
+
+  Session(Sessions sessions, String tag) {
+    this.sessions = sessions;
+    this.tag = tag;
+  }
+
+  /**
+   * @return value of the session header that marks the traffic of this session
+   **/
+  public String getTag() {
+    return this.tag;
+  }
+
+  /**
+   * @return name of the request header carrying the tag
+   **/
+  public String getHeaderName() {
+    return this.sessions.getHeaderName();
+  }
+
+  /**
+   * @return the modifier configured for this session, or null if none
+   **/
+  public Modifier getModifier() {
+    return this.modifier;
+  }
+
+  /**
+   * Replaces the configuration of this session and pushes the merged
+   * configuration of all sessions to Martian. The modifier must not be
+   * changed afterwards, since it is serialized again whenever any session
+   * changes.
+   *
+   * @param  modifier Martian request or response modifier
+   * @throws IOException if an error occurs during input or output
+   * @throws IllegalStateException if the session is closed
+   **/
+  public void configure(Modifier modifier) throws IOException {
+    if (this.closed) {
+      throw new IllegalStateException("Session closed");
+    }
+    this.modifier = modifier;
+    this.sessions.push();
+  }
+
+  /**
+   * Evaluates the verifiers configured for this session against the entries
+   * of the log captured for it since the last reset. Failures are numbered by
+   * the position of the entry in the whole log, as in HarVerifier.
+   * <p/>
+   * Martian cannot return part of a log or the entries of one session, so
+   * every call transfers the whole HAR log shared by all sessions. Entries
+   * before the last reset are skipped without being materialized and only the
+   * entries of this session are kept, but the transfer itself grows with the
+   * traffic of every session; check once a test is done rather than polling,
+   * and reset the logs of the client between test runs.
+   *
+   * @return failures in entry order, followed by missing pingbacks
+   * @throws IOException if an error occurs during input or output
+   * @throws IllegalArgumentException if the configuration contains a modifier
+   *                                  that cannot be evaluated locally
+   **/
+  public List<VerificationFailure> checkVerifications() throws IOException {
+    Modifier modifier = this.modifier;
+    if (modifier == null) {
+      return new ArrayList<VerificationFailure>();
+    }
+
+    List<HarEntry> entries = new ArrayList<HarEntry>();
+    List<Long> positions = new ArrayList<Long>();
+    HarEntryIterator iterator = this.cursor.resume(this.log);
+    try {
+      while (iterator.hasNext()) {
+        HarEntry entry = iterator.next();
+        if (isTagged(entry)) {
+          entries.add(entry);
+          positions.add(iterator.getPosition() - 1);
+        }
+      }
+    } finally {
+      iterator.close();
+    }
+
+    long[] logPositions = new long[positions.size()];
+    for (int i = 0; i < logPositions.length; i++) {
+      logPositions[i] = positions.get(i);
+    }
+    return new HarVerifier(modifier).verify(entries, logPositions);
+  }
+
+  /**
+   * Discards the verification results of this session without affecting other
+   * sessions: later checks only consider entries captured after this call.
+   *
+   * @throws IOException if an error occurs during input or output
+   **/
+  public void resetVerifications() throws IOException {
+    HarEntryIterator iterator = this.log.open();
+    try {
+      this.cursor.advance(iterator, iterator.skip(Long.MAX_VALUE));
+    } finally {
+      iterator.close();
+    }
+  }
+
+  /**
+   * Closes the session and pushes the configuration of the remaining sessions
+   * to Martian, unless this session was never configured.
+   *
+   * @throws IOException if an error occurs during input or output
+   **/
+  @Override
+  public void close() throws IOException {
+    if (this.closed) {
+      return;
+    }
+    this.closed = true;
+    this.sessions.remove(this);
+    if (this.modifier != null) {
+      this.sessions.push();
+    }
+  }
+
+  private boolean isTagged(HarEntry entry) {
+    LocalRequest request = entry.toLocalRequest();
+    return request != null && request.getHeaders(getHeaderName()).contains(this.tag);
+  }
+
+  @Override
+  public String toString() {
+    return getHeaderName() + ": " + this.tag;
+  }
+}
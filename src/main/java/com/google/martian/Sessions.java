@@ -0,0 +1,171 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Lets concurrent tests share one Martian instance. Each test opens a Session
+ * and tags its traffic with the session header; the configuration of every
+ * open session is wrapped in a HeaderFilter on its tag and the filters are
+ * composed in a FifoGroup, which is pushed as the configuration of Martian
+ * whenever a session changes.
+ * <p/>
+ * Martian keeps a single list of verification failures for the whole
+ * configuration, so sessions do not use it. Instead a session evaluates its
+ * verifiers locally against the entries of the HAR log whose request carries
+ * its tag, see Session.checkVerifications. The logger named here must
+ * therefore be registered with the client.
+ * <p/>
+ * The configuration pushed to Martian replaces any other configuration, so
+ * the client should not be configured directly while sessions are in use.
+ * Pushes go through Client.configureBatched, so changes to several sessions
+ * made while a push is in flight are sent together in the next push.
+ * Sessions is safe for use by multiple threads.
+ **/
+public class Sessions {
+  public static final String DEFAULT_HEADER = "X-Martian-Session";
+
+  private final Client client;
+  private final String loggerName;
+  private final String headerName;
+  private final Map<String, Session> sessions;
+  private final Object pushLock;
+
+  /**
+   * Class constructor tagging traffic with the DEFAULT_HEADER header.
+   *
+   * @param client     client of the shared Martian instance
+   * @param loggerName name of the HAR logger registered with client
+   **/
+  public Sessions(Client client, String loggerName) {
+    this(client, loggerName, DEFAULT_HEADER);
+  }
+
+  /**
+   * Class constructor.
+   *
+   * @param client     client of the shared Martian instance
+   * @param loggerName name of the HAR logger registered with client
+   * @param headerName name of the request header carrying the session tag
+   **/
+  public Sessions(Client client, String loggerName, String headerName) {
+    this.client = client;
+    this.loggerName = loggerName;
+    this.headerName = headerName;
+    this.sessions = new LinkedHashMap<String, Session>();
+    this.pushLock = new Object();
+  }
+
+  /**
+   * Opens a session with a new, unique tag. The session has no configuration
+   * until it is configured, so opening one does not contact Martian.
+   *
+   * @return the new session
+   **/
+  public Session open() {
+    Session session = new Session(this, UUID.randomUUID().toString());
+    synchronized (this.sessions) {
+      this.sessions.put(session.getTag(), session);
+    }
+    return session;
+  }
+
+  /**
+   * @return name of the request header carrying the session tag
+   **/
+  public String getHeaderName() {
+    return this.headerName;
+  }
+
+  /**
+   * @return the sessions currently open, in the order they were opened
+   **/
+  public List<Session> getSessions() {
+    synchronized (this.sessions) {
+      return new ArrayList<Session>(this.sessions.values());
+    }
+  }
+
+  /**
+   * Returns the merged configuration of the open sessions, as pushed to
+   * Martian.
+   *
+   * @return a FifoGroup holding a HeaderFilter on the tag of every configured
+   *         session, in the order the sessions were opened
+   **/
+  public FifoGroup getConfiguration() {
+    FifoGroup group = new FifoGroup();
+    synchronized (this.sessions) {
+      for (Session session : this.sessions.values()) {
+        Modifier modifier = session.getModifier();
+        if (modifier == null) {
+          continue;
+        }
+        HeaderFilter filter = new HeaderFilter();
+        filter.setName(this.headerName);
+        filter.setValue(session.getTag());
+        filter.setModifier(modifier);
+        group.addModifier(filter);
+      }
+    }
+    return group;
+  }
+
+  /**
+   * Pushes the merged configuration and waits until it, or a newer one, is
+   * live. Merging and submitting are serialized, but the wait is not, so the
+   * last configuration submitted always carries the latest configuration of
+   * every session while concurrent changes share a push.
+   **/
+  void push() throws IOException {
+    CompletableFuture<Void> pushed;
+    synchronized (this.pushLock) {
+      pushed = this.client.configureBatched(getConfiguration());
+    }
+    try {
+      pushed.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while configuring Martian");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  void remove(Session session) {
+    synchronized (this.sessions) {
+      this.sessions.remove(session.getTag());
+    }
+  }
+
+  HarEntryIterator retrieveEntries() throws IOException {
+    return this.client.retrieveEntries(this.loggerName, null);
+  }
+}
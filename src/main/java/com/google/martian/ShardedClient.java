@@ -0,0 +1,231 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Configures a fleet of Martian proxies that split traffic by upstream host.
+ * Every {@link UrlFilter} with a host is sent only to the proxy that serves
+ * that host, wherever it is nested in groups, URL, header or query string
+ * filters. Modifiers that do not depend on the host are sent to every proxy.
+ * Verification results of the proxies are merged back into one list.
+ *
+ * <p>Slicing preserves the execution order of the modifiers that remain. The
+ * removed filters can never match the traffic of the proxy they are removed
+ * from, so each proxy behaves as if it had received the full tree.
+ * Immutable modifiers are decoded and sliced like the tree they hold; one
+ * that holds a modifier unknown to ModifierParser is sent to every proxy.
+ **/
+public class ShardedClient {
+  private final Map<String, String> proxies;
+  private final FleetClient fleet;
+
+  /**
+   * Class constructor.
+   *
+   * @param hostToProxy host:port of the running instance of Martian Proxy that
+   *                    serves each upstream host
+   * @throws URISyntaxException    if a proxy uri does not parse successfully
+   * @throws MalformedURLException if a proxy uri is malformed and cannot be parsed
+   **/
+  public ShardedClient(Map<String, String> hostToProxy)
+      throws URISyntaxException, MalformedURLException {
+    this.proxies = new HashMap<String, String>();
+    for (Map.Entry<String, String> entry : hostToProxy.entrySet()) {
+      this.proxies.put(normalize(entry.getKey()), entry.getValue());
+    }
+    this.fleet = new FleetClient(new LinkedHashSet<String>(hostToProxy.values()));
+  }
+
+  /**
+   * Returns the fleet client of the proxies, e.g. to set the deadline or to
+   * retrieve logs.
+   *
+   * @return fleet client of every proxy in the host mapping
+   **/
+  public FleetClient getFleet() {
+    return this.fleet;
+  }
+
+  /**
+   * Configures every proxy with its slice of modifier.
+   *
+   * @param  modifier    Martian request or response modifier
+   * @return per-proxy outcome of the configuration
+   * @throws IOException if the calling thread is interrupted while waiting
+   **/
+  public FleetResult<Void> configure(Modifier modifier) throws IOException {
+    return this.fleet.configure(partition(modifier));
+  }
+
+  /**
+   * Returns the slice of modifier for every proxy. A filter on a host that is
+   * not in the mapping is treated as host-agnostic and sent to every proxy.
+   *
+   * @param  modifier Martian request or response modifier
+   * @return modifier to send to each proxy, keyed by proxy uri
+   **/
+  public Map<String, Modifier> partition(Modifier modifier) {
+    Map<String, Modifier> slices = new LinkedHashMap<String, Modifier>();
+    for (String proxy : this.fleet.getProxies()) {
+      Modifier slice = slice(modifier, proxy);
+      slices.put(proxy, slice != null ? slice : new FifoGroup());
+    }
+    return slices;
+  }
+
+  /**
+   * Clears the in-memory traffic verification logs of every proxy.
+   *
+   * @return per-proxy outcome of the reset
+   * @throws IOException if the calling thread is interrupted while waiting
+   **/
+  public FleetResult<Void> resetVerifications() throws IOException {
+    return this.fleet.resetVerifications();
+  }
+
+  /**
+   * Returns the in-memory traffic verification messages of all proxies, in
+   * the order of the proxies in the host mapping.
+   *
+   * @return all in-memory traffic verification messages
+   * @throws IOException if any proxy fails to return its messages
+   **/
+  public List<String> checkVerifications() throws IOException {
+    FleetResult<List<String>> result = this.fleet.checkVerifications();
+    if (!result.isSuccessful()) {
+      IOException e = new IOException(
+          "Error checking verifications on " + result.getFailures().keySet());
+      for (Throwable failure : result.getFailures().values()) {
+        e.addSuppressed(failure);
+      }
+      throw e;
+    }
+
+    List<String> messages = new ArrayList<String>();
+    for (List<String> proxyMessages : result.getResults().values()) {
+      messages.addAll(proxyMessages);
+    }
+    return messages;
+  }
+
+  /**
+   * Returns the part of modifier that applies to the traffic of proxy, or null
+   * if nothing applies.
+   **/
+  private Modifier slice(Modifier modifier, String proxy) {
+    if (modifier instanceof ImmutableModifier) {
+      Modifier decoded;
+      try {
+        decoded = ((ImmutableModifier) modifier).toModifier();
+      } catch (IOException e) {
+        // Holds a modifier this library does not know; it cannot depend on the host.
+        return modifier;
+      }
+      Modifier slice = slice(decoded, proxy);
+      // Keep the cached message unless something was removed from it.
+      return slice == decoded ? modifier : slice;
+    }
+    if (modifier instanceof FifoGroup) {
+      FifoGroup group = (FifoGroup) modifier;
+      FifoGroup slice = new FifoGroup();
+      slice.setScope(group.getScope());
+      boolean changed = false;
+      for (Modifier child : group.getModifiers()) {
+        Modifier childSlice = slice(child, proxy);
+        changed |= childSlice != child;
+        if (childSlice != null) {
+          slice.addModifier(childSlice);
+        }
+      }
+      return changed ? slice : group;
+    }
+
+    if (modifier instanceof UrlFilter) {
+      UrlFilter filter = (UrlFilter) modifier;
+      if (filter.getHost() != null) {
+        String owner = this.proxies.get(normalize(filter.getHost()));
+        if (owner != null && !owner.equals(proxy)) {
+          return null;
+        }
+      }
+
+      Modifier inner = slice(filter.getModifier(), proxy);
+      if (inner == filter.getModifier()) {
+        return filter;
+      }
+      if (inner == null) {
+        return null;
+      }
+      UrlFilter slice = new UrlFilter();
+      slice.setScope(filter.getScope());
+      slice.setScheme(filter.getScheme());
+      slice.setHost(filter.getHost());
+      slice.setPath(filter.getPath());
+      slice.setQuery(filter.getQuery());
+      slice.setModifier(inner);
+      return slice;
+    }
+
+    if (modifier instanceof HeaderFilter) {
+      HeaderFilter filter = (HeaderFilter) modifier;
+      Modifier inner = slice(filter.getModifier(), proxy);
+      if (inner == filter.getModifier()) {
+        return filter;
+      }
+      if (inner == null) {
+        return null;
+      }
+      HeaderFilter slice = new HeaderFilter();
+      slice.setScope(filter.getScope());
+      slice.setName(filter.getName());
+      slice.setValue(filter.getValue());
+      slice.setModifier(inner);
+      return slice;
+    }
+
+    if (modifier instanceof QueryStringFilter) {
+      QueryStringFilter filter = (QueryStringFilter) modifier;
+      Modifier inner = slice(filter.getModifier(), proxy);
+      if (inner == filter.getModifier()) {
+        return filter;
+      }
+      if (inner == null) {
+        return null;
+      }
+      QueryStringFilter slice = new QueryStringFilter();
+      slice.setScope(filter.getScope());
+      slice.setName(filter.getName());
+      slice.setValue(filter.getValue());
+      slice.setModifier(inner);
+      return slice;
+    }
+
+    return modifier;
+  }
+
+  private static String normalize(String host) {
+    return host.toLowerCase(Locale.US);
+  }
+}
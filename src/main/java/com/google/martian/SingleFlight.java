@@ -0,0 +1,202 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+/**
+ * Coalesces concurrent identical reads: while a read is in flight, further
+ * callers wait for and share its result instead of starting their own. A
+ * successful result is also handed to callers that arrive within the
+ * freshness window after it completed. Failures are shared with the callers
+ * waiting on the read but never reused.
+ *
+ * Results are shared between callers and must not be mutated.
+ **/
+final class SingleFlight<T> {
+  /**
+   * Performs the read on the calling thread.
+   **/
+  interface Read<T> {
+    T read() throws IOException;
+  }
+
+  /**
+   * Starts the read without blocking the calling thread.
+   **/
+  interface AsyncRead<T> {
+    CompletableFuture<T> start();
+  }
+
+  private final AtomicReference<Flight<T>> current;
+  private volatile long freshnessNanos;
+
+  SingleFlight() {
+    this.current = new AtomicReference<Flight<T>>();
+  }
+
+  /**
+   * Sets how long a completed result is reused; 0 only shares reads in
+   * flight.
+   **/
+  void setFreshness(long freshness, TimeUnit units) {
+    this.freshnessNanos = units.toNanos(freshness);
+  }
+
+  /**
+   * Returns the result of the read in flight or of a fresh completed read, or
+   * performs read on the calling thread and shares its result.
+   **/
+  T get(Read<T> read) throws IOException {
+    while (true) {
+      Flight<T> flight = this.current.get();
+      if (isUsable(flight)) {
+        return await(flight.result);
+      }
+
+      Flight<T> mine = new Flight<T>();
+      if (!this.current.compareAndSet(flight, mine)) {
+        continue;
+      }
+      try {
+        T result = read.read();
+        mine.succeed(result);
+        return result;
+      } catch (IOException | RuntimeException | Error e) {
+        this.current.compareAndSet(mine, null);
+        mine.result.completeExceptionally(e);
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * Returns a future of the result of the read in flight or of a fresh
+   * completed read, or starts read and shares its result. Cancelling the
+   * returned future does not cancel the shared read.
+   **/
+  CompletableFuture<T> getAsync(AsyncRead<T> read) {
+    while (true) {
+      Flight<T> flight = this.current.get();
+      if (isUsable(flight)) {
+        return copy(flight.result);
+      }
+
+      final Flight<T> mine = new Flight<T>();
+      if (!this.current.compareAndSet(flight, mine)) {
+        continue;
+      }
+      CompletableFuture<T> started;
+      try {
+        started = read.start();
+      } catch (RuntimeException e) {
+        this.current.compareAndSet(mine, null);
+        mine.result.completeExceptionally(e);
+        throw e;
+      }
+      started.whenComplete(new BiConsumer<T, Throwable>() {
+        @Override
+        public void accept(T result, Throwable error) {
+          if (error != null) {
+            current.compareAndSet(mine, null);
+            mine.result.completeExceptionally(unwrap(error));
+          } else {
+            mine.succeed(result);
+          }
+        }
+      });
+      return copy(mine.result);
+    }
+  }
+
+  /**
+   * Stops sharing the current read with later callers, e.g. because the state
+   * it read has been reset. Callers already waiting still receive its result.
+   **/
+  void invalidate() {
+    this.current.set(null);
+  }
+
+  private boolean isUsable(Flight<T> flight) {
+    if (flight == null) {
+      return false;
+    }
+    if (!flight.result.isDone()) {
+      return true;
+    }
+    long completed = flight.completedNanos;
+    return !flight.result.isCompletedExceptionally()
+        && System.nanoTime() - completed < this.freshnessNanos;
+  }
+
+  private static <T> T await(CompletableFuture<T> result) throws IOException {
+    try {
+      return result.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for a shared call");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  private static <T> CompletableFuture<T> copy(CompletableFuture<T> shared) {
+    final CompletableFuture<T> copy = new CompletableFuture<T>();
+    shared.whenComplete(new BiConsumer<T, Throwable>() {
+      @Override
+      public void accept(T result, Throwable error) {
+        if (error != null) {
+          copy.completeExceptionally(unwrap(error));
+        } else {
+          copy.complete(result);
+        }
+      }
+    });
+    return copy;
+  }
+
+  private static Throwable unwrap(Throwable error) {
+    return error instanceof CompletionException && error.getCause() != null
+        ? error.getCause()
+        : error;
+  }
+
+  private static final class Flight<T> {
+    final CompletableFuture<T> result = new CompletableFuture<T>();
+    volatile long completedNanos;
+
+    void succeed(T value) {
+      // Written before the result completes, so readers that see it done see the time.
+      this.completedNanos = System.nanoTime();
+      this.result.complete(value);
+    }
+  }
+}
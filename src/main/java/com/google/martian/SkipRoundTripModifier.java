@@ -46,4 +46,8 @@ public class SkipRoundTripModifier implements Modifier {
       writer.endObject();
       writer.endObject();
   }
+
+  public Scope getScope() {
+    return this.scope;
+  }
 }
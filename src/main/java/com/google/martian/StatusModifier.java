@@ -59,4 +59,12 @@ public class StatusModifier implements Modifier {
     public void setHttpStatusCode(Integer httpStatusCode) {
         this.httpStatusCode = httpStatusCode;
     }
+
+    public Scope getScope() {
+        return this.scope;
+    }
+
+    public Integer getHttpStatusCode() {
+        return this.httpStatusCode;
+    }
 }
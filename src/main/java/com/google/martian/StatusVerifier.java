@@ -59,4 +59,12 @@ public class StatusVerifier implements Modifier {
     public void setHttpStatusCode(int httpStatusCode) {
         this.httpStatusCode = httpStatusCode;
     }
+
+    public Scope getScope() {
+        return this.scope;
+    }
+
+    public int getHttpStatusCode() {
+        return this.httpStatusCode;
+    }
 }
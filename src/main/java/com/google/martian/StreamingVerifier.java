@@ -0,0 +1,334 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Verifies the entries of a Martian log while traffic is still flowing, so a
+ * long running test can stop as soon as a verifier fails rather than checking
+ * verifications once at the end.
+ * <p/>
+ * A poller thread follows the log with a HarTail and hands new entries to a
+ * verifier thread through a bounded queue. When the verifier falls behind, the
+ * poller blocks on the full queue while it is still reading the log, so at most
+ * the queue capacity of entries is held in memory. The verifiers of the tree
+ * are evaluated as by HarVerifier: filters select the entries, modifiers are
+ * ignored, and a pingback verifier fails only if its request has not been seen
+ * when the verifier is finished.
+ * <p/>
+ * With fail fast enabled, the first failure stops polling and verification
+ * and wakes up threads waiting in awaitFailure.
+ * <p/>
+ * Failures are numbered by the position of the entry in log.entries, counting
+ * entries the predicate of the tail rejected. If the log is reset elsewhere,
+ * entries of the new log are numbered from 0 again.
+ **/
+public class StreamingVerifier implements Closeable {
+  private static final PulledEntry END = new PulledEntry(null, -1);
+
+  private final HarTail tail;
+  private final LocalEngine engine;
+  private final BlockingQueue<PulledEntry> queue;
+  private final List<VerificationFailure> failures;
+  private final Set<PingbackVerifier> pingbacks;
+  private final CountDownLatch failed;
+  private final CountDownLatch verified;
+  private boolean failFast;
+  private long pollIntervalMillis;
+
+  private volatile boolean stopping;
+  private volatile boolean closed;
+  private volatile IOException error;
+  private Thread poller;
+  private Thread verifier;
+
+  /**
+   * Class constructor.
+   *
+   * @param tail      tail of the log to verify
+   * @param verifiers modifier tree containing the verifiers to evaluate
+   * @param capacity  maximum number of entries pulled but not yet verified
+   * @throws IllegalArgumentException if the tree contains a modifier that
+   *                                  cannot be evaluated locally
+   **/
+  public StreamingVerifier(HarTail tail, Modifier verifiers, int capacity) {
+    this.tail = tail;
+    this.engine = new LocalEngine(verifiers, true);
+    this.queue = new ArrayBlockingQueue<PulledEntry>(capacity);
+    this.failures = new ArrayList<VerificationFailure>();
+    this.pingbacks = new HashSet<PingbackVerifier>();
+    this.failed = new CountDownLatch(1);
+    this.verified = new CountDownLatch(1);
+    this.failFast = true;
+    this.pollIntervalMillis = 1000;
+  }
+
+  /**
+   * Sets whether the first failure stops verification. Defaults to true.
+   *
+   * @param failFast whether to stop on the first failure
+   **/
+  public void setFailFast(boolean failFast) {
+    this.failFast = failFast;
+  }
+
+  /**
+   * Sets the pause between polls of the log. Defaults to one second.
+   *
+   * @param interval number of time units to wait between polls
+   * @param units    units of time measurement
+   **/
+  public void setPollInterval(long interval, TimeUnit units) {
+    this.pollIntervalMillis = units.toMillis(interval);
+  }
+
+  /**
+   * Starts polling the log and verifying its entries in the background.
+   **/
+  public synchronized void start() {
+    if (this.poller != null) {
+      throw new IllegalStateException("Already started");
+    }
+    this.verifier = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        verifyEntries();
+      }
+    }, "martian-streaming-verifier");
+    this.poller = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        pollEntries();
+      }
+    }, "martian-streaming-poller");
+    this.verifier.setDaemon(true);
+    this.poller.setDaemon(true);
+    this.verifier.start();
+    this.poller.start();
+  }
+
+  /**
+   * Waits for the first failure.
+   *
+   * @param timeout maximum number of time units to wait
+   * @param units   units of time measurement
+   * @return the first failure, or null if there was none within the timeout
+   * @throws InterruptedException if the calling thread is interrupted
+   **/
+  public VerificationFailure awaitFailure(long timeout, TimeUnit units)
+      throws InterruptedException {
+    this.failed.await(timeout, units);
+    synchronized (this.failures) {
+      return this.failures.isEmpty() ? null : this.failures.get(0);
+    }
+  }
+
+  /**
+   * Returns the failures found so far.
+   *
+   * @return failures in entry order
+   **/
+  public List<VerificationFailure> getFailures() {
+    synchronized (this.failures) {
+      return new ArrayList<VerificationFailure>(this.failures);
+    }
+  }
+
+  /**
+   * Returns whether a verifier has failed.
+   *
+   * @return true if there is at least one failure
+   **/
+  public boolean hasFailed() {
+    return this.failed.getCount() == 0;
+  }
+
+  /**
+   * Polls the log one last time, verifies every entry pulled and stops. The
+   * returned failures include the pingback verifiers whose request was never
+   * seen, unless verification already stopped on a failure.
+   *
+   * @return all failures in entry order
+   * @throws IOException          if polling the log failed
+   * @throws InterruptedException if the calling thread is interrupted
+   **/
+  public List<VerificationFailure> finish() throws IOException, InterruptedException {
+    Thread poller;
+    synchronized (this) {
+      if (this.poller == null) {
+        throw new IllegalStateException("Not started");
+      }
+      poller = this.poller;
+    }
+    this.stopping = true;
+    poller.join();
+    this.verified.await();
+    if (this.error != null) {
+      throw this.error;
+    }
+
+    List<VerificationFailure> failures = getFailures();
+    if (!(this.failFast && !failures.isEmpty())) {
+      for (PingbackVerifier pingback : this.engine.getPingbacks()) {
+        if (!this.pingbacks.contains(pingback)) {
+          failures.add(new VerificationFailure(
+              -1, null, pingback, LocalEngine.pingbackFailure(pingback)));
+        }
+      }
+    }
+    return failures;
+  }
+
+  /**
+   * Stops polling and verification without waiting for pending entries.
+   **/
+  @Override
+  public synchronized void close() {
+    this.stopping = true;
+    this.closed = true;
+    if (this.poller != null) {
+      this.poller.interrupt();
+      this.verifier.interrupt();
+    }
+  }
+
+  private void pollEntries() {
+    try {
+      HarEntryListener enqueue = new HarEntryListener() {
+        @Override
+        public void onEntry(HarEntry entry) throws IOException {
+          try {
+            queue.put(new PulledEntry(entry, tail.getEmittingPosition()));
+          } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while verification is behind");
+          }
+        }
+      };
+
+      while (!hasFailed() || !this.failFast) {
+        boolean last = this.stopping;
+        this.tail.poll(enqueue);
+        if (last) {
+          break;
+        }
+        sleepUntilStopping();
+      }
+    } catch (InterruptedIOException e) {
+      // Stopped by close or by a failure.
+    } catch (IOException e) {
+      this.error = e;
+    } finally {
+      endQueue();
+    }
+  }
+
+  /**
+   * Queues the end marker the verifier stops at. Entries still queued are
+   * verified first, unless verification is stopped by close or a failure.
+   **/
+  private void endQueue() {
+    if (!this.closed && !(this.failFast && hasFailed())) {
+      try {
+        while (!this.queue.offer(END, 50, TimeUnit.MILLISECONDS)) {
+          if (this.verified.getCount() == 0) {
+            // The verifier has already stopped.
+            return;
+          }
+        }
+        return;
+      } catch (InterruptedException e) {
+        // Stopped by close or by a failure while waiting for the verifier.
+      }
+    }
+    // The pending entries are dropped; make room for the marker if the queue is full.
+    while (!this.queue.offer(END)) {
+      this.queue.poll();
+    }
+  }
+
+  private void sleepUntilStopping() {
+    long deadline = System.currentTimeMillis() + this.pollIntervalMillis;
+    while (!this.stopping && !(this.failFast && hasFailed())) {
+      long remaining = deadline - System.currentTimeMillis();
+      if (remaining <= 0) {
+        return;
+      }
+      try {
+        Thread.sleep(Math.min(remaining, 50));
+      } catch (InterruptedException e) {
+        return;
+      }
+    }
+  }
+
+  private void verifyEntries() {
+    try {
+      while (true) {
+        PulledEntry pulled = this.queue.take();
+        if (pulled == END) {
+          return;
+        }
+        final HarEntry entry = pulled.entry;
+        final long entryIndex = pulled.position;
+        HarVerifier.verify(this.engine, entry, new VerificationSink() {
+          @Override
+          public void failure(Modifier verifier, String message) {
+            synchronized (failures) {
+              failures.add(new VerificationFailure(entryIndex, entry, verifier, message));
+            }
+            failed.countDown();
+          }
+
+          @Override
+          public void pingback(PingbackVerifier verifier) {
+            pingbacks.add(verifier);
+          }
+        });
+        if (this.failFast && hasFailed()) {
+          this.poller.interrupt();
+          this.queue.clear();
+          return;
+        }
+      }
+    } catch (InterruptedException e) {
+      // Stopped by close.
+    } finally {
+      this.verified.countDown();
+    }
+  }
+
+  /**
+   * An entry pulled from the log, with its position in log.entries.
+   **/
+  private static final class PulledEntry {
+    final HarEntry entry;
+    final long position;
+
+    PulledEntry(HarEntry entry, long position) {
+      this.entry = entry;
+      this.position = position;
+    }
+  }
+}
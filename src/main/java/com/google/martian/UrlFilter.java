@@ -93,4 +93,28 @@ public class UrlFilter implements Modifier {
     public void setQuery(String query) {
         this.query = query;
     }
+
+    public Scope getScope() {
+        return this.scope;
+    }
+
+    public Modifier getModifier() {
+        return this.modifier;
+    }
+
+    public String getScheme() {
+        return this.scheme;
+    }
+
+    public String getHost() {
+        return this.host;
+    }
+
+    public String getPath() {
+        return this.path;
+    }
+
+    public String getQuery() {
+        return this.query;
+    }
 }
@@ -0,0 +1,567 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * JsonWriter that encodes straight to UTF-8 bytes, for serializing modifier
+ * trees on the hot path. Output is byte for byte what a compact JsonWriter over
+ * a UTF-8 Writer produces, without the intermediate char stream:
+ * <ul>
+ * <li>property names, which are constants such as "header.Modifier" and
+ * "scope" in every modifier, are escaped and encoded once and cached as byte
+ * segments;</li>
+ * <li>strings and integers are encoded directly into a byte buffer that is
+ * reused by the writers of a thread;</li>
+ * <li>the buffer is written to the underlying stream in large blocks.</li>
+ * </ul>
+ * Indentation, lenient and HTML-safe output are not supported. A writer must be
+ * used by a single thread and should be closed when done, which flushes it and
+ * releases its buffer; a writer abandoned after an error should be released.
+ **/
+public class Utf8JsonWriter extends JsonWriter {
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_CACHED_NAMES = 1024;
+
+    private static final ThreadLocal<byte[]> BUFFERS = new ThreadLocal<byte[]>();
+    private static final ConcurrentHashMap<String, byte[]> NAMES =
+            new ConcurrentHashMap<String, byte[]>();
+
+    private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+    private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+    private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    // Scopes of the nesting stack, mirroring those of JsonWriter.
+    private static final int EMPTY_ARRAY = 1;
+    private static final int NONEMPTY_ARRAY = 2;
+    private static final int EMPTY_OBJECT = 3;
+    private static final int DANGLING_NAME = 4;
+    private static final int NONEMPTY_OBJECT = 5;
+    private static final int EMPTY_DOCUMENT = 6;
+    private static final int NONEMPTY_DOCUMENT = 7;
+
+    private final OutputStream out;
+    private byte[] buffer;
+    private int position;
+    private int[] stack = new int[32];
+    private int stackSize;
+    private String deferredName;
+    private boolean closed;
+    private long bytesWritten;
+
+    /**
+     * Class constructor.
+     *
+     * @param out stream that the UTF-8 encoded JSON is written to
+     **/
+    public Utf8JsonWriter(OutputStream out) {
+        super(UnusedWriter.INSTANCE);
+        this.out = out;
+        this.buffer = BUFFERS.get();
+        if (this.buffer == null) {
+            this.buffer = new byte[BUFFER_SIZE];
+        } else {
+            // Nested writers on one thread must not share the buffer.
+            BUFFERS.set(null);
+        }
+        push(EMPTY_DOCUMENT);
+    }
+
+    @Override
+    public JsonWriter beginArray() throws IOException {
+        writeDeferredName();
+        return open(EMPTY_ARRAY, (byte) '[');
+    }
+
+    @Override
+    public JsonWriter endArray() throws IOException {
+        return close(EMPTY_ARRAY, NONEMPTY_ARRAY, (byte) ']');
+    }
+
+    @Override
+    public JsonWriter beginObject() throws IOException {
+        writeDeferredName();
+        return open(EMPTY_OBJECT, (byte) '{');
+    }
+
+    @Override
+    public JsonWriter endObject() throws IOException {
+        return close(EMPTY_OBJECT, NONEMPTY_OBJECT, (byte) '}');
+    }
+
+    @Override
+    public JsonWriter name(String name) throws IOException {
+        if (name == null) {
+            throw new NullPointerException("name == null");
+        }
+        if (this.deferredName != null) {
+            throw new IllegalStateException();
+        }
+        if (this.stackSize == 0) {
+            throw new IllegalStateException("JsonWriter is closed.");
+        }
+        this.deferredName = name;
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(String value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        writeDeferredName();
+        beforeValue(false);
+        writeString(value);
+        return this;
+    }
+
+    @Override
+    public JsonWriter nullValue() throws IOException {
+        if (this.deferredName != null) {
+            if (getSerializeNulls()) {
+                writeDeferredName();
+            } else {
+                // Skip the name and the value.
+                this.deferredName = null;
+                return this;
+            }
+        }
+        beforeValue(false);
+        writeBytes(NULL);
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(boolean value) throws IOException {
+        writeDeferredName();
+        beforeValue(false);
+        writeBytes(value ? TRUE : FALSE);
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new IllegalArgumentException("Numeric values must be finite, but was " + value);
+        }
+        writeDeferredName();
+        beforeValue(false);
+        writeAscii(Double.toString(value));
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(long value) throws IOException {
+        writeDeferredName();
+        beforeValue(false);
+        writeLong(value);
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(Number value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        if (value instanceof Integer || value instanceof Long
+                || value instanceof Short || value instanceof Byte) {
+            return value(value.longValue());
+        }
+
+        String string = value.toString();
+        if (string.equals("-Infinity") || string.equals("Infinity") || string.equals("NaN")) {
+            throw new IllegalArgumentException("Numeric values must be finite, but was " + value);
+        }
+        writeDeferredName();
+        beforeValue(false);
+        writeAscii(string);
+        return this;
+    }
+
+    /**
+     * Writes json, which must be a complete, compact JSON object or array encoded
+     * as UTF-8, as the next value without re-encoding it.
+     **/
+    void rawValue(byte[] json) throws IOException {
+        writeDeferredName();
+        beforeValue(true);
+        writeBytes(json);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (this.closed) {
+            throw new IllegalStateException("JsonWriter is closed.");
+        }
+        drain();
+        this.out.flush();
+    }
+
+    /**
+     * Flushes the underlying stream and hands the buffer back for reuse by the
+     * next writer on this thread. Unlike JsonWriter, the underlying stream is
+     * left open; it is owned by the caller.
+     **/
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        try {
+            drain();
+            this.out.flush();
+        } finally {
+            this.closed = true;
+            BUFFERS.set(this.buffer);
+        }
+
+        int size = this.stackSize;
+        if (size > 1 || size == 1 && this.stack[0] != NONEMPTY_DOCUMENT) {
+            throw new IOException("Incomplete document");
+        }
+        this.stackSize = 0;
+    }
+
+    /**
+     * Hands the buffer back for reuse by the next writer on this thread without
+     * writing what is still buffered, for a writer abandoned after an error. The
+     * writer is closed afterwards. Does nothing if the writer is already closed.
+     **/
+    void release() {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        this.stackSize = 0;
+        this.position = 0;
+        BUFFERS.set(this.buffer);
+    }
+
+    /**
+     * @return number of bytes written so far, including those still buffered
+     **/
+    long getBytesWritten() {
+        return this.bytesWritten + this.position;
+    }
+
+    private JsonWriter open(int empty, byte bracket) throws IOException {
+        beforeValue(true);
+        push(empty);
+        writeByte(bracket);
+        return this;
+    }
+
+    private JsonWriter close(int empty, int nonempty, byte bracket) throws IOException {
+        int context = peek();
+        if (context != nonempty && context != empty) {
+            throw new IllegalStateException("Nesting problem.");
+        }
+        if (this.deferredName != null) {
+            throw new IllegalStateException("Dangling name: " + this.deferredName);
+        }
+        this.stackSize--;
+        writeByte(bracket);
+        return this;
+    }
+
+    private void push(int scope) {
+        if (this.stackSize == this.stack.length) {
+            this.stack = Arrays.copyOf(this.stack, this.stackSize * 2);
+        }
+        this.stack[this.stackSize++] = scope;
+    }
+
+    private int peek() {
+        if (this.stackSize == 0) {
+            throw new IllegalStateException("JsonWriter is closed.");
+        }
+        return this.stack[this.stackSize - 1];
+    }
+
+    private void writeDeferredName() throws IOException {
+        if (this.deferredName == null) {
+            return;
+        }
+
+        int context = peek();
+        if (context == NONEMPTY_OBJECT) {
+            writeByte((byte) ',');
+        } else if (context != EMPTY_OBJECT) {
+            throw new IllegalStateException("Nesting problem.");
+        }
+        this.stack[this.stackSize - 1] = DANGLING_NAME;
+
+        writeBytes(encodedName(this.deferredName));
+        this.deferredName = null;
+    }
+
+    private void beforeValue(boolean root) throws IOException {
+        switch (peek()) {
+            case NONEMPTY_DOCUMENT:
+                throw new IllegalStateException("JSON must have only one top-level value.");
+            case EMPTY_DOCUMENT:
+                if (!root) {
+                    throw new IllegalStateException(
+                            "JSON must start with an array or an object.");
+                }
+                this.stack[this.stackSize - 1] = NONEMPTY_DOCUMENT;
+                break;
+            case EMPTY_ARRAY:
+                this.stack[this.stackSize - 1] = NONEMPTY_ARRAY;
+                break;
+            case NONEMPTY_ARRAY:
+                writeByte((byte) ',');
+                break;
+            case DANGLING_NAME:
+                this.stack[this.stackSize - 1] = NONEMPTY_OBJECT;
+                break;
+            default:
+                throw new IllegalStateException("Nesting problem.");
+        }
+    }
+
+    /**
+     * Returns name as an escaped, quoted UTF-8 property name followed by a colon.
+     **/
+    private static byte[] encodedName(String name) {
+        byte[] encoded = NAMES.get(name);
+        if (encoded == null) {
+            encoded = encode(name);
+            if (NAMES.size() < MAX_CACHED_NAMES) {
+                NAMES.putIfAbsent(name, encoded);
+            }
+        }
+        return encoded;
+    }
+
+    private static byte[] encode(String name) {
+        StringBuilder escaped = new StringBuilder(name.length() + 3);
+        escaped.append('"');
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            String replacement = replacement(c);
+            if (replacement != null) {
+                escaped.append(replacement);
+            } else {
+                escaped.append(c);
+            }
+        }
+        escaped.append("\":");
+        return escaped.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the escape sequence JsonWriter uses for c, or null if c is written
+     * as is.
+     **/
+    private static String replacement(char c) {
+        switch (c) {
+            case '"':
+                return "\\\"";
+            case '\\':
+                return "\\\\";
+            case '\t':
+                return "\\t";
+            case '\b':
+                return "\\b";
+            case '\n':
+                return "\\n";
+            case '\r':
+                return "\\r";
+            case '\f':
+                return "\\f";
+            case '\u2028':
+                return "\\u2028";
+            case '\u2029':
+                return "\\u2029";
+            default:
+                if (c < 0x20) {
+                    return String.format("\\u%04x", (int) c);
+                }
+                return null;
+        }
+    }
+
+    private void writeString(String value) throws IOException {
+        writeByte((byte) '"');
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                if (c >= 0x20 && c != '"' && c != '\\') {
+                    writeByte((byte) c);
+                } else {
+                    writeEscape(c);
+                }
+            } else if (c < 0x800) {
+                ensure(2);
+                this.buffer[this.position++] = (byte) (0xc0 | (c >> 6));
+                this.buffer[this.position++] = (byte) (0x80 | (c & 0x3f));
+            } else if (c == '\u2028' || c == '\u2029') {
+                writeEscape(c);
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                ensure(4);
+                this.buffer[this.position++] = (byte) (0xf0 | (codePoint >> 18));
+                this.buffer[this.position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                this.buffer[this.position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                this.buffer[this.position++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogates are replaced, as a UTF-8 Writer would.
+                writeByte((byte) '?');
+            } else {
+                ensure(3);
+                this.buffer[this.position++] = (byte) (0xe0 | (c >> 12));
+                this.buffer[this.position++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                this.buffer[this.position++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        writeByte((byte) '"');
+    }
+
+    private void writeEscape(char c) throws IOException {
+        ensure(6);
+        this.buffer[this.position++] = '\\';
+        switch (c) {
+            case '"':
+            case '\\':
+                this.buffer[this.position++] = (byte) c;
+                return;
+            case '\t':
+                this.buffer[this.position++] = 't';
+                return;
+            case '\b':
+                this.buffer[this.position++] = 'b';
+                return;
+            case '\n':
+                this.buffer[this.position++] = 'n';
+                return;
+            case '\r':
+                this.buffer[this.position++] = 'r';
+                return;
+            case '\f':
+                this.buffer[this.position++] = 'f';
+                return;
+            default:
+                this.buffer[this.position++] = 'u';
+                this.buffer[this.position++] = HEX[(c >> 12) & 0xf];
+                this.buffer[this.position++] = HEX[(c >> 8) & 0xf];
+                this.buffer[this.position++] = HEX[(c >> 4) & 0xf];
+                this.buffer[this.position++] = HEX[c & 0xf];
+        }
+    }
+
+    private void writeLong(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            writeAscii(Long.toString(value));
+            return;
+        }
+
+        ensure(20);
+        if (value < 0) {
+            this.buffer[this.position++] = '-';
+            value = -value;
+        }
+        int start = this.position;
+        do {
+            this.buffer[this.position++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+
+        // Digits were written least significant first.
+        for (int i = start, j = this.position - 1; i < j; i++, j--) {
+            byte digit = this.buffer[i];
+            this.buffer[i] = this.buffer[j];
+            this.buffer[j] = digit;
+        }
+    }
+
+    private void writeAscii(String value) throws IOException {
+        int length = value.length();
+        if (length > this.buffer.length) {
+            // Only numbers with huge precision get here.
+            writeBytes(value.getBytes(StandardCharsets.US_ASCII));
+            return;
+        }
+        ensure(length);
+        for (int i = 0; i < length; i++) {
+            this.buffer[this.position++] = (byte) value.charAt(i);
+        }
+    }
+
+    private void writeByte(byte b) throws IOException {
+        if (this.position == this.buffer.length) {
+            drain();
+        }
+        this.buffer[this.position++] = b;
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        if (bytes.length > this.buffer.length - this.position) {
+            drain();
+            if (bytes.length > this.buffer.length) {
+                this.out.write(bytes);
+                this.bytesWritten += bytes.length;
+                return;
+            }
+        }
+        System.arraycopy(bytes, 0, this.buffer, this.position, bytes.length);
+        this.position += bytes.length;
+    }
+
+    private void ensure(int count) throws IOException {
+        if (count > this.buffer.length - this.position) {
+            drain();
+        }
+    }
+
+    private void drain() throws IOException {
+        if (this.closed) {
+            throw new IllegalStateException("JsonWriter is closed.");
+        }
+        if (this.position > 0) {
+            this.out.write(this.buffer, 0, this.position);
+            this.bytesWritten += this.position;
+            this.position = 0;
+        }
+    }
+
+    /**
+     * Writer handed to JsonWriter, whose own output methods are never called.
+     **/
+    private static final class UnusedWriter extends Writer {
+        static final UnusedWriter INSTANCE = new UnusedWriter();
+
+        @Override
+        public void write(char[] buffer, int offset, int count) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void flush() {}
+
+        @Override
+        public void close() {}
+    }
+}
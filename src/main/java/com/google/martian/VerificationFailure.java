@@ -0,0 +1,64 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+/**
+ * A verification failure found by evaluating verifiers locally, attributed to
+ * the HAR entry that caused it.
+ **/
+public class VerificationFailure {
+    private final long entryIndex;
+    private final HarEntry entry;
+    private final Modifier verifier;
+    private final String message;
+
+    public VerificationFailure(long entryIndex, HarEntry entry, Modifier verifier, String message) {
+        this.entryIndex = entryIndex;
+        this.entry = entry;
+        this.verifier = verifier;
+        this.message = message;
+    }
+
+    /**
+     * @return position of the failing entry in log.entries, or -1 if the
+     *         failure is not caused by a single entry, e.g. a missing pingback
+     **/
+    public long getEntryIndex() {
+        return this.entryIndex;
+    }
+
+    /**
+     * @return the failing entry, or null if the failure is not caused by a
+     *         single entry
+     **/
+    public HarEntry getEntry() {
+        return this.entry;
+    }
+
+    /**
+     * @return the verifier that failed, as passed in the modifier tree
+     **/
+    public Modifier getVerifier() {
+        return this.verifier;
+    }
+
+    public String getMessage() {
+        return this.message;
+    }
+
+    @Override
+    public String toString() {
+        return this.entryIndex < 0 ? this.message : "entry " + this.entryIndex + ": " + this.message;
+    }
+}
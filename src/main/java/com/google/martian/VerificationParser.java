@@ -15,8 +15,11 @@ package com.google.martian;
 
 import com.google.gson.JsonParseException;
 import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.Reader;
 import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.List;
@@ -28,30 +31,79 @@ public class VerificationParser {
         }
 
         StringReader stringReader = new StringReader(json);
-        JsonReader reader = new JsonReader(stringReader);
-        List<String> failures = new ArrayList<String>();
-        reader.beginObject();
-        String n = reader.nextName();
+        List<String> failures = fromJson(stringReader, Integer.MAX_VALUE);
+        stringReader.close();
+
+        return failures;
+    }
+
+    /**
+     * Parses verification failures from reader, retaining at most maxFailures of
+     * them. Failures beyond the limit are parsed and discarded.
+     *
+     * @param reader      verification message from Martian
+     * @param maxFailures maximum number of failures to return
+     * @return the first maxFailures verification failures
+     * @throws IOException if an error occurs during input or output
+     **/
+    public List<String> fromJson(Reader reader, final int maxFailures) throws IOException {
+        final List<String> failures = new ArrayList<String>();
+        parse(reader, new VerificationListener() {
+            @Override
+            public void onFailure(String message) {
+                if (failures.size() < maxFailures) {
+                    failures.add(message);
+                }
+            }
+        });
+        return failures;
+    }
+
+    /**
+     * Parses verification failures from reader, passing each to listener as soon
+     * as it has been read. An empty message contains no failures.
+     *
+     * @param reader   verification message from Martian
+     * @param listener receiver of the failures
+     * @return number of failures parsed
+     * @throws IOException if an error occurs during input or output
+     **/
+    public long parse(Reader reader, VerificationListener listener) throws IOException {
+        JsonReader jsonReader = new JsonReader(reader);
+        if (isEmpty(jsonReader)) {
+            return 0;
+        }
+
+        long count = 0;
+        jsonReader.beginObject();
+        String n = jsonReader.nextName();
         if (!"errors".equals(n)) {
             throw new JsonParseException("expected property: errors, got: " + n);
         }
-        reader.beginArray();
-        while (reader.hasNext()) {
-            reader.beginObject();
-            n = reader.nextName();
+        jsonReader.beginArray();
+        while (jsonReader.hasNext()) {
+            jsonReader.beginObject();
+            n = jsonReader.nextName();
             if (!"message".equals(n)) {
                 throw new JsonParseException("expected property: message");
             }
-            String message = reader.nextString();
-            failures.add(message);
-            reader.endObject();
+            listener.onFailure(jsonReader.nextString());
+            count++;
+            jsonReader.endObject();
         }
-        reader.endArray();
-        reader.endObject();
+        jsonReader.endArray();
+        jsonReader.endObject();
 
-        reader.close();
-        stringReader.close();
+        jsonReader.close();
 
-        return failures;
+        return count;
+    }
+
+    private static boolean isEmpty(JsonReader reader) throws IOException {
+        try {
+            return reader.peek() == JsonToken.END_DOCUMENT;
+        } catch (EOFException e) {
+            return true;
+        }
     }
 }
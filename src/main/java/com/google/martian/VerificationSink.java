@@ -0,0 +1,29 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+/**
+ * Receives the outcome of the verifiers of a compiled modifier tree.
+ **/
+interface VerificationSink {
+    /**
+     * Called when verifier rejects a request or response.
+     **/
+    void failure(Modifier verifier, String message);
+
+    /**
+     * Called when a request matches the url of a pingback verifier.
+     **/
+    void pingback(PingbackVerifier verifier);
+}
@@ -0,0 +1,238 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs calls with deadlines and cancellation against a Martian stand-in whose
+ * verification endpoint never answers, and whose logs stop after their first
+ * entry, until released.
+ **/
+@RunWith(JUnit4.class)
+public class CallContextTest {
+    private HttpServer httpServer;
+    private ExecutorService serverExecutor;
+    private CountDownLatch release;
+    private CountDownLatch stalled;
+    private AtomicInteger configures;
+    private Client client;
+
+    @Before
+    public void setupServer() throws Exception {
+        this.release = new CountDownLatch(1);
+        this.stalled = new CountDownLatch(1);
+        this.configures = new AtomicInteger();
+
+        this.httpServer = HttpServer.create(new InetSocketAddress(0), 0);
+        this.httpServer.createContext("/configure", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                InputStream in = exchange.getRequestBody();
+                while (in.read() != -1) {}
+                configures.incrementAndGet();
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+            }
+        });
+        this.httpServer.createContext("/verify", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                stalled.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+            }
+        });
+        this.httpServer.createContext("/logs", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.sendResponseHeaders(200, 0);
+                OutputStream out = exchange.getResponseBody();
+                out.write(("{\"log\":{\"entries\":["
+                        + LoggerTest.entry(0, "GET", "http://example.com/0", 200) + ",")
+                        .getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                out.write((LoggerTest.entry(1, "GET", "http://example.com/1", 200) + "]}}")
+                        .getBytes(StandardCharsets.UTF_8));
+                out.close();
+            }
+        });
+        this.serverExecutor = Executors.newCachedThreadPool();
+        this.httpServer.setExecutor(this.serverExecutor);
+        this.httpServer.start();
+
+        this.client = new Client("localhost:" + this.httpServer.getAddress().getPort());
+        this.client.registerLogger("har", "/logs/reset", "/logs");
+    }
+
+    @Test
+    public void deadlineAbortsStalledCall() throws IOException {
+        long start = System.nanoTime();
+        try {
+            this.client.checkVerifications(CallContext.withTimeout(200, TimeUnit.MILLISECONDS));
+            fail("expected InterruptedIOException");
+        } catch (InterruptedIOException e) {
+            assertEquals("Deadline exceeded", e.getMessage());
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("took " + elapsed + "ms", elapsed < 3000);
+    }
+
+    @Test
+    public void deadlineAbortsStalledRead() throws IOException {
+        long start = System.nanoTime();
+        HarEntryIterator entries = this.client.retrieveEntries(
+                "har", null, CallContext.withTimeout(500, TimeUnit.MILLISECONDS));
+        try {
+            assertEquals("0", entries.next().getJson().get("_id").getAsString());
+            entries.hasNext();
+            fail("expected InterruptedIOException");
+        } catch (InterruptedIOException e) {
+            assertEquals("Deadline exceeded", e.getMessage());
+        } finally {
+            entries.close();
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("took " + elapsed + "ms", elapsed < 3000);
+    }
+
+    @Test
+    public void cancelAbortsInFlightCall() throws Exception {
+        final CallContext context = new CallContext();
+        final AtomicReference<IOException> failure = new AtomicReference<IOException>();
+        Thread scenario = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    client.checkVerifications(context);
+                } catch (IOException e) {
+                    failure.set(e);
+                }
+            }
+        });
+        scenario.start();
+
+        assertTrue(this.stalled.await(5, TimeUnit.SECONDS));
+        context.cancel();
+        scenario.join(3000);
+
+        assertFalse(scenario.isAlive());
+        assertTrue(failure.get() != null);
+        assertFalse(failure.get() instanceof InterruptedIOException);
+        assertTrue(context.isCancelled());
+    }
+
+    @Test
+    public void expiredContextSendsNothing() throws IOException {
+        CallContext context = CallContext.withTimeout(0, TimeUnit.MILLISECONDS);
+        assertTrue(context.isExpired());
+        try {
+            this.client.configure(header("X-Test", "a"), context);
+            fail("expected InterruptedIOException");
+        } catch (InterruptedIOException e) {
+            // Expected.
+        }
+        assertEquals(0, this.configures.get());
+    }
+
+    @Test
+    public void cancelledContextSendsNothing() throws IOException {
+        CallContext context = new CallContext();
+        context.cancel();
+        try {
+            this.client.configure(header("X-Test", "a"), context);
+            fail("expected IOException");
+        } catch (IOException e) {
+            assertEquals("Canceled", e.getMessage());
+        }
+        assertEquals(0, this.configures.get());
+
+        // The failed call does not count as applied.
+        this.client.configure(header("X-Test", "a"), new CallContext());
+        assertEquals(1, this.configures.get());
+    }
+
+    @Test
+    public void asyncDeadlineFailsFuture() throws Exception {
+        try {
+            this.client.checkVerificationsAsync(
+                    CallContext.withTimeout(200, TimeUnit.MILLISECONDS)).get(3, TimeUnit.SECONDS);
+            fail("expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof InterruptedIOException);
+        }
+    }
+
+    @Test
+    public void callsWithinDeadlineSucceed() throws Exception {
+        CallContext context = CallContext.withTimeout(5, TimeUnit.SECONDS);
+        this.client.configure(header("X-Test", "a"), context);
+        this.client.configureAsync(header("X-Test", "b"), context).get(5, TimeUnit.SECONDS);
+
+        assertEquals(2, this.configures.get());
+        assertTrue(context.getRemaining(TimeUnit.MILLISECONDS) > 0);
+        assertFalse(context.isExpired());
+    }
+
+    @After
+    public void stopServer() {
+        this.release.countDown();
+        this.httpServer.stop(0);
+        this.serverExecutor.shutdownNow();
+    }
+
+    private static HeaderModifier header(String name, String value) {
+        HeaderModifier modifier = new HeaderModifier();
+        modifier.setName(name);
+        modifier.setValue(value);
+        return modifier;
+    }
+}
@@ -0,0 +1,209 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Sends requests to every endpoint of a Martian stand-in and checks the
+ * metrics the client records for them.
+ **/
+@RunWith(JUnit4.class)
+public class ClientMetricsTest {
+    private static final String VERIFICATIONS = "{\"errors\":[{\"message\":\"boom\"}]}";
+    private static final String LOGS = "{\"log\":{\"entries\":[]}}";
+
+    private HttpServer httpServer;
+    private Client client;
+
+    @Before
+    public void setupServer() throws Exception {
+        this.httpServer = HttpServer.create(new InetSocketAddress(0), 0);
+        this.httpServer.createContext("/configure", respond(200, ""));
+        this.httpServer.createContext("/verify", respond(200, VERIFICATIONS));
+        this.httpServer.createContext("/verify/reset", respond(500, ""));
+        this.httpServer.createContext("/logs", respond(200, LOGS));
+        this.httpServer.createContext("/logs/reset", respond(200, ""));
+        this.httpServer.start();
+
+        this.client = new Client("localhost:" + this.httpServer.getAddress().getPort());
+        this.client.setTimeout(1, TimeUnit.SECONDS);
+        this.client.registerLogger("har", "/logs/reset", "/logs");
+    }
+
+    @Test
+    public void recordsEveryEndpoint() throws Exception {
+        HeaderModifier modifier = new HeaderModifier();
+        modifier.setName("X-Test");
+        modifier.setValue("a");
+        int size = ImmutableModifier.copyOf(modifier).size();
+
+        this.client.configure(modifier);
+        this.client.checkVerifications();
+        this.client.checkVerificationsAsync().get(1, TimeUnit.SECONDS);
+        try {
+            this.client.resetVerifications();
+        } catch (IOException e) {
+            fail("reset does not check the status: " + e);
+        }
+        this.client.retrieveLogs("har");
+        this.client.resetLogs("har");
+
+        MetricsSnapshot snapshot = this.client.getMetrics().snapshot();
+
+        EndpointSnapshot configure = snapshot.getEndpoint(Endpoint.CONFIGURE);
+        assertEquals(1, configure.getCalls());
+        assertEquals(0, configure.getErrors());
+        assertEquals(0, configure.getInFlight());
+        assertEquals(size, configure.getRequestBytes());
+        assertEquals(1, snapshot.getConfigurationSize().getCount());
+        assertEquals(size, snapshot.getConfigurationSize().getMax());
+
+        EndpointSnapshot verify = snapshot.getEndpoint(Endpoint.CHECK_VERIFICATIONS);
+        assertEquals(2, verify.getCalls());
+        assertEquals(2 * VERIFICATIONS.length(), verify.getResponseBytes());
+        assertEquals(2, verify.getLatency().getCount());
+        assertTrue(verify.getLatency().getMax() > 0);
+
+        assertEquals(1, snapshot.getEndpoint(Endpoint.RESET_VERIFICATIONS).getCalls());
+        assertEquals(LOGS.length(),
+                snapshot.getEndpoint(Endpoint.RETRIEVE_LOGS).getResponseBytes());
+        assertEquals(1, snapshot.getEndpoint(Endpoint.RESET_LOGS).getCalls());
+    }
+
+    @Test
+    public void measuresStreamedRead() throws Exception {
+        String logs = LoggerTest.har(200);
+        this.httpServer.removeContext("/logs");
+        this.httpServer.createContext("/logs", respond(200, logs));
+
+        HarEntryIterator entries = this.client.retrieveEntries("har", null);
+        EndpointSnapshot open =
+                this.client.getMetrics().snapshot().getEndpoint(Endpoint.RETRIEVE_LOGS);
+        assertEquals(1, open.getInFlight());
+        assertEquals(0, open.getCalls());
+
+        int read = 0;
+        while (entries.hasNext()) {
+            entries.next();
+            read++;
+        }
+        entries.close();
+        assertEquals(200, read);
+
+        EndpointSnapshot retrieve =
+                this.client.getMetrics().snapshot().getEndpoint(Endpoint.RETRIEVE_LOGS);
+        assertEquals(1, retrieve.getCalls());
+        assertEquals(0, retrieve.getErrors());
+        assertEquals(0, retrieve.getInFlight());
+        assertEquals(logs.length(), retrieve.getResponseBytes());
+    }
+
+    @Test
+    public void countsErrors() throws Exception {
+        this.httpServer.removeContext("/configure");
+        this.httpServer.createContext("/configure", respond(500, ""));
+
+        HeaderModifier modifier = new HeaderModifier();
+        modifier.setName("X-Test");
+        modifier.setValue("a");
+        try {
+            this.client.configure(modifier);
+            fail("expected IOException");
+        } catch (IOException e) {
+            // Expected.
+        }
+        try {
+            this.client.configure(modifier, CallContext.withTimeout(0, TimeUnit.SECONDS));
+            fail("expected IOException");
+        } catch (IOException e) {
+            // Expected.
+        }
+
+        EndpointSnapshot configure =
+                this.client.getMetrics().snapshot().getEndpoint(Endpoint.CONFIGURE);
+        assertEquals(2, configure.getCalls());
+        assertEquals(2, configure.getErrors());
+        assertEquals(0, configure.getInFlight());
+    }
+
+    @Test
+    public void notifiesListener() throws Exception {
+        final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+        this.client.setMetricsListener(new MetricsListener() {
+            @Override
+            public void onCallStarted(Endpoint endpoint) {
+                events.add("start " + endpoint);
+            }
+
+            @Override
+            public void onCallFinished(Endpoint endpoint, long latencyNanos, long requestBytes,
+                    long responseBytes, Throwable error) {
+                events.add("finish " + endpoint + " " + responseBytes + " " + (error == null));
+            }
+        });
+
+        this.client.checkVerifications();
+        this.client.retrieveLogs("har");
+
+        assertEquals(4, events.size());
+        assertEquals("start CHECK_VERIFICATIONS", events.get(0));
+        assertEquals("finish CHECK_VERIFICATIONS " + VERIFICATIONS.length() + " true",
+                events.get(1));
+        assertEquals("start RETRIEVE_LOGS", events.get(2));
+        assertEquals("finish RETRIEVE_LOGS " + LOGS.length() + " true", events.get(3));
+    }
+
+    @After
+    public void stopServer() {
+        this.httpServer.stop(0);
+    }
+
+    private static HttpHandler respond(final int status, String body) {
+        final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        return new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                InputStream in = exchange.getRequestBody();
+                while (in.read() != -1) {}
+                exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(bytes);
+                out.close();
+            }
+        };
+    }
+}
@@ -7,24 +7,48 @@ import org.junit.runners.Suite.SuiteClasses;
 @RunWith(Suite.class)
 @SuiteClasses({
   BodyModifierTest.class,
+  CallContextTest.class,
+  ClientMetricsTest.class,
   ClientTest.class,
+  ConfigureBatcherTest.class,
+  ConfigureDedupTest.class,
+  ControlPlaneEventsTest.class,
   CookieModifierTest.class,
   FifoGroupTest.class,
+  FilterIndexTest.class,
+  FleetClientTest.class,
+  HarEntryIteratorTest.class,
+  HarVerifierTest.class,
   HeaderBlacklistTest.class,
   HeaderFilterTest.class,
   HeaderModifierTest.class,
   HeaderVerifierTest.class,
+  HistogramTest.class,
+  ImmutableModifierTest.class,
   IntegrationTest.class,
+  LocalEngineTest.class,
+  LocalProxyTest.class,
+  LoggerTest.class,
   MethodVerifierTest.class,
+  ModifierOptimizerTest.class,
+  ModifierParserTest.class,
+  ModifierRequestBodyTest.class,
+  NoDelaySocketFactoryTest.class,
   PingbackVerifierTest.class,
   QueryStringFilterTest.class,
   QueryStringModifierTest.class,
   QueryStringVerifierTest.class,
+  SessionsTest.class,
+  ShardedClientTest.class,
+  SingleFlightTest.class,
+  SharedTransportTest.class,
   StatusModifierTest.class,
   StatusVerifierTest.class,
+  StreamingVerifierTest.class,
   UrlFilterTest.class,
   UrlModifierTest.class,
   UrlVerifierTest.class,
+  Utf8JsonWriterTest.class,
   VerificationFailureTest.class
 })
 public class ClientTestSuite {}
@@ -0,0 +1,181 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Sends batched configurations to a Martian stand-in and checks which of
+ * them are pushed and when their futures complete.
+ **/
+@RunWith(JUnit4.class)
+public class ConfigureBatcherTest {
+    private final List<String> pushes = Collections.synchronizedList(new ArrayList<String>());
+    private final List<Long> pushTimes = Collections.synchronizedList(new ArrayList<Long>());
+    private final CountDownLatch release = new CountDownLatch(1);
+    private volatile int status = 200;
+    private HttpServer httpServer;
+    private Client client;
+
+    @Before
+    public void setupServer() throws Exception {
+        this.httpServer = HttpServer.create(new InetSocketAddress(0), 0);
+        this.httpServer.createContext("/configure", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                pushTimes.add(System.nanoTime());
+                pushes.add(read(exchange.getRequestBody()));
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                exchange.sendResponseHeaders(status, -1);
+                exchange.close();
+            }
+        });
+        this.httpServer.setExecutor(Executors.newCachedThreadPool());
+        this.httpServer.start();
+
+        this.client = new Client("localhost:" + this.httpServer.getAddress().getPort());
+        this.client.setTimeout(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void dropsSupersededUpdates() throws Exception {
+        HeaderModifier modifier = header("0");
+        CompletableFuture<Void> first = this.client.configureBatched(modifier);
+        awaitPushes(1);
+
+        List<CompletableFuture<Void>> queued = new ArrayList<CompletableFuture<Void>>();
+        for (int i = 1; i <= 10; i++) {
+            // The modifier is copied, so changing it does not affect queued updates.
+            modifier.setValue(String.valueOf(i));
+            queued.add(this.client.configureBatched(modifier));
+        }
+        modifier.setValue("ignored");
+        Thread.sleep(50);
+        assertEquals(1, this.pushes.size());
+        assertFalse(first.isDone());
+
+        this.release.countDown();
+        first.get(5, TimeUnit.SECONDS);
+        for (CompletableFuture<Void> future : queued) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+
+        assertEquals(2, this.pushes.size());
+        assertTrue(this.pushes.get(0).contains("\"value\":\"0\""));
+        assertTrue(this.pushes.get(1).contains("\"value\":\"10\""));
+    }
+
+    @Test
+    public void limitsPushRate() throws Exception {
+        this.release.countDown();
+        this.client.setConfigureInterval(300, TimeUnit.MILLISECONDS);
+
+        this.client.configureBatched(header("a")).get(5, TimeUnit.SECONDS);
+        this.client.configureBatched(header("b")).get(5, TimeUnit.SECONDS);
+
+        assertEquals(2, this.pushes.size());
+        // The interval runs from the start of each push, before it reaches the server.
+        long gap = this.pushTimes.get(1) - this.pushTimes.get(0);
+        assertTrue("pushed after " + gap + "ns", gap >= TimeUnit.MILLISECONDS.toNanos(200));
+    }
+
+    @Test
+    public void skipsConfigurationAlreadyApplied() throws Exception {
+        this.release.countDown();
+
+        this.client.configureBatched(header("a")).get(5, TimeUnit.SECONDS);
+        this.client.configureBatched(header("a")).get(5, TimeUnit.SECONDS);
+
+        assertEquals(1, this.pushes.size());
+    }
+
+    @Test
+    public void failsUpdatesOfFailedPush() throws Exception {
+        this.status = 500;
+        this.release.countDown();
+
+        try {
+            this.client.configureBatched(header("a")).get(5, TimeUnit.SECONDS);
+            fail("expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+
+        // A failed push does not block later updates.
+        this.status = 200;
+        this.client.configureBatched(header("b")).get(5, TimeUnit.SECONDS);
+        assertEquals(2, this.pushes.size());
+    }
+
+    @After
+    public void stopServer() {
+        this.release.countDown();
+        this.httpServer.stop(0);
+    }
+
+    private void awaitPushes(int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (this.pushes.size() < expected) {
+            assertTrue("no push reached the server", System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    private static HeaderModifier header(String value) {
+        HeaderModifier modifier = new HeaderModifier();
+        modifier.setName("X-Version");
+        modifier.setValue(value);
+        return modifier;
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+            out.write(buffer, 0, n);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
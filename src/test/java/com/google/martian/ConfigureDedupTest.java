@@ -0,0 +1,141 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Counts the configure calls Martian sees while a client is repeatedly
+ * configured with identical and changed modifiers.
+ **/
+@RunWith(JUnit4.class)
+public class ConfigureDedupTest {
+    private HttpServer httpServer;
+    private AtomicInteger configures;
+    private volatile int status;
+    private Client client;
+
+    @Before
+    public void setupServer() throws Exception {
+        this.httpServer = HttpServer.create(new InetSocketAddress(0), 0);
+        this.configures = new AtomicInteger();
+        this.status = 200;
+        this.httpServer.createContext("/configure", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                InputStream in = exchange.getRequestBody();
+                while (in.read() != -1) {}
+                configures.incrementAndGet();
+                exchange.sendResponseHeaders(status, -1);
+                exchange.close();
+            }
+        });
+        this.httpServer.start();
+
+        this.client = new Client("localhost:" + this.httpServer.getAddress().getPort());
+        this.client.setTimeout(1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void identicalConfigurationIsSentOnce() throws IOException {
+        this.client.configure(header("X-Test", "a"));
+        this.client.configure(header("X-Test", "a"));
+        this.client.configureAsync(header("X-Test", "a")).join();
+
+        assertEquals(1, this.configures.get());
+    }
+
+    @Test
+    public void changedConfigurationIsSent() throws IOException {
+        this.client.configure(header("X-Test", "a"));
+        this.client.configure(header("X-Test", "b"));
+        this.client.configure(header("X-Test", "a"));
+
+        assertEquals(3, this.configures.get());
+    }
+
+    @Test
+    public void forcedConfigurationIsSent() throws IOException {
+        this.client.configure(header("X-Test", "a"));
+        this.client.configure(header("X-Test", "a"), true);
+        this.client.configureAsync(header("X-Test", "a"), true).join();
+
+        assertEquals(3, this.configures.get());
+    }
+
+    @Test
+    public void forcedConfigurationWithContextIsSent() throws IOException {
+        this.client.configure(header("X-Test", "a"), new CallContext());
+        this.client.configure(header("X-Test", "a"), new CallContext());
+        this.client.configure(header("X-Test", "a"), true, new CallContext());
+        this.client.configureAsync(header("X-Test", "a"), true,
+                CallContext.withTimeout(1, TimeUnit.SECONDS)).join();
+
+        assertEquals(3, this.configures.get());
+    }
+
+    @Test
+    public void invalidatedConfigurationIsSent() throws IOException {
+        this.client.configure(header("X-Test", "a"));
+        this.client.invalidateConfiguration();
+        this.client.configure(header("X-Test", "a"));
+
+        assertEquals(2, this.configures.get());
+    }
+
+    @Test
+    public void failedConfigurationIsRetried() throws IOException {
+        this.status = 500;
+        try {
+            this.client.configure(header("X-Test", "a"));
+            fail("expected IOException");
+        } catch (IOException expected) {
+            // expected
+        }
+
+        this.status = 200;
+        this.client.configure(header("X-Test", "a"));
+
+        assertEquals(2, this.configures.get());
+    }
+
+    @After
+    public void stopServer() {
+        this.httpServer.stop(0);
+    }
+
+    private static HeaderModifier header(String name, String value) {
+        HeaderModifier modifier = new HeaderModifier();
+        modifier.setName(name);
+        modifier.setValue(value);
+        return modifier;
+    }
+}
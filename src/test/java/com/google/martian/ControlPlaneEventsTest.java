@@ -0,0 +1,202 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import com.google.gson.stream.JsonWriter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Records the flight recorder events of calls to a Martian stand-in.
+ **/
+@RunWith(JUnit4.class)
+public class ControlPlaneEventsTest {
+    private HttpServer httpServer;
+    private Client client;
+    private Recording recording;
+
+    @Before
+    public void setup() throws Exception {
+        this.httpServer = HttpServer.create(new InetSocketAddress(0), 0);
+        this.httpServer.createContext("/configure", respond(200));
+        this.httpServer.createContext("/verify", respond(500));
+        this.httpServer.start();
+
+        this.client = new Client("localhost:" + this.httpServer.getAddress().getPort());
+        this.client.setTimeout(1, TimeUnit.SECONDS);
+
+        this.recording = new Recording();
+        this.recording.enable("com.google.martian.Call").withThreshold(Duration.ZERO);
+        this.recording.enable("com.google.martian.Serialization").withThreshold(Duration.ZERO);
+    }
+
+    @Test
+    public void recordsCallsAndSerialization() throws Exception {
+        FifoGroup group = new FifoGroup();
+        group.addModifier(header("X-A", "a"));
+        group.addModifier(header("X-B", "b"));
+        int size = ImmutableModifier.copyOf(group).size();
+
+        this.recording.start();
+        this.client.configure(group);
+        try {
+            this.client.checkVerifications();
+            fail("expected IOException");
+        } catch (IOException e) {
+            // Expected.
+        }
+        this.recording.stop();
+
+        List<RecordedEvent> calls = events("com.google.martian.Call");
+        assertEquals(2, calls.size());
+
+        RecordedEvent configure = calls.get(0);
+        assertEquals("CONFIGURE", configure.getString("endpoint"));
+        assertEquals("/configure", configure.getString("path"));
+        assertEquals(size, configure.getLong("requestBytes"));
+        assertEquals("success", configure.getString("outcome"));
+
+        RecordedEvent verify = calls.get(1);
+        assertEquals("CHECK_VERIFICATIONS", verify.getString("endpoint"));
+        assertEquals("/verify", verify.getString("path"));
+        assertTrue(verify.getString("outcome"), verify.getString("outcome").startsWith(
+                "java.io.IOException: Error on GET /verify"));
+
+        List<RecordedEvent> serializations = events("com.google.martian.Serialization");
+        // The message is streamed twice rather than buffered: hashed, then sent.
+        assertEquals(2, serializations.size());
+        assertEquals("digest", serializations.get(0).getString("purpose"));
+        assertEquals("configure", serializations.get(1).getString("purpose"));
+        for (RecordedEvent serialization : serializations) {
+            assertEquals(3, serialization.getInt("modifiers"));
+            assertEquals(size, serialization.getLong("bytes"));
+            assertEquals("success", serialization.getString("outcome"));
+        }
+    }
+
+    @Test
+    public void countsModifiersOfImmutableCopies() throws Exception {
+        FifoGroup group = new FifoGroup();
+        group.addModifier(ImmutableModifier.copyOf(header("X-A", "a")));
+        group.addModifier(header("X-B", "b"));
+
+        this.recording.start();
+        ImmutableModifier.copyOf(group);
+        this.recording.stop();
+
+        List<RecordedEvent> serializations = events("com.google.martian.Serialization");
+        assertEquals(1, serializations.size());
+        assertEquals("copy", serializations.get(0).getString("purpose"));
+        assertEquals(3, serializations.get(0).getInt("modifiers"));
+    }
+
+    @Test
+    public void countsModifiersWithNestedConfiguration() throws Exception {
+        UrlFilter filter = new UrlFilter();
+        filter.setHost("example.com");
+        filter.setModifier(new Modifier() {
+            @Override
+            public void writeJson(JsonWriter writer) throws IOException {
+                writer.beginObject();
+                writer.name("custom.Modifier").beginObject();
+                writer.name("limits").beginObject().name("max").value(1).endObject();
+                writer.name("retry").beginObject().name("times").value(2).endObject();
+                writer.endObject();
+                writer.endObject();
+            }
+        });
+
+        this.recording.start();
+        ImmutableModifier.copyOf(filter);
+        this.recording.stop();
+
+        List<RecordedEvent> serializations = events("com.google.martian.Serialization");
+        assertEquals(1, serializations.size());
+        assertEquals(2, serializations.get(0).getInt("modifiers"));
+    }
+
+    @Test
+    public void eventsAreSkippedWithoutRecording() {
+        assertNull(ControlPlaneEvents.get().beginCall());
+        assertNull(ControlPlaneEvents.get().beginSerialization());
+        assertNull(new ControlPlaneEvents().beginCall());
+    }
+
+    @After
+    public void teardown() {
+        this.recording.close();
+        this.httpServer.stop(0);
+    }
+
+    private List<RecordedEvent> events(String name) throws IOException {
+        Path file = Files.createTempFile("martian", ".jfr");
+        try {
+            this.recording.dump(file);
+            List<RecordedEvent> events = new ArrayList<RecordedEvent>();
+            for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+                if (event.getEventType().getName().equals(name)) {
+                    events.add(event);
+                }
+            }
+            return events;
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static HeaderModifier header(String name, String value) {
+        HeaderModifier modifier = new HeaderModifier();
+        modifier.setName(name);
+        modifier.setValue(value);
+        return modifier;
+    }
+
+    private static HttpHandler respond(final int status) {
+        return new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                InputStream in = exchange.getRequestBody();
+                while (in.read() != -1) {}
+                exchange.sendResponseHeaders(status, -1);
+                exchange.close();
+            }
+        };
+    }
+}
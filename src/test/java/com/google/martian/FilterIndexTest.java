@@ -0,0 +1,152 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares groups dispatched through a FilterIndex with the same groups
+ * evaluated linearly. Wrapping a filter in a FifoGroup with an explicit scope
+ * hides it from the index without changing its behaviour.
+ **/
+@RunWith(JUnit4.class)
+public class FilterIndexTest {
+
+    @Test
+    public void testMatchesLinearEvaluation() throws Exception {
+        Random random = new Random(42);
+        FifoGroup indexed = new FifoGroup();
+        FifoGroup linear = new FifoGroup();
+        for (int i = 0; i < 200; i++) {
+            Modifier modifier = randomFilter(random, i);
+            indexed.addModifier(modifier);
+            linear.addModifier(wrap(modifier));
+        }
+
+        LocalEngine indexedEngine = new LocalEngine(indexed);
+        LocalEngine linearEngine = new LocalEngine(linear);
+        for (int i = 0; i < 500; i++) {
+            String url = "http://host" + random.nextInt(10) + ".example.com/path"
+                    + random.nextInt(10) + "?q" + random.nextInt(10) + "=v";
+            String header = "X-Name-" + random.nextInt(10);
+
+            LocalRequest first = new LocalRequest("GET", url);
+            first.addHeader(header, "v");
+            LocalRequest second = new LocalRequest("GET", url);
+            second.addHeader(header, "v");
+            indexedEngine.modifyRequest(first);
+            linearEngine.modifyRequest(second);
+            assertEquals(headers(second), headers(first));
+            assertEquals(second.getUrl(), first.getUrl());
+
+            LocalResponse firstResponse = new LocalResponse(first, 200);
+            LocalResponse secondResponse = new LocalResponse(second, 200);
+            indexedEngine.modifyResponse(firstResponse);
+            linearEngine.modifyResponse(secondResponse);
+            assertEquals(headers(secondResponse), headers(firstResponse));
+        }
+    }
+
+    @Test
+    public void testFiltersSeeEarlierModifications() throws Exception {
+        FifoGroup group = new FifoGroup();
+        for (int i = 0; i < LocalEngine.INDEX_THRESHOLD; i++) {
+            group.addModifier(urlFilter("unrelated" + i + ".com", header("X-Unrelated", "true")));
+        }
+        UrlModifier rewrite = new UrlModifier();
+        rewrite.setHost("rewritten.com");
+        group.addModifier(urlFilter("example.com", rewrite));
+        group.addModifier(urlFilter("rewritten.com", header("X-Mode", "rewritten")));
+        group.addModifier(headerFilter("x-mode", header("X-Seen", "true")));
+        group.addModifier(header("X-Mode", "last"));
+        group.addModifier(headerFilter("X-Mode", header("X-Order", "last")));
+
+        LocalRequest request = new LocalRequest("GET", "http://example.com/");
+        new LocalEngine(group).modifyRequest(request);
+
+        assertEquals("rewritten.com", request.getUrl().host());
+        assertEquals("last", request.getHeader("X-Mode"));
+        assertEquals("true", request.getHeader("X-Seen"));
+        assertEquals("last", request.getHeader("X-Order"));
+        assertEquals(null, request.getHeader("X-Unrelated"));
+    }
+
+    private static Modifier randomFilter(Random random, int i) {
+        Modifier modifier = random.nextInt(4) == 0
+                ? header("X-Name-" + random.nextInt(10), "set-" + i)
+                : header("X-Result", "result-" + i);
+        switch (random.nextInt(5)) {
+            case 0:
+                return urlFilter("host" + random.nextInt(10) + ".example.com", modifier);
+            case 1:
+                UrlFilter path = new UrlFilter();
+                path.setPath("/path" + random.nextInt(10));
+                path.setModifier(modifier);
+                return path;
+            case 2:
+                return headerFilter("x-name-" + random.nextInt(10), modifier);
+            case 3:
+                QueryStringFilter query = new QueryStringFilter();
+                query.setName("q" + random.nextInt(10));
+                query.setModifier(modifier);
+                return query;
+            default:
+                return modifier;
+        }
+    }
+
+    private static FifoGroup wrap(Modifier modifier) {
+        FifoGroup group = new FifoGroup();
+        group.setScope(Scope.REQUEST_AND_RESPONSE);
+        group.addModifier(modifier);
+        return group;
+    }
+
+    private static List<String> headers(LocalMessage message) {
+        List<String> headers = new ArrayList<String>();
+        for (String name : message.getHeaderNames()) {
+            headers.add(name + ": " + message.getHeaders(name));
+        }
+        return headers;
+    }
+
+    private static HeaderModifier header(String name, String value) {
+        HeaderModifier modifier = new HeaderModifier();
+        modifier.setName(name);
+        modifier.setValue(value);
+        return modifier;
+    }
+
+    private static UrlFilter urlFilter(String host, Modifier modifier) {
+        UrlFilter filter = new UrlFilter();
+        filter.setHost(host);
+        filter.setModifier(modifier);
+        return filter;
+    }
+
+    private static HeaderFilter headerFilter(String name, Modifier modifier) {
+        HeaderFilter filter = new HeaderFilter();
+        filter.setName(name);
+        filter.setModifier(modifier);
+        return filter;
+    }
+}
@@ -0,0 +1,190 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs a fleet of fake Martian proxies, one healthy, one failing and one that
+ * never answers, and checks that every fleet operation attributes the outcome
+ * to the right proxy within the deadline.
+ **/
+@RunWith(JUnit4.class)
+public class FleetClientTest {
+    private HttpServer healthy;
+    private HttpServer failing;
+    private HttpServer stalled;
+    private CountDownLatch release;
+    private FleetClient fleet;
+
+    @Before
+    public void setupServers() throws Exception {
+        this.release = new CountDownLatch(1);
+        this.healthy = start(new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                respond(exchange, 200, exchange.getRequestURI().getPath().equals("/verify")
+                        ? "{\"errors\":[{\"message\":\"boom\"}]}"
+                        : "{\"log\":{\"entries\":[]}}");
+            }
+        });
+        this.failing = start(new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                respond(exchange, 500, "");
+            }
+        });
+        this.stalled = start(new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                respond(exchange, 200, "");
+            }
+        });
+
+        this.fleet = new FleetClient(Arrays.asList(
+                uri(this.healthy), uri(this.failing), uri(this.stalled)));
+        this.fleet.setDeadline(1, TimeUnit.SECONDS);
+        this.fleet.registerLogger("har", "/logs/reset", "/logs");
+    }
+
+    @Test
+    public void configureAttributesOutcomePerProxy() throws IOException {
+        HeaderModifier modifier = new HeaderModifier();
+        modifier.setName("X-Test");
+        modifier.setValue("a");
+
+        long start = System.nanoTime();
+        FleetResult<Void> result = this.fleet.configure(modifier);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertFalse(result.isSuccessful());
+        assertEquals(Arrays.asList(uri(this.healthy)), keys(result.getResults().keySet()));
+        assertEquals(Arrays.asList(uri(this.failing), uri(this.stalled)),
+                keys(result.getFailures().keySet()));
+        assertTrue(result.getFailures().get(uri(this.failing)) instanceof IOException);
+        assertTrue(result.getFailures().get(uri(this.stalled)) instanceof TimeoutException);
+        assertTrue("took " + elapsed + "ms", elapsed < 3000);
+    }
+
+    @Test
+    public void checkVerificationsReturnsMessagesPerProxy() throws IOException {
+        FleetResult<List<String>> result = this.fleet.checkVerifications();
+
+        assertEquals(Arrays.asList("boom"), result.getResults().get(uri(this.healthy)));
+        assertEquals(2, result.getFailures().size());
+    }
+
+    @Test
+    public void retrieveLogsReturnsLogsPerProxy() throws IOException {
+        FleetResult<String> result = this.fleet.retrieveLogs("har");
+
+        assertEquals("{\"log\":{\"entries\":[]}}", result.getResults().get(uri(this.healthy)));
+        assertEquals(2, result.getFailures().size());
+    }
+
+    @Test
+    public void unknownLoggerFailsEveryProxy() throws IOException {
+        FleetResult<Void> result = this.fleet.resetLogs("missing");
+
+        assertTrue(result.getResults().isEmpty());
+        assertEquals(3, result.getFailures().size());
+    }
+
+    @Test
+    public void cancelledProxyIsReportedAsFailed() throws IOException {
+        CompletableFuture<String> cancelled = new CompletableFuture<String>();
+        cancelled.cancel(false);
+        Map<String, CompletableFuture<String>> pending =
+                new LinkedHashMap<String, CompletableFuture<String>>();
+        pending.put("cancelled", cancelled);
+        pending.put("healthy", CompletableFuture.completedFuture("ok"));
+
+        FleetResult<String> result = FleetClient.collect(
+                pending, System.nanoTime() + TimeUnit.SECONDS.toNanos(1));
+
+        assertEquals("ok", result.getResults().get("healthy"));
+        assertEquals(1, result.getFailures().size());
+        assertTrue(result.getFailures().get("cancelled") instanceof CancellationException);
+    }
+
+    @After
+    public void stopServers() {
+        this.release.countDown();
+        this.healthy.stop(0);
+        this.failing.stop(0);
+        this.stalled.stop(0);
+    }
+
+    private static HttpServer start(HttpHandler handler) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(0), 0);
+        server.createContext("/", handler);
+        server.start();
+        return server;
+    }
+
+    private static String uri(HttpServer server) {
+        return "localhost:" + server.getAddress().getPort();
+    }
+
+    private static List<String> keys(Iterable<String> keys) {
+        List<String> list = new ArrayList<String>();
+        for (String key : keys) {
+            list.add(key);
+        }
+        return list;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body)
+            throws IOException {
+        InputStream in = exchange.getRequestBody();
+        while (in.read() != -1) {}
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+}
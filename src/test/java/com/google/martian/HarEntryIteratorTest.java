@@ -0,0 +1,164 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import com.google.gson.JsonObject;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JUnit4.class)
+public class HarEntryIteratorTest {
+
+    @Test
+    public void testAllEntries() throws Exception {
+        HarEntryIterator entries = new HarEntryIterator(new StringReader(LoggerTest.har(4)));
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(entries.hasNext());
+            HarEntry entry = entries.next();
+            assertEquals("http://example.com/" + i, entry.getUrl());
+            assertEquals(i % 2 == 0 ? "GET" : "POST", entry.getMethod());
+            assertEquals(200, entry.getStatus());
+            assertEquals("2015-06-01T00:00:0" + i + ".000Z", entry.getStartedDateTime());
+            assertEquals(1, entry.getRequest().getAsJsonArray("headers").size());
+        }
+        assertFalse(entries.hasNext());
+        entries.close();
+    }
+
+    @Test
+    public void testSkipsOtherLogFields() throws Exception {
+        String har = "{\"other\":[1,2],\"log\":{\"pages\":[{\"id\":\"p\"}],\"entries\":["
+                + LoggerTest.entry(7, "GET", "http://example.com/7", 404)
+                + "],\"comment\":\"after\"},\"trailer\":{}}";
+        HarEntryIterator entries = new HarEntryIterator(new StringReader(har));
+
+        assertEquals(404, entries.next().getStatus());
+        assertFalse(entries.hasNext());
+    }
+
+    @Test
+    public void testNoEntries() throws Exception {
+        assertFalse(new HarEntryIterator(new StringReader("{\"log\":{}}")).hasNext());
+        assertFalse(new HarEntryIterator(new StringReader(LoggerTest.har(0))).hasNext());
+    }
+
+    @Test
+    public void testFilter() throws Exception {
+        String har = "{\"log\":{\"entries\":["
+                + LoggerTest.entry(0, "GET", "http://example.com/a", 200) + ","
+                + LoggerTest.entry(1, "GET", "http://other.com/a", 200) + ","
+                + LoggerTest.entry(2, "POST", "http://example.com/b", 200) + ","
+                + LoggerTest.entry(3, "GET", "http://example.com/c", 500)
+                + "]}}";
+
+        HarEntryFilter filter = new HarEntryFilter();
+        filter.setHost("example.com");
+        filter.setMethod("GET");
+        filter.setStatus(200);
+
+        List<String> urls = new ArrayList<String>();
+        HarEntryIterator entries = new HarEntryIterator(new StringReader(har), filter);
+        while (entries.hasNext()) {
+            urls.add(entries.next().getUrl());
+        }
+
+        List<String> expected = new ArrayList<String>();
+        expected.add("http://example.com/a");
+        assertEquals(expected, urls);
+    }
+
+    @Test
+    public void testRejectedRequestSkipsResponse() throws Exception {
+        RecordingPredicate predicate = new RecordingPredicate();
+        HarEntryIterator entries =
+                new HarEntryIterator(new StringReader(LoggerTest.har(10)), predicate);
+
+        int count = 0;
+        while (entries.hasNext()) {
+            HarEntry entry = entries.next();
+            assertEquals("GET", entry.getMethod());
+            count++;
+        }
+
+        assertEquals(5, count);
+        assertEquals(10, predicate.requests);
+        // Only the accepted requests get as far as the response status.
+        assertEquals(5, predicate.responses);
+    }
+
+    @Test
+    public void testEntryWithoutResponse() throws Exception {
+        String har = "{\"log\":{\"entries\":[{\"request\":{\"method\":\"GET\","
+                + "\"url\":\"http://example.com/\"}}]}}";
+
+        HarEntryFilter filter = new HarEntryFilter();
+        filter.setStatus(200);
+        assertFalse(new HarEntryIterator(new StringReader(har), filter).hasNext());
+
+        HarEntry entry = new HarEntryIterator(new StringReader(har)).next();
+        assertNull(entry.getResponse());
+        assertEquals(0, entry.getStatus());
+    }
+
+    @Test
+    public void testFirstEntryId() throws Exception {
+        HarEntryIterator skipped = new HarEntryIterator(new StringReader(LoggerTest.har(3)));
+        assertNull(skipped.getFirstEntryId());
+        skipped.skip(2);
+        assertEquals("0", skipped.getFirstEntryId());
+
+        HarEntryFilter filter = new HarEntryFilter();
+        filter.setMethod("POST");
+        HarEntryIterator rejected =
+                new HarEntryIterator(new StringReader(LoggerTest.har(3)), filter);
+        assertEquals("http://example.com/1", rejected.next().getUrl());
+        assertEquals("0", rejected.getFirstEntryId());
+
+        String har = "{\"log\":{\"entries\":[{\"startedDateTime\":\"2015-06-01T00:00:00Z\","
+                + "\"request\":{\"method\":\"GET\",\"url\":\"http://example.com/\"}}]}}";
+        HarEntryIterator withoutId = new HarEntryIterator(new StringReader(har));
+        JsonObject entry = withoutId.next().getJson();
+        assertEquals("2015-06-01T00:00:00Z", entry.get("startedDateTime").getAsString());
+        assertEquals("2015-06-01T00:00:00Z", withoutId.getFirstEntryId());
+    }
+
+    static class RecordingPredicate implements HarEntryPredicate {
+        int requests;
+        int responses;
+
+        @Override
+        public boolean acceptRequest(String method, String url) {
+            this.requests++;
+            return "GET".equals(method);
+        }
+
+        @Override
+        public boolean acceptResponse(int status) {
+            this.responses++;
+            return true;
+        }
+    }
+}
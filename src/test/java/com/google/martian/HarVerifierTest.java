@@ -0,0 +1,206 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import com.google.gson.JsonParser;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+@RunWith(JUnit4.class)
+public class HarVerifierTest {
+    private static final int ENTRIES = 3000;
+
+    @Test
+    public void testAttributesFailuresToEntries() throws Exception {
+        List<VerificationFailure> failures =
+                new HarVerifier(verifiers(), new ForkJoinPool(4)).verify(entries());
+
+        List<Long> indices = new ArrayList<Long>();
+        for (VerificationFailure failure : failures) {
+            indices.add(failure.getEntryIndex());
+        }
+        assertEquals(expectedIndices(), indices);
+
+        // Request verifiers of an entry fail ahead of its response verifiers.
+        assertEquals(
+                "request(http://example.com/0) header verify failure: got Martian-Test [], "
+                        + "want Martian-Test present",
+                failures.get(0).getMessage());
+        VerificationFailure status = failures.get(1);
+        assertEquals("http://example.com/0", status.getEntry().getUrl());
+        assertEquals(
+                "response(http://example.com/0) status code verify failure: got 500, want 200",
+                status.getMessage());
+
+        VerificationFailure pingback = failures.get(failures.size() - 1);
+        assertEquals(-1, pingback.getEntryIndex());
+        assertNull(pingback.getEntry());
+        assertEquals("pingback verify failure: no request for host pingback.example.com",
+                pingback.getMessage());
+    }
+
+    @Test
+    public void testStreamedEntriesMatchEntriesInMemory() throws Exception {
+        HarEntryIterator iterator = new HarEntryIterator(new StringReader(har()));
+        List<VerificationFailure> streamed = new HarVerifier(verifiers()).verify(iterator);
+        iterator.close();
+
+        List<VerificationFailure> inMemory = new HarVerifier(verifiers()).verify(entries());
+
+        assertEquals(messages(inMemory), messages(streamed));
+    }
+
+    @Test
+    public void testStreamedEntriesKeepLogPositions() throws Exception {
+        StatusVerifier verifier = new StatusVerifier();
+        verifier.setHttpStatusCode(201);
+        HarEntryFilter filter = new HarEntryFilter();
+        filter.setMethod("GET");
+        HarEntryIterator iterator =
+                new HarEntryIterator(new StringReader(LoggerTest.har(6)), filter);
+        iterator.skip(1);
+
+        List<VerificationFailure> failures = new HarVerifier(verifier).verify(iterator);
+        iterator.close();
+
+        // Entry 0 was skipped and the odd entries are POSTs rejected by the filter.
+        assertEquals(2, failures.size());
+        assertEquals(2, failures.get(0).getEntryIndex());
+        assertEquals(4, failures.get(1).getEntryIndex());
+    }
+
+    @Test
+    public void testVerifiesHarFile() throws Exception {
+        File file = File.createTempFile("martian", ".har");
+        try {
+            OutputStream out = new FileOutputStream(file);
+            out.write(har().getBytes("UTF-8"));
+            out.close();
+
+            List<VerificationFailure> failures = new HarVerifier(verifiers()).verify(file.toPath());
+
+            assertEquals(expectedIndices().size(), failures.size());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testFailuresReferenceVerifier() throws Exception {
+        StatusVerifier verifier = new StatusVerifier();
+        verifier.setHttpStatusCode(201);
+
+        List<VerificationFailure> failures = new HarVerifier(verifier).verify(entries());
+
+        assertEquals(ENTRIES, failures.size());
+        assertSame(verifier, failures.get(ENTRIES - 1).getVerifier());
+        assertEquals(ENTRIES - 1, failures.get(ENTRIES - 1).getEntryIndex());
+    }
+
+    /**
+     * Every entry on /0 must answer 200, every request must carry a
+     * Martian-Test header and a pingback to a host that never appears is
+     * expected.
+     **/
+    private static Modifier verifiers() {
+        StatusVerifier status = new StatusVerifier();
+        status.setHttpStatusCode(200);
+        UrlFilter filter = new UrlFilter();
+        filter.setPath("/0");
+        filter.setModifier(status);
+
+        HeaderVerifier header = new HeaderVerifier();
+        header.setName("Martian-Test");
+        header.setScope(Scope.REQUEST);
+
+        PingbackVerifier pingback = new PingbackVerifier();
+        pingback.setHost("pingback.example.com");
+
+        HeaderModifier ignored = new HeaderModifier();
+        ignored.setName("Martian-Test");
+        ignored.setValue("overwritten");
+
+        FifoGroup group = new FifoGroup();
+        group.addModifier(ignored);
+        group.addModifier(filter);
+        group.addModifier(header);
+        group.addModifier(pingback);
+        return group;
+    }
+
+    /**
+     * Entries on /0 every tenth entry, failing with 500 every thirtieth; every
+     * seventh entry has no Martian-Test header.
+     **/
+    private static String har() {
+        StringBuilder har = new StringBuilder("{\"log\":{\"entries\":[");
+        for (int i = 0; i < ENTRIES; i++) {
+            if (i > 0) {
+                har.append(',');
+            }
+            String entry = LoggerTest.entry(
+                    i, "GET", "http://example.com/" + (i % 10 == 0 ? 0 : i), i % 30 == 0 ? 500 : 200);
+            if (i % 7 == 0) {
+                entry = entry.replace("Martian-Test", "Other-Header");
+            }
+            har.append(entry);
+        }
+        return har.append("]}}").toString();
+    }
+
+    private static List<HarEntry> entries() {
+        List<HarEntry> entries = new ArrayList<HarEntry>();
+        for (com.google.gson.JsonElement entry : new JsonParser().parse(har())
+                .getAsJsonObject().getAsJsonObject("log").getAsJsonArray("entries")) {
+            entries.add(new HarEntry(entry.getAsJsonObject()));
+        }
+        return entries;
+    }
+
+    private static List<Long> expectedIndices() {
+        List<Long> indices = new ArrayList<Long>();
+        for (long i = 0; i < ENTRIES; i++) {
+            if (i % 7 == 0) {
+                indices.add(i);
+            }
+            if (i % 30 == 0) {
+                indices.add(i);
+            }
+        }
+        indices.add(-1L);
+        return indices;
+    }
+
+    private static List<String> messages(List<VerificationFailure> failures) {
+        List<String> messages = new ArrayList<String>();
+        for (VerificationFailure failure : failures) {
+            messages.add(failure.toString());
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,133 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JUnit4.class)
+public class HistogramTest {
+
+    @Test
+    public void testSmallValuesAreExact() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 10; i++) {
+            histogram.record(i);
+        }
+
+        HistogramSnapshot snapshot = histogram.snapshot();
+        assertEquals(10, snapshot.getCount());
+        assertEquals(55, snapshot.getSum());
+        assertEquals(10, snapshot.getMax());
+        assertEquals(5.5, snapshot.getMean(), 0);
+        assertEquals(5, snapshot.getValueAtPercentile(50));
+        assertEquals(9, snapshot.getValueAtPercentile(90));
+        assertEquals(10, snapshot.getValueAtPercentile(100));
+        assertEquals(1, snapshot.getValueAtPercentile(0));
+    }
+
+    @Test
+    public void testRelativeErrorIsBounded() {
+        for (long value = 1; value < Histogram.MAX_VALUE; value = value * 3 + 7) {
+            long highest = Histogram.highestValue(Histogram.bucket(value));
+            assertTrue(value + " -> " + highest, highest >= value);
+            assertTrue(value + " -> " + highest, highest - value <= value / 32);
+            assertTrue(Histogram.bucket(value) < Histogram.BUCKETS);
+        }
+        assertEquals(Histogram.BUCKETS - 1, Histogram.bucket(Histogram.MAX_VALUE));
+    }
+
+    @Test
+    public void testPercentilesOfLatencies() {
+        Histogram histogram = new Histogram();
+        for (int i = 0; i < 990; i++) {
+            histogram.record(1000000);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(50000000);
+        }
+
+        HistogramSnapshot snapshot = histogram.snapshot();
+        assertWithin(1000000, snapshot.getValueAtPercentile(50));
+        assertWithin(1000000, snapshot.getValueAtPercentile(99));
+        assertEquals(50000000, snapshot.getValueAtPercentile(99.9));
+        assertEquals(50000000, snapshot.getMax());
+    }
+
+    @Test
+    public void testOutOfRangeValuesAreClamped() {
+        Histogram histogram = new Histogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+
+        HistogramSnapshot snapshot = histogram.snapshot();
+        assertEquals(2, snapshot.getCount());
+        assertEquals(0, snapshot.getValueAtPercentile(50));
+        assertEquals(Histogram.MAX_VALUE, snapshot.getMax());
+    }
+
+    @Test
+    public void testConcurrentRecording() throws Exception {
+        final Histogram histogram = new Histogram();
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 1; i <= 10000; i++) {
+                        histogram.record(i);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        HistogramSnapshot snapshot = histogram.snapshot();
+        assertEquals(40000, snapshot.getCount());
+        assertEquals(4L * 10000 * 10001 / 2, snapshot.getSum());
+        assertEquals(10000, snapshot.getMax());
+    }
+
+    @Test
+    public void testEmpty() {
+        HistogramSnapshot snapshot = new Histogram().snapshot();
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getValueAtPercentile(99));
+        assertEquals(0, snapshot.getMean(), 0);
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(expected + " vs " + actual,
+                actual >= expected && actual - expected <= expected / 32);
+    }
+}
@@ -0,0 +1,142 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import com.google.gson.stream.JsonWriter;
+
+import okio.Buffer;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.junit.Test;
+
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JUnit4.class)
+public class ImmutableModifierTest {
+
+    @Test
+    public void testCopyOf() throws Exception {
+        FifoGroup group = group("X-Name", 404);
+        ImmutableModifier immutable = ImmutableModifier.copyOf(group);
+
+        assertEquals(gson(group), immutable.toString());
+        assertEquals(gson(group), gson(immutable));
+        assertSame(immutable, ImmutableModifier.copyOf(immutable));
+    }
+
+    @Test
+    public void testToModifier() throws Exception {
+        FifoGroup group = group("X-Name", 404);
+        ImmutableModifier immutable = ImmutableModifier.copyOf(group);
+
+        Modifier decoded = immutable.toModifier();
+
+        assertTrue(decoded instanceof FifoGroup);
+        assertEquals(4, ((FifoGroup) decoded).getModifiers().size());
+        assertEquals(gson(group), gson(decoded));
+    }
+
+    @Test
+    public void testChangesAfterCopyAreNotReflected() throws Exception {
+        HeaderModifier header = new HeaderModifier();
+        header.setName("X-Name");
+        header.setValue("before");
+        ImmutableModifier immutable = ImmutableModifier.copyOf(header);
+
+        header.setValue("after");
+
+        assertEquals("{\"header.Modifier\":{\"name\":\"X-Name\",\"value\":\"before\"}}",
+                immutable.toString());
+    }
+
+    @Test
+    public void testComposition() throws Exception {
+        UrlFilter filter = new UrlFilter();
+        filter.setHost("example.com");
+        filter.setModifier(ImmutableModifier.copyOf(group("X-Child", 200)));
+
+        FifoGroup root = new FifoGroup();
+        root.addModifier(filter);
+        root.addModifier(ImmutableModifier.copyOf(group("X-Sibling", 500)));
+
+        UrlFilter mutableFilter = new UrlFilter();
+        mutableFilter.setHost("example.com");
+        mutableFilter.setModifier(group("X-Child", 200));
+
+        FifoGroup mutableRoot = new FifoGroup();
+        mutableRoot.addModifier(mutableFilter);
+        mutableRoot.addModifier(group("X-Sibling", 500));
+
+        String expected = gson(mutableRoot);
+        assertEquals(expected, gson(root));
+        assertEquals(expected, ImmutableModifier.copyOf(root).toString());
+    }
+
+    @Test
+    public void testEquality() throws Exception {
+        ImmutableModifier a = ImmutableModifier.copyOf(group("X-Name", 200));
+        ImmutableModifier b = ImmutableModifier.copyOf(group("X-Name", 200));
+        ImmutableModifier c = ImmutableModifier.copyOf(group("X-Name", 201));
+
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+        assertFalse(a.equals(c));
+    }
+
+    @Test
+    public void testRequestBodyHasContentLength() throws Exception {
+        ImmutableModifier immutable = ImmutableModifier.copyOf(group("X-Name", 200));
+        ModifierRequestBody body = new ModifierRequestBody(immutable);
+
+        Buffer buffer = new Buffer();
+        body.writeTo(buffer);
+
+        assertEquals(immutable.size(), body.contentLength());
+        assertEquals(immutable.toString(), buffer.readUtf8());
+    }
+
+    private static FifoGroup group(String header, int status) {
+        HeaderModifier headerModifier = new HeaderModifier();
+        headerModifier.setName(header);
+        headerModifier.setValue("caf\u00e9");
+
+        StatusModifier statusModifier = new StatusModifier();
+        statusModifier.setHttpStatusCode(status);
+
+        CookieModifier cookieModifier = new CookieModifier();
+        cookieModifier.setName("c");
+        cookieModifier.setSecure(true);
+        cookieModifier.setMaxAge(-1);
+
+        FifoGroup group = new FifoGroup();
+        group.setScope(Scope.REQUEST_AND_RESPONSE);
+        group.addModifier(headerModifier);
+        group.addModifier(statusModifier);
+        group.addModifier(cookieModifier);
+        group.addModifier(new BodyModifier());
+        return group;
+    }
+
+    private static String gson(Modifier modifier) throws Exception {
+        StringWriter stringWriter = new StringWriter();
+        modifier.writeJson(new JsonWriter(stringWriter));
+        return stringWriter.toString();
+    }
+}
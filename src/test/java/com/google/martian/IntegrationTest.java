@@ -29,10 +29,16 @@ import org.junit.Test;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 @RunWith(JUnit4.class)
@@ -80,6 +86,7 @@ public class IntegrationTest {
         assertEquals(this.handler.method, "POST");
         assertEquals(this.handler.headers.get("Content-Type")
                 .get(0), "application/json; charset=utf-8");
+        assertEquals(this.handler.headers.getFirst("Transfer-Encoding"), "chunked");
 
         JsonObject modifier = this.handler.json.getAsJsonObject("header.Modifier");
 
@@ -87,6 +94,28 @@ public class IntegrationTest {
         assertEquals(modifier.get("value").getAsString(), "true");
     }
 
+    @Test
+    public void testConfigureImmutable() throws Exception {
+        HeaderModifier headerModifier = new HeaderModifier();
+        headerModifier.setName("Martian-Test");
+        headerModifier.setValue("immutable");
+        ImmutableModifier immutable = ImmutableModifier.copyOf(headerModifier);
+
+        int port = this.httpServer.getAddress().getPort();
+        Client client = new Client(String.format("http://localhost:%d", port));
+        client.setConfigurePath("/martian/configure");
+        client.setTimeout(1, TimeUnit.SECONDS);
+
+        client.configure(immutable);
+
+        assertTrue("timeout waiting for handler to run", this.latch.await(1, TimeUnit.SECONDS));
+        // The cached message is sent as is, so its length is known.
+        assertEquals(String.valueOf(immutable.size()),
+                this.handler.headers.getFirst("Content-Length"));
+        assertEquals("immutable",
+                this.handler.json.getAsJsonObject("header.Modifier").get("value").getAsString());
+    }
+
     @Test
     public void testVerify() throws Exception {
         int port = httpServer.getAddress().getPort();
@@ -107,6 +136,90 @@ public class IntegrationTest {
         assertEquals(this.handler.method, "GET");
     }
 
+    @Test
+    public void testConfigureAsync() throws Exception {
+        HeaderModifier headerModifier = new HeaderModifier();
+        headerModifier.setName("Martian-Test");
+        headerModifier.setValue("async");
+
+        int port = this.httpServer.getAddress().getPort();
+        String url = String.format("http://localhost:%d", port);
+        Client client = new Client(url);
+
+        client.setConfigurePath("/martian/configure");
+        client.setTimeout(1, TimeUnit.SECONDS);
+
+        client.configureAsync(headerModifier).get(1, TimeUnit.SECONDS);
+
+        assertTrue("timeout waiting for handler to run", this.latch.await(1, TimeUnit.SECONDS));
+        assertEquals(this.handler.method, "POST");
+
+        JsonObject modifier = this.handler.json.getAsJsonObject("header.Modifier");
+
+        assertEquals(modifier.get("name").getAsString(), "Martian-Test");
+        assertEquals(modifier.get("value").getAsString(), "async");
+    }
+
+    @Test
+    public void testVerifyAsyncOnExecutor() throws Exception {
+        int port = httpServer.getAddress().getPort();
+        String url = String.format("http://localhost:%d", port);
+        final Client client = new Client(url);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Thread[] completionThread = new Thread[1];
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    completionThread[0] = Thread.currentThread();
+                }
+            }).get();
+
+            client.setTimeout(1, TimeUnit.SECONDS);
+            client.setCallbackExecutor(executor);
+            client.setResetVerificationsPath("/verify/reset");
+            client.setCheckVerificationsPath("/verify");
+
+            final Thread[] observedThread = new Thread[1];
+            List<String> failures = client.resetVerificationsAsync()
+                    .thenCompose(new Function<Void, CompletionStage<List<String>>>() {
+                        @Override
+                        public CompletionStage<List<String>> apply(Void ignored) {
+                            observedThread[0] = Thread.currentThread();
+                            return client.checkVerificationsAsync();
+                        }
+                    })
+                    .get(1, TimeUnit.SECONDS);
+
+            assertTrue(failures.isEmpty());
+            assertEquals(this.handler.method, "GET");
+            assertSame(completionThread[0], observedThread[0]);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testVerifyAsyncOnShutDownExecutor() throws Exception {
+        int port = httpServer.getAddress().getPort();
+        String url = String.format("http://localhost:%d", port);
+        Client client = new Client(url);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.shutdown();
+
+        client.setTimeout(1, TimeUnit.SECONDS);
+        client.setCallbackExecutor(executor);
+        client.setCheckVerificationsPath("/verify");
+
+        // The executor rejects the completion, so the dispatcher completes it.
+        List<String> failures = client.checkVerificationsAsync().get(1, TimeUnit.SECONDS);
+
+        assertTrue(failures.isEmpty());
+        assertEquals(this.handler.method, "GET");
+    }
+
     @After
     public void stopServer() {
         httpServer.stop(0);
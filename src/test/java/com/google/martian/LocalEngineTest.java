@@ -0,0 +1,276 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import com.google.gson.stream.JsonWriter;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JUnit4.class)
+public class LocalEngineTest {
+
+    @Test
+    public void testHeaderModifierAndBlacklist() throws Exception {
+        HeaderBlacklist blacklist = new HeaderBlacklist();
+        blacklist.addName("x-remove");
+
+        LocalEngine engine = new LocalEngine(group(header("X-Name", "new"), blacklist));
+
+        LocalRequest request = new LocalRequest("GET", "http://example.com/");
+        request.addHeader("X-Name", "old");
+        request.addHeader("X-Remove", "1");
+        engine.modifyRequest(request);
+
+        assertEquals(Arrays.asList("new"), request.getHeaders("x-name"));
+        assertNull(request.getHeader("X-Remove"));
+
+        LocalResponse response = new LocalResponse(request, 200);
+        response.addHeader("X-Remove", "1");
+        engine.modifyResponse(response);
+
+        assertEquals("new", response.getHeader("X-Name"));
+        assertNull(response.getHeader("X-Remove"));
+    }
+
+    @Test
+    public void testScope() throws Exception {
+        HeaderModifier requestOnly = header("X-Request", "true");
+        requestOnly.setScope(Scope.REQUEST);
+        HeaderModifier responseOnly = header("X-Response", "true");
+        responseOnly.setScope(Scope.RESPONSE);
+
+        LocalEngine engine = new LocalEngine(group(requestOnly, responseOnly));
+
+        LocalRequest request = new LocalRequest("GET", "http://example.com/");
+        engine.modifyRequest(request);
+        LocalResponse response = new LocalResponse(request, 200);
+        engine.modifyResponse(response);
+
+        assertEquals("true", request.getHeader("X-Request"));
+        assertNull(request.getHeader("X-Response"));
+        assertNull(response.getHeader("X-Request"));
+        assertEquals("true", response.getHeader("X-Response"));
+    }
+
+    @Test
+    public void testUrlAndQueryStringModifiers() throws Exception {
+        UrlModifier url = new UrlModifier();
+        url.setScheme("https");
+        url.setHost("other.com:8443");
+        url.setPath("/rewritten");
+
+        QueryStringModifier query = new QueryStringModifier();
+        query.setName("q");
+        query.setValue("new");
+
+        LocalEngine engine = new LocalEngine(group(url, query));
+
+        LocalRequest request = new LocalRequest("GET", "http://example.com/path?q=old&x=1");
+        engine.modifyRequest(request);
+
+        assertEquals("https://other.com:8443/rewritten?x=1&q=new", request.getUrl().toString());
+    }
+
+    @Test
+    public void testStatusAndBodyModifiers() throws Exception {
+        StatusModifier status = new StatusModifier();
+        status.setHttpStatusCode(404);
+
+        BodyModifier body = new BodyModifier();
+        body.setBody("aGVsbG8=");
+        body.setContentType("text/plain");
+        body.setScope(Scope.RESPONSE);
+
+        LocalEngine engine = new LocalEngine(group(status, body));
+
+        LocalRequest request = new LocalRequest("POST", "http://example.com/");
+        request.setBody(new byte[] {1, 2, 3});
+        engine.modifyRequest(request);
+        assertArrayEquals(new byte[] {1, 2, 3}, request.getBody());
+
+        LocalResponse response = new LocalResponse(request, 200);
+        response.addHeader("Content-Encoding", "gzip");
+        engine.modifyResponse(response);
+
+        assertEquals(404, response.getStatus());
+        assertArrayEquals("hello".getBytes("UTF-8"), response.getBody());
+        assertEquals("text/plain", response.getHeader("Content-Type"));
+        assertEquals("5", response.getHeader("Content-Length"));
+        assertNull(response.getHeader("Content-Encoding"));
+    }
+
+    @Test
+    public void testCookieModifier() throws Exception {
+        CookieModifier cookie = new CookieModifier();
+        cookie.setName("session");
+        cookie.setValue("abc");
+        cookie.setPath("/");
+        cookie.setExpires(new DateTime(2015, 10, 21, 7, 28, 0, DateTimeZone.UTC));
+        cookie.setHttpOnly(true);
+
+        LocalEngine engine = new LocalEngine(cookie);
+
+        LocalRequest request = new LocalRequest("GET", "http://example.com/");
+        request.addHeader("Cookie", "a=b");
+        engine.modifyRequest(request);
+        assertEquals("a=b; session=abc", request.getHeader("Cookie"));
+
+        LocalResponse response = new LocalResponse(request, 200);
+        engine.modifyResponse(response);
+        assertEquals(
+                Collections.singletonList(
+                        "session=abc; Path=/; Expires=Wed, 21 Oct 2015 07:28:00 GMT; HttpOnly"),
+                response.getHeaders("Set-Cookie"));
+    }
+
+    @Test
+    public void testFilters() throws Exception {
+        UrlFilter urlFilter = new UrlFilter();
+        urlFilter.setHost("example.com");
+        urlFilter.setPath("/match");
+        urlFilter.setModifier(header("X-Url", "true"));
+
+        HeaderFilter headerFilter = new HeaderFilter();
+        headerFilter.setName("X-Mode");
+        headerFilter.setValue("test");
+        headerFilter.setModifier(header("X-Header", "true"));
+
+        QueryStringFilter queryFilter = new QueryStringFilter();
+        queryFilter.setName("debug");
+        queryFilter.setModifier(header("X-Query", "true"));
+
+        LocalEngine engine = new LocalEngine(group(urlFilter, headerFilter, queryFilter));
+
+        LocalRequest matching = new LocalRequest("GET", "http://EXAMPLE.com/match?debug");
+        matching.addHeader("x-mode", "test");
+        engine.modifyRequest(matching);
+        assertEquals("true", matching.getHeader("X-Url"));
+        assertEquals("true", matching.getHeader("X-Header"));
+        assertEquals("true", matching.getHeader("X-Query"));
+
+        LocalRequest other = new LocalRequest("GET", "http://example.com/other?debug=1");
+        other.addHeader("X-Mode", "prod");
+        engine.modifyRequest(other);
+        assertNull(other.getHeader("X-Url"));
+        assertNull(other.getHeader("X-Header"));
+        assertEquals("true", other.getHeader("X-Query"));
+
+        LocalResponse response = new LocalResponse(matching, 200);
+        engine.modifyResponse(response);
+        assertEquals("true", response.getHeader("X-Url"));
+        assertNull(response.getHeader("X-Header"));
+    }
+
+    @Test
+    public void testSkipRoundTrip() throws Exception {
+        LocalRequest request = new LocalRequest("GET", "http://example.com/");
+        new LocalEngine(new SkipRoundTripModifier()).modifyRequest(request);
+
+        assertTrue(request.isRoundTripSkipped());
+        assertFalse(new LocalRequest("GET", "http://example.com/").isRoundTripSkipped());
+    }
+
+    @Test
+    public void testVerifiers() throws Exception {
+        MethodVerifier method = new MethodVerifier();
+        method.setMethod("GET");
+        StatusVerifier status = new StatusVerifier();
+        status.setHttpStatusCode(200);
+        PingbackVerifier pingback = new PingbackVerifier();
+        pingback.setPath("/pingback");
+
+        LocalEngine engine = new LocalEngine(group(method, status, pingback));
+
+        LocalRequest request = new LocalRequest("POST", "http://example.com/");
+        engine.modifyRequest(request);
+        engine.modifyResponse(new LocalResponse(request, 404));
+
+        assertEquals(Arrays.asList(
+                "request(http://example.com/) method verify failure: got POST, want GET",
+                "response(http://example.com/) status code verify failure: got 404, want 200",
+                "pingback verify failure: no request for path /pingback"),
+                engine.checkVerifications());
+
+        engine.resetVerifications();
+        engine.modifyRequest(new LocalRequest("GET", "http://example.com/pingback"));
+
+        assertEquals(Collections.emptyList(), engine.checkVerifications());
+    }
+
+    @Test
+    public void testImmutableModifier() throws Exception {
+        StatusVerifier status = new StatusVerifier();
+        status.setHttpStatusCode(200);
+        LocalEngine engine = new LocalEngine(
+                ImmutableModifier.copyOf(group(header("X-Name", "value"), status)));
+
+        LocalRequest request = new LocalRequest("GET", "http://example.com/");
+        engine.modifyRequest(request);
+        engine.modifyResponse(new LocalResponse(request, 500));
+
+        assertEquals(Arrays.asList("value"), request.getHeaders("X-Name"));
+        assertEquals(Arrays.asList(
+                "response(http://example.com/) status code verify failure: got 500, want 200"),
+                engine.checkVerifications());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedModifier() throws Exception {
+        new LocalEngine(new Modifier() {
+            @Override
+            public void writeJson(JsonWriter writer) throws IOException {
+                writer.beginObject().name("custom.Modifier").beginObject().endObject().endObject();
+            }
+        });
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedImmutableModifier() throws Exception {
+        new LocalEngine(ImmutableModifier.copyOf(new Modifier() {
+            @Override
+            public void writeJson(JsonWriter writer) throws IOException {
+                writer.beginObject().name("custom.Modifier").beginObject().endObject().endObject();
+            }
+        }));
+    }
+
+    private static HeaderModifier header(String name, String value) {
+        HeaderModifier modifier = new HeaderModifier();
+        modifier.setName(name);
+        modifier.setValue(value);
+        return modifier;
+    }
+
+    private static FifoGroup group(Modifier... modifiers) {
+        FifoGroup group = new FifoGroup();
+        for (Modifier modifier : modifiers) {
+            group.addModifier(modifier);
+        }
+        return group;
+    }
+}
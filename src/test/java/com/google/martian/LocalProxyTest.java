@@ -0,0 +1,227 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import com.squareup.okhttp.ConnectionPool;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.RequestBody;
+import com.squareup.okhttp.Response;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Configures a LocalProxy through Client and sends traffic through it to a
+ * local upstream server.
+ **/
+@RunWith(JUnit4.class)
+public class LocalProxyTest {
+    private HttpServer upstream;
+    private BlockingQueue<String> seen;
+    private LocalProxy proxy;
+    private Client client;
+    private OkHttpClient browser;
+
+    @Before
+    public void setup() throws Exception {
+        this.seen = new LinkedBlockingQueue<String>();
+        this.upstream = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.upstream.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String martian = exchange.getRequestHeaders().getFirst("X-Martian");
+                seen.add(exchange.getRequestMethod() + " " + exchange.getRequestURI() + " "
+                        + martian);
+                byte[] body = "hello".getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().add("X-Upstream", "true");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        this.upstream.start();
+
+        this.proxy = new LocalProxy();
+        this.proxy.start();
+        this.client = new Client(this.proxy.getAddress());
+
+        this.browser = new OkHttpClient();
+        this.browser.setConnectionPool(new ConnectionPool(5, 60000));
+        this.browser.setProxy(new Proxy(Proxy.Type.HTTP,
+                new InetSocketAddress("127.0.0.1", this.proxy.getPort())));
+    }
+
+    @Test
+    public void testModifiesProxiedTraffic() throws Exception {
+        HeaderModifier requestHeader = new HeaderModifier();
+        requestHeader.setName("X-Martian");
+        requestHeader.setValue("request");
+        requestHeader.setScope(Scope.REQUEST);
+
+        HeaderBlacklist blacklist = new HeaderBlacklist();
+        blacklist.addName("X-Upstream");
+        blacklist.setScope(Scope.RESPONSE);
+
+        FifoGroup group = new FifoGroup();
+        group.addModifier(requestHeader);
+        group.addModifier(blacklist);
+        this.client.configure(group);
+
+        Response response = this.browser.newCall(new Request.Builder()
+                .url(upstreamUrl("/path?q=1"))
+                .post(RequestBody.create(null, "body"))
+                .build()).execute();
+
+        assertEquals(200, response.code());
+        assertEquals("hello", response.body().string());
+        assertNull(response.header("X-Upstream"));
+        assertEquals("POST /path?q=1 request", this.seen.take());
+    }
+
+    @Test
+    public void testVerifications() throws Exception {
+        StatusVerifier verifier = new StatusVerifier();
+        verifier.setHttpStatusCode(201);
+        this.client.configure(verifier);
+
+        assertEquals(Collections.<String>emptyList(), this.client.checkVerifications());
+
+        get(upstreamUrl("/"));
+        assertEquals(1, this.client.checkVerifications().size());
+        assertTrue(this.client.checkVerifications().get(0).contains("got 200, want 201"));
+
+        this.client.resetVerifications();
+        assertEquals(Collections.<String>emptyList(), this.client.checkVerifications());
+    }
+
+    @Test
+    public void testSkipRoundTrip() throws Exception {
+        UrlFilter filter = new UrlFilter();
+        filter.setHost("skipped.invalid");
+        filter.setModifier(new SkipRoundTripModifier());
+        this.client.configure(filter);
+
+        Response response = get("http://skipped.invalid/");
+        assertEquals(200, response.code());
+        assertEquals("", response.body().string());
+        assertTrue(this.seen.isEmpty());
+    }
+
+    @Test
+    public void testConnectionsAreReused() throws Exception {
+        HeaderModifier header = new HeaderModifier();
+        header.setName("X-Martian");
+        header.setValue("true");
+        this.client.configure(header);
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals("hello", get(upstreamUrl("/" + i)).body().string());
+        }
+        assertEquals(1, this.browser.getConnectionPool().getConnectionCount());
+        for (int i = 0; i < 10; i++) {
+            assertEquals("GET /" + i + " true", this.seen.take());
+        }
+    }
+
+    @Test
+    public void testRejectsUnknownModifier() throws Exception {
+        Response response = this.browser.newCall(new Request.Builder()
+                .url("http://martian.proxy/configure")
+                .post(RequestBody.create(null, "{\"martian.Unknown\":{}}"))
+                .build()).execute();
+
+        assertEquals(400, response.code());
+        assertEquals("Unknown modifier: martian.Unknown", response.body().string());
+    }
+
+    @Test
+    public void testRejectsMalformedModifier() throws Exception {
+        Response response = this.browser.newCall(new Request.Builder()
+                .url("http://martian.proxy/configure")
+                .post(RequestBody.create(null, "{\"header.Modifier\":{\"name\":{}}}"))
+                .build()).execute();
+
+        assertEquals(400, response.code());
+        assertEquals("Expected a string for name: {}", response.body().string());
+    }
+
+    @Test
+    public void testRejectsContentLengthOutOfRange() throws Exception {
+        assertTrue(rawRequest("Content-Length: -1").startsWith("HTTP/1.1 400 "));
+        assertTrue(rawRequest("Content-Length: 2147483647").startsWith("HTTP/1.1 400 "));
+    }
+
+    @After
+    public void teardown() throws IOException {
+        this.proxy.close();
+        this.upstream.stop(0);
+    }
+
+    private Response get(String url) throws IOException {
+        return this.browser.newCall(new Request.Builder().url(url).build()).execute();
+    }
+
+    /**
+     * Posts to the configure endpoint with the given framing header over a
+     * fresh connection and returns everything the proxy sends back.
+     **/
+    private String rawRequest(String header) throws IOException {
+        Socket socket = new Socket("127.0.0.1", this.proxy.getPort());
+        try {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            out.write(("POST /configure HTTP/1.1\r\nHost: martian.proxy\r\n" + header
+                    + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            InputStream in = socket.getInputStream();
+            byte[] buffer = new byte[1024];
+            for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+                response.write(buffer, 0, n);
+            }
+            return new String(response.toByteArray(), StandardCharsets.US_ASCII);
+        } finally {
+            socket.close();
+        }
+    }
+
+    private String upstreamUrl(String path) {
+        return "http://127.0.0.1:" + this.upstream.getAddress().getPort() + path;
+    }
+}
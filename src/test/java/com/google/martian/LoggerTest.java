@@ -0,0 +1,377 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import okio.BufferedSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+@RunWith(JUnit4.class)
+public class LoggerTest {
+    private HttpServer httpServer;
+    private LogsHandler handler;
+    private Client client;
+
+    @Before
+    public void setupServer() throws Exception {
+        this.httpServer = HttpServer.create(new InetSocketAddress(0), 0);
+        this.handler = new LogsHandler();
+        this.httpServer.createContext("/logs", this.handler);
+        this.httpServer.start();
+
+        this.client = new Client("localhost:" + this.httpServer.getAddress().getPort());
+        this.client.setTimeout(1, TimeUnit.SECONDS);
+        this.client.registerLogger("har", "/logs/reset", "/logs");
+    }
+
+    @Test
+    public void testRetrieveLogs() throws Exception {
+        this.handler.logs = har(3);
+
+        assertEquals(har(3), this.client.retrieveLogs("har"));
+    }
+
+    @Test
+    public void testRetrieveLogsToOutputStream() throws Exception {
+        this.handler.logs = har(500);
+        byte[] expected = har(500).getBytes(StandardCharsets.UTF_8);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long count = this.client.retrieveLogs("har", out);
+
+        assertEquals(expected.length, count);
+        assertArrayEquals(expected, out.toByteArray());
+    }
+
+    @Test
+    public void testRetrieveLogsToPath() throws Exception {
+        this.handler.logs = har(500);
+        byte[] expected = har(500).getBytes(StandardCharsets.UTF_8);
+
+        Path path = Files.createTempFile("martian", ".har");
+        try {
+            Files.write(path, new byte[100000]);
+            long count = this.client.retrieveLogs("har", path);
+
+            assertEquals(expected.length, count);
+            assertArrayEquals(expected, Files.readAllBytes(path));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testRetrieveLogsToPathError() throws Exception {
+        this.handler.status = 500;
+        byte[] existing = "previous logs".getBytes(StandardCharsets.UTF_8);
+
+        Path path = Files.createTempFile("martian", ".har");
+        try {
+            Files.write(path, existing);
+            try {
+                this.client.retrieveLogs("har", path);
+                fail("expected IOException");
+            } catch (IOException e) {
+                // Expected.
+            }
+
+            assertArrayEquals(existing, Files.readAllBytes(path));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testRetrieveLogsToPathTruncated() throws Exception {
+        this.handler.logs = har(500);
+        this.handler.truncated = true;
+        byte[] existing = "previous logs".getBytes(StandardCharsets.UTF_8);
+
+        Path dir = Files.createTempDirectory("martian");
+        Path path = dir.resolve("logs.har");
+        try {
+            Files.write(path, existing);
+            try {
+                this.client.retrieveLogs("har", path);
+                fail("expected IOException");
+            } catch (IOException e) {
+                // Expected.
+            }
+
+            assertArrayEquals(existing, Files.readAllBytes(path));
+            DirectoryStream<Path> files = Files.newDirectoryStream(dir);
+            try {
+                for (Path file : files) {
+                    assertEquals(path, file);
+                }
+            } finally {
+                files.close();
+            }
+        } finally {
+            Files.delete(path);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testRetrieveLogsToReader() throws Exception {
+        this.handler.logs = har(2);
+
+        String prefix = this.client.retrieveLogs("har", new LogReader<String>() {
+            @Override
+            public String read(BufferedSource logs) throws IOException {
+                return logs.readUtf8(8);
+            }
+        });
+
+        assertEquals("{\"log\":{", prefix);
+    }
+
+    @Test
+    public void testRetrieveEntries() throws Exception {
+        this.handler.logs = har(6);
+
+        HarEntryFilter filter = new HarEntryFilter();
+        filter.setMethod("POST");
+
+        HarEntryIterator entries = this.client.retrieveEntries("har", filter);
+        try {
+            assertEquals("http://example.com/1", entries.next().getUrl());
+            assertEquals("http://example.com/3", entries.next().getUrl());
+            assertEquals("http://example.com/5", entries.next().getUrl());
+            assertFalse(entries.hasNext());
+        } finally {
+            entries.close();
+        }
+    }
+
+    @Test
+    public void testTailLogs() throws Exception {
+        final List<String> urls = new ArrayList<String>();
+        HarEntryListener listener = new HarEntryListener() {
+            @Override
+            public void onEntry(HarEntry entry) {
+                urls.add(entry.getUrl());
+            }
+        };
+        HarTail tail = this.client.tailLogs("har", null);
+
+        this.handler.logs = har(3);
+        assertEquals(3, tail.poll(listener));
+        assertEquals(3, tail.getCursor());
+
+        this.handler.logs = har(5);
+        assertEquals(2, tail.poll(listener));
+        assertEquals(0, tail.poll(listener));
+
+        // The log was reset elsewhere and has fewer entries than the cursor.
+        this.handler.logs = har(1);
+        assertEquals(1, tail.poll(listener));
+
+        List<String> expected = new ArrayList<String>();
+        for (int i : new int[] {0, 1, 2, 3, 4, 0}) {
+            expected.add("http://example.com/" + i);
+        }
+        assertEquals(expected, urls);
+
+        tail.resetLogs();
+        assertEquals(1, this.handler.resets);
+        assertEquals(0, tail.getCursor());
+    }
+
+    @Test
+    public void testTailLogsWithFilter() throws Exception {
+        HarEntryFilter filter = new HarEntryFilter();
+        filter.setMethod("GET");
+        HarTail tail = this.client.tailLogs("har", filter);
+
+        HarEntryListener ignore = new HarEntryListener() {
+            @Override
+            public void onEntry(HarEntry entry) {}
+        };
+
+        this.handler.logs = har(3);
+        assertEquals(2, tail.poll(ignore));
+        assertEquals(3, tail.getCursor());
+
+        this.handler.logs = har(6);
+        assertEquals(1, tail.poll(ignore));
+        assertEquals(6, tail.getCursor());
+    }
+
+    @Test
+    public void testTailLogsResetAndRefilled() throws Exception {
+        final List<String> urls = new ArrayList<String>();
+        HarEntryListener listener = new HarEntryListener() {
+            @Override
+            public void onEntry(HarEntry entry) {
+                urls.add(entry.getUrl());
+            }
+        };
+        HarTail tail = this.client.tailLogs("har", null);
+
+        this.handler.logs = har(2);
+        assertEquals(2, tail.poll(listener));
+
+        // The log was reset elsewhere and has since grown past the cursor.
+        StringBuilder refilled = new StringBuilder();
+        refilled.append("{\"log\":{\"version\":\"1.2\",\"entries\":[");
+        for (int i = 10; i < 13; i++) {
+            if (i > 10) {
+                refilled.append(',');
+            }
+            refilled.append(entry(i, "GET", "http://example.com/" + i, 200));
+        }
+        refilled.append("]}}");
+        this.handler.logs = refilled.toString();
+        assertEquals(3, tail.poll(listener));
+        assertEquals(3, tail.getCursor());
+
+        List<String> expected = new ArrayList<String>();
+        for (int i : new int[] {0, 1, 10, 11, 12}) {
+            expected.add("http://example.com/" + i);
+        }
+        assertEquals(expected, urls);
+    }
+
+    @Test
+    public void testTailLogsListenerFailure() throws Exception {
+        final List<String> urls = new ArrayList<String>();
+        final boolean[] fail = {true};
+        HarEntryListener listener = new HarEntryListener() {
+            @Override
+            public void onEntry(HarEntry entry) throws IOException {
+                if (fail[0] && entry.getUrl().endsWith("/2")) {
+                    fail[0] = false;
+                    throw new IOException("listener");
+                }
+                urls.add(entry.getUrl());
+            }
+        };
+        HarTail tail = this.client.tailLogs("har", null);
+
+        this.handler.logs = har(4);
+        try {
+            tail.poll(listener);
+            fail();
+        } catch (IOException e) {
+            assertEquals("listener", e.getMessage());
+        }
+        assertEquals(2, tail.getCursor());
+
+        // Only the failing entry and those after it are emitted again.
+        assertEquals(2, tail.poll(listener));
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 4; i++) {
+            expected.add("http://example.com/" + i);
+        }
+        assertEquals(expected, urls);
+    }
+
+    @Test(expected = IOException.class)
+    public void testRetrieveLogsError() throws Exception {
+        this.handler.status = 500;
+        this.client.retrieveLogs("har", new ByteArrayOutputStream());
+    }
+
+    @After
+    public void stopServer() {
+        this.httpServer.stop(0);
+    }
+
+    static String har(int entries) {
+        StringBuilder har = new StringBuilder();
+        har.append("{\"log\":{\"version\":\"1.2\",\"creator\":{\"name\":\"martian proxy\",");
+        har.append("\"version\":\"2.0.0\"},\"entries\":[");
+        for (int i = 0; i < entries; i++) {
+            if (i > 0) {
+                har.append(',');
+            }
+            har.append(entry(i, i % 2 == 0 ? "GET" : "POST", "http://example.com/" + i, 200));
+        }
+        har.append("]}}");
+        return har.toString();
+    }
+
+    static String entry(int id, String method, String url, int status) {
+        return "{\"_id\":\"" + id + "\",\"startedDateTime\":\"2015-06-01T00:00:"
+                + String.format("%02d", id % 60) + ".000Z\",\"time\":5,"
+                + "\"request\":{\"method\":\"" + method + "\",\"url\":\"" + url + "\","
+                + "\"httpVersion\":\"HTTP/1.1\",\"cookies\":[],"
+                + "\"headers\":[{\"name\":\"Martian-Test\",\"value\":\"" + id + "\"}],"
+                + "\"queryString\":[],\"headersSize\":-1,\"bodySize\":0},"
+                + "\"response\":{\"status\":" + status + ",\"statusText\":\"OK\","
+                + "\"httpVersion\":\"HTTP/1.1\",\"cookies\":[],"
+                + "\"headers\":[{\"name\":\"Content-Type\",\"value\":\"text/plain\"}],"
+                + "\"content\":{\"size\":5,\"mimeType\":\"text/plain\",\"text\":\"aGVsbG8=\","
+                + "\"encoding\":\"base64\"},\"redirectURL\":\"\",\"headersSize\":-1,"
+                + "\"bodySize\":5},\"cache\":{},\"timings\":{\"send\":0,\"wait\":5,"
+                + "\"receive\":0}}";
+    }
+
+    static class LogsHandler implements HttpHandler {
+        volatile String logs = har(0);
+        volatile int status = 200;
+        volatile boolean truncated;
+        volatile int resets;
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (exchange.getRequestURI().getPath().endsWith("/reset")) {
+                this.resets++;
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+                return;
+            }
+
+            byte[] body = this.logs.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(this.status, body.length);
+            OutputStream out = exchange.getResponseBody();
+            if (this.truncated) {
+                // Drop the connection halfway through the body.
+                out.write(body, 0, body.length / 2);
+                out.flush();
+                exchange.close();
+                return;
+            }
+            out.write(body);
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,171 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+@RunWith(JUnit4.class)
+public class ModifierOptimizerTest {
+
+    @Test
+    public void testFlattensTrivialGroups() throws Exception {
+        HeaderModifier modifier = header("X-Name", "a");
+        Modifier tree = group(group(group(modifier)));
+
+        assertSame(modifier, ModifierOptimizer.optimize(tree));
+    }
+
+    @Test
+    public void testSplicesNestedGroups() throws Exception {
+        Modifier tree = group(
+                header("X-A", "a"),
+                group(header("X-B", "b"), header("X-C", "c")),
+                group(Scope.REQUEST, header("X-D", "d")));
+
+        assertOptimized(group(
+                header("X-A", "a"),
+                header("X-B", "b"),
+                header("X-C", "c"),
+                group(Scope.REQUEST, header("X-D", "d"))), tree);
+    }
+
+    @Test
+    public void testMergesAdjacentBlacklists() throws Exception {
+        Modifier tree = group(
+                blacklist(Scope.DEFAULT, "X-A", "X-B"),
+                blacklist(Scope.DEFAULT, "x-b", "X-C"),
+                blacklist(Scope.RESPONSE, "X-D"));
+
+        assertOptimized(group(
+                blacklist(Scope.DEFAULT, "X-A", "X-B", "X-C"),
+                blacklist(Scope.RESPONSE, "X-D")), tree);
+    }
+
+    @Test
+    public void testRemovesAdjacentDuplicates() throws Exception {
+        StatusVerifier verifier = new StatusVerifier();
+        verifier.setHttpStatusCode(200);
+
+        Modifier tree = group(
+                header("X-A", "a"),
+                header("X-A", "a"),
+                header("X-A", "b"),
+                header("X-A", "a"),
+                verifier,
+                verifier);
+
+        assertOptimized(group(
+                header("X-A", "a"),
+                header("X-A", "b"),
+                header("X-A", "a"),
+                verifier,
+                verifier), tree);
+    }
+
+    @Test
+    public void testHoistsFiltersWithSamePredicate() throws Exception {
+        Modifier tree = group(
+                urlFilter("example.com", header("X-A", "a")),
+                urlFilter("example.com", header("X-B", "b")),
+                urlFilter("example.com", header("X-B", "b")),
+                urlFilter("other.com", header("X-C", "c")));
+
+        assertOptimized(group(
+                urlFilter("example.com", group(header("X-A", "a"), header("X-B", "b"))),
+                urlFilter("other.com", header("X-C", "c"))), tree);
+    }
+
+    @Test
+    public void testDoesNotHoistPastModifierOfPredicate() throws Exception {
+        HeaderFilter first = headerFilter("X-Mode", "test", header("X-Mode", "done"));
+        HeaderFilter second = headerFilter("X-Mode", "test", header("X-Seen", "true"));
+
+        Modifier tree = group(first, second);
+
+        assertOptimized(group(first, second), tree);
+    }
+
+    @Test
+    public void testKeepsScopedRoot() throws Exception {
+        Modifier tree = group(Scope.REQUEST, header("X-A", "a"));
+
+        assertOptimized(group(Scope.REQUEST, header("X-A", "a")), tree);
+    }
+
+    private static void assertOptimized(Modifier expected, Modifier tree) throws IOException {
+        assertEquals(parse(expected), parse(ModifierOptimizer.optimize(tree)));
+    }
+
+    private static JsonElement parse(Modifier modifier) throws IOException {
+        StringWriter stringWriter = new StringWriter();
+        modifier.writeJson(new JsonWriter(stringWriter));
+        return new JsonParser().parse(stringWriter.toString());
+    }
+
+    private static HeaderModifier header(String name, String value) {
+        HeaderModifier modifier = new HeaderModifier();
+        modifier.setName(name);
+        modifier.setValue(value);
+        return modifier;
+    }
+
+    private static HeaderBlacklist blacklist(Scope scope, String... names) {
+        HeaderBlacklist blacklist = new HeaderBlacklist();
+        blacklist.setScope(scope);
+        for (String name : names) {
+            blacklist.addName(name);
+        }
+        return blacklist;
+    }
+
+    private static UrlFilter urlFilter(String host, Modifier modifier) {
+        UrlFilter filter = new UrlFilter();
+        filter.setHost(host);
+        filter.setModifier(modifier);
+        return filter;
+    }
+
+    private static HeaderFilter headerFilter(String name, String value, Modifier modifier) {
+        HeaderFilter filter = new HeaderFilter();
+        filter.setName(name);
+        filter.setValue(value);
+        filter.setModifier(modifier);
+        return filter;
+    }
+
+    private static FifoGroup group(Modifier... modifiers) {
+        return group(Scope.DEFAULT, modifiers);
+    }
+
+    private static FifoGroup group(Scope scope, Modifier... modifiers) {
+        FifoGroup group = new FifoGroup();
+        group.setScope(scope);
+        for (Modifier modifier : modifiers) {
+            group.addModifier(modifier);
+        }
+        return group;
+    }
+}
@@ -0,0 +1,161 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(JUnit4.class)
+public class ModifierParserTest {
+
+    @Test
+    public void testRoundTripsEveryModifier() throws Exception {
+        HeaderModifier header = new HeaderModifier();
+        header.setName("X-Martian");
+        header.setValue("true");
+        header.setScope(Scope.REQUEST);
+
+        HeaderBlacklist blacklist = new HeaderBlacklist();
+        blacklist.addName("Cookie");
+        blacklist.addName("Authorization");
+
+        UrlModifier url = new UrlModifier();
+        url.setScheme("https");
+        url.setHost("example.com");
+        url.setPath("/rewritten");
+        url.setQuery("a=b");
+
+        QueryStringModifier query = new QueryStringModifier();
+        query.setName("q");
+        query.setValue("v");
+
+        StatusModifier status = new StatusModifier();
+        status.setHttpStatusCode(418);
+        status.setScope(Scope.RESPONSE);
+
+        BodyModifier body = new BodyModifier();
+        body.setBody("aGVsbG8=");
+        body.setContentType("text/plain");
+
+        CookieModifier cookie = new CookieModifier();
+        cookie.setName("session");
+        cookie.setValue("1");
+        cookie.setPath("/");
+        cookie.setDomain("example.com");
+        cookie.setExpires(new DateTime(2015, 6, 1, 12, 0, DateTimeZone.UTC));
+        cookie.setSecure(true);
+        cookie.setHttpOnly(false);
+        cookie.setMaxAge(60);
+
+        HeaderVerifier headerVerifier = new HeaderVerifier();
+        headerVerifier.setName("X-Martian");
+        headerVerifier.setValue("true");
+
+        MethodVerifier methodVerifier = new MethodVerifier();
+        methodVerifier.setMethod("POST");
+
+        StatusVerifier statusVerifier = new StatusVerifier();
+        statusVerifier.setHttpStatusCode(200);
+
+        UrlVerifier urlVerifier = new UrlVerifier();
+        urlVerifier.setHost("example.com");
+        urlVerifier.setPath("/path");
+
+        QueryStringVerifier queryVerifier = new QueryStringVerifier();
+        queryVerifier.setName("q");
+
+        PingbackVerifier pingback = new PingbackVerifier();
+        pingback.setHost("pingback.example.com");
+
+        HeaderFilter headerFilter = new HeaderFilter();
+        headerFilter.setName("X-Session");
+        headerFilter.setValue("1");
+        headerFilter.setModifier(status);
+
+        QueryStringFilter queryFilter = new QueryStringFilter();
+        queryFilter.setName("debug");
+        queryFilter.setModifier(body);
+
+        UrlFilter urlFilter = new UrlFilter();
+        urlFilter.setHost("skipped.example.com");
+        urlFilter.setModifier(new SkipRoundTripModifier());
+
+        FifoGroup nested = new FifoGroup();
+        nested.setScope(Scope.REQUEST_AND_RESPONSE);
+        nested.addModifier(headerVerifier);
+        nested.addModifier(methodVerifier);
+        nested.addModifier(statusVerifier);
+        nested.addModifier(urlVerifier);
+        nested.addModifier(queryVerifier);
+        nested.addModifier(pingback);
+
+        FifoGroup group = new FifoGroup();
+        group.addModifier(header);
+        group.addModifier(blacklist);
+        group.addModifier(url);
+        group.addModifier(query);
+        group.addModifier(cookie);
+        group.addModifier(headerFilter);
+        group.addModifier(queryFilter);
+        group.addModifier(urlFilter);
+        group.addModifier(nested);
+
+        ImmutableModifier expected = ImmutableModifier.copyOf(group);
+        Modifier parsed = new ModifierParser().fromJson(expected.toString());
+
+        assertTrue(parsed instanceof FifoGroup);
+        assertEquals(expected, ImmutableModifier.copyOf(parsed));
+    }
+
+    @Test
+    public void testMalformedJson() throws Exception {
+        assertFails("{\"header.Modifier\":");
+        assertFails("[]");
+        assertFails("{\"header.Modifier\":{},\"header.Blacklist\":{}}");
+        assertFails("{\"header.Modifier\":{\"scope\":[\"everywhere\"]}}");
+        assertFails("{\"status.Modifier\":{\"statusCode\":\"teapot\"}}");
+        assertFails("{\"header.Modifier\":{\"name\":{}}}");
+        assertFails("{\"header.Modifier\":{\"scope\":[[\"request\"]]}}");
+        assertFails("{\"header.Blacklist\":{\"names\":[{}]}}");
+        assertFails("{\"url.Filter\":{\"path\":\"/\"}}");
+    }
+
+    @Test
+    public void testUnknownModifier() throws Exception {
+        try {
+            new ModifierParser().fromJson("{\"martian.Unknown\":{}}");
+            fail("expected IOException");
+        } catch (IOException e) {
+            assertEquals("Unknown modifier: martian.Unknown", e.getMessage());
+        }
+    }
+
+    private static void assertFails(String json) {
+        try {
+            new ModifierParser().fromJson(json);
+            fail("expected IOException for " + json);
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+}
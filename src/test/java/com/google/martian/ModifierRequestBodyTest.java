@@ -0,0 +1,98 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import com.google.gson.stream.JsonWriter;
+
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ForwardingSink;
+import okio.Okio;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JUnit4.class)
+public class ModifierRequestBodyTest {
+
+    @Test
+    public void testWriteToMatchesWriteJson() throws Exception {
+        FifoGroup group = new FifoGroup();
+        for (int i = 0; i < 1000; i++) {
+            BodyModifier body = new BodyModifier();
+            body.setBody("ZHVtbXk=\u00e9\u2603");
+            body.setContentType("text/plain");
+
+            UrlFilter filter = new UrlFilter();
+            filter.setHost("host" + i + ".example.com");
+            filter.setModifier(body);
+            group.addModifier(filter);
+        }
+
+        StringWriter stringWriter = new StringWriter();
+        group.writeJson(new JsonWriter(stringWriter));
+
+        ModifierRequestBody body = new ModifierRequestBody(group);
+        Buffer buffer = new Buffer();
+        body.writeTo(buffer);
+
+        assertEquals(Client.JSON, body.contentType());
+        assertEquals(-1, body.contentLength());
+        assertEquals(stringWriter.toString(), buffer.readUtf8());
+    }
+
+    @Test
+    public void testWriteToDoesNotFlush() throws Exception {
+        FifoGroup group = new FifoGroup();
+        for (int i = 0; i < 1000; i++) {
+            HeaderModifier header = new HeaderModifier();
+            header.setName("X-Test-" + i);
+            header.setValue("value");
+            group.addModifier(header);
+        }
+
+        // OkHttp flushes the body together with the final chunk; a flush from
+        // the body would send the end of the request as a separate packet.
+        final AtomicInteger flushes = new AtomicInteger();
+        final Buffer sent = new Buffer();
+        BufferedSink sink = Okio.buffer(new ForwardingSink(sent) {
+            @Override
+            public void flush() throws IOException {
+                flushes.incrementAndGet();
+                super.flush();
+            }
+        });
+        new ModifierRequestBody(group).writeTo(sink);
+
+        assertEquals(0, flushes.get());
+        assertTrue(sent.size() > 0);
+        sink.flush();
+        assertEquals(ImmutableModifier.copyOf(group).size(), sent.size());
+    }
+
+    @Test(expected = IOException.class)
+    public void testWriteToWithMalformedModifier() throws Exception {
+        // A filter without a modifier cannot be serialized.
+        UrlFilter filter = new UrlFilter();
+        new ModifierRequestBody(filter).writeTo(new Buffer());
+    }
+}
@@ -0,0 +1,77 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import javax.net.SocketFactory;
+
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JUnit4.class)
+public class NoDelaySocketFactoryTest {
+    private ServerSocket serverSocket;
+    private NoDelaySocketFactory factory;
+
+    @Before
+    public void setup() throws IOException {
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        this.factory = new NoDelaySocketFactory(SocketFactory.getDefault());
+    }
+
+    @Test
+    public void testUnconnectedSocket() throws IOException {
+        Socket socket = this.factory.createSocket();
+        try {
+            assertTrue(socket.getTcpNoDelay());
+            socket.connect(this.serverSocket.getLocalSocketAddress());
+            assertTrue(socket.getTcpNoDelay());
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testConnectedSockets() throws IOException {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        int port = this.serverSocket.getLocalPort();
+        assertNoDelay(this.factory.createSocket(loopback.getHostAddress(), port));
+        assertNoDelay(this.factory.createSocket(loopback.getHostAddress(), port, loopback, 0));
+        assertNoDelay(this.factory.createSocket(loopback, port));
+        assertNoDelay(this.factory.createSocket(loopback, port, loopback, 0));
+    }
+
+    @After
+    public void teardown() throws IOException {
+        this.serverSocket.close();
+    }
+
+    private static void assertNoDelay(Socket socket) throws IOException {
+        try {
+            assertTrue(socket.isConnected());
+            assertTrue(socket.getTcpNoDelay());
+        } finally {
+            socket.close();
+        }
+    }
+}
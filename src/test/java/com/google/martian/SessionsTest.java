@@ -0,0 +1,278 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs sessions against a Martian stand-in that records the configuration
+ * and serves a HAR log, and checks that configurations are merged and
+ * verifications partitioned per session.
+ **/
+@RunWith(JUnit4.class)
+public class SessionsTest {
+    private final List<String> entries = new ArrayList<String>();
+    private final AtomicInteger configures = new AtomicInteger();
+    private final List<Exception> failures = new ArrayList<Exception>();
+    private volatile CountDownLatch gate;
+    private volatile String configuration;
+    private HttpServer httpServer;
+    private Sessions sessions;
+
+    @Before
+    public void setupServer() throws Exception {
+        this.httpServer = HttpServer.create(new InetSocketAddress(0), 0);
+        this.httpServer.createContext("/configure", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                configures.incrementAndGet();
+                CountDownLatch gate = SessionsTest.this.gate;
+                if (gate != null) {
+                    try {
+                        gate.await();
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                }
+                configuration = read(exchange.getRequestBody());
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+            }
+        });
+        this.httpServer.createContext("/logs", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String har;
+                synchronized (entries) {
+                    har = "{\"log\":{\"entries\":[" + join(entries) + "]}}";
+                }
+                byte[] bytes = har.getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(200, bytes.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(bytes);
+                out.close();
+            }
+        });
+        this.httpServer.start();
+
+        Client client = new Client("localhost:" + this.httpServer.getAddress().getPort());
+        client.setTimeout(1, TimeUnit.SECONDS);
+        client.registerLogger("har", "/logs/reset", "/logs");
+        this.sessions = new Sessions(client, "har");
+    }
+
+    @Test
+    public void mergesConfigurations() throws Exception {
+        Session first = this.sessions.open();
+        Session second = this.sessions.open();
+        Session unconfigured = this.sessions.open();
+        assertFalse(first.getTag().equals(second.getTag()));
+        assertEquals(Sessions.DEFAULT_HEADER, first.getHeaderName());
+
+        first.configure(header("X-First"));
+        assertEquals("{\"fifo.Group\":{\"modifiers\":["
+                + filter(first, "X-First") + "]}}", this.configuration);
+
+        second.configure(header("X-Second"));
+        assertEquals("{\"fifo.Group\":{\"modifiers\":["
+                + filter(first, "X-First") + "," + filter(second, "X-Second") + "]}}",
+                this.configuration);
+
+        first.close();
+        unconfigured.close();
+        assertEquals("{\"fifo.Group\":{\"modifiers\":["
+                + filter(second, "X-Second") + "]}}", this.configuration);
+        assertEquals(1, this.sessions.getSessions().size());
+
+        try {
+            first.configure(header("X-First"));
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void coalescesConcurrentChanges() throws Exception {
+        final Session first = this.sessions.open();
+        final Session second = this.sessions.open();
+        final Session third = this.sessions.open();
+        this.gate = new CountDownLatch(1);
+
+        Thread pushing = configureInBackground(first, "X-First");
+        while (this.configures.get() == 0) {
+            Thread.sleep(10);
+        }
+        // Both changes are made while the first push is in flight.
+        Thread secondPush = configureInBackground(second, "X-Second");
+        Thread thirdPush = configureInBackground(third, "X-Third");
+        Thread.sleep(200);
+        // Waiting for the push in flight must not hold up other pushes on a monitor.
+        assertFalse(secondPush.getState() == Thread.State.BLOCKED);
+        assertFalse(thirdPush.getState() == Thread.State.BLOCKED);
+        this.gate.countDown();
+        pushing.join();
+        secondPush.join();
+        thirdPush.join();
+
+        assertTrue(this.failures.isEmpty());
+        assertEquals(2, this.configures.get());
+        assertEquals("{\"fifo.Group\":{\"modifiers\":["
+                + filter(first, "X-First") + "," + filter(second, "X-Second") + ","
+                + filter(third, "X-Third") + "]}}", this.configuration);
+    }
+
+    @Test
+    public void partitionsVerifications() throws Exception {
+        Session passing = this.sessions.open();
+        Session failing = this.sessions.open();
+        passing.configure(status(200));
+        failing.configure(status(200));
+
+        addEntry(passing, 200);
+        addEntry(failing, 500);
+        addEntry(null, 500);
+        addEntry(failing, 200);
+
+        assertTrue(passing.checkVerifications().isEmpty());
+        List<VerificationFailure> failures = failing.checkVerifications();
+        assertEquals(1, failures.size());
+        // Failures carry the position of the entry in the shared log.
+        assertEquals(1, failures.get(0).getEntryIndex());
+        assertEquals("response(http://example.com/) status code verify failure: "
+                + "got 500, want 200", failures.get(0).getMessage());
+    }
+
+    @Test
+    public void resetsOnlyOneSession() throws Exception {
+        Session reset = this.sessions.open();
+        Session other = this.sessions.open();
+        reset.configure(status(200));
+        other.configure(status(200));
+        addEntry(reset, 500);
+        addEntry(other, 500);
+
+        reset.resetVerifications();
+        assertTrue(reset.checkVerifications().isEmpty());
+        assertEquals(1, other.checkVerifications().size());
+
+        addEntry(reset, 404);
+        assertEquals(1, reset.checkVerifications().size());
+
+        // A log reset elsewhere starts the session over from the first entry.
+        synchronized (this.entries) {
+            this.entries.clear();
+        }
+        addEntry(reset, 500);
+        assertEquals(1, reset.checkVerifications().size());
+    }
+
+    @After
+    public void stopServer() {
+        this.httpServer.stop(0);
+    }
+
+    private void addEntry(Session session, int status) {
+        String headers = session == null ? "" : "{\"name\":\"" + session.getHeaderName()
+                + "\",\"value\":\"" + session.getTag() + "\"}";
+        synchronized (this.entries) {
+            this.entries.add("{\"request\":{\"method\":\"GET\",\"url\":\"http://example.com/\","
+                    + "\"headers\":[" + headers + "]},"
+                    + "\"response\":{\"status\":" + status + ",\"headers\":[]}}");
+        }
+    }
+
+    private Thread configureInBackground(final Session session, final String header) {
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    session.configure(header(header));
+                } catch (IOException e) {
+                    synchronized (failures) {
+                        failures.add(e);
+                    }
+                }
+            }
+        };
+        thread.start();
+        return thread;
+    }
+
+    private static String filter(Session session, String header) {
+        return "{\"header.Filter\":{\"name\":\"" + session.getHeaderName()
+                + "\",\"value\":\"" + session.getTag() + "\",\"modifier\":"
+                + "{\"header.Modifier\":{\"scope\":[\"request\"],"
+                + "\"name\":\"" + header + "\",\"value\":\"1\"}}}}";
+    }
+
+    private static HeaderModifier header(String name) {
+        HeaderModifier modifier = new HeaderModifier();
+        modifier.setScope(Scope.REQUEST);
+        modifier.setName(name);
+        modifier.setValue("1");
+        return modifier;
+    }
+
+    private static StatusVerifier status(int code) {
+        StatusVerifier verifier = new StatusVerifier();
+        verifier.setHttpStatusCode(code);
+        return verifier;
+    }
+
+    private static String join(List<String> parts) {
+        StringBuilder joined = new StringBuilder();
+        for (String part : parts) {
+            if (joined.length() > 0) {
+                joined.append(',');
+            }
+            joined.append(part);
+        }
+        return joined.toString();
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+            out.write(buffer, 0, n);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
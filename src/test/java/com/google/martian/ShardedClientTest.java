@@ -0,0 +1,202 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+@RunWith(JUnit4.class)
+public class ShardedClientTest {
+
+    @Test
+    public void testPartition() throws Exception {
+        Map<String, String> hosts = new LinkedHashMap<String, String>();
+        hosts.put("a.example.com", "localhost:1");
+        hosts.put("B.example.com", "localhost:2");
+        ShardedClient client = new ShardedClient(hosts);
+
+        FifoGroup group = new FifoGroup();
+        group.addModifier(header("X-Shared", "1"));
+        group.addModifier(filter("a.example.com", header("X-Host", "a")));
+        group.addModifier(filter("b.EXAMPLE.com", header("X-Host", "b")));
+        group.addModifier(filter("c.example.com", header("X-Host", "c")));
+        FifoGroup nested = new FifoGroup();
+        nested.addModifier(filter("a.example.com", header("X-Nested", "a")));
+        nested.addModifier(header("X-Nested", "shared"));
+        group.addModifier(nested);
+
+        Map<String, Modifier> slices = client.partition(group);
+
+        assertEquals(Arrays.asList("localhost:1", "localhost:2"),
+                Arrays.asList(slices.keySet().toArray()));
+        assertEquals(parse(group(
+                        header("X-Shared", "1"),
+                        filter("a.example.com", header("X-Host", "a")),
+                        filter("c.example.com", header("X-Host", "c")),
+                        group(filter("a.example.com", header("X-Nested", "a")),
+                                header("X-Nested", "shared")))),
+                parse(slices.get("localhost:1")));
+        assertEquals(parse(group(
+                        header("X-Shared", "1"),
+                        filter("b.EXAMPLE.com", header("X-Host", "b")),
+                        filter("c.example.com", header("X-Host", "c")),
+                        group(header("X-Nested", "shared")))),
+                parse(slices.get("localhost:2")));
+    }
+
+    @Test
+    public void testPartitionInsideHeaderAndQueryStringFilters() throws Exception {
+        Map<String, String> hosts = new LinkedHashMap<String, String>();
+        hosts.put("a.example.com", "localhost:1");
+        hosts.put("b.example.com", "localhost:2");
+        ShardedClient client = new ShardedClient(hosts);
+
+        HeaderFilter byHeader = new HeaderFilter();
+        byHeader.setName("X-Session");
+        byHeader.setValue("s1");
+        byHeader.setModifier(group(
+                filter("a.example.com", header("X-Host", "a")),
+                filter("b.example.com", header("X-Host", "b"))));
+        QueryStringFilter byQuery = new QueryStringFilter();
+        byQuery.setName("debug");
+        byQuery.setValue("1");
+        byQuery.setModifier(filter("b.example.com", header("X-Debug", "b")));
+        HeaderFilter shared = new HeaderFilter();
+        shared.setName("X-Shared");
+        shared.setModifier(header("X-Shared", "1"));
+
+        Map<String, Modifier> slices = client.partition(group(byHeader, byQuery, shared));
+
+        HeaderFilter expectedHeader = new HeaderFilter();
+        expectedHeader.setName("X-Session");
+        expectedHeader.setValue("s1");
+        expectedHeader.setModifier(group(filter("a.example.com", header("X-Host", "a"))));
+        // The query string filter only wraps b.example.com, so it is dropped entirely.
+        assertEquals(parse(group(expectedHeader, shared)), parse(slices.get("localhost:1")));
+
+        expectedHeader.setModifier(group(filter("b.example.com", header("X-Host", "b"))));
+        assertEquals(parse(group(expectedHeader, byQuery, shared)),
+                parse(slices.get("localhost:2")));
+        // Filters with nothing removed from them are sent as they are.
+        assertSame(shared, ((FifoGroup) slices.get("localhost:1")).getModifiers().get(1));
+    }
+
+    @Test
+    public void testPartitionImmutable() throws Exception {
+        Map<String, String> hosts = new LinkedHashMap<String, String>();
+        hosts.put("a.example.com", "localhost:1");
+        hosts.put("b.example.com", "localhost:2");
+        ShardedClient client = new ShardedClient(hosts);
+
+        ImmutableModifier shared = ImmutableModifier.copyOf(header("X-Shared", "1"));
+        FifoGroup group = new FifoGroup();
+        group.addModifier(shared);
+        group.addModifier(ImmutableModifier.copyOf(group(
+                filter("a.example.com", header("X-Host", "a")),
+                filter("b.example.com", header("X-Host", "b")))));
+
+        Map<String, Modifier> slices = client.partition(group);
+
+        assertEquals(parse(group(
+                        header("X-Shared", "1"),
+                        group(filter("a.example.com", header("X-Host", "a"))))),
+                parse(slices.get("localhost:1")));
+        assertEquals(parse(group(
+                        header("X-Shared", "1"),
+                        group(filter("b.example.com", header("X-Host", "b"))))),
+                parse(slices.get("localhost:2")));
+        // Untouched immutable modifiers keep their cached message.
+        assertSame(shared, ((FifoGroup) slices.get("localhost:1")).getModifiers().get(0));
+    }
+
+    @Test
+    public void testCheckVerificationsMergesProxies() throws Exception {
+        HttpServer first = verifier("{\"errors\":[{\"message\":\"first\"}]}");
+        HttpServer second = verifier("{\"errors\":[{\"message\":\"second\"}]}");
+        try {
+            Map<String, String> hosts = new LinkedHashMap<String, String>();
+            hosts.put("a.example.com", "localhost:" + first.getAddress().getPort());
+            hosts.put("b.example.com", "localhost:" + second.getAddress().getPort());
+            ShardedClient client = new ShardedClient(hosts);
+
+            assertEquals(Arrays.asList("first", "second"), client.checkVerifications());
+        } finally {
+            first.stop(0);
+            second.stop(0);
+        }
+    }
+
+    private static HttpServer verifier(final String body) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] bytes = body.getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, bytes.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(bytes);
+                out.close();
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    private static HeaderModifier header(String name, String value) {
+        HeaderModifier modifier = new HeaderModifier();
+        modifier.setName(name);
+        modifier.setValue(value);
+        return modifier;
+    }
+
+    private static UrlFilter filter(String host, Modifier modifier) {
+        UrlFilter filter = new UrlFilter();
+        filter.setHost(host);
+        filter.setModifier(modifier);
+        return filter;
+    }
+
+    private static FifoGroup group(Modifier... modifiers) {
+        FifoGroup group = new FifoGroup();
+        for (Modifier modifier : modifiers) {
+            group.addModifier(modifier);
+        }
+        return group;
+    }
+
+    private static JsonElement parse(Modifier modifier) throws IOException {
+        StringWriter stringWriter = new StringWriter();
+        modifier.writeJson(new JsonWriter(stringWriter));
+        return new JsonParser().parse(stringWriter.toString());
+    }
+}
@@ -0,0 +1,90 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Counts the connections Martian sees while a few loggers retrieve and reset
+ * logs. Every logger registered with a client reuses the client's connection
+ * pool, so they are all served by a single connection. The throughput of
+ * many loggers is measured by SharedTransportBenchmark in benchmarks/.
+ **/
+@RunWith(JUnit4.class)
+public class SharedTransportTest {
+    private static final int LOGGERS = 3;
+
+    private HttpServer httpServer;
+    private Set<InetSocketAddress> connections;
+
+    @Before
+    public void setupServer() throws IOException {
+        this.httpServer = HttpServer.create(new InetSocketAddress(0), 0);
+        this.connections = Collections.synchronizedSet(new HashSet<InetSocketAddress>());
+        this.httpServer.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                connections.add(exchange.getRemoteAddress());
+                byte[] body = "{\"log\":{\"entries\":[]}}".getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        this.httpServer.start();
+    }
+
+    @Test
+    public void registeredLoggersShareConnections() throws Exception {
+        int port = this.httpServer.getAddress().getPort();
+        Client client = new Client("localhost:" + port);
+        client.setTimeout(1, TimeUnit.SECONDS);
+        client.setConnectionPool(1, 1, TimeUnit.MINUTES);
+
+        for (int i = 0; i < LOGGERS; i++) {
+            client.registerLogger("logger" + i, "/logs/" + i + "/reset", "/logs/" + i);
+        }
+
+        for (int i = 0; i < LOGGERS; i++) {
+            client.retrieveLogs("logger" + i);
+            client.resetLogs("logger" + i);
+        }
+
+        assertEquals(1, this.connections.size());
+    }
+
+    @After
+    public void stopServer() {
+        this.httpServer.stop(0);
+    }
+}
@@ -0,0 +1,229 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that concurrent identical reads share one call to a Martian
+ * stand-in, and when results are reused.
+ **/
+@RunWith(JUnit4.class)
+public class SingleFlightTest {
+    private static final String VERIFICATIONS = "{\"errors\":[{\"message\":\"boom\"}]}";
+    private static final String LOGS = "{\"log\":{\"entries\":[]}}";
+    private static final int CALLERS = 8;
+
+    private final AtomicInteger verifyCalls = new AtomicInteger();
+    private final AtomicInteger logsCalls = new AtomicInteger();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private HttpServer httpServer;
+    private ExecutorService callers;
+    private Client client;
+
+    @Before
+    public void setupServer() throws Exception {
+        this.httpServer = HttpServer.create(new InetSocketAddress(0), 0);
+        this.httpServer.createContext("/verify", respond(this.verifyCalls, VERIFICATIONS));
+        this.httpServer.createContext("/verify/reset", respond(new AtomicInteger(), ""));
+        this.httpServer.createContext("/logs", respond(this.logsCalls, LOGS));
+        this.httpServer.createContext("/logs/reset", respond(new AtomicInteger(), ""));
+        this.httpServer.setExecutor(Executors.newCachedThreadPool());
+        this.httpServer.start();
+        this.callers = Executors.newFixedThreadPool(CALLERS);
+
+        this.client = new Client("localhost:" + this.httpServer.getAddress().getPort());
+        this.client.setTimeout(5, TimeUnit.SECONDS);
+        this.client.registerLogger("har", "/logs/reset", "/logs");
+        this.client.setCoalescing(true);
+    }
+
+    @Test
+    public void sharesConcurrentVerificationChecks() throws Exception {
+        final CountDownLatch started = new CountDownLatch(CALLERS);
+        List<Future<List<String>>> results = new ArrayList<Future<List<String>>>();
+        for (int i = 0; i < CALLERS; i++) {
+            results.add(this.callers.submit(new Callable<List<String>>() {
+                @Override
+                public List<String> call() throws IOException {
+                    started.countDown();
+                    return client.checkVerifications();
+                }
+            }));
+        }
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        awaitCalls(this.verifyCalls, 1);
+        CompletableFuture<List<String>> async = this.client.checkVerificationsAsync();
+        this.release.countDown();
+
+        List<String> first = results.get(0).get(5, TimeUnit.SECONDS);
+        assertEquals(1, first.size());
+        assertEquals("boom", first.get(0));
+        for (Future<List<String>> result : results) {
+            assertSame(first, result.get(5, TimeUnit.SECONDS));
+        }
+        assertSame(first, async.get(5, TimeUnit.SECONDS));
+        assertEquals(1, this.verifyCalls.get());
+
+        // Without a freshness window a completed result is not reused.
+        this.client.checkVerifications();
+        assertEquals(2, this.verifyCalls.get());
+    }
+
+    @Test
+    public void sharesConcurrentLogRetrievals() throws Exception {
+        List<CompletableFuture<String>> results = new ArrayList<CompletableFuture<String>>();
+        for (int i = 0; i < CALLERS; i++) {
+            results.add(this.client.retrieveLogsAsync("har"));
+        }
+        awaitCalls(this.logsCalls, 1);
+        results.get(0).cancel(true);
+        this.release.countDown();
+
+        for (int i = 1; i < CALLERS; i++) {
+            assertEquals(LOGS, results.get(i).get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, this.logsCalls.get());
+    }
+
+    @Test
+    public void reusesFreshResultsUntilReset() throws Exception {
+        this.release.countDown();
+        this.client.setCoalescingWindow(1, TimeUnit.MINUTES);
+
+        List<String> first = this.client.checkVerifications();
+        assertSame(first, this.client.checkVerifications());
+        assertSame(first, this.client.checkVerificationsAsync().get(5, TimeUnit.SECONDS));
+        assertEquals(1, this.verifyCalls.get());
+
+        this.client.resetVerifications();
+        this.client.checkVerifications();
+        assertEquals(2, this.verifyCalls.get());
+
+        this.client.retrieveLogs("har");
+        this.client.retrieveLogs("har");
+        assertEquals(1, this.logsCalls.get());
+        this.client.resetLogsAsync("har").get(5, TimeUnit.SECONDS);
+        this.client.retrieveLogs("har");
+        assertEquals(2, this.logsCalls.get());
+    }
+
+    @Test
+    public void doesNotShareWhenOff() throws Exception {
+        this.release.countDown();
+        this.client.setCoalescing(false);
+        this.client.setCoalescingWindow(1, TimeUnit.MINUTES);
+
+        this.client.checkVerifications();
+        this.client.checkVerifications();
+        assertEquals(2, this.verifyCalls.get());
+    }
+
+    @Test
+    public void doesNotReuseFailures() throws Exception {
+        SingleFlight<String> reads = new SingleFlight<String>();
+        reads.setFreshness(1, TimeUnit.MINUTES);
+        final AtomicInteger attempts = new AtomicInteger();
+        SingleFlight.Read<String> read = new SingleFlight.Read<String>() {
+            @Override
+            public String read() throws IOException {
+                if (attempts.incrementAndGet() == 1) {
+                    throw new IOException("unavailable");
+                }
+                return "ok";
+            }
+        };
+
+        try {
+            reads.get(read);
+            fail("expected IOException");
+        } catch (IOException e) {
+            assertEquals("unavailable", e.getMessage());
+        }
+        assertEquals("ok", reads.get(read));
+        assertEquals("ok", reads.get(read));
+        assertEquals(2, attempts.get());
+
+        reads.invalidate();
+        assertEquals("ok", reads.get(read));
+        assertEquals(3, attempts.get());
+    }
+
+    @After
+    public void stopServer() {
+        this.release.countDown();
+        this.callers.shutdownNow();
+        this.httpServer.stop(0);
+    }
+
+    private static void awaitCalls(AtomicInteger calls, int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (calls.get() < expected) {
+            assertTrue("no call reached the server", System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+        // Give the other callers time to join the call in flight.
+        Thread.sleep(50);
+    }
+
+    private HttpHandler respond(final AtomicInteger calls, String body) {
+        final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        return new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                calls.incrementAndGet();
+                InputStream in = exchange.getRequestBody();
+                while (in.read() != -1) {}
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                exchange.sendResponseHeaders(200, bytes.length == 0 ? -1 : bytes.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(bytes);
+                out.close();
+            }
+        };
+    }
+}
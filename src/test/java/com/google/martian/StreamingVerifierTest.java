@@ -0,0 +1,182 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JUnit4.class)
+public class StreamingVerifierTest {
+    private HttpServer httpServer;
+    private LoggerTest.LogsHandler handler;
+    private Client client;
+
+    @Before
+    public void setupServer() throws Exception {
+        this.httpServer = HttpServer.create(new InetSocketAddress(0), 0);
+        this.handler = new LoggerTest.LogsHandler();
+        this.httpServer.createContext("/logs", this.handler);
+        this.httpServer.start();
+
+        this.client = new Client("localhost:" + this.httpServer.getAddress().getPort());
+        this.client.setTimeout(1, TimeUnit.SECONDS);
+        this.client.registerLogger("har", "/logs/reset", "/logs");
+    }
+
+    @Test
+    public void testFailsFastOnFirstFailure() throws Exception {
+        this.handler.logs = har(10, -1);
+        StreamingVerifier verifier =
+                new StreamingVerifier(this.client.tailLogs("har", null), status(200), 16);
+        verifier.setPollInterval(20, TimeUnit.MILLISECONDS);
+        verifier.start();
+        try {
+            assertNull(verifier.awaitFailure(200, TimeUnit.MILLISECONDS));
+            assertFalse(verifier.hasFailed());
+
+            this.handler.logs = har(40, 15);
+            VerificationFailure failure = verifier.awaitFailure(5, TimeUnit.SECONDS);
+
+            assertEquals(15, failure.getEntryIndex());
+            assertTrue(verifier.hasFailed());
+            assertEquals(1, verifier.finish().size());
+        } finally {
+            verifier.close();
+        }
+    }
+
+    @Test
+    public void testVerifiesEveryEntryThroughSmallQueue() throws Exception {
+        this.handler.logs = har(500, 100);
+        PingbackVerifier pingback = new PingbackVerifier();
+        pingback.setHost("pingback.example.com");
+        FifoGroup verifiers = new FifoGroup();
+        verifiers.addModifier(status(200));
+        verifiers.addModifier(pingback);
+
+        StreamingVerifier verifier =
+                new StreamingVerifier(this.client.tailLogs("har", null), verifiers, 1);
+        verifier.setFailFast(false);
+        verifier.setPollInterval(1, TimeUnit.MINUTES);
+        verifier.start();
+        try {
+            List<VerificationFailure> failures = verifier.finish();
+
+            assertEquals(2, failures.size());
+            assertEquals(100, failures.get(0).getEntryIndex());
+            assertEquals(-1, failures.get(1).getEntryIndex());
+        } finally {
+            verifier.close();
+        }
+    }
+
+    @Test
+    public void testFinishVerifiesEntriesQueuedBehindSlowVerifier() throws Exception {
+        this.handler.logs = har(0, -1);
+        // Thousands of filters that never match make each entry slow to verify,
+        // so the log is read well ahead of verification. Each filter is in a
+        // group of its own to keep them from being indexed.
+        FifoGroup verifiers = new FifoGroup();
+        for (int i = 0; i < 200000; i++) {
+            UrlFilter filter = new UrlFilter();
+            filter.setPath("/none");
+            filter.setModifier(status(200));
+            FifoGroup group = new FifoGroup();
+            group.addModifier(filter);
+            verifiers.addModifier(group);
+        }
+        verifiers.addModifier(status(200));
+
+        StreamingVerifier verifier =
+                new StreamingVerifier(this.client.tailLogs("har", null), verifiers, 1);
+        verifier.setFailFast(false);
+        verifier.setPollInterval(1, TimeUnit.MINUTES);
+        verifier.start();
+        try {
+            // The entries are only pulled by the last poll, which ends with a full queue.
+            Thread.sleep(200);
+            this.handler.logs = har(10, 9);
+            List<VerificationFailure> failures = verifier.finish();
+
+            assertEquals(1, failures.size());
+            assertEquals(9, failures.get(0).getEntryIndex());
+        } finally {
+            verifier.close();
+        }
+    }
+
+    @Test
+    public void testNumbersFailuresByLogPosition() throws Exception {
+        // Entries alternate between GET and POST; only the POSTs are pulled.
+        this.handler.logs = LoggerTest.har(6);
+        HarEntryFilter filter = new HarEntryFilter();
+        filter.setMethod("POST");
+
+        StreamingVerifier verifier =
+                new StreamingVerifier(this.client.tailLogs("har", filter), status(201), 16);
+        verifier.setFailFast(false);
+        verifier.setPollInterval(1, TimeUnit.MINUTES);
+        verifier.start();
+        try {
+            List<VerificationFailure> failures = verifier.finish();
+
+            assertEquals(3, failures.size());
+            assertEquals(1, failures.get(0).getEntryIndex());
+            assertEquals(3, failures.get(1).getEntryIndex());
+            assertEquals(5, failures.get(2).getEntryIndex());
+        } finally {
+            verifier.close();
+        }
+    }
+
+    @After
+    public void stopServer() {
+        this.httpServer.stop(0);
+    }
+
+    private static StatusVerifier status(int code) {
+        StatusVerifier verifier = new StatusVerifier();
+        verifier.setHttpStatusCode(code);
+        return verifier;
+    }
+
+    /**
+     * Returns a HAR log of successful entries, except for the entry at failing.
+     **/
+    private static String har(int entries, int failing) {
+        StringBuilder har = new StringBuilder("{\"log\":{\"entries\":[");
+        for (int i = 0; i < entries; i++) {
+            if (i > 0) {
+                har.append(',');
+            }
+            har.append(LoggerTest.entry(
+                    i, "GET", "http://example.com/" + i, i == failing ? 500 : 200));
+        }
+        return har.append("]}}").toString();
+    }
+}
@@ -0,0 +1,166 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.martian;
+
+import com.google.gson.stream.JsonWriter;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+@RunWith(JUnit4.class)
+public class Utf8JsonWriterTest {
+
+    @Test
+    public void testMatchesJsonWriter() throws Exception {
+        FifoGroup group = new FifoGroup();
+        group.setScope(Scope.REQUEST_AND_RESPONSE);
+
+        HeaderModifier header = new HeaderModifier();
+        header.setName("X-Escaped\"\\\t\u0001");
+        header.setValue("caf\u00e9 \u2603 \ud83d\ude00 \u2028 \ud800");
+        group.addModifier(header);
+
+        BodyModifier body = new BodyModifier();
+        body.setContentType("text/plain");
+        group.addModifier(body);
+
+        CookieModifier cookie = new CookieModifier();
+        cookie.setName("session");
+        cookie.setExpires(new DateTime(0, DateTimeZone.UTC));
+        cookie.setSecure(true);
+        cookie.setHttpOnly(false);
+        cookie.setMaxAge(-3600);
+        group.addModifier(cookie);
+
+        StatusModifier status = new StatusModifier();
+        status.setHttpStatusCode(Integer.MIN_VALUE);
+        group.addModifier(status);
+
+        StatusVerifier statusVerifier = new StatusVerifier();
+        statusVerifier.setHttpStatusCode(204);
+        group.addModifier(statusVerifier);
+
+        HeaderBlacklist blacklist = new HeaderBlacklist();
+        blacklist.addName("Cookie");
+        blacklist.addName("Authorization");
+        group.addModifier(blacklist);
+
+        UrlFilter filter = new UrlFilter();
+        filter.setHost("example.com");
+        filter.setModifier(new SkipRoundTripModifier());
+        group.addModifier(filter);
+
+        FifoGroup nested = new FifoGroup();
+        nested.addModifier(new FifoGroup());
+        group.addModifier(nested);
+
+        assertEquals(gson(group), utf8(group));
+    }
+
+    @Test
+    public void testLargeOutput() throws Exception {
+        FifoGroup group = new FifoGroup();
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            value.append((char) ('a' + i % 26));
+        }
+        for (int i = 0; i < 100; i++) {
+            HeaderModifier header = new HeaderModifier();
+            header.setName("X-Header-" + i);
+            header.setValue(value.toString());
+            group.addModifier(header);
+        }
+
+        assertEquals(gson(group), utf8(group));
+    }
+
+    @Test
+    public void testNumberLargerThanBuffer() throws Exception {
+        StringBuilder digits = new StringBuilder("1.");
+        for (int i = 0; i < 20000; i++) {
+            digits.append((char) ('0' + i % 10));
+        }
+        BigDecimal number = new BigDecimal(digits.toString());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonWriter writer = new Utf8JsonWriter(out);
+        writer.beginArray();
+        writer.value(number);
+        writer.endArray();
+        writer.close();
+
+        assertEquals("[" + number + "]", new String(out.toByteArray(), StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void testReleaseAfterError() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Utf8JsonWriter writer = new Utf8JsonWriter(out);
+        writer.beginObject();
+        writer.release();
+        try {
+            writer.name("scope");
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // Expected.
+        }
+        writer.close();
+        assertEquals(0, out.size());
+
+        // The next writer on this thread takes over the released buffer.
+        assertEquals("{\"fifo.Group\":{\"modifiers\":[]}}", utf8(new FifoGroup()));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testNestingProblem() throws Exception {
+        JsonWriter writer = new Utf8JsonWriter(new ByteArrayOutputStream());
+        writer.beginObject();
+        writer.endArray();
+    }
+
+    @Test(expected = IOException.class)
+    public void testIncompleteDocument() throws Exception {
+        JsonWriter writer = new Utf8JsonWriter(new ByteArrayOutputStream());
+        writer.beginArray();
+        writer.close();
+    }
+
+    private static String gson(Modifier modifier) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        modifier.writeJson(writer);
+        writer.close();
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static String utf8(Modifier modifier) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonWriter writer = new Utf8JsonWriter(out);
+        modifier.writeJson(writer);
+        writer.close();
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -13,6 +13,7 @@
 // limitations under the License.
 package com.google.martian;
 
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -47,4 +48,50 @@ public class VerificationFailureTest {
 
         assertEquals(parsedFailures, expectedFailures);
     }
+
+    @Test
+    public void testFromJsonReaderWithLimit() throws Exception {
+        VerificationParser parser = new VerificationParser();
+        List<String> parsedFailures = parser.fromJson(new StringReader(errors(1000)), 2);
+
+        List<String> expectedFailures = new ArrayList<String>();
+        expectedFailures.add("failure 0");
+        expectedFailures.add("failure 1");
+
+        assertEquals(expectedFailures, parsedFailures);
+    }
+
+    @Test
+    public void testParseWithListener() throws Exception {
+        final List<String> failures = new ArrayList<String>();
+        VerificationParser parser = new VerificationParser();
+        long count = parser.parse(new StringReader(errors(3)), new VerificationListener() {
+            @Override
+            public void onFailure(String message) {
+                failures.add(message);
+            }
+        });
+
+        assertEquals(3, count);
+        assertEquals("failure 2", failures.get(2));
+    }
+
+    @Test
+    public void testParseEmpty() throws Exception {
+        VerificationParser parser = new VerificationParser();
+
+        assertEquals(0, parser.fromJson(new StringReader(""), 10).size());
+        assertEquals(0, parser.fromJson("").size());
+    }
+
+    private static String errors(int count) {
+        StringBuilder json = new StringBuilder("{\"errors\":[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"message\":\"failure ").append(i).append("\"}");
+        }
+        return json.append("]}").toString();
+    }
 }